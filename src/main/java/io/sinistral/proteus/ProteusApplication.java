@@ -13,12 +13,16 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.security.KeyStore;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
@@ -27,6 +31,7 @@ import javax.ws.rs.core.MediaType;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xnio.Option;
 
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.util.concurrent.MoreExecutors;
@@ -39,12 +44,26 @@ import com.google.inject.Inject;
 import com.google.inject.Injector;
 import com.google.inject.Module;
 import com.google.inject.name.Named;
+import com.jsoniter.output.JsonStream;
 import com.typesafe.config.Config;
 
 import io.sinistral.proteus.modules.ConfigModule;
+import io.sinistral.proteus.server.cache.ResponseCache;
+import io.sinistral.proteus.server.encoding.ContentEncodings;
+import io.sinistral.proteus.server.diagnostics.BlockingCallDetector;
+import io.sinistral.proteus.server.diagnostics.StartupProfile;
+import io.sinistral.proteus.server.executors.BlockingExecutors;
+import io.sinistral.proteus.server.executors.BulkheadExecutor;
+import io.sinistral.proteus.server.encoding.PrecompressedResource;
 import io.sinistral.proteus.server.endpoints.EndpointInfo;
+import io.sinistral.proteus.server.handlers.ConcurrencyLimitHandler;
 import io.sinistral.proteus.server.handlers.HandlerGenerator;
+import io.sinistral.proteus.server.handlers.MethodHandleRouteSupplier;
+import io.sinistral.proteus.server.handlers.RouteSupplierCompiler;
+import io.sinistral.proteus.server.handlers.RouteSupplierGenerator;
 import io.sinistral.proteus.server.handlers.ServerDefaultHttpHandler;
+import io.sinistral.proteus.server.tuning.SaturationMonitor;
+import io.sinistral.proteus.server.tuning.ServerSizing;
 import io.sinistral.proteus.utilities.SecurityOps;
 import io.undertow.Undertow;
 import io.undertow.Undertow.ListenerInfo;
@@ -52,6 +71,7 @@ import io.undertow.UndertowOptions;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.RoutingHandler;
+import io.undertow.server.handlers.encoding.EncodingHandler;
 import io.undertow.util.Headers;
 import io.undertow.util.Methods;
 
@@ -86,6 +106,10 @@ public class ProteusApplication
 	protected Injector injector = null;
 	protected ServiceManager serviceManager = null;
 	protected Undertow undertow = null;
+	protected ServerSizing sizing = null;
+	protected SaturationMonitor saturationMonitor = null;
+	protected RouteSupplierCompiler routeSupplierCompiler = null;
+	protected StartupProfile startupProfile = new StartupProfile();
 	protected Class<? extends HttpHandler> rootHandlerClass;
 	protected HttpHandler rootHandler;
 	protected AtomicBoolean running = new AtomicBoolean(false);
@@ -95,7 +119,7 @@ public class ProteusApplication
 	public ProteusApplication()
 	{
 
-		injector = Guice.createInjector(new ConfigModule());
+		injector = startupProfile.time("create injector", () -> Guice.createInjector(new ConfigModule()));
 		injector.injectMembers(this);
 
 	}
@@ -103,7 +127,7 @@ public class ProteusApplication
 	public ProteusApplication(String configFile)
 	{
 
-		injector = Guice.createInjector(new ConfigModule(configFile));
+		injector = startupProfile.time("create injector", () -> Guice.createInjector(new ConfigModule(configFile)));
 		injector.injectMembers(this);
 
 	}
@@ -111,7 +135,7 @@ public class ProteusApplication
 	public ProteusApplication(URL configURL)
 	{
 
-		injector = Guice.createInjector(new ConfigModule(configURL));
+		injector = startupProfile.time("create injector", () -> Guice.createInjector(new ConfigModule(configURL)));
 		injector.injectMembers(this);
 
 	}
@@ -126,9 +150,11 @@ public class ProteusApplication
 
 		log.info("Configuring modules...");
 
-		Set<Module> modules = registeredModules.stream().map(mc -> injector.getInstance(mc)).collect(Collectors.toSet());
+		Set<Module> modules = registeredModules.stream().map(mc -> injector.getInstance(mc)).collect(Collectors.toCollection(HashSet::new));
 
-		injector = injector.createChildInjector(modules);
+		modules.add(binder -> binder.bind(StartupProfile.class).toInstance(startupProfile));
+
+		injector = startupProfile.time("create module injector", () -> injector.createChildInjector(modules));
 
 		if (rootHandlerClass == null && rootHandler == null)
 		{
@@ -142,10 +168,17 @@ public class ProteusApplication
 
 		serviceManager = new ServiceManager(services);
 
+		final long servicesStart = System.nanoTime();
+
 		serviceManager.addListener(new Listener()
 		{
 			public void stopped()
 			{
+				if (saturationMonitor != null)
+				{
+					saturationMonitor.stop();
+				}
+
 				undertow.stop();
 				running.set(false);
 			}
@@ -154,9 +187,13 @@ public class ProteusApplication
 			{
 				log.info("Services are healthy...");
 
+				startupProfile.record("start services", servicesStart, System.nanoTime());
+
+				startupProfile.setServiceMillis(serviceManager.startupTimes().entrySet().stream().collect(Collectors.toMap(e -> e.getKey().getClass().getSimpleName(), Map.Entry::getValue, Long::sum)));
+
 				buildServer();
 
-				undertow.start();
+				startupProfile.time("start undertow", undertow::start);
 				
 				for(ListenerInfo info : undertow.getListenerInfo())
 				{
@@ -168,6 +205,14 @@ public class ProteusApplication
 					}
 				}
 
+				if (config.getBoolean("undertow.saturation.enabled"))
+				{
+					saturationMonitor = new SaturationMonitor(undertow.getWorker(), sizing, config.getDuration("undertow.saturation.interval", TimeUnit.MILLISECONDS), config.getDuration("undertow.saturation.warnDelay", TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+					saturationMonitor.start();
+				}
+
+				startupProfile.ready();
+
 				printStatus();
 
 				running.set(true);
@@ -211,6 +256,12 @@ public class ProteusApplication
 
 		serviceManager.stopAsync().awaitStopped(8, TimeUnit.SECONDS);
 
+		BlockingExecutors.shutdown();
+
+		BulkheadExecutor.shutdownAll();
+
+		BlockingCallDetector.shutdown();
+
 		log.info("Shutdown complete.");
 	}
 
@@ -222,28 +273,98 @@ public class ProteusApplication
 	public void buildServer()
 	{
 
-		for (Class<?> controllerClass : registeredControllers)
+		BlockingExecutors.configure(config.getString("undertow.blockingExecutor"));
+
+		BlockingCallDetector.configure(config.getConfig("application.blockingDetector"));
+
+		String handlerBackend = config.getString("application.handlerBackend");
+
+		List<HandlerGenerator> generators = new ArrayList<>();
+
+		if (!handlerBackend.equals("methodHandle"))
 		{
-			HandlerGenerator generator = new HandlerGenerator("io.sinistral.proteus.controllers.handlers", controllerClass);
+			for (Class<?> controllerClass : registeredControllers)
+			{
+				HandlerGenerator generator = new HandlerGenerator(RouteSupplierGenerator.HANDLER_PACKAGE, controllerClass);
 
-			injector.injectMembers(generator);
+				injector.injectMembers(generator);
 
+				generators.add(generator);
+			}
+		}
+
+		this.routeSupplierCompiler = RouteSupplierCompiler.create(config);
+
+		this.startupProfile.setRouteSupplierCompiler(this.routeSupplierCompiler);
+
+		Map<HandlerGenerator, Class<? extends Supplier<RoutingHandler>>> supplierClasses = this.startupProfile.time("generate and compile route suppliers", () -> this.routeSupplierCompiler.compile(generators));
+
+		long injectionStart = System.nanoTime();
+
+		Set<Class<?>> routedControllers = new HashSet<>();
+
+		Map<Class<?>, String> injectionFailures = new HashMap<>();
+
+		for (Map.Entry<HandlerGenerator, Class<? extends Supplier<RoutingHandler>>> entry : supplierClasses.entrySet())
+		{
 			try
 			{
-				Supplier<RoutingHandler> generatedRouteSupplier = injector.getInstance(generator.compileClass());
+				Supplier<RoutingHandler> generatedRouteSupplier = injector.getInstance(entry.getValue());
 
 				router.addAll(generatedRouteSupplier.get());
 
+				routedControllers.add(entry.getKey().getControllerClass());
+
 			} catch (Exception e)
 			{
-				log.error("Exception creating handlers for " + controllerClass.getName() + "!!!\n" + e.getMessage(), e);
+				log.error("Exception creating handlers for " + entry.getKey().getControllerClass().getName() + "!!!\n" + e.getMessage(), e);
+
+				injectionFailures.put(entry.getKey().getControllerClass(), e.toString());
 			}
+		}
+
+		long methodHandleStart = System.nanoTime();
+
+		this.startupProfile.record("inject route suppliers", injectionStart, methodHandleStart);
+
+		this.routeSupplierCompiler.recordInjection(methodHandleStart - injectionStart);
+
+		if (!handlerBackend.equals("source"))
+		{
+			for (Class<?> controllerClass : registeredControllers)
+			{
+				if (routedControllers.contains(controllerClass))
+				{
+					continue;
+				}
+
+				if (handlerBackend.equals("auto"))
+				{
+					String cause = injectionFailures.containsKey(controllerClass) ? injectionFailures.get(controllerClass) : this.routeSupplierCompiler.getFailure(controllerClass);
+
+					log.warn("Falling back to method handle routes for " + controllerClass.getName() + ", its route supplier could not be built: " + (cause != null ? cause : "no route supplier was compiled"));
+				}
+
+				try
+				{
+					MethodHandleRouteSupplier methodHandleRouteSupplier = new MethodHandleRouteSupplier(injector.getInstance(controllerClass));
+
+					injector.injectMembers(methodHandleRouteSupplier);
 
+					router.addAll(methodHandleRouteSupplier.get());
+
+				} catch (Exception e)
+				{
+					log.error("Exception creating method handle handlers for " + controllerClass.getName() + "!!!\n" + e.getMessage(), e);
+				}
+			}
 		}
 
+		this.startupProfile.record("build method handle routes", methodHandleStart, System.nanoTime());
+
 		this.addDefaultRoutes(router);
 
-		final HttpHandler handler;
+		HttpHandler handler;
 
 		if (rootHandlerClass != null)
 		{
@@ -253,6 +374,16 @@ public class ProteusApplication
 		{
 			handler = rootHandler;
 		}
+
+		if (config.getBoolean("undertow.compression.enabled"))
+		{
+			handler = new EncodingHandler(handler, ContentEncodings.repository(config.getConfig("undertow.compression")));
+		}
+
+		if (config.getBoolean("undertow.concurrencyLimit.enabled"))
+		{
+			handler = new ConcurrencyLimitHandler(handler, config.getConfig("undertow.concurrencyLimit"));
+		}
 		
 		int httpPort = config.getInt("application.ports.http");
 		
@@ -261,18 +392,25 @@ public class ProteusApplication
 			httpPort = Integer.parseInt(System.getProperty("http.port"));
 		}
 		
-		Undertow.Builder undertowBuilder = Undertow.builder().addHttpListener(httpPort, config.getString("application.host"))
-				.setBufferSize(16 * 1024)
-				.setIoThreads(Runtime.getRuntime().availableProcessors() * 2)
-				.setServerOption(UndertowOptions.ENABLE_HTTP2, config.getBoolean("undertow.enableHttp2"))
-				.setServerOption(UndertowOptions.ALWAYS_SET_DATE, true)
-				.setSocketOption(org.xnio.Options.BACKLOG, config.getInt("undertow.socket.backlog"))
-				.setServerOption(UndertowOptions.ALWAYS_SET_KEEP_ALIVE, false)
-				.setServerOption(UndertowOptions.RECORD_REQUEST_START_TIME, false)
-				.setServerOption(UndertowOptions.MAX_ENTITY_SIZE, config.getBytes("undertow.server.maxEntitySize"))
-				.setWorkerThreads(config.getInt("undertow.workerThreads"))
+		this.sizing = ServerSizing.resolve(config.getConfig("undertow"));
+
+		final Undertow.Builder configuredBuilder = Undertow.builder().addHttpListener(httpPort, config.getString("application.host"))
+				.setBufferSize(this.sizing.getBufferSize())
+				.setDirectBuffers(this.sizing.isDirectBuffers())
+				.setIoThreads(this.sizing.getIoThreads())
+				.setWorkerThreads(this.sizing.getWorkerThreads())
 				.setHandler(handler);
 
+		applyOptions(config.getConfig("undertow.server"), UndertowOptions.class, configuredBuilder::setServerOption);
+		applyOptions(config.getConfig("undertow.socket"), org.xnio.Options.class, configuredBuilder::setSocketOption);
+
+		if (config.getBoolean("undertow.enableHttp2"))
+		{
+			configuredBuilder.setServerOption(UndertowOptions.ENABLE_HTTP2, true);
+		}
+
+		Undertow.Builder undertowBuilder = configuredBuilder;
+
  
 		if (config.getBoolean("undertow.ssl.enabled"))
 		{
@@ -306,6 +444,51 @@ public class ProteusApplication
 
 	}
 
+	/**
+	 * Sets each entry of the config as the option of the same name in upper snake case, e.g. <code>maxEntitySize</code> as <code>MAX_ENTITY_SIZE</code>
+	 *
+	 * @param options
+	 * @param optionsClass
+	 *            the class declaring the options
+	 * @param setter
+	 */
+	protected static void applyOptions(Config options, Class<?> optionsClass, BiConsumer<Option<Object>, Object> setter)
+	{
+		for (String key : options.root().keySet())
+		{
+			String optionName = optionsClass.getName() + "." + key.replaceAll("([a-z0-9])([A-Z])", "$1_$2").toUpperCase();
+
+			try
+			{
+				@SuppressWarnings("unchecked")
+				Option<Object> option = (Option<Object>) Option.fromString(optionName, optionsClass.getClassLoader());
+
+				String value = String.valueOf(options.getValue(key).unwrapped());
+
+				Object parsed;
+
+				try
+				{
+					parsed = option.parseValue(value, optionsClass.getClassLoader());
+
+				} catch (IllegalArgumentException e)
+				{
+					/*
+					 * Sizes such as 100M
+					 */
+
+					parsed = option.parseValue(String.valueOf(options.getBytes(key)), optionsClass.getClassLoader());
+				}
+
+				setter.accept(option, parsed);
+
+			} catch (Exception e)
+			{
+				log.warn("Ignoring unknown or invalid option " + key + " (" + optionName + "): " + e.getMessage());
+			}
+		}
+	}
+
 	public ProteusApplication addService(Class<? extends Service> serviceClass)
 	{
 		registeredServices.add(serviceClass);
@@ -318,6 +501,23 @@ public class ProteusApplication
 		return this;
 	}
 
+	/**
+	 * Adds the <code>@Api</code> controllers in a package, as listed in the build-time endpoint index or, failing that, found by scanning the class path
+	 */
+	public ProteusApplication addControllers(String packageName)
+	{
+		try
+		{
+			registeredControllers.addAll(HandlerGenerator.getApiClasses(packageName, null));
+
+		} catch (Exception e)
+		{
+			log.error(e.getMessage(), e);
+		}
+
+		return this;
+	}
+
 	public ProteusApplication addModule(Class<? extends Module> module)
 	{
 		registeredModules.add(module);
@@ -398,6 +598,18 @@ public class ProteusApplication
 
 		sb.append("\n");
 
+		sb.append("\nServer sizing: " + this.sizing);
+
+		sb.append("\n");
+
+		sb.append("\nRoute suppliers: " + this.routeSupplierCompiler);
+
+		sb.append("\n");
+
+		sb.append("\nStartup: " + this.startupProfile);
+
+		sb.append("\n");
+
 		log.info(sb.toString());
 	}
 
@@ -430,6 +642,46 @@ public class ProteusApplication
 			}
 		}
 
+		this.addJsonRoute(router, "health.cachesPath", () -> {
+
+			final Map<String, Map<String, Object>> stats = new LinkedHashMap<>();
+
+			ResponseCache.caches().forEach((name, cache) -> stats.put(name, cache.getStats()));
+
+			return stats;
+		});
+
+		this.addJsonRoute(router, "health.bulkheadsPath", () -> {
+
+			final Map<String, Map<String, Object>> stats = new LinkedHashMap<>();
+
+			BulkheadExecutor.bulkheads().forEach((name, bulkhead) -> stats.put(name, bulkhead.getStats()));
+
+			return stats;
+		});
+
+		this.addJsonRoute(router, "health.limitsPath", () -> {
+
+			final Map<String, Map<String, Object>> stats = new LinkedHashMap<>();
+
+			ConcurrencyLimitHandler.limits().forEach((name, limit) -> stats.put(name, limit.getStats()));
+
+			return stats;
+		});
+
+		this.addJsonRoute(router, "health.blockingPath", () -> {
+
+			final Map<String, Map<String, Object>> stats = new LinkedHashMap<>();
+
+			BlockingCallDetector.routes().forEach((name, route) -> stats.put(name, route.getStats()));
+
+			return stats;
+		});
+
+		this.addJsonRoute(router, "health.saturationPath", () -> saturationMonitor != null ? saturationMonitor.getStats() : new LinkedHashMap<>());
+
+		this.addJsonRoute(router, "health.startupPath", startupProfile::getTimings);
+
 		if (config.hasPath("application.favicon"))
 		{
 			try
@@ -484,16 +736,7 @@ public class ProteusApplication
 				if (faviconImageBuffer != null)
 				{
 
-					router.add(Methods.GET, "favicon.ico", new HttpHandler()
-					{
-						@Override
-						public void handleRequest(HttpServerExchange exchange) throws Exception
-						{
-							exchange.getResponseHeaders().add(Headers.CONTENT_TYPE, io.sinistral.proteus.server.MediaType.IMAGE_X_ICON.toString());
-							exchange.getResponseSender().send(faviconImageBuffer);
-						}
-
-					});
+					router.add(Methods.GET, "favicon.ico", PrecompressedResource.of(faviconImageBuffer.array(), io.sinistral.proteus.server.MediaType.IMAGE_X_ICON.toString()));
 
 				}
 
@@ -504,6 +747,40 @@ public class ProteusApplication
 		}
 	}
 
+	/**
+	 * Adds a GET route that serves statistics as JSON, if its path is configured
+	 *
+	 * @param router
+	 * @param pathKey
+	 *            the configuration key of the route's path
+	 * @param stats
+	 *            supplies the statistics on each request
+	 */
+	protected void addJsonRoute(final RoutingHandler router, final String pathKey, final Supplier<?> stats)
+	{
+		if (!config.hasPath(pathKey))
+		{
+			return;
+		}
+
+		try
+		{
+			final String path = config.getString(pathKey);
+
+			router.add(Methods.GET, path, exchange -> {
+
+				exchange.getResponseHeaders().add(Headers.CONTENT_TYPE, MediaType.APPLICATION_JSON);
+				exchange.getResponseSender().send(JsonStream.serialize(stats.get()));
+			});
+
+			this.registeredEndpoints.add(EndpointInfo.builder().withConsumes("*/*").withProduces("application/json").withPathTemplate(path).withControllerName("Internal").withMethod(Methods.GET).build());
+
+		} catch (Exception e)
+		{
+			log.error("Error adding " + pathKey + " route: " + e.getMessage(), e);
+		}
+	}
+
 	/**
 	 * @return the router
 	 */
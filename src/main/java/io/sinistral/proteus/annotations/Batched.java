@@ -0,0 +1,24 @@
+/**
+ *
+ */
+package io.sinistral.proteus.annotations;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+/**
+ * Aggregates concurrent requests to this route into a single controller invocation.
+ * <p>
+ * The method must take a single <code>List</code> parameter and return a <code>List</code> with one result per element, in order. The lists extracted from concurrent requests are concatenated and the method is invoked once the batch holds <code>maxSize</code> elements or <code>maxDelayMicros</code> have passed since its first request. Each request then receives the results for its own elements as a JSON array, so the route must produce <code>application/json</code> or declare no <code>@Produces</code>; on other routes the annotation is ignored.
+ */
+@Retention(RUNTIME)
+@Target({ METHOD })
+public @interface Batched
+{
+	int maxSize() default 64;
+
+	long maxDelayMicros() default 1000;
+}
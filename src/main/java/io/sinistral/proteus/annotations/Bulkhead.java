@@ -0,0 +1,35 @@
+/**
+ *
+ */
+package io.sinistral.proteus.annotations;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+/**
+ * Runs this route on a dedicated bounded executor instead of the shared worker pool. Routes naming the same bulkhead share its executor. Requests arriving while all threads are busy and the queue is full are rejected immediately with a 503 and a <code>Retry-After</code> header.
+ * <p>
+ * The sizes may be overridden in config under <code>bulkheads.&lt;name&gt;</code>. Method level annotations take precedence over type level annotations.
+ */
+@Retention(RUNTIME)
+@Target({ TYPE, METHOD })
+public @interface Bulkhead
+{
+	/**
+	 * @return the bulkhead's name
+	 */
+	String value();
+
+	int maxConcurrent() default 10;
+
+	int maxQueue() default 20;
+
+	/**
+	 * @return seconds sent in <code>Retry-After</code> when rejecting
+	 */
+	long retryAfter() default 1;
+}
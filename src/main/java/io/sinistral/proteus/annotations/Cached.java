@@ -0,0 +1,35 @@
+/**
+ *
+ */
+package io.sinistral.proteus.annotations;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the serialized responses of this route, keyed by the selected parameters and the request's <code>Accept</code> header.
+ * <p>
+ * Only successful responses without cookies are stored. Streamed responses are never stored.
+ */
+@Retention(RUNTIME)
+@Target({ METHOD })
+public @interface Cached
+{
+	/**
+	 * @return time to live of an entry, 0 to only evict by size
+	 */
+	long ttl() default 60;
+
+	TimeUnit unit() default TimeUnit.SECONDS;
+
+	int maxEntries() default 1000;
+
+	/**
+	 * @return names of the parameters the cache key is built from, all parameters if empty
+	 */
+	String[] key() default {};
+}
@@ -14,6 +14,7 @@ import io.undertow.server.HandlerWrapper;
 
 /**
  * Decorates all methods of a controller or a single controller method with one or more <code>HandlerWrapper</code> classes.
+ * The controller's entries run first, then the method's, each in declaration order. Classes that implement <code>HandlerInterceptor</code> are called inline by generated routes rather than nested around them.
  */
 @Retention(RUNTIME)
 @Target({ TYPE, METHOD })
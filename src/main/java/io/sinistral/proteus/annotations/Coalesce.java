@@ -0,0 +1,27 @@
+/**
+ *
+ */
+package io.sinistral.proteus.annotations;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+/**
+ * Coalesces identical concurrent GET requests to this route so that only one invokes the controller and the others receive the same serialized response.
+ * <p>
+ * Requests are identical if their path, query string, <code>Accept</code> header and the listed headers match. Only use this for responses that do not depend on anything else about the request, such as the caller's identity.
+ * <p>
+ * A waiting request fails with a 504 once the route's {@link Timeout}, <code>application.asyncTimeout</code> by default, or its own deadline passes, whichever comes first.
+ */
+@Retention(RUNTIME)
+@Target({ METHOD })
+public @interface Coalesce
+{
+	/**
+	 * @return names of additional request headers that distinguish responses
+	 */
+	String[] headers() default {};
+}
@@ -0,0 +1,21 @@
+/**
+ *
+ */
+package io.sinistral.proteus.annotations;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+/**
+ * Overrides the default response compression policy for this route. Method level annotations take precedence over type level annotations.
+ */
+@Retention(RUNTIME)
+@Target({ TYPE, METHOD })
+public @interface Compress
+{
+	boolean value() default true;
+}
@@ -0,0 +1,27 @@
+/**
+ *
+ */
+package io.sinistral.proteus.annotations;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overrides <code>application.asyncTimeout</code> for routes returning a <code>CompletionStage</code>. A route whose result has not completed within the timeout fails with a 504 and the stage is cancelled. On <code>@Coalesce</code> routes it also bounds how long a request waits for the response of an identical one already in flight. Method level annotations take precedence over type level annotations.
+ */
+@Retention(RUNTIME)
+@Target({ TYPE, METHOD })
+public @interface Timeout
+{
+	/**
+	 * @return the timeout, 0 to wait indefinitely
+	 */
+	long value();
+
+	TimeUnit unit() default TimeUnit.MILLISECONDS;
+}
@@ -0,0 +1,236 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server;
+
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.AttachmentKey;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.HttpString;
+
+/**
+ * The point in time after which the client no longer wants a response.
+ * <p>
+ * A deadline is read once per request from either an <code>X-Request-Timeout</code> header or a gRPC style <code>grpc-timeout</code> header. The first holds milliseconds, optionally suffixed with <code>ms</code>, <code>s</code> or <code>m</code>. The second holds up to eight digits followed by one of <code>H M S m u n</code>. Controllers can take a <code>Deadline</code> parameter or call {@link ServerRequest#getDeadline()}. A request without a deadline header gets {@link #NONE}, which never expires.
+ *
+ * @author jbauer
+ */
+public class Deadline
+{
+	public static final AttachmentKey<Deadline> DEADLINE_KEY = AttachmentKey.create(Deadline.class);
+
+	public static final HttpString REQUEST_TIMEOUT = HttpString.tryFromString("X-Request-Timeout");
+	public static final HttpString GRPC_TIMEOUT = HttpString.tryFromString("grpc-timeout");
+
+	public static final Deadline NONE = new Deadline(Long.MAX_VALUE);
+
+	protected final long expiresAtNanos;
+
+	protected Deadline(final long expiresAtNanos)
+	{
+		this.expiresAtNanos = expiresAtNanos;
+	}
+
+	/**
+	 * @param timeout
+	 * @param unit
+	 * @return a deadline the given time from now
+	 */
+	public static Deadline after(final long timeout, final TimeUnit unit)
+	{
+		return fromNow(unit.toNanos(Math.max(0, timeout)));
+	}
+
+	/**
+	 * @param exchange
+	 * @return the deadline attached to the exchange, or {@link #NONE}
+	 */
+	public static Deadline of(final HttpServerExchange exchange)
+	{
+		final Deadline deadline = exchange.getAttachment(DEADLINE_KEY);
+
+		return deadline != null ? deadline : NONE;
+	}
+
+	/**
+	 * Parses the deadline headers of the exchange and attaches the result
+	 *
+	 * @param exchange
+	 * @return the deadline, or {@link #NONE} if there is no valid deadline header
+	 */
+	public static Deadline attach(final HttpServerExchange exchange)
+	{
+		final Deadline deadline = parse(exchange.getRequestHeaders());
+
+		if (deadline != NONE)
+		{
+			exchange.putAttachment(DEADLINE_KEY, deadline);
+		}
+
+		return deadline;
+	}
+
+	/**
+	 * @param headers
+	 * @return the deadline, or {@link #NONE} if there is no valid deadline header
+	 */
+	public static Deadline parse(final HeaderMap headers)
+	{
+		final String requestTimeout = headers.getFirst(REQUEST_TIMEOUT);
+
+		if (requestTimeout != null)
+		{
+			final long nanos = parseRequestTimeout(requestTimeout.trim());
+
+			if (nanos >= 0)
+			{
+				return fromNow(nanos);
+			}
+		}
+
+		final String grpcTimeout = headers.getFirst(GRPC_TIMEOUT);
+
+		if (grpcTimeout != null)
+		{
+			final long nanos = parseGrpcTimeout(grpcTimeout.trim());
+
+			if (nanos >= 0)
+			{
+				return fromNow(nanos);
+			}
+		}
+
+		return NONE;
+	}
+
+	/**
+	 * Timeouts too long to add to the current time without overflowing are treated as no deadline
+	 */
+	protected static Deadline fromNow(final long nanos)
+	{
+		return nanos > Long.MAX_VALUE / 4 ? NONE : new Deadline(System.nanoTime() + nanos);
+	}
+
+	/**
+	 * @return the timeout in nanoseconds, or -1 if the value is malformed
+	 */
+	protected static long parseRequestTimeout(final String value)
+	{
+		TimeUnit unit = TimeUnit.MILLISECONDS;
+		String digits = value;
+
+		if (value.endsWith("ms"))
+		{
+			digits = value.substring(0, value.length() - 2);
+		}
+		else if (value.endsWith("s"))
+		{
+			unit = TimeUnit.SECONDS;
+			digits = value.substring(0, value.length() - 1);
+		}
+		else if (value.endsWith("m"))
+		{
+			unit = TimeUnit.MINUTES;
+			digits = value.substring(0, value.length() - 1);
+		}
+
+		final long amount = parseDigits(digits.trim(), 18);
+
+		return amount < 0 ? -1 : unit.toNanos(amount);
+	}
+
+	/**
+	 * @return the timeout in nanoseconds, or -1 if the value is malformed
+	 */
+	protected static long parseGrpcTimeout(final String value)
+	{
+		if (value.length() < 2)
+		{
+			return -1;
+		}
+
+		final long amount = parseDigits(value.substring(0, value.length() - 1), 8);
+
+		if (amount < 0)
+		{
+			return -1;
+		}
+
+		switch (value.charAt(value.length() - 1))
+		{
+			case 'H':
+				return TimeUnit.HOURS.toNanos(amount);
+			case 'M':
+				return TimeUnit.MINUTES.toNanos(amount);
+			case 'S':
+				return TimeUnit.SECONDS.toNanos(amount);
+			case 'm':
+				return TimeUnit.MILLISECONDS.toNanos(amount);
+			case 'u':
+				return TimeUnit.MICROSECONDS.toNanos(amount);
+			case 'n':
+				return amount;
+			default:
+				return -1;
+		}
+	}
+
+	protected static long parseDigits(final String digits, final int maxLength)
+	{
+		if (digits.isEmpty() || digits.length() > maxLength)
+		{
+			return -1;
+		}
+
+		long amount = 0;
+
+		for (int i = 0; i < digits.length(); i++)
+		{
+			final char c = digits.charAt(i);
+
+			if (c < '0' || c > '9')
+			{
+				return -1;
+			}
+
+			amount = amount * 10 + (c - '0');
+		}
+
+		return amount;
+	}
+
+	/**
+	 * @return true if this deadline was set by the client
+	 */
+	public boolean isSet()
+	{
+		return this != NONE;
+	}
+
+	public boolean isExpired()
+	{
+		return this != NONE && System.nanoTime() - this.expiresAtNanos >= 0;
+	}
+
+	/**
+	 * @param unit
+	 * @return the time left, 0 once expired, or <code>Long.MAX_VALUE</code> if no deadline is set
+	 */
+	public long remaining(final TimeUnit unit)
+	{
+		if (this == NONE)
+		{
+			return Long.MAX_VALUE;
+		}
+
+		return unit.convert(Math.max(0, this.expiresAtNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public String toString()
+	{
+		return this == NONE ? "Deadline[none]" : "Deadline[" + this.remaining(TimeUnit.MILLISECONDS) + "ms]";
+	}
+}
@@ -4,6 +4,7 @@
 package io.sinistral.proteus.server;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
@@ -14,8 +15,12 @@ import java.time.ZonedDateTime;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.Deque;
+import java.util.Iterator;
 import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.function.Function;
+import java.util.stream.StreamSupport;
 
 import com.fasterxml.jackson.dataformat.xml.XmlMapper;
 import com.jsoniter.JsonIterator;
@@ -23,6 +28,7 @@ import com.jsoniter.any.Any;
 import com.jsoniter.spi.TypeLiteral;
 
 import io.sinistral.proteus.server.predicates.ServerPredicates;
+import io.sinistral.proteus.server.streaming.NdjsonIterator;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.handlers.form.FormData.FormValue;
 import io.undertow.server.handlers.form.FormDataParser;
@@ -242,6 +248,18 @@ public class Extractors
 			}
 		}
 		
+		public static  String string(final HttpServerExchange exchange, final HttpString name) throws java.lang.IllegalArgumentException
+		{
+			final String value = exchange.getRequestHeaders().getFirst(name);
+
+			if (value == null)
+			{
+				throw new IllegalArgumentException("Missing parameter " + name);
+			}
+
+			return value;
+		}
+
 		public static class Optional
 		{
 			
@@ -249,6 +267,11 @@ public class Extractors
 			{
 				return java.util.Optional.ofNullable(exchange.getRequestHeaders().get(name)).map(Deque::getFirst);
 			}
+
+			public static  java.util.Optional<String> string(final HttpServerExchange exchange, final HttpString name)
+			{
+				return java.util.Optional.ofNullable(exchange.getRequestHeaders().getFirst(name));
+			}
 		}
 		
 		
@@ -340,6 +363,39 @@ public class Extractors
 		return JsonIterator.parse(exchange.getAttachment(ServerRequest.BYTE_BUFFER_KEY).array());
 	}
 
+	/**
+	 * @param maxLineLength
+	 *            the longest record, in bytes, accepted, <code>application.ndjson.maxLineLength</code>
+	 */
+	public static <T> Iterator<T> ndjsonIterator(final HttpServerExchange exchange, final Class<T> type, final int maxLineLength)
+	{
+		if (!exchange.isBlocking())
+		{
+			exchange.startBlocking();
+		}
+
+		return new NdjsonIterator<>(exchange.getInputStream(), type, exchange.getConnection().getBufferSize(), maxLineLength);
+	}
+
+	/**
+	 * @param maxLineLength
+	 *            the longest record, in bytes, accepted, <code>application.ndjson.maxLineLength</code>
+	 */
+	public static <T> java.util.stream.Stream<T> ndjsonStream(final HttpServerExchange exchange, final Class<T> type, final int maxLineLength)
+	{
+		final NdjsonIterator<T> iterator = (NdjsonIterator<T>) ndjsonIterator(exchange, type, maxLineLength);
+
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(() -> {
+			try
+			{
+				iterator.close();
+			} catch (IOException e)
+			{
+				throw new UncheckedIOException(e);
+			}
+		});
+	}
+
 	public static  Path filePath(final HttpServerExchange exchange, final String name) throws java.lang.IllegalArgumentException 
 	{
 		try
@@ -247,6 +247,14 @@ public class ServerRequest
 		return exchange;
 	}
 
+	/**
+	 * @return the deadline set by the client, or {@link Deadline#NONE}
+	 */
+	public Deadline getDeadline()
+	{
+		return Deadline.of(exchange);
+	}
+
 	public void startAsync(final Executor executor, final Runnable runnable)
 	{
 		exchange.dispatch(executor, runnable);
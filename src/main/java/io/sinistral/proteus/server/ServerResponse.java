@@ -6,25 +6,33 @@ package io.sinistral.proteus.server;
 import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.stream.BaseStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
 import com.jsoniter.output.JsonContext;
 import com.jsoniter.output.JsonStream;
 
+import io.sinistral.proteus.server.cache.CapturedResponse;
 import io.sinistral.proteus.server.predicates.ServerPredicates;
+import io.sinistral.proteus.server.streaming.JsonArrayStreamSender;
 import io.undertow.io.IoCallback;
 import io.undertow.server.DefaultResponseListener;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.handlers.Cookie;
+import io.undertow.util.ETagUtils;
 import io.undertow.util.HeaderMap;
 import io.undertow.util.HeaderValues;
 import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
+import io.undertow.util.Methods;
 import io.undertow.util.StatusCodes;
 
 /**
@@ -36,6 +44,8 @@ public class ServerResponse<T>
 
 	protected static final XmlMapper XML_MAPPER = new XmlMapper();
 
+	protected static final HashFunction ETAG_HASH = Hashing.murmur3_128();
+
 	protected ByteBuffer body;
 
 	protected int status = StatusCodes.OK;
@@ -52,6 +62,8 @@ public class ServerResponse<T>
 	protected boolean processXml = false;
 	protected boolean processJson = false;
 	protected boolean preprocessed = false;
+	protected boolean computeETag = false;
+	protected String etag = null;
 
 	public ServerResponse()
 	{
@@ -245,6 +257,29 @@ public class ServerResponse<T>
 		return this;
 	}
 
+	/**
+	 * Sets a weak <code>ETag</code> computed from a hash of the serialized body, and answers a matching <code>If-None-Match</code> with a 304 instead of sending it. Streamed entities are not hashed.
+	 * 
+	 * @return this
+	 */
+	public ServerResponse<T> etag()
+	{
+		this.computeETag = true;
+		return this;
+	}
+
+	/**
+	 * Sets a weak <code>ETag</code> from a version token supplied by the controller, such as a revision number or last modified timestamp. A matching <code>If-None-Match</code> is answered with a 304 before the entity is serialized.
+	 * 
+	 * @param versionToken
+	 * @return this
+	 */
+	public ServerResponse<T> etag(String versionToken)
+	{
+		this.etag = "W/\"" + versionToken + "\"";
+		return this;
+	}
+
 	public ServerResponse<T> ok()
 	{
 		this.status = StatusCodes.OK;
@@ -363,11 +398,21 @@ public class ServerResponse<T>
 			return;
 		}
 
+		if (this.etag != null && this.notModified(exchange, this.etag))
+		{
+			return;
+		}
+
 		if (hasBody)
 		{
+			if (this.computeETag && this.etag == null && this.notModified(exchange, hashETag(this.body)))
+			{
+				return;
+			}
+
 			if (!this.hasIoCallback)
 			{
-				exchange.getResponseSender().send(this.body);
+				CapturedResponse.send(exchange, this.body);
 			}
 			else
 			{
@@ -380,12 +425,23 @@ public class ServerResponse<T>
 			{
 				if (this.processXml)
 				{
-					exchange.getResponseSender().send(ByteBuffer.wrap(XML_MAPPER.writeValueAsBytes(this.entity)));
+					if (this.entity instanceof BaseStream)
+					{
+						this.sendBytes(exchange, ByteBuffer.wrap(XML_MAPPER.writeValueAsBytes(((BaseStream<?, ?>) this.entity).iterator())));
+					}
+					else
+					{
+						this.sendBytes(exchange, ByteBuffer.wrap(XML_MAPPER.writeValueAsBytes(this.entity)));
+					}
+				}
+				else if (JsonArrayStreamSender.isStreamable(this.entity))
+				{
+					JsonArrayStreamSender.send(exchange, this.entity, this.jsonContext);
 				}
 				else
 				{
 
-					exchange.getResponseSender().send(JsonStream.serializeToBytes(this.entity, this.jsonContext));
+					this.sendBytes(exchange, JsonStream.serializeToBytes(this.entity, this.jsonContext));
 				}
 
 			} catch (Exception e)
@@ -403,6 +459,65 @@ public class ServerResponse<T>
 
 	}
 
+	protected void sendBytes(final HttpServerExchange exchange, final ByteBuffer bytes)
+	{
+		if (this.computeETag && this.etag == null && this.notModified(exchange, hashETag(bytes)))
+		{
+			return;
+		}
+
+		CapturedResponse.send(exchange, bytes);
+	}
+
+	/**
+	 * Sets the <code>ETag</code> header and, for a successful GET or HEAD whose <code>If-None-Match</code> matches it, ends the exchange with a 304.
+	 * 
+	 * @param exchange
+	 * @param etag
+	 * @return true if the exchange was ended
+	 */
+	protected boolean notModified(final HttpServerExchange exchange, final String etag)
+	{
+		exchange.getResponseHeaders().put(Headers.ETAG, etag);
+
+		if (this.status != StatusCodes.OK || !(exchange.getRequestMethod().equals(Methods.GET) || exchange.getRequestMethod().equals(Methods.HEAD)))
+		{
+			return false;
+		}
+
+		final String ifNoneMatch = exchange.getRequestHeaders().getFirst(Headers.IF_NONE_MATCH);
+
+		if (ifNoneMatch == null || ETagUtils.handleIfNoneMatch(ifNoneMatch, ETagUtils.parseETagList(etag), true))
+		{
+			return false;
+		}
+
+		exchange.setStatusCode(StatusCodes.NOT_MODIFIED);
+		exchange.endExchange();
+
+		return true;
+	}
+
+	protected static String hashETag(final ByteBuffer bytes)
+	{
+		final HashCode hash;
+
+		if (bytes.hasArray())
+		{
+			hash = ETAG_HASH.hashBytes(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+		}
+		else
+		{
+			final byte[] copy = new byte[bytes.remaining()];
+
+			bytes.duplicate().get(copy);
+
+			hash = ETAG_HASH.hashBytes(copy);
+		}
+
+		return "W/\"" + hash.toString() + "\"";
+	}
+
 	/**
 	 * Creates builder to build {@link ServerResponse}.
 	 * 
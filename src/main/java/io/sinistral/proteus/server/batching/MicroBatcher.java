@@ -0,0 +1,172 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.batching;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import javax.ws.rs.core.MediaType;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jsoniter.output.JsonStream;
+
+import io.sinistral.proteus.server.handlers.AsyncResponses;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.SameThreadExecutor;
+import io.undertow.util.StatusCodes;
+
+/**
+ * Queues the elements of concurrent requests to a route annotated with {@link io.sinistral.proteus.annotations.Batched} and hands them to the controller's batch method in one call.
+ * <p>
+ * A batch is flushed when it holds <code>maxSize</code> elements or <code>maxDelayMicros</code> after its first request, whichever comes first. Exchanges are parked without holding a thread while they wait. The batch method runs on a worker thread and each exchange is completed on its own IO thread with the slice of results matching its elements. If the batch method fails, or does not return one result per element, every exchange in the batch fails with that error.
+ *
+ * @author jbauer
+ */
+public class MicroBatcher<T, R>
+{
+	private static Logger log = LoggerFactory.getLogger(MicroBatcher.class.getCanonicalName());
+
+	protected final String name;
+	protected final int maxSize;
+	protected final long maxDelayMicros;
+	protected final Function<List<T>, List<R>> batchFunction;
+
+	protected Batch batch;
+
+	public MicroBatcher(final String name, final int maxSize, final long maxDelayMicros, final Function<List<T>, List<R>> batchFunction)
+	{
+		this.name = name;
+		this.maxSize = Math.max(1, maxSize);
+		this.maxDelayMicros = maxDelayMicros;
+		this.batchFunction = batchFunction;
+	}
+
+	/**
+	 * Parks the exchange until the batch containing its elements has been processed
+	 *
+	 * @param exchange
+	 * @param elements
+	 */
+	public void submit(final HttpServerExchange exchange, final List<T> elements)
+	{
+		exchange.dispatch(SameThreadExecutor.INSTANCE, () -> this.enqueue(exchange, elements));
+	}
+
+	protected void enqueue(final HttpServerExchange exchange, final List<T> elements)
+	{
+		Batch full = null;
+
+		synchronized (this)
+		{
+			if (this.batch == null)
+			{
+				final Batch created = new Batch();
+
+				this.batch = created;
+
+				if (this.maxDelayMicros > 0)
+				{
+					exchange.getIoThread().executeAfter(() -> this.flush(created), this.maxDelayMicros, TimeUnit.MICROSECONDS);
+				}
+			}
+
+			this.batch.add(exchange, elements);
+
+			if (this.batch.elements.size() >= this.maxSize || this.maxDelayMicros <= 0)
+			{
+				full = this.batch;
+				this.batch = null;
+			}
+		}
+
+		if (full != null)
+		{
+			this.execute(full, exchange);
+		}
+	}
+
+	protected void flush(final Batch expired)
+	{
+		synchronized (this)
+		{
+			if (this.batch != expired)
+			{
+				return;
+			}
+
+			this.batch = null;
+		}
+
+		this.execute(expired, expired.exchanges.get(0));
+	}
+
+	protected void execute(final Batch batch, final HttpServerExchange exchange)
+	{
+		exchange.getConnection().getWorker().execute(batch::run);
+	}
+
+	protected class Batch
+	{
+		protected final List<HttpServerExchange> exchanges = new ArrayList<>();
+		protected final List<Integer> offsets = new ArrayList<>();
+		protected final List<T> elements = new ArrayList<>();
+
+		protected void add(final HttpServerExchange exchange, final List<T> elements)
+		{
+			this.exchanges.add(exchange);
+			this.offsets.add(this.elements.size());
+
+			if (elements != null)
+			{
+				this.elements.addAll(elements);
+			}
+		}
+
+		protected void run()
+		{
+			final List<R> results;
+
+			try
+			{
+				results = MicroBatcher.this.batchFunction.apply(this.elements);
+
+				if (results == null || results.size() != this.elements.size())
+				{
+					throw new IllegalStateException("Batch " + MicroBatcher.this.name + " returned " + (results == null ? "null" : results.size() + " results") + " for " + this.elements.size() + " elements");
+				}
+
+			} catch (Throwable t)
+			{
+				log.error(t.getMessage(), t);
+
+				for (HttpServerExchange exchange : this.exchanges)
+				{
+					exchange.getIoThread().execute(() -> AsyncResponses.fail(exchange, StatusCodes.INTERNAL_SERVER_ERROR, t));
+				}
+
+				return;
+			}
+
+			for (int i = 0; i < this.exchanges.size(); i++)
+			{
+				final HttpServerExchange exchange = this.exchanges.get(i);
+
+				final int from = this.offsets.get(i);
+				final int to = i + 1 < this.offsets.size() ? this.offsets.get(i + 1) : this.elements.size();
+
+				final List<R> slice = new ArrayList<>(results.subList(from, to));
+
+				exchange.getIoThread().execute(() -> {
+					exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, MediaType.APPLICATION_JSON);
+					exchange.getResponseSender().send(JsonStream.serializeToBytes(slice, null));
+				});
+			}
+		}
+	}
+}
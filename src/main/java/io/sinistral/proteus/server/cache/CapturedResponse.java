@@ -0,0 +1,134 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.cache;
+
+import java.nio.ByteBuffer;
+
+import io.sinistral.proteus.server.handlers.CoalescingHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.ETagUtils;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.HeaderValues;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.StatusCodes;
+
+/**
+ * The status, headers and serialized body of a response, captured so it can be replayed on other exchanges by a {@link ResponseCache} or a {@link CoalescingHandler}.
+ *
+ * @author jbauer
+ */
+public class CapturedResponse
+{
+	protected final int status;
+	protected final HeaderMap headers = new HeaderMap();
+	protected final ByteBuffer body;
+	protected final String etag;
+
+	public CapturedResponse(final HttpServerExchange exchange, final ByteBuffer body)
+	{
+		this.status = exchange.getStatusCode();
+
+		final HeaderMap responseHeaders = exchange.getResponseHeaders();
+
+		long itr = responseHeaders.fastIterateNonEmpty();
+
+		while (itr != -1L)
+		{
+			final HeaderValues values = responseHeaders.fiCurrent(itr);
+
+			final HttpString name = values.getHeaderName();
+
+			if (!name.equals(Headers.CONTENT_LENGTH) && !name.equals(Headers.DATE) && !name.equals(Headers.CONNECTION) && !name.equals(Headers.TRANSFER_ENCODING))
+			{
+				this.headers.putAll(name, values);
+			}
+
+			itr = responseHeaders.fiNextNonEmpty(itr);
+		}
+
+		final byte[] bytes = new byte[body.remaining()];
+
+		body.duplicate().get(bytes);
+
+		this.body = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+		this.etag = this.headers.getFirst(Headers.ETAG);
+	}
+
+	/**
+	 * Sends the serialized body, first handing a copy of the response to a cache or coalesced requests waiting on this exchange. This is the single point through which serialized responses are sent.
+	 *
+	 * @param exchange
+	 * @param body
+	 */
+	public static void send(final HttpServerExchange exchange, final ByteBuffer body)
+	{
+		final ResponseCache.Pending pending = exchange.removeAttachment(ResponseCache.PENDING_KEY);
+
+		final boolean coalesced = CoalescingHandler.isLeader(exchange);
+
+		if ((pending != null || coalesced) && isCapturable(exchange))
+		{
+			final CapturedResponse response = new CapturedResponse(exchange, body);
+
+			if (pending != null)
+			{
+				pending.store(response);
+			}
+
+			if (coalesced)
+			{
+				CoalescingHandler.land(exchange, response);
+			}
+		}
+
+		exchange.getResponseSender().send(body);
+	}
+
+	/**
+	 * @param exchange
+	 * @return true if the response is successful and sets no cookies
+	 */
+	public static boolean isCapturable(final HttpServerExchange exchange)
+	{
+		return exchange.getStatusCode() == StatusCodes.OK && !exchange.getResponseHeaders().contains(Headers.SET_COOKIE) && exchange.getResponseCookies().isEmpty();
+	}
+
+	/**
+	 * Replays the captured status, headers and body, or a 304 if the request's <code>If-None-Match</code> matches the captured <code>ETag</code>.
+	 *
+	 * @param exchange
+	 */
+	public void replay(final HttpServerExchange exchange)
+	{
+		final HeaderMap responseHeaders = exchange.getResponseHeaders();
+
+		long itr = this.headers.fastIterateNonEmpty();
+
+		while (itr != -1L)
+		{
+			final HeaderValues values = this.headers.fiCurrent(itr);
+
+			responseHeaders.putAll(values.getHeaderName(), values);
+
+			itr = this.headers.fiNextNonEmpty(itr);
+		}
+
+		exchange.setStatusCode(this.status);
+
+		if (this.etag != null)
+		{
+			final String ifNoneMatch = exchange.getRequestHeaders().getFirst(Headers.IF_NONE_MATCH);
+
+			if (ifNoneMatch != null && !ETagUtils.handleIfNoneMatch(ifNoneMatch, ETagUtils.parseETagList(this.etag), true))
+			{
+				exchange.setStatusCode(StatusCodes.NOT_MODIFIED);
+				exchange.endExchange();
+				return;
+			}
+		}
+
+		exchange.getResponseSender().send(this.body.duplicate());
+	}
+}
@@ -0,0 +1,104 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.cache;
+
+/**
+ * A count-min sketch of 4-bit counters estimating how often a key has been seen recently.
+ * <p>
+ * Two counters are packed into each byte. Counters are halved once the number of increments reaches ten times the cache capacity, so the estimate favours recent popularity over historic popularity.
+ *
+ * @author jbauer
+ */
+public class FrequencySketch
+{
+	protected static final int[] SEEDS = new int[] { 0x97cb3127, 0xb1a6a1ab, 0x3c6ef372, 0x9e3779b9 };
+
+	protected static final int MAX_COUNT = 15;
+
+	protected final byte[] counters;
+	protected final int mask;
+	protected final int sampleSize;
+
+	protected int additions = 0;
+
+	public FrequencySketch(final int capacity)
+	{
+		final int length = Integer.highestOneBit(Math.max(16, capacity * 4) - 1) << 1;
+
+		this.counters = new byte[length >>> 1];
+		this.mask = length - 1;
+		this.sampleSize = Math.max(10, capacity * 10);
+	}
+
+	public int frequency(final int hash)
+	{
+		int frequency = MAX_COUNT;
+
+		for (int i = 0; i < SEEDS.length; i++)
+		{
+			frequency = Math.min(frequency, this.counter(this.indexOf(hash, i)));
+		}
+
+		return frequency;
+	}
+
+	public void increment(final int hash)
+	{
+		final int frequency = this.frequency(hash);
+
+		if (frequency == MAX_COUNT)
+		{
+			return;
+		}
+
+		/*
+		 * Conservative update, only the minimal counters are incremented
+		 */
+
+		for (int i = 0; i < SEEDS.length; i++)
+		{
+			final int index = this.indexOf(hash, i);
+
+			if (this.counter(index) == frequency)
+			{
+				this.counters[index >>> 1] += 1 << shift(index);
+			}
+		}
+
+		if (++this.additions >= this.sampleSize)
+		{
+			this.reset();
+		}
+	}
+
+	protected void reset()
+	{
+		for (int i = 0; i < this.counters.length; i++)
+		{
+			this.counters[i] = (byte) ((this.counters[i] >>> 1) & 0x77);
+		}
+
+		this.additions >>>= 1;
+	}
+
+	protected int counter(final int index)
+	{
+		return (this.counters[index >>> 1] >>> shift(index)) & MAX_COUNT;
+	}
+
+	/**
+	 * @return the offset of a counter within its byte, the low or the high nibble
+	 */
+	protected static int shift(final int index)
+	{
+		return (index & 1) << 2;
+	}
+
+	protected int indexOf(final int hash, final int i)
+	{
+		int h = hash * SEEDS[i];
+		h ^= h >>> 16;
+		return h & this.mask;
+	}
+}
@@ -0,0 +1,136 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.cache;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+import io.sinistral.proteus.server.handlers.CoalescingHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.AttachmentKey;
+import io.undertow.util.Headers;
+
+/**
+ * The cache behind a route annotated with {@link io.sinistral.proteus.annotations.Cached}.
+ * <p>
+ * The generated handler builds a key from the selected parameters and calls {@link #serve(HttpServerExchange, Object)} before invoking the controller. On a miss the exchange is marked, and the response is stored when its serialized bytes are sent through {@link CapturedResponse#send(HttpServerExchange, java.nio.ByteBuffer)}. Hits are replayed from the stored bytes and headers without invoking the controller or serializing.
+ *
+ * @author jbauer
+ */
+public class ResponseCache
+{
+	protected static final AttachmentKey<Pending> PENDING_KEY = AttachmentKey.create(Pending.class);
+
+	protected static final Map<String, ResponseCache> CACHES = new ConcurrentSkipListMap<>();
+
+	protected final String name;
+	protected final TinyLfuCache<Object, CapturedResponse> cache;
+
+	public ResponseCache(final String name, final int maxEntries, final long ttl, final TimeUnit unit)
+	{
+		this.name = name;
+		this.cache = new TinyLfuCache<>(maxEntries, ttl, unit);
+	}
+
+	/**
+	 * Creates a cache and registers it by name, replacing any existing cache of that name
+	 */
+	public static ResponseCache create(final String name, final int maxEntries, final long ttl, final TimeUnit unit)
+	{
+		final ResponseCache cache = new ResponseCache(name, maxEntries, ttl, unit);
+
+		CACHES.put(name, cache);
+
+		return cache;
+	}
+
+	/**
+	 * @return the registered caches by name
+	 */
+	public static Map<String, ResponseCache> caches()
+	{
+		return Collections.unmodifiableMap(CACHES);
+	}
+
+	public Object key(final HttpServerExchange exchange, final Object... parameters)
+	{
+		final Object[] parts = new Object[parameters.length + 1];
+
+		parts[0] = exchange.getRequestHeaders().getFirst(Headers.ACCEPT);
+
+		System.arraycopy(parameters, 0, parts, 1, parameters.length);
+
+		return Arrays.asList(parts);
+	}
+
+	/**
+	 * Sends the cached response for the key if there is one, otherwise marks the exchange so the response is stored once serialized.
+	 *
+	 * @param exchange
+	 * @param key
+	 * @return true if the response was served from the cache
+	 */
+	public boolean serve(final HttpServerExchange exchange, final Object key)
+	{
+		final CapturedResponse cached = this.cache.get(key);
+
+		if (cached == null)
+		{
+			exchange.putAttachment(PENDING_KEY, new Pending(this, key));
+			return false;
+		}
+
+		if (CoalescingHandler.isLeader(exchange))
+		{
+			CoalescingHandler.land(exchange, cached);
+		}
+
+		cached.replay(exchange);
+
+		return true;
+	}
+
+	public void invalidate(final Object key)
+	{
+		this.cache.invalidate(key);
+	}
+
+	public void invalidateAll()
+	{
+		this.cache.invalidateAll();
+	}
+
+	public String getName()
+	{
+		return this.name;
+	}
+
+	/**
+	 * @return size, hits, misses, hit rate, evictions and expirations
+	 */
+	public Map<String, Object> getStats()
+	{
+		return this.cache.stats();
+	}
+
+	protected static class Pending
+	{
+		protected final ResponseCache cache;
+		protected final Object key;
+
+		protected Pending(final ResponseCache cache, final Object key)
+		{
+			this.cache = cache;
+			this.key = key;
+		}
+
+		protected void store(final CapturedResponse response)
+		{
+			this.cache.cache.put(this.key, response);
+		}
+	}
+}
@@ -0,0 +1,432 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.cache;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A size bounded cache with an approximate W-TinyLFU eviction policy and optional expiry after write.
+ * <p>
+ * Keys are striped across independently locked segments. Each segment admits new entries into a small LRU window; entries leaving the window compete with the least recently used entry of the main space and are only admitted if a {@link FrequencySketch} estimates they are accessed more often. The main space is a segmented LRU, entries hit while on probation are promoted to the protected region. This keeps one-hit wonders from flushing popular entries while still adapting to bursts.
+ *
+ * @author jbauer
+ */
+public class TinyLfuCache<K, V>
+{
+	protected static final int MAX_SEGMENTS = 16;
+
+	protected static final int WINDOW = 0;
+	protected static final int PROBATION = 1;
+	protected static final int PROTECTED = 2;
+
+	protected final Segment<K, V>[] segments;
+	protected final int segmentMask;
+	protected final long ttlNanos;
+	protected final int maxEntries;
+
+	protected final LongAdder hits = new LongAdder();
+	protected final LongAdder misses = new LongAdder();
+	protected final LongAdder evictions = new LongAdder();
+	protected final LongAdder expirations = new LongAdder();
+
+	/**
+	 * @param maxEntries
+	 * @param ttl
+	 *            time to live after write, 0 for no expiry
+	 * @param unit
+	 */
+	public TinyLfuCache(final int maxEntries, final long ttl, final TimeUnit unit)
+	{
+		final int segmentCount = Integer.highestOneBit(Math.max(1, Math.min(MAX_SEGMENTS, maxEntries / 64)));
+		final int segmentCapacity = Math.max(1, (maxEntries + segmentCount - 1) / segmentCount);
+
+		this.maxEntries = maxEntries;
+		this.ttlNanos = ttl > 0 ? unit.toNanos(ttl) : 0;
+		this.segmentMask = segmentCount - 1;
+		this.segments = newSegments(segmentCount);
+
+		for (int i = 0; i < segmentCount; i++)
+		{
+			this.segments[i] = new Segment<>(this, segmentCapacity);
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	protected static <K, V> Segment<K, V>[] newSegments(final int segmentCount)
+	{
+		return new Segment[segmentCount];
+	}
+
+	public V get(final K key)
+	{
+		final int hash = spread(key.hashCode());
+
+		final V value = this.segments[hash & this.segmentMask].get(key, hash, System.nanoTime());
+
+		if (value == null)
+		{
+			this.misses.increment();
+		}
+		else
+		{
+			this.hits.increment();
+		}
+
+		return value;
+	}
+
+	public void put(final K key, final V value)
+	{
+		final int hash = spread(key.hashCode());
+
+		this.segments[hash & this.segmentMask].put(key, hash, value, this.ttlNanos > 0 ? System.nanoTime() + this.ttlNanos : 0);
+	}
+
+	public void invalidate(final K key)
+	{
+		final int hash = spread(key.hashCode());
+
+		this.segments[hash & this.segmentMask].remove(key);
+	}
+
+	public void invalidateAll()
+	{
+		for (Segment<K, V> segment : this.segments)
+		{
+			segment.clear();
+		}
+	}
+
+	public long size()
+	{
+		long size = 0;
+
+		for (Segment<K, V> segment : this.segments)
+		{
+			size += segment.size();
+		}
+
+		return size;
+	}
+
+	public Map<String, Object> stats()
+	{
+		final long hits = this.hits.sum();
+		final long misses = this.misses.sum();
+
+		final Map<String, Object> stats = new LinkedHashMap<>();
+
+		stats.put("size", this.size());
+		stats.put("maxEntries", this.maxEntries);
+		stats.put("hits", hits);
+		stats.put("misses", misses);
+		stats.put("hitRate", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+		stats.put("evictions", this.evictions.sum());
+		stats.put("expirations", this.expirations.sum());
+
+		return stats;
+	}
+
+	protected static int spread(final int hash)
+	{
+		final int h = hash * 0x9e3779b9;
+		return h ^ (h >>> 16);
+	}
+
+	protected static class Node<K, V>
+	{
+		protected final K key;
+		protected final int hash;
+
+		protected V value;
+		protected long expiresAt;
+		protected int queue;
+
+		protected Node<K, V> prev;
+		protected Node<K, V> next;
+
+		protected Node(final K key, final int hash)
+		{
+			this.key = key;
+			this.hash = hash;
+		}
+	}
+
+	/**
+	 * An intrusive doubly linked list ordered from least to most recently used
+	 */
+	protected static class AccessOrder<K, V>
+	{
+		protected Node<K, V> first;
+		protected Node<K, V> last;
+		protected int size = 0;
+
+		protected void linkLast(final Node<K, V> node)
+		{
+			node.prev = this.last;
+			node.next = null;
+
+			if (this.last == null)
+			{
+				this.first = node;
+			}
+			else
+			{
+				this.last.next = node;
+			}
+
+			this.last = node;
+			this.size++;
+		}
+
+		protected void unlink(final Node<K, V> node)
+		{
+			if (node.prev == null)
+			{
+				this.first = node.next;
+			}
+			else
+			{
+				node.prev.next = node.next;
+			}
+
+			if (node.next == null)
+			{
+				this.last = node.prev;
+			}
+			else
+			{
+				node.next.prev = node.prev;
+			}
+
+			node.prev = null;
+			node.next = null;
+			this.size--;
+		}
+
+		protected void moveToLast(final Node<K, V> node)
+		{
+			if (node != this.last)
+			{
+				this.unlink(node);
+				this.linkLast(node);
+			}
+		}
+
+		protected void clear()
+		{
+			this.first = null;
+			this.last = null;
+			this.size = 0;
+		}
+	}
+
+	protected static class Segment<K, V>
+	{
+		protected final TinyLfuCache<K, V> cache;
+		protected final HashMap<K, Node<K, V>> data;
+		protected final FrequencySketch sketch;
+
+		protected final AccessOrder<K, V> window = new AccessOrder<>();
+		protected final AccessOrder<K, V> probation = new AccessOrder<>();
+		protected final AccessOrder<K, V> protectedRegion = new AccessOrder<>();
+
+		protected final int windowMax;
+		protected final int mainMax;
+		protected final int protectedMax;
+
+		protected Segment(final TinyLfuCache<K, V> cache, final int capacity)
+		{
+			this.cache = cache;
+			this.data = new HashMap<>(Math.min(capacity, 1 << 12) * 4 / 3 + 1);
+			this.sketch = new FrequencySketch(capacity);
+
+			this.windowMax = Math.max(1, capacity / 100);
+			this.mainMax = capacity - this.windowMax;
+			this.protectedMax = this.mainMax * 4 / 5;
+		}
+
+		protected synchronized V get(final K key, final int hash, final long now)
+		{
+			this.sketch.increment(hash);
+
+			final Node<K, V> node = this.data.get(key);
+
+			if (node == null)
+			{
+				return null;
+			}
+
+			if (node.expiresAt != 0 && node.expiresAt - now <= 0)
+			{
+				this.evict(node);
+				this.cache.expirations.increment();
+				return null;
+			}
+
+			this.onHit(node);
+
+			return node.value;
+		}
+
+		protected synchronized void put(final K key, final int hash, final V value, final long expiresAt)
+		{
+			Node<K, V> node = this.data.get(key);
+
+			if (node != null)
+			{
+				node.value = value;
+				node.expiresAt = expiresAt;
+				this.onHit(node);
+				return;
+			}
+
+			node = new Node<>(key, hash);
+			node.value = value;
+			node.expiresAt = expiresAt;
+			node.queue = WINDOW;
+
+			this.data.put(key, node);
+			this.window.linkLast(node);
+
+			if (this.window.size > this.windowMax)
+			{
+				this.admit(this.window.first);
+			}
+		}
+
+		/**
+		 * Moves the candidate evicted from the window into the main space if it is estimated to be more popular than the main space's victim.
+		 */
+		protected void admit(final Node<K, V> candidate)
+		{
+			this.window.unlink(candidate);
+
+			if (this.probation.size + this.protectedRegion.size < this.mainMax)
+			{
+				candidate.queue = PROBATION;
+				this.probation.linkLast(candidate);
+				return;
+			}
+
+			final Node<K, V> victim = this.probation.first != null ? this.probation.first : this.protectedRegion.first;
+
+			if (victim == null)
+			{
+				this.discard(candidate);
+				this.cache.evictions.increment();
+				return;
+			}
+
+			final long now = System.nanoTime();
+
+			final boolean victimExpired = victim.expiresAt != 0 && victim.expiresAt - now <= 0;
+
+			if (victimExpired || this.sketch.frequency(candidate.hash) > this.sketch.frequency(victim.hash))
+			{
+				this.evict(victim);
+
+				if (victimExpired)
+				{
+					this.cache.expirations.increment();
+				}
+				else
+				{
+					this.cache.evictions.increment();
+				}
+
+				candidate.queue = PROBATION;
+				this.probation.linkLast(candidate);
+			}
+			else
+			{
+				this.discard(candidate);
+				this.cache.evictions.increment();
+			}
+		}
+
+		protected void onHit(final Node<K, V> node)
+		{
+			switch (node.queue)
+			{
+				case WINDOW:
+					this.window.moveToLast(node);
+					break;
+
+				case PROBATION:
+					this.probation.unlink(node);
+					node.queue = PROTECTED;
+					this.protectedRegion.linkLast(node);
+
+					if (this.protectedRegion.size > this.protectedMax)
+					{
+						final Node<K, V> demoted = this.protectedRegion.first;
+
+						this.protectedRegion.unlink(demoted);
+						demoted.queue = PROBATION;
+						this.probation.linkLast(demoted);
+					}
+
+					break;
+
+				default:
+					this.protectedRegion.moveToLast(node);
+			}
+		}
+
+		protected void evict(final Node<K, V> node)
+		{
+			this.queueOf(node).unlink(node);
+			this.data.remove(node.key);
+		}
+
+		protected AccessOrder<K, V> queueOf(final Node<K, V> node)
+		{
+			switch (node.queue)
+			{
+				case WINDOW:
+					return this.window;
+				case PROBATION:
+					return this.probation;
+				default:
+					return this.protectedRegion;
+			}
+		}
+
+		/**
+		 * Removes a node that has already been unlinked from its queue
+		 */
+		protected void discard(final Node<K, V> node)
+		{
+			this.data.remove(node.key);
+		}
+
+		protected synchronized void remove(final K key)
+		{
+			final Node<K, V> node = this.data.get(key);
+
+			if (node != null)
+			{
+				this.evict(node);
+			}
+		}
+
+		protected synchronized void clear()
+		{
+			this.data.clear();
+			this.window.clear();
+			this.probation.clear();
+			this.protectedRegion.clear();
+		}
+
+		protected synchronized int size()
+		{
+			return this.data.size();
+		}
+	}
+}
@@ -0,0 +1,307 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.diagnostics;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.typesafe.config.Config;
+
+/**
+ * Finds routes that block the IO thread they run on.
+ * <p>
+ * While enabled, every route that is not <code>@Blocking</code> reports the wall time it spends on an IO thread. A watchdog thread samples the stack of handlers that have been running for longer than <code>sampleInterval</code>. A route is flagged once a call takes longer than <code>threshold</code> or a sample shows it inside one of the <code>knownBlocking</code> methods. The first time a route is flagged it is logged with the sampled stack. With <code>autoDispatch</code> enabled flagged routes are then dispatched to the blocking executor as if they were <code>@Blocking</code>.
+ * <p>
+ * Meant for development and staging; sampling stacks is too expensive to leave on in production.
+ *
+ * @author jbauer
+ */
+public class BlockingCallDetector
+{
+	private static Logger log = LoggerFactory.getLogger(BlockingCallDetector.class.getCanonicalName());
+
+	protected static final Map<String, RouteStats> ROUTES = new ConcurrentSkipListMap<>();
+	protected static final Map<Thread, Probe> ACTIVE = new ConcurrentHashMap<>();
+
+	protected static volatile boolean enabled = false;
+	protected static volatile boolean autoDispatch = false;
+	protected static volatile long thresholdNanos = TimeUnit.MILLISECONDS.toNanos(10);
+	protected static volatile long sampleIntervalNanos = TimeUnit.MILLISECONDS.toNanos(2);
+	protected static volatile List<String> knownBlocking = Collections.emptyList();
+
+	protected static Thread watchdog;
+
+	/**
+	 * Applies the <code>application.blockingDetector</code> settings and starts the watchdog if the detector is enabled
+	 *
+	 * @param config
+	 */
+	public static synchronized void configure(final Config config)
+	{
+		enabled = config.getBoolean("enabled");
+		autoDispatch = config.getBoolean("autoDispatch");
+		thresholdNanos = config.getDuration("threshold", TimeUnit.NANOSECONDS);
+		sampleIntervalNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(1), config.getDuration("sampleInterval", TimeUnit.NANOSECONDS));
+		knownBlocking = Collections.unmodifiableList(config.getStringList("knownBlocking"));
+
+		if (enabled && watchdog == null)
+		{
+			watchdog = new Thread(BlockingCallDetector::sample, "blocking-call-detector");
+			watchdog.setDaemon(true);
+			watchdog.start();
+
+			log.warn("Blocking call detection is enabled, IO thread stacks will be sampled every " + TimeUnit.NANOSECONDS.toMillis(sampleIntervalNanos) + "ms");
+		}
+	}
+
+	public static synchronized void shutdown()
+	{
+		enabled = false;
+
+		if (watchdog != null)
+		{
+			watchdog.interrupt();
+			watchdog = null;
+		}
+	}
+
+	public static boolean isEnabled()
+	{
+		return enabled;
+	}
+
+	/**
+	 * @return the statistics of every monitored route by name
+	 */
+	public static Map<String, RouteStats> routes()
+	{
+		return Collections.unmodifiableMap(ROUTES);
+	}
+
+	/**
+	 * @param route
+	 * @return the statistics of the route, created if the route has not been seen before
+	 */
+	public static RouteStats route(final String route)
+	{
+		return ROUTES.computeIfAbsent(route, RouteStats::new);
+	}
+
+	/**
+	 * @param route
+	 * @return true if the route should be moved off the IO thread
+	 */
+	public static boolean shouldDispatch(final RouteStats route)
+	{
+		return autoDispatch && route.flagged;
+	}
+
+	/**
+	 * Marks the start of a route running on the current IO thread
+	 *
+	 * @param route
+	 * @return the probe to pass to {@link #exit(Probe)}
+	 */
+	public static Probe enter(final RouteStats route)
+	{
+		final Probe probe = new Probe(route, Thread.currentThread());
+
+		ACTIVE.put(probe.thread, probe);
+
+		return probe;
+	}
+
+	/**
+	 * Records the time the route spent on the IO thread and flags it if it blocked
+	 *
+	 * @param probe
+	 */
+	public static void exit(final Probe probe)
+	{
+		final long elapsed = System.nanoTime() - probe.startNanos;
+
+		ACTIVE.remove(probe.thread, probe);
+
+		final RouteStats route = probe.route;
+
+		route.calls.increment();
+		route.totalNanos.add(elapsed);
+		route.maxNanos.accumulateAndGet(elapsed, Math::max);
+
+		final StackTraceElement[] stack = probe.stack;
+		final String blockingCall = stack != null ? blockingCall(stack) : null;
+
+		final boolean slow = elapsed > thresholdNanos;
+
+		if (slow)
+		{
+			route.slow.increment();
+		}
+
+		if (blockingCall != null)
+		{
+			route.blockingCalls.increment();
+			route.lastBlockingCall = blockingCall;
+		}
+
+		if ((slow || blockingCall != null) && !route.flagged)
+		{
+			route.flagged = true;
+
+			final StringBuilder message = new StringBuilder();
+
+			message.append("Route ").append(route.name).append(" spent ").append(TimeUnit.NANOSECONDS.toMillis(elapsed)).append("ms on IO thread ").append(probe.thread.getName());
+
+			if (blockingCall != null)
+			{
+				message.append(" in blocking call ").append(blockingCall);
+			}
+
+			message.append(autoDispatch ? ", it will be dispatched to the blocking executor from now on" : ", consider annotating it with @Blocking");
+
+			if (stack != null)
+			{
+				message.append(Arrays.stream(stack).map(e -> "\n\tat " + e).collect(Collectors.joining()));
+			}
+
+			log.warn(message.toString());
+		}
+	}
+
+	/**
+	 * @param stack
+	 * @return the first frame matching a known blocking method, or null
+	 */
+	protected static String blockingCall(final StackTraceElement[] stack)
+	{
+		final List<String> prefixes = knownBlocking;
+
+		for (StackTraceElement element : stack)
+		{
+			final String frame = element.getClassName() + "." + element.getMethodName();
+
+			for (String prefix : prefixes)
+			{
+				if (frame.startsWith(prefix))
+				{
+					return frame;
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Samples the stack of each probe that has been running for at least the sample interval, once per probe
+	 */
+	protected static void sample()
+	{
+		while (enabled && !Thread.currentThread().isInterrupted())
+		{
+			try
+			{
+				TimeUnit.NANOSECONDS.sleep(sampleIntervalNanos);
+
+			} catch (InterruptedException e)
+			{
+				return;
+			}
+
+			final long now = System.nanoTime();
+
+			for (Probe probe : ACTIVE.values())
+			{
+				if (probe.stack == null && now - probe.startNanos >= sampleIntervalNanos)
+				{
+					final StackTraceElement[] stack = probe.thread.getStackTrace();
+
+					/*
+					 * The probe may have exited and the thread moved on while the stack was taken
+					 */
+
+					if (ACTIVE.get(probe.thread) == probe)
+					{
+						probe.stack = stack;
+					}
+				}
+			}
+		}
+	}
+
+	public static class Probe
+	{
+		protected final RouteStats route;
+		protected final Thread thread;
+		protected final long startNanos = System.nanoTime();
+
+		protected volatile StackTraceElement[] stack;
+
+		protected Probe(final RouteStats route, final Thread thread)
+		{
+			this.route = route;
+			this.thread = thread;
+		}
+	}
+
+	public static class RouteStats
+	{
+		protected final String name;
+		protected final LongAdder calls = new LongAdder();
+		protected final LongAdder totalNanos = new LongAdder();
+		protected final AtomicLong maxNanos = new AtomicLong();
+		protected final LongAdder slow = new LongAdder();
+		protected final LongAdder blockingCalls = new LongAdder();
+
+		protected volatile boolean flagged = false;
+		protected volatile String lastBlockingCall;
+
+		protected RouteStats(final String name)
+		{
+			this.name = name;
+		}
+
+		public String getName()
+		{
+			return this.name;
+		}
+
+		public boolean isFlagged()
+		{
+			return this.flagged;
+		}
+
+		/**
+		 * @return call counts, IO thread time and the last blocking call seen
+		 */
+		public Map<String, Object> getStats()
+		{
+			final Map<String, Object> stats = new LinkedHashMap<>();
+
+			final long calls = this.calls.sum();
+
+			stats.put("calls", calls);
+			stats.put("meanMillis", calls > 0 ? this.totalNanos.sum() / calls / 1e6 : 0.0);
+			stats.put("maxMillis", this.maxNanos.get() / 1e6);
+			stats.put("slow", this.slow.sum());
+			stats.put("blockingCalls", this.blockingCalls.sum());
+			stats.put("lastBlockingCall", this.lastBlockingCall);
+			stats.put("flagged", this.flagged);
+
+			return stats;
+		}
+	}
+}
@@ -0,0 +1,200 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.diagnostics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import io.sinistral.proteus.server.handlers.RouteSupplierCompiler;
+
+/**
+ * A timeline of where an application spends its startup.
+ * <p>
+ * Each phase is recorded with its start, relative to the creation of the profile, and its duration, so phases that overlap, such as services starting in parallel, show as such. The profile is printed with the startup status and served as JSON on <code>health.startupPath</code>.
+ *
+ * @author jbauer
+ */
+public class StartupProfile
+{
+	protected final long startNanos;
+
+	protected final List<Phase> phases = new CopyOnWriteArrayList<>();
+
+	protected volatile Map<String, Long> serviceMillis = new TreeMap<>();
+
+	protected volatile RouteSupplierCompiler routeSupplierCompiler = null;
+
+	protected volatile long readyNanos = 0;
+
+	public StartupProfile()
+	{
+		this.startNanos = System.nanoTime();
+	}
+
+	/**
+	 * Runs and records a phase
+	 *
+	 * @param name
+	 * @param phase
+	 * @return the result of the phase
+	 */
+	public <T> T time(final String name, final Supplier<T> phase)
+	{
+		final long start = System.nanoTime();
+
+		try
+		{
+			return phase.get();
+
+		} finally
+		{
+			this.record(name, start, System.nanoTime());
+		}
+	}
+
+	/**
+	 * Runs and records a phase
+	 *
+	 * @param name
+	 * @param phase
+	 */
+	public void time(final String name, final Runnable phase)
+	{
+		this.time(name, () -> {
+			phase.run();
+			return null;
+		});
+	}
+
+	/**
+	 * @param name
+	 * @param startNanos
+	 *            the {@link System#nanoTime()} the phase started at
+	 * @param endNanos
+	 *            the {@link System#nanoTime()} the phase ended at
+	 */
+	public void record(final String name, final long startNanos, final long endNanos)
+	{
+		this.phases.add(new Phase(name, startNanos - this.startNanos, endNanos - startNanos));
+	}
+
+	/**
+	 * @param serviceMillis
+	 *            the milliseconds each service took to start, by service name
+	 */
+	public void setServiceMillis(final Map<String, Long> serviceMillis)
+	{
+		this.serviceMillis = new TreeMap<>(serviceMillis);
+	}
+
+	public void setRouteSupplierCompiler(final RouteSupplierCompiler routeSupplierCompiler)
+	{
+		this.routeSupplierCompiler = routeSupplierCompiler;
+	}
+
+	/**
+	 * Marks the application as ready to serve requests
+	 */
+	public void ready()
+	{
+		this.readyNanos = System.nanoTime();
+	}
+
+	/**
+	 * @return the phases, the start time of each service and the route supplier timings, in milliseconds
+	 */
+	public Map<String, Object> getTimings()
+	{
+		final Map<String, Object> timings = new LinkedHashMap<>();
+
+		timings.put("readyMillis", this.readyNanos > 0 ? (this.readyNanos - this.startNanos) / 1e6 : null);
+		timings.put("jvmUptimeMillis", ManagementFactory.getRuntimeMXBean().getUptime());
+
+		final List<Map<String, Object>> phaseTimings = new ArrayList<>();
+
+		for (Phase phase : this.timeline())
+		{
+			final Map<String, Object> phaseTiming = new LinkedHashMap<>();
+
+			phaseTiming.put("name", phase.name);
+			phaseTiming.put("startMillis", phase.offsetNanos / 1e6);
+			phaseTiming.put("durationMillis", phase.durationNanos / 1e6);
+
+			phaseTimings.add(phaseTiming);
+		}
+
+		timings.put("phases", phaseTimings);
+		timings.put("services", this.serviceMillis);
+
+		if (this.routeSupplierCompiler != null)
+		{
+			final Map<String, Object> routeSupplierTimings = new LinkedHashMap<>(this.routeSupplierCompiler.getTimings());
+
+			routeSupplierTimings.put("controllers", this.routeSupplierCompiler.getControllerTimings());
+
+			timings.put("routeSuppliers", routeSupplierTimings);
+		}
+
+		return timings;
+	}
+
+	@Override
+	public String toString()
+	{
+		final StringBuilder sb = new StringBuilder();
+
+		if (this.readyNanos > 0)
+		{
+			sb.append(String.format("ready in %dms, JVM up for %dms", TimeUnit.NANOSECONDS.toMillis(this.readyNanos - this.startNanos), ManagementFactory.getRuntimeMXBean().getUptime()));
+		}
+
+		for (Phase phase : this.timeline())
+		{
+			sb.append(String.format("%n\t%8.1fms +%8.1fms\t%s", phase.offsetNanos / 1e6, phase.durationNanos / 1e6, phase.name));
+		}
+
+		this.serviceMillis.forEach((name, millis) -> sb.append(String.format("%n\t%11s+%8dms\tservice %s", "", millis, name)));
+
+		if (this.routeSupplierCompiler != null)
+		{
+			this.routeSupplierCompiler.getControllerTimings().forEach((name, controllerTimings) -> sb.append(String.format("%n\t%11s+%8.1fms\tgenerate %s (%s)", "", controllerTimings.get("generationMillis"), name, controllerTimings.get("supplier"))));
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * @return the phases in the order they started
+	 */
+	protected List<Phase> timeline()
+	{
+		final List<Phase> timeline = new ArrayList<>(this.phases);
+
+		timeline.sort(Comparator.comparingLong(phase -> phase.offsetNanos));
+
+		return timeline;
+	}
+
+	protected static class Phase
+	{
+		protected final String name;
+		protected final long offsetNanos;
+		protected final long durationNanos;
+
+		protected Phase(final String name, final long offsetNanos, final long durationNanos)
+		{
+			this.name = name;
+			this.offsetNanos = offsetNanos;
+			this.durationNanos = durationNanos;
+		}
+	}
+}
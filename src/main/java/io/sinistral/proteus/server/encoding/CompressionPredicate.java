@@ -0,0 +1,66 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.encoding;
+
+import io.undertow.predicate.Predicate;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.AttachmentKey;
+import io.undertow.util.Headers;
+
+/**
+ * Decides, once the response headers are known, whether a response should be compressed.
+ * <p>
+ * Routes annotated with {@link io.sinistral.proteus.annotations.Compress} attach their policy to the exchange via {@link #COMPRESS_KEY}, otherwise the configured default applies. Responses with a known length below the minimum size, event streams and already compressed media types are sent as is unless the route explicitly opts in.
+ *
+ * @author jbauer
+ */
+public class CompressionPredicate implements Predicate
+{
+	public static final AttachmentKey<Boolean> COMPRESS_KEY = AttachmentKey.create(Boolean.class);
+
+	protected final boolean enabledByDefault;
+	protected final long minSize;
+
+	public CompressionPredicate(final boolean enabledByDefault, final long minSize)
+	{
+		this.enabledByDefault = enabledByDefault;
+		this.minSize = minSize;
+	}
+
+	@Override
+	public boolean resolve(final HttpServerExchange exchange)
+	{
+		final Boolean routePolicy = exchange.getAttachment(COMPRESS_KEY);
+
+		if (routePolicy != null ? !routePolicy : !this.enabledByDefault)
+		{
+			return false;
+		}
+
+		final long contentLength = exchange.getResponseContentLength();
+
+		if (contentLength >= 0 && contentLength < this.minSize)
+		{
+			return false;
+		}
+
+		if (routePolicy == null)
+		{
+			final String contentType = exchange.getResponseHeaders().getFirst(Headers.CONTENT_TYPE);
+
+			return contentType == null || isCompressible(contentType);
+		}
+
+		return true;
+	}
+
+	/**
+	 * @param contentType
+	 * @return false for event streams and media types that are typically already compressed
+	 */
+	public static boolean isCompressible(final String contentType)
+	{
+		return !(contentType.startsWith("text/event-stream") || contentType.startsWith("image/") || contentType.startsWith("video/") || contentType.startsWith("audio/") || contentType.contains("zip") || contentType.contains("compressed"));
+	}
+}
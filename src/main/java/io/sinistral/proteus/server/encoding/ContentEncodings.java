@@ -0,0 +1,28 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.encoding;
+
+import com.typesafe.config.Config;
+
+import io.undertow.server.handlers.encoding.ContentEncodingRepository;
+
+/**
+ * Builds the response {@link ContentEncodingRepository} from the <code>undertow.compression</code> config.
+ *
+ * @author jbauer
+ */
+public class ContentEncodings
+{
+	public static ContentEncodingRepository repository(final Config config)
+	{
+		final int level = config.getInt("level");
+		final int poolSize = config.getInt("poolSize");
+
+		final CompressionPredicate predicate = new CompressionPredicate(config.getBoolean("default"), config.getBytes("minSize"));
+
+		return new ContentEncodingRepository()
+				.addEncodingHandler("gzip", PooledDeflaterEncodingProvider.gzip(level, poolSize), 100, predicate)
+				.addEncodingHandler("deflate", PooledDeflaterEncodingProvider.deflate(level, poolSize), 50, predicate);
+	}
+}
@@ -0,0 +1,66 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.encoding;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.Deflater;
+
+/**
+ * A bounded pool of {@link Deflater} instances sharing a compression level and format.
+ * <p>
+ * Each Deflater holds native zlib memory that is only reclaimed by {@link Deflater#end()} or finalization, so allocating one per response churns native memory under load. Returned instances are reset and reused; instances returned to a full pool are ended immediately.
+ *
+ * @author jbauer
+ */
+public class DeflaterPool
+{
+	protected final int level;
+	protected final boolean nowrap;
+	protected final ArrayBlockingQueue<Deflater> deflaters;
+
+	/**
+	 * @param level
+	 *            compression level from 1 (fastest) to 9 (smallest)
+	 * @param nowrap
+	 *            true for raw deflate data as framed by gzip, false for zlib format
+	 * @param capacity
+	 *            maximum number of idle deflaters retained
+	 */
+	public DeflaterPool(final int level, final boolean nowrap, final int capacity)
+	{
+		this.level = level;
+		this.nowrap = nowrap;
+		this.deflaters = new ArrayBlockingQueue<>(Math.max(1, capacity));
+	}
+
+	public Deflater borrow()
+	{
+		Deflater deflater = this.deflaters.poll();
+
+		if (deflater == null)
+		{
+			deflater = new Deflater(this.level, this.nowrap);
+		}
+
+		return deflater;
+	}
+
+	public void release(final Deflater deflater)
+	{
+		deflater.reset();
+
+		if (!this.deflaters.offer(deflater))
+		{
+			deflater.end();
+		}
+	}
+
+	/**
+	 * @return the number of idle deflaters currently pooled
+	 */
+	public int size()
+	{
+		return this.deflaters.size();
+	}
+}
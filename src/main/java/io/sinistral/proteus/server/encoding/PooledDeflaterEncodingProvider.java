@@ -0,0 +1,53 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.encoding;
+
+import org.xnio.conduits.StreamSinkConduit;
+
+import io.undertow.server.ConduitWrapper;
+import io.undertow.server.handlers.encoding.ContentEncodingProvider;
+import io.undertow.util.Headers;
+
+/**
+ * A gzip or deflate {@link ContentEncodingProvider} backed by a {@link DeflaterPool}.
+ *
+ * @author jbauer
+ */
+public class PooledDeflaterEncodingProvider implements ContentEncodingProvider
+{
+	protected final DeflaterPool pool;
+	protected final boolean gzip;
+
+	public PooledDeflaterEncodingProvider(final DeflaterPool pool, final boolean gzip)
+	{
+		this.pool = pool;
+		this.gzip = gzip;
+	}
+
+	public static PooledDeflaterEncodingProvider gzip(final int level, final int poolSize)
+	{
+		return new PooledDeflaterEncodingProvider(new DeflaterPool(level, true, poolSize), true);
+	}
+
+	public static PooledDeflaterEncodingProvider deflate(final int level, final int poolSize)
+	{
+		return new PooledDeflaterEncodingProvider(new DeflaterPool(level, false, poolSize), false);
+	}
+
+	@Override
+	public ConduitWrapper<StreamSinkConduit> getResponseWrapper()
+	{
+		return (factory, exchange) -> {
+
+			exchange.getResponseHeaders().add(Headers.VARY, Headers.ACCEPT_ENCODING_STRING);
+
+			return new PooledDeflatingStreamSinkConduit(factory, exchange, this.pool, this.gzip);
+		};
+	}
+
+	public DeflaterPool getPool()
+	{
+		return this.pool;
+	}
+}
@@ -0,0 +1,493 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.encoding;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.xnio.IoUtils;
+import org.xnio.XnioIoThread;
+import org.xnio.XnioWorker;
+import org.xnio.channels.StreamSourceChannel;
+import org.xnio.conduits.ConduitWritableByteChannel;
+import org.xnio.conduits.Conduits;
+import org.xnio.conduits.StreamSinkConduit;
+import org.xnio.conduits.WriteReadyHandler;
+
+import io.undertow.connector.PooledByteBuffer;
+import io.undertow.server.Connectors;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.ConduitFactory;
+import io.undertow.util.Headers;
+
+/**
+ * A response conduit that compresses with a {@link Deflater} borrowed from a {@link DeflaterPool}, producing either gzip or zlib framed output.
+ * <p>
+ * Input is staged through and output accumulated in array backed buffers from the connection's pool, so a compressed response allocates nothing per request beyond a checksum. Compressed output is only written downstream when the output buffer fills or the response is flushed, at which point a sync flush is performed so streamed and chunked responses are delivered incrementally.
+ * <p>
+ * The downstream conduit is created lazily. If the whole response has been compressed into the output buffer by the time it is terminated a <code>Content-Length</code> is sent, otherwise the response is chunked.
+ *
+ * @author jbauer
+ */
+public class PooledDeflatingStreamSinkConduit implements StreamSinkConduit
+{
+	protected static final byte[] GZIP_HEADER = new byte[] { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+	protected static final int GZIP_TRAILER_LENGTH = 8;
+
+	protected final ConduitFactory<StreamSinkConduit> conduitFactory;
+	protected final HttpServerExchange exchange;
+	protected final DeflaterPool pool;
+	protected final CRC32 crc;
+
+	protected Deflater deflater;
+	protected PooledByteBuffer input;
+	protected PooledByteBuffer output;
+
+	protected StreamSinkConduit next;
+	protected WriteReadyHandler writeReadyHandler;
+
+	protected boolean writesResumed = false;
+	protected boolean dirty = false;
+	protected boolean shutdown = false;
+	protected boolean trailerWritten = false;
+	protected boolean nextShutdown = false;
+	protected boolean released = false;
+
+	public PooledDeflatingStreamSinkConduit(final ConduitFactory<StreamSinkConduit> conduitFactory, final HttpServerExchange exchange, final DeflaterPool pool, final boolean gzip)
+	{
+		this.conduitFactory = conduitFactory;
+		this.exchange = exchange;
+		this.pool = pool;
+		this.crc = gzip ? new CRC32() : null;
+
+		this.deflater = pool.borrow();
+		this.input = exchange.getConnection().getByteBufferPool().getArrayBackedPool().allocate();
+		this.output = exchange.getConnection().getByteBufferPool().getArrayBackedPool().allocate();
+
+		this.output.getBuffer().clear();
+
+		if (gzip)
+		{
+			this.output.getBuffer().put(GZIP_HEADER);
+		}
+
+		this.writeReadyHandler = new WriteReadyHandler.ChannelListenerHandler<>(Connectors.getConduitSinkChannel(exchange));
+
+		exchange.addExchangeCompleteListener((ex, nextListener) -> {
+			this.release();
+			nextListener.proceed();
+		});
+	}
+
+	@Override
+	public int write(final ByteBuffer src) throws IOException
+	{
+		if (this.shutdown || this.released)
+		{
+			throw new ClosedChannelException();
+		}
+
+		if (!this.deflater.needsInput() && !this.deflate(Deflater.NO_FLUSH))
+		{
+			return 0;
+		}
+
+		final ByteBuffer staging = this.input.getBuffer();
+		final int length = Math.min(src.remaining(), staging.capacity());
+
+		if (length == 0)
+		{
+			return 0;
+		}
+
+		final byte[] array = staging.array();
+		final int offset = staging.arrayOffset();
+
+		src.get(array, offset, length);
+
+		if (this.crc != null)
+		{
+			this.crc.update(array, offset, length);
+		}
+
+		this.deflater.setInput(array, offset, length);
+		this.dirty = true;
+
+		Connectors.updateResponseBytesSent(this.exchange, length);
+
+		this.deflate(Deflater.NO_FLUSH);
+
+		return length;
+	}
+
+	@Override
+	public long write(final ByteBuffer[] srcs, final int offset, final int length) throws IOException
+	{
+		long total = 0;
+
+		for (int i = offset; i < offset + length; i++)
+		{
+			while (srcs[i].hasRemaining())
+			{
+				final int written = this.write(srcs[i]);
+
+				if (written == 0)
+				{
+					return total;
+				}
+
+				total += written;
+			}
+		}
+
+		return total;
+	}
+
+	@Override
+	public int writeFinal(final ByteBuffer src) throws IOException
+	{
+		return Conduits.writeFinalBasic(this, src);
+	}
+
+	@Override
+	public long writeFinal(final ByteBuffer[] srcs, final int offset, final int length) throws IOException
+	{
+		return Conduits.writeFinalBasic(this, srcs, offset, length);
+	}
+
+	@Override
+	public long transferFrom(final FileChannel src, final long position, final long count) throws IOException
+	{
+		return src.transferTo(position, count, new ConduitWritableByteChannel(this));
+	}
+
+	@Override
+	public long transferFrom(final StreamSourceChannel source, final long count, final ByteBuffer throughBuffer) throws IOException
+	{
+		return IoUtils.transfer(source, count, throughBuffer, new ConduitWritableByteChannel(this));
+	}
+
+	/**
+	 * Runs the deflater until it has consumed its input, writing the output buffer downstream each time it fills.
+	 *
+	 * @param flush
+	 *            the deflater flush mode
+	 * @return false if the downstream conduit could not accept a full output buffer
+	 */
+	protected boolean deflate(final int flush) throws IOException
+	{
+		final ByteBuffer out = this.output.getBuffer();
+
+		while (true)
+		{
+			if (!out.hasRemaining() && !this.writeOutput())
+			{
+				return false;
+			}
+
+			final int deflated = this.deflater.deflate(out.array(), out.arrayOffset() + out.position(), out.remaining(), flush);
+
+			out.position(out.position() + deflated);
+
+			if (out.hasRemaining())
+			{
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Writes the accumulated output downstream, compacting whatever could not be written.
+	 *
+	 * @return true if the output buffer is now empty
+	 */
+	protected boolean writeOutput() throws IOException
+	{
+		final ByteBuffer out = this.output.getBuffer();
+
+		if (out.position() == 0)
+		{
+			return true;
+		}
+
+		final StreamSinkConduit next = this.next();
+
+		out.flip();
+
+		try
+		{
+			while (out.hasRemaining())
+			{
+				final int written = next.write(out);
+
+				if (written == 0)
+				{
+					return false;
+				}
+			}
+
+			return true;
+
+		} finally
+		{
+			out.compact();
+		}
+	}
+
+	protected StreamSinkConduit next()
+	{
+		if (this.next == null)
+		{
+			if (this.trailerWritten && !this.released)
+			{
+				this.exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, Integer.toString(this.output.getBuffer().position()));
+			}
+			else
+			{
+				this.exchange.getResponseHeaders().remove(Headers.CONTENT_LENGTH);
+			}
+
+			this.next = this.conduitFactory.create();
+
+			if (this.writesResumed)
+			{
+				this.next.resumeWrites();
+			}
+		}
+
+		return this.next;
+	}
+
+	@Override
+	public boolean flush() throws IOException
+	{
+		if (this.released)
+		{
+			if (this.next == null)
+			{
+				return true;
+			}
+
+			if (this.shutdown && !this.nextShutdown)
+			{
+				this.nextShutdown = true;
+				this.next.terminateWrites();
+			}
+
+			return this.next.flush();
+		}
+
+		if (this.shutdown)
+		{
+			if (!this.trailerWritten)
+			{
+				if (!this.deflate(Deflater.NO_FLUSH))
+				{
+					return false;
+				}
+
+				if (this.crc != null)
+				{
+					final ByteBuffer out = this.output.getBuffer();
+
+					if (out.remaining() < GZIP_TRAILER_LENGTH && !this.writeOutput())
+					{
+						return false;
+					}
+
+					this.putIntLE(out, (int) this.crc.getValue());
+					this.putIntLE(out, (int) this.deflater.getBytesRead());
+				}
+
+				this.trailerWritten = true;
+			}
+
+			if (!this.writeOutput())
+			{
+				return false;
+			}
+
+			this.release();
+
+			return this.flush();
+		}
+
+		if (!this.deflater.needsInput() && !this.deflate(Deflater.NO_FLUSH))
+		{
+			return false;
+		}
+
+		if (this.dirty)
+		{
+			if (!this.deflate(Deflater.SYNC_FLUSH))
+			{
+				return false;
+			}
+
+			this.dirty = false;
+		}
+
+		if (!this.writeOutput())
+		{
+			return false;
+		}
+
+		return this.next == null || this.next.flush();
+	}
+
+	protected void putIntLE(final ByteBuffer out, final int value)
+	{
+		out.put((byte) value);
+		out.put((byte) (value >> 8));
+		out.put((byte) (value >> 16));
+		out.put((byte) (value >> 24));
+	}
+
+	@Override
+	public void terminateWrites() throws IOException
+	{
+		if (!this.shutdown)
+		{
+			this.shutdown = true;
+
+			if (!this.released)
+			{
+				this.deflater.finish();
+			}
+		}
+	}
+
+	@Override
+	public boolean isWriteShutdown()
+	{
+		return this.shutdown;
+	}
+
+	@Override
+	public void truncateWrites() throws IOException
+	{
+		this.shutdown = true;
+		this.release();
+		this.next().truncateWrites();
+	}
+
+	/**
+	 * Returns the deflater to the pool and frees the staging buffers. Safe to call more than once.
+	 */
+	protected void release()
+	{
+		if (this.released)
+		{
+			return;
+		}
+
+		this.released = true;
+
+		this.pool.release(this.deflater);
+		this.deflater = null;
+
+		this.input.close();
+		this.output.close();
+	}
+
+	@Override
+	public void suspendWrites()
+	{
+		if (this.next == null)
+		{
+			this.writesResumed = false;
+		}
+		else
+		{
+			this.next.suspendWrites();
+		}
+	}
+
+	@Override
+	public boolean isWriteResumed()
+	{
+		return this.next == null ? this.writesResumed : this.next.isWriteResumed();
+	}
+
+	@Override
+	public void resumeWrites()
+	{
+		if (this.next == null)
+		{
+			this.writesResumed = true;
+			this.queueWriteReady();
+		}
+		else
+		{
+			this.next.resumeWrites();
+		}
+	}
+
+	@Override
+	public void wakeupWrites()
+	{
+		this.resumeWrites();
+	}
+
+	/**
+	 * Nothing is buffered downstream until the next conduit exists, so the channel is always writable and the listener is invoked directly on the IO thread.
+	 */
+	protected void queueWriteReady()
+	{
+		this.exchange.getIoThread().execute(() -> {
+
+			if (this.writesResumed && this.next == null)
+			{
+				this.writeReadyHandler.writeReady();
+
+				if (this.writesResumed && this.next == null)
+				{
+					this.queueWriteReady();
+				}
+			}
+		});
+	}
+
+	@Override
+	public void awaitWritable() throws IOException
+	{
+		if (this.next != null)
+		{
+			this.next.awaitWritable();
+		}
+	}
+
+	@Override
+	public void awaitWritable(final long time, final TimeUnit timeUnit) throws IOException
+	{
+		if (this.next != null)
+		{
+			this.next.awaitWritable(time, timeUnit);
+		}
+	}
+
+	@Override
+	public XnioIoThread getWriteThread()
+	{
+		return this.exchange.getIoThread();
+	}
+
+	@Override
+	public void setWriteReadyHandler(final WriteReadyHandler handler)
+	{
+		this.writeReadyHandler = handler;
+	}
+
+	@Override
+	public XnioWorker getWorker()
+	{
+		return this.exchange.getConnection().getWorker();
+	}
+}
@@ -0,0 +1,253 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.encoding;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.ETag;
+import io.undertow.util.ETagUtils;
+import io.undertow.util.Headers;
+import io.undertow.util.StatusCodes;
+
+/**
+ * Serves a constant body from identity, gzip and deflate variants that are encoded once at construction.
+ * <p>
+ * Each request selects a variant from <code>Accept-Encoding</code> and sends a duplicate of its prebuilt direct buffer with a precomputed <code>Content-Length</code> and <code>ETag</code>, so no encoding or string conversion happens per request. Requests whose <code>If-None-Match</code> matches receive a 304. A compressed variant is only kept if it is smaller than the identity body.
+ *
+ * @author jbauer
+ */
+public class PrecompressedResource implements HttpHandler
+{
+	protected final String contentType;
+	protected final Variant identity;
+	protected final Variant gzip;
+	protected final Variant deflate;
+
+	public PrecompressedResource(final byte[] body, final String contentType)
+	{
+		this.contentType = contentType;
+
+		final CRC32 crc = new CRC32();
+		crc.update(body);
+
+		final String tag = Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(body.length);
+
+		this.identity = new Variant(null, body, new ETag(false, tag));
+
+		final byte[] gzipped = encode(body, crc.getValue(), true);
+		final byte[] deflated = encode(body, crc.getValue(), false);
+
+		this.gzip = gzipped.length < body.length ? new Variant("gzip", gzipped, new ETag(false, tag + "-gzip")) : null;
+		this.deflate = deflated.length < body.length ? new Variant("deflate", deflated, new ETag(false, tag + "-deflate")) : null;
+	}
+
+	public static PrecompressedResource of(final byte[] body, final String contentType)
+	{
+		return new PrecompressedResource(body, contentType);
+	}
+
+	public static PrecompressedResource of(final String body, final String contentType)
+	{
+		return new PrecompressedResource(body.getBytes(StandardCharsets.UTF_8), contentType);
+	}
+
+	@Override
+	public void handleRequest(final HttpServerExchange exchange) throws Exception
+	{
+		final Variant variant = this.select(exchange.getRequestHeaders().getFirst(Headers.ACCEPT_ENCODING));
+
+		exchange.getResponseHeaders().put(Headers.ETAG, variant.etagValue);
+
+		if (this.gzip != null || this.deflate != null)
+		{
+			exchange.getResponseHeaders().put(Headers.VARY, Headers.ACCEPT_ENCODING_STRING);
+		}
+
+		if (!ETagUtils.handleIfNoneMatch(exchange, variant.etag, false))
+		{
+			exchange.setStatusCode(StatusCodes.NOT_MODIFIED);
+			exchange.endExchange();
+			return;
+		}
+
+		if (this.contentType != null)
+		{
+			exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, this.contentType);
+		}
+
+		if (variant.encoding != null)
+		{
+			exchange.getResponseHeaders().put(Headers.CONTENT_ENCODING, variant.encoding);
+		}
+		else
+		{
+			exchange.putAttachment(CompressionPredicate.COMPRESS_KEY, false);
+		}
+
+		exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, variant.contentLength);
+
+		exchange.getResponseSender().send(variant.body.duplicate());
+	}
+
+	/**
+	 * @param acceptEncoding
+	 * @return the gzip variant if acceptable, then deflate, otherwise identity
+	 */
+	protected Variant select(final String acceptEncoding)
+	{
+		if (acceptEncoding == null)
+		{
+			return this.identity;
+		}
+
+		if (this.gzip != null && accepts(acceptEncoding, "gzip"))
+		{
+			return this.gzip;
+		}
+
+		if (this.deflate != null && accepts(acceptEncoding, "deflate"))
+		{
+			return this.deflate;
+		}
+
+		return this.identity;
+	}
+
+	/**
+	 * @param acceptEncoding
+	 * @param encoding
+	 * @return true if the encoding is listed without a zero q-value, or if it is not listed and <code>*</code> is listed without a zero q-value
+	 */
+	protected static boolean accepts(final String acceptEncoding, final String encoding)
+	{
+		boolean wildcard = false;
+
+		for (String coding : acceptEncoding.split(","))
+		{
+			final int parameters = coding.indexOf(';');
+
+			final String name = (parameters < 0 ? coding : coding.substring(0, parameters)).trim();
+
+			if (name.equalsIgnoreCase(encoding))
+			{
+				return acceptable(coding, parameters);
+			}
+
+			if (name.equals("*"))
+			{
+				wildcard = acceptable(coding, parameters);
+			}
+		}
+
+		return wildcard;
+	}
+
+	/**
+	 * @param coding
+	 * @param parameters
+	 *            the index of the coding's first <code>;</code>, or -1
+	 * @return false if the coding has a zero or malformed q-value
+	 */
+	protected static boolean acceptable(final String coding, final int parameters)
+	{
+		if (parameters < 0)
+		{
+			return true;
+		}
+
+		final String q = coding.substring(parameters + 1).trim();
+
+		try
+		{
+			return !q.startsWith("q=") || Float.parseFloat(q.substring(2).trim()) > 0;
+		} catch (NumberFormatException e)
+		{
+			return false;
+		}
+	}
+
+	protected static byte[] encode(final byte[] body, final long crc, final boolean gzip)
+	{
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream(body.length / 2 + 32);
+
+		final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, gzip);
+
+		try
+		{
+			if (gzip)
+			{
+				baos.write(PooledDeflatingStreamSinkConduit.GZIP_HEADER, 0, PooledDeflatingStreamSinkConduit.GZIP_HEADER.length);
+			}
+
+			deflater.setInput(body);
+			deflater.finish();
+
+			final byte[] buffer = new byte[8192];
+
+			while (!deflater.finished())
+			{
+				baos.write(buffer, 0, deflater.deflate(buffer));
+			}
+
+			if (gzip)
+			{
+				writeIntLE(baos, (int) crc);
+				writeIntLE(baos, body.length);
+			}
+
+		} finally
+		{
+			deflater.end();
+		}
+
+		return baos.toByteArray();
+	}
+
+	protected static void writeIntLE(final ByteArrayOutputStream out, final int value)
+	{
+		out.write(value);
+		out.write(value >> 8);
+		out.write(value >> 16);
+		out.write(value >> 24);
+	}
+
+	public int getContentLength()
+	{
+		return this.identity.body.remaining();
+	}
+
+	public String getETag()
+	{
+		return this.identity.etagValue;
+	}
+
+	protected static class Variant
+	{
+		protected final String encoding;
+		protected final ByteBuffer body;
+		protected final ETag etag;
+		protected final String etagValue;
+		protected final String contentLength;
+
+		protected Variant(final String encoding, final byte[] bytes, final ETag etag)
+		{
+			final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+
+			buffer.put(bytes);
+			buffer.flip();
+
+			this.encoding = encoding;
+			this.body = buffer.asReadOnlyBuffer();
+			this.etag = etag;
+			this.etagValue = etag.toString();
+			this.contentLength = Integer.toString(bytes.length);
+		}
+	}
+}
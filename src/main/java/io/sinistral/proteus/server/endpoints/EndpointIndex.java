@@ -0,0 +1,337 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.endpoints;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import io.sinistral.proteus.server.handlers.RouteSupplierCache;
+import io.sinistral.proteus.server.handlers.RouteSupplierGenerator;
+import io.swagger.annotations.SwaggerDefinition;
+import io.swagger.models.Swagger;
+import io.swagger.util.Json;
+
+/**
+ * An index of controllers and their Swagger paths and definitions, generated at build time by {@link RouteSupplierGenerator} and shipped as {@value #RESOURCE}.
+ * <p>
+ * Controllers can be listed by package without scanning the class path, and <code>SwaggerService</code> merges the indexed Swagger of a controller instead of reading it reflectively. Each entry records a hash of the controller class and of the classes it reaches, see {@link #reachableClasses(Class)}. An entry whose hash no longer matches, for example because a different version of a jar is deployed, is ignored and the controller is read reflectively as before.
+ *
+ * @author jbauer
+ */
+public class EndpointIndex
+{
+	private static Logger log = LoggerFactory.getLogger(EndpointIndex.class.getCanonicalName());
+
+	public static final String RESOURCE = "META-INF/proteus/endpoint-index.json";
+
+	protected static final ObjectMapper MAPPER = new ObjectMapper();
+
+	/**
+	 * Controllers reaching more classes than this are not indexed, so that hashing stays cheap at startup
+	 */
+	protected static final int MAX_HASHED_CLASSES = 256;
+
+	protected final Map<String, JsonNode> entries;
+
+	protected EndpointIndex(final Map<String, JsonNode> entries)
+	{
+		this.entries = entries;
+	}
+
+	/**
+	 * @param loader
+	 * @return the merged indexes visible to the class loader
+	 */
+	public static EndpointIndex load(final ClassLoader loader)
+	{
+		final Map<String, JsonNode> entries = new TreeMap<>();
+
+		try
+		{
+			final Enumeration<URL> resources = loader.getResources(RESOURCE);
+
+			while (resources.hasMoreElements())
+			{
+				final URL resource = resources.nextElement();
+
+				try (InputStream in = resource.openStream())
+				{
+					MAPPER.readTree(in).path("controllers").fields().forEachRemaining(e -> entries.putIfAbsent(e.getKey(), e.getValue()));
+
+				} catch (IOException e)
+				{
+					log.warn("Unable to read " + resource + ": " + e.getMessage());
+				}
+			}
+
+		} catch (IOException e)
+		{
+			log.warn("Unable to read " + RESOURCE + ": " + e.getMessage());
+		}
+
+		return new EndpointIndex(entries);
+	}
+
+	public boolean isEmpty()
+	{
+		return this.entries.isEmpty();
+	}
+
+	/**
+	 * @param packageName
+	 * @return the names of the indexed controllers in the package or its subpackages
+	 */
+	public Set<String> controllerNames(final String packageName)
+	{
+		final Set<String> names = new TreeSet<>();
+
+		for (String name : this.entries.keySet())
+		{
+			if (name.startsWith(packageName + "."))
+			{
+				names.add(name);
+			}
+		}
+
+		return names;
+	}
+
+	/**
+	 * @param controllerClass
+	 * @return the Swagger read from the controller alone at build time, or null if it is not indexed or has changed
+	 */
+	public Swagger swagger(final Class<?> controllerClass)
+	{
+		final JsonNode entry = this.current(controllerClass);
+
+		if (entry == null || !entry.has("swagger"))
+		{
+			return null;
+		}
+
+		try
+		{
+			return Json.mapper().treeToValue(entry.get("swagger"), Swagger.class);
+
+		} catch (IOException e)
+		{
+			log.warn("Unable to read the indexed Swagger of " + controllerClass.getName() + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	protected JsonNode current(final Class<?> controllerClass)
+	{
+		final JsonNode entry = this.entries.get(controllerClass.getName());
+
+		if (entry == null)
+		{
+			return null;
+		}
+
+		final String hash = hash(controllerClass);
+
+		if (hash == null || !entry.path("hash").asText().equals(hash))
+		{
+			log.debug("Ignoring the index entry of " + controllerClass.getName() + ", the class has changed");
+			return null;
+		}
+
+		return entry;
+	}
+
+	/**
+	 * @param controllerClass
+	 * @param swagger
+	 *            the Swagger read from the controller alone, not indexed if the controller declares a <code>@SwaggerDefinition</code> or has supertypes, as both are read against the application's Swagger, or if the classes it reaches are too many to hash
+	 * @return the index entry of the controller
+	 */
+	public static ObjectNode entry(final Class<?> controllerClass, final Swagger swagger)
+	{
+		final ObjectNode entry = MAPPER.createObjectNode();
+
+		final String hash = hash(controllerClass);
+
+		if (hash != null && swagger != null && !controllerClass.isAnnotationPresent(SwaggerDefinition.class) && controllerClass.getSuperclass() == Object.class && controllerClass.getInterfaces().length == 0)
+		{
+			entry.put("hash", hash);
+			entry.set("swagger", Json.mapper().valueToTree(swagger));
+		}
+
+		return entry;
+	}
+
+	/**
+	 * Writes an index of the entries by controller class name
+	 */
+	public static void write(final Path file, final Map<String, ObjectNode> entries) throws IOException
+	{
+		final ObjectNode index = MAPPER.createObjectNode();
+
+		index.putObject("controllers").setAll(new TreeMap<>(entries));
+
+		Files.createDirectories(file.getParent());
+
+		MAPPER.writeValue(file.toFile(), index);
+	}
+
+	/**
+	 * @param controllerClass
+	 * @return a hash of the controller class and the classes reachable from it, or null if they are too many to hash
+	 */
+	protected static String hash(final Class<?> controllerClass)
+	{
+		final Set<Class<?>> classes = reachableClasses(controllerClass);
+
+		if (classes == null)
+		{
+			return null;
+		}
+
+		final List<byte[]> parts = new ArrayList<>();
+
+		classes.stream().sorted((a, b) -> a.getName().compareTo(b.getName())).forEach(c -> {
+			parts.add(c.getName().getBytes(StandardCharsets.UTF_8));
+			parts.add(RouteSupplierCache.classBytes(c));
+		});
+
+		return RouteSupplierGenerator.hash(parts.toArray(new byte[parts.size()][]));
+	}
+
+	/**
+	 * Collects the classes a controller's Swagger can depend on: the controller, the classes in its method signatures and, from those, every class reached through supertypes, fields and the return types of methods without parameters, so that a change to a nested model also invalidates the entry. JDK classes and the framework's own <code>io.undertow</code> and <code>io.sinistral.proteus.server</code> classes are not followed.
+	 *
+	 * @param controllerClass
+	 * @return the classes, or null if there are more than {@value #MAX_HASHED_CLASSES}
+	 */
+	protected static Set<Class<?>> reachableClasses(final Class<?> controllerClass)
+	{
+		final Set<Class<?>> classes = new LinkedHashSet<>();
+
+		final Deque<Class<?>> pending = new ArrayDeque<>();
+
+		classes.add(controllerClass);
+
+		for (Method method : controllerClass.getDeclaredMethods())
+		{
+			signatureClasses(method.getGenericReturnType(), pending);
+
+			for (Type type : method.getGenericParameterTypes())
+			{
+				signatureClasses(type, pending);
+			}
+		}
+
+		while (!pending.isEmpty())
+		{
+			final Class<?> clazz = pending.poll();
+
+			if (!isApplicationClass(clazz) || !classes.add(clazz))
+			{
+				continue;
+			}
+
+			if (classes.size() > MAX_HASHED_CLASSES)
+			{
+				log.debug("Not indexing " + controllerClass.getName() + ", it reaches more than " + MAX_HASHED_CLASSES + " classes");
+				return null;
+			}
+
+			if (clazz.getGenericSuperclass() != null)
+			{
+				signatureClasses(clazz.getGenericSuperclass(), pending);
+			}
+
+			for (Type type : clazz.getGenericInterfaces())
+			{
+				signatureClasses(type, pending);
+			}
+
+			for (Field field : clazz.getDeclaredFields())
+			{
+				signatureClasses(field.getGenericType(), pending);
+			}
+
+			for (Method method : clazz.getDeclaredMethods())
+			{
+				if (method.getParameterCount() == 0)
+				{
+					signatureClasses(method.getGenericReturnType(), pending);
+				}
+			}
+		}
+
+		return classes;
+	}
+
+	protected static boolean isApplicationClass(final Class<?> clazz)
+	{
+		final String name = clazz.getName();
+
+		return clazz.getClassLoader() != null && !name.startsWith("java") && !name.startsWith("io.undertow.") && !name.startsWith("io.sinistral.proteus.server.");
+	}
+
+	protected static void signatureClasses(final Type type, final Collection<Class<?>> classes)
+	{
+		if (type instanceof Class)
+		{
+			Class<?> clazz = (Class<?>) type;
+
+			while (clazz.isArray())
+			{
+				clazz = clazz.getComponentType();
+			}
+
+			classes.add(clazz);
+		}
+		else if (type instanceof ParameterizedType)
+		{
+			signatureClasses(((ParameterizedType) type).getRawType(), classes);
+
+			for (Type argument : ((ParameterizedType) type).getActualTypeArguments())
+			{
+				signatureClasses(argument, classes);
+			}
+		}
+		else if (type instanceof GenericArrayType)
+		{
+			signatureClasses(((GenericArrayType) type).getGenericComponentType(), classes);
+		}
+		else if (type instanceof WildcardType)
+		{
+			for (Type bound : ((WildcardType) type).getUpperBounds())
+			{
+				signatureClasses(bound, classes);
+			}
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.executors;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Selects the executor that <code>@Blocking</code> routes are dispatched to.
+ * <p>
+ * The <code>worker</code> strategy uses Undertow's worker pool, sized by <code>undertow.workerThreads</code>. The <code>virtual</code> strategy runs each request on its own virtual thread, so a route blocked on a slow backend only parks a virtual thread instead of occupying one of a fixed number of platform threads. Virtual threads are looked up reflectively since the build targets Java 8; on runtimes without them the worker pool is used.
+ *
+ * @author jbauer
+ */
+public class BlockingExecutors
+{
+	private static Logger log = LoggerFactory.getLogger(BlockingExecutors.class.getCanonicalName());
+
+	public static final String WORKER = "worker";
+	public static final String VIRTUAL = "virtual";
+
+	protected static volatile ExecutorService executor;
+
+	/**
+	 * @param strategy
+	 *            <code>worker</code> or <code>virtual</code>
+	 */
+	public static synchronized void configure(final String strategy)
+	{
+		if (VIRTUAL.equalsIgnoreCase(strategy))
+		{
+			if (executor == null)
+			{
+				executor = newVirtualThreadExecutor();
+
+				if (executor == null)
+				{
+					log.warn("Virtual threads are not available on Java " + System.getProperty("java.version") + ", @Blocking routes will use the worker pool");
+				}
+			}
+		}
+		else if (WORKER.equalsIgnoreCase(strategy))
+		{
+			shutdown();
+		}
+		else
+		{
+			throw new IllegalArgumentException("Unknown blocking executor strategy " + strategy);
+		}
+	}
+
+	/**
+	 * @return the executor for blocking routes, or null to use the worker pool
+	 */
+	public static ExecutorService executor()
+	{
+		return executor;
+	}
+
+	public static synchronized void shutdown()
+	{
+		if (executor != null)
+		{
+			executor.shutdown();
+			executor = null;
+		}
+	}
+
+	/**
+	 * @return a new virtual thread per task executor, or null if the runtime does not support virtual threads
+	 */
+	public static ExecutorService newVirtualThreadExecutor()
+	{
+		try
+		{
+			final Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+
+			return (ExecutorService) factory.invoke(null);
+
+		} catch (NoSuchMethodException e)
+		{
+			return null;
+
+		} catch (Exception e)
+		{
+			/*
+			 * Preview releases throw UnsupportedOperationException unless --enable-preview is set
+			 */
+
+			log.debug("Unable to create virtual thread executor", e);
+
+			return null;
+		}
+	}
+}
@@ -0,0 +1,141 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.executors;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A named, bounded executor isolating the routes of a {@link io.sinistral.proteus.annotations.Bulkhead} from the rest of the application.
+ * <p>
+ * At most <code>maxConcurrent</code> tasks run at once and at most <code>maxQueue</code> wait. Further tasks are rejected rather than queued, so a slow downstream behind one bulkhead fails fast instead of exhausting the shared worker pool.
+ *
+ * @author jbauer
+ */
+public class BulkheadExecutor implements Executor
+{
+	private static Logger log = LoggerFactory.getLogger(BulkheadExecutor.class.getCanonicalName());
+
+	protected static final Map<String, BulkheadExecutor> BULKHEADS = new ConcurrentSkipListMap<>();
+
+	protected final String name;
+	protected final int maxConcurrent;
+	protected final int maxQueue;
+	protected final long retryAfterSeconds;
+	protected final ThreadPoolExecutor executor;
+
+	protected final LongAdder rejected = new LongAdder();
+
+	public BulkheadExecutor(final String name, final int maxConcurrent, final int maxQueue, final long retryAfterSeconds)
+	{
+		this.name = name;
+		this.maxConcurrent = Math.max(1, maxConcurrent);
+		this.maxQueue = Math.max(0, maxQueue);
+		this.retryAfterSeconds = retryAfterSeconds;
+
+		final BlockingQueue<Runnable> queue = this.maxQueue > 0 ? new ArrayBlockingQueue<>(this.maxQueue) : new SynchronousQueue<>();
+
+		final AtomicInteger threadIndex = new AtomicInteger();
+
+		final ThreadFactory threadFactory = r -> {
+			final Thread thread = new Thread(r, "bulkhead-" + name + "-" + threadIndex.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+
+		this.executor = new ThreadPoolExecutor(this.maxConcurrent, this.maxConcurrent, 60, TimeUnit.SECONDS, queue, threadFactory, new ThreadPoolExecutor.AbortPolicy());
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Returns the bulkhead registered under the name, creating it with the given sizes if there is none.
+	 * <p>
+	 * Routes sharing a bulkhead share its sizes, the first route to register it wins. A later route asking for different sizes is logged as a warning.
+	 */
+	public static BulkheadExecutor named(final String name, final int maxConcurrent, final int maxQueue, final long retryAfterSeconds)
+	{
+		final BulkheadExecutor bulkhead = BULKHEADS.computeIfAbsent(name, n -> new BulkheadExecutor(n, maxConcurrent, maxQueue, retryAfterSeconds));
+
+		if (bulkhead.maxConcurrent != Math.max(1, maxConcurrent) || bulkhead.maxQueue != Math.max(0, maxQueue) || bulkhead.retryAfterSeconds != retryAfterSeconds)
+		{
+			log.warn(String.format("Bulkhead %s is already registered with maxConcurrent=%d, maxQueue=%d, retryAfter=%ds, ignoring maxConcurrent=%d, maxQueue=%d, retryAfter=%ds. Configure its sizes once in bulkheads.%s.", name, bulkhead.maxConcurrent, bulkhead.maxQueue, bulkhead.retryAfterSeconds, maxConcurrent, maxQueue, retryAfterSeconds, name));
+		}
+
+		return bulkhead;
+	}
+
+	/**
+	 * @return the registered bulkheads by name
+	 */
+	public static Map<String, BulkheadExecutor> bulkheads()
+	{
+		return Collections.unmodifiableMap(BULKHEADS);
+	}
+
+	public static void shutdownAll()
+	{
+		BULKHEADS.values().forEach(b -> b.executor.shutdown());
+		BULKHEADS.clear();
+	}
+
+	/**
+	 * @throws RejectedExecutionException
+	 *             if the bulkhead is saturated
+	 */
+	@Override
+	public void execute(final Runnable task)
+	{
+		try
+		{
+			this.executor.execute(task);
+
+		} catch (RejectedExecutionException e)
+		{
+			this.rejected.increment();
+			throw e;
+		}
+	}
+
+	public String getName()
+	{
+		return this.name;
+	}
+
+	public long getRetryAfterSeconds()
+	{
+		return this.retryAfterSeconds;
+	}
+
+	/**
+	 * @return active threads, queue depth, completed and rejected task counts
+	 */
+	public Map<String, Object> getStats()
+	{
+		final Map<String, Object> stats = new LinkedHashMap<>();
+
+		stats.put("maxConcurrent", this.maxConcurrent);
+		stats.put("maxQueue", this.maxQueue);
+		stats.put("active", this.executor.getActiveCount());
+		stats.put("queued", this.executor.getQueue().size());
+		stats.put("completed", this.executor.getCompletedTaskCount());
+		stats.put("rejected", this.rejected.sum());
+
+		return stats;
+	}
+}
@@ -0,0 +1,246 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.handlers;
+
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xnio.XnioExecutor;
+
+import io.sinistral.proteus.server.Deadline;
+import io.sinistral.proteus.server.streaming.RecordTooLargeException;
+import io.undertow.server.DefaultResponseListener;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.ServerConnection;
+import io.undertow.util.AttachmentKey;
+import io.undertow.util.SameThreadExecutor;
+import io.undertow.util.StatusCodes;
+
+/**
+ * Completes exchanges from the <code>CompletionStage</code> returned by a controller.
+ * <p>
+ * The exchange is dispatched so it stays open once the handler returns, without holding a thread. The result is sent on the exchange's IO thread once the stage completes. If it has not completed within the route's timeout, or by the request's {@link Deadline} if that comes first, the stage is cancelled and the exchange fails with a 504. If the client disconnects first the stage is cancelled. A stage that is cancelled by the controller fails with a 503, any other failure with a 500.
+ *
+ * @author jbauer
+ */
+public class AsyncResponses
+{
+	private static Logger log = LoggerFactory.getLogger(AsyncResponses.class.getCanonicalName());
+
+	protected static final AttachmentKey<Cancellations> CANCELLATIONS_KEY = AttachmentKey.create(Cancellations.class);
+
+	/**
+	 * @param exchange
+	 * @param stage
+	 *            the controller's result
+	 * @param timeoutMillis
+	 *            0 for no timeout
+	 * @param sender
+	 *            sends the result, called on the exchange's IO thread
+	 */
+	public static <T> void dispatch(final HttpServerExchange exchange, final CompletionStage<T> stage, final long timeoutMillis, final Consumer<T> sender)
+	{
+		final CompletableFuture<T> future = stage.toCompletableFuture();
+
+		if (future.isDone() && !future.isCompletedExceptionally())
+		{
+			sender.accept(future.join());
+			return;
+		}
+
+		final Deadline deadline = Deadline.of(exchange);
+
+		if (deadline.isExpired())
+		{
+			future.cancel(true);
+
+			fail(exchange, StatusCodes.GATEWAY_TIME_OUT, new TimeoutException("Request deadline passed"));
+			return;
+		}
+
+		final long effectiveTimeoutMillis = deadline.isSet() ? Math.max(1, Math.min(timeoutMillis > 0 ? timeoutMillis : Long.MAX_VALUE, deadline.remaining(TimeUnit.MILLISECONDS))) : timeoutMillis;
+
+		exchange.dispatch(SameThreadExecutor.INSTANCE, () -> {
+
+			final AtomicBoolean completed = new AtomicBoolean(false);
+
+			final XnioExecutor.Key timeoutKey = effectiveTimeoutMillis > 0 ? exchange.getIoThread().executeAfter(() -> {
+
+				if (completed.compareAndSet(false, true))
+				{
+					future.cancel(true);
+
+					fail(exchange, StatusCodes.GATEWAY_TIME_OUT, new TimeoutException("Response was not completed within " + effectiveTimeoutMillis + "ms"));
+				}
+
+			}, effectiveTimeoutMillis, TimeUnit.MILLISECONDS) : null;
+
+			final Set<Runnable> cancellations = cancellations(exchange.getConnection());
+
+			final Runnable cancellation = () -> {
+
+				if (completed.compareAndSet(false, true))
+				{
+					if (timeoutKey != null)
+					{
+						timeoutKey.remove();
+					}
+
+					future.cancel(true);
+				}
+			};
+
+			cancellations.add(cancellation);
+
+			future.whenComplete((result, throwable) -> {
+
+				cancellations.remove(cancellation);
+
+				if (!completed.compareAndSet(false, true))
+				{
+					return;
+				}
+
+				if (timeoutKey != null)
+				{
+					timeoutKey.remove();
+				}
+
+				exchange.getIoThread().execute(() -> {
+
+					if (throwable != null)
+					{
+						final Throwable cause = unwrap(throwable);
+
+						fail(exchange, statusFor(cause), cause);
+
+						return;
+					}
+
+					try
+					{
+						sender.accept(result);
+
+					} catch (Throwable t)
+					{
+						log.error(t.getMessage(), t);
+
+						fail(exchange, StatusCodes.INTERNAL_SERVER_ERROR, t);
+					}
+				});
+			});
+		});
+	}
+
+	/**
+	 * Ends the exchange with the status and lets the default response listener render the error
+	 *
+	 * @param exchange
+	 * @param status
+	 * @param throwable
+	 */
+	public static void fail(final HttpServerExchange exchange, final int status, final Throwable throwable)
+	{
+		if (exchange.isResponseStarted())
+		{
+			exchange.endExchange();
+			return;
+		}
+
+		exchange.setStatusCode(status);
+		exchange.putAttachment(DefaultResponseListener.EXCEPTION, throwable);
+		exchange.endExchange();
+	}
+
+	/**
+	 * Fails the exchange with a 504 if the request's deadline has already passed, so queued work the client has given up on is dropped instead of run
+	 *
+	 * @param exchange
+	 * @return true if the exchange was failed
+	 */
+	public static boolean failIfExpired(final HttpServerExchange exchange)
+	{
+		if (Deadline.of(exchange).isExpired())
+		{
+			fail(exchange, StatusCodes.GATEWAY_TIME_OUT, new TimeoutException("Request deadline passed before it could be handled"));
+			return true;
+		}
+
+		return false;
+	}
+
+	protected static int statusFor(final Throwable throwable)
+	{
+		if (throwable instanceof TimeoutException)
+		{
+			return StatusCodes.GATEWAY_TIME_OUT;
+		}
+		else if (throwable instanceof CancellationException)
+		{
+			return StatusCodes.SERVICE_UNAVAILABLE;
+		}
+		else if (throwable instanceof RecordTooLargeException)
+		{
+			return StatusCodes.REQUEST_ENTITY_TOO_LARGE;
+		}
+		else if (throwable instanceof IllegalArgumentException)
+		{
+			return StatusCodes.BAD_REQUEST;
+		}
+
+		return StatusCodes.INTERNAL_SERVER_ERROR;
+	}
+
+	protected static Throwable unwrap(Throwable throwable)
+	{
+		while ((throwable instanceof CompletionException || throwable instanceof ExecutionException) && throwable.getCause() != null)
+		{
+			throwable = throwable.getCause();
+		}
+
+		return throwable;
+	}
+
+	/**
+	 * A single close listener per connection cancels whatever is still pending on it
+	 *
+	 * @param connection
+	 * @return the cancellations to run if the connection closes, remove entries once they are no longer needed
+	 */
+	public static Set<Runnable> cancellations(final ServerConnection connection)
+	{
+		synchronized (connection)
+		{
+			Cancellations cancellations = connection.getAttachment(CANCELLATIONS_KEY);
+
+			if (cancellations == null)
+			{
+				final Cancellations created = new Cancellations();
+
+				connection.putAttachment(CANCELLATIONS_KEY, created);
+				connection.addCloseListener(c -> created.pending.forEach(Runnable::run));
+
+				cancellations = created;
+			}
+
+			return cancellations.pending;
+		}
+	}
+
+	protected static class Cancellations
+	{
+		protected final Set<Runnable> pending = ConcurrentHashMap.newKeySet();
+	}
+}
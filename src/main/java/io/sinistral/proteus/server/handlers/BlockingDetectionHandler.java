@@ -0,0 +1,56 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.handlers;
+
+import io.sinistral.proteus.server.diagnostics.BlockingCallDetector;
+import io.sinistral.proteus.server.diagnostics.BlockingCallDetector.Probe;
+import io.sinistral.proteus.server.diagnostics.BlockingCallDetector.RouteStats;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+
+/**
+ * Reports the time a route that is not <code>@Blocking</code> spends on the IO thread to the {@link BlockingCallDetector}. Routes the detector has flagged are dispatched through a {@link BlockingDispatchHandler} if <code>autoDispatch</code> is enabled.
+ *
+ * @author jbauer
+ */
+public class BlockingDetectionHandler implements HttpHandler
+{
+	protected final HttpHandler next;
+	protected final HttpHandler dispatcher;
+	protected final RouteStats route;
+
+	public BlockingDetectionHandler(final HttpHandler next, final String route)
+	{
+		this.next = next;
+		this.dispatcher = new BlockingDispatchHandler(next);
+		this.route = BlockingCallDetector.route(route);
+	}
+
+	@Override
+	public void handleRequest(final HttpServerExchange exchange) throws Exception
+	{
+		if (!exchange.isInIoThread())
+		{
+			this.next.handleRequest(exchange);
+			return;
+		}
+
+		if (BlockingCallDetector.shouldDispatch(this.route))
+		{
+			this.dispatcher.handleRequest(exchange);
+			return;
+		}
+
+		final Probe probe = BlockingCallDetector.enter(this.route);
+
+		try
+		{
+			this.next.handleRequest(exchange);
+
+		} finally
+		{
+			BlockingCallDetector.exit(probe);
+		}
+	}
+}
@@ -0,0 +1,63 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.handlers;
+
+import java.util.concurrent.Executor;
+
+import io.sinistral.proteus.server.executors.BlockingExecutors;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+
+/**
+ * Starts blocking mode and dispatches the exchange to the executor selected by {@link BlockingExecutors}, or to Undertow's worker pool if none is configured. Used in place of {@link io.undertow.server.handlers.BlockingHandler} for <code>@Blocking</code> routes.
+ * <p>
+ * Requests whose {@link io.sinistral.proteus.server.Deadline} passes while they wait for a thread are failed with a 504 rather than handled.
+ *
+ * @author jbauer
+ */
+public class BlockingDispatchHandler implements HttpHandler
+{
+	protected final HttpHandler next;
+	protected final HttpHandler unlessExpired;
+
+	public BlockingDispatchHandler(final HttpHandler next)
+	{
+		this.next = next;
+		this.unlessExpired = exchange -> {
+
+			if (!AsyncResponses.failIfExpired(exchange))
+			{
+				this.next.handleRequest(exchange);
+			}
+		};
+	}
+
+	@Override
+	public void handleRequest(final HttpServerExchange exchange) throws Exception
+	{
+		exchange.startBlocking();
+
+		if (!exchange.isInIoThread())
+		{
+			this.next.handleRequest(exchange);
+			return;
+		}
+
+		final Executor executor = this.executor();
+
+		if (executor == null)
+		{
+			exchange.dispatch(this.unlessExpired);
+		}
+		else
+		{
+			exchange.dispatch(executor, this.unlessExpired);
+		}
+	}
+
+	protected Executor executor()
+	{
+		return BlockingExecutors.executor();
+	}
+}
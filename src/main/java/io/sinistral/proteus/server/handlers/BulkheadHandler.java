@@ -0,0 +1,57 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.handlers;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import io.sinistral.proteus.server.executors.BulkheadExecutor;
+import io.undertow.server.Connectors;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.SameThreadExecutor;
+import io.undertow.util.StatusCodes;
+
+/**
+ * Runs the route in blocking mode on its {@link BulkheadExecutor}. If the bulkhead is saturated the request is rejected on the IO thread with a 503 and a <code>Retry-After</code> header. A request whose {@link io.sinistral.proteus.server.Deadline} passes while it is queued is failed with a 504 rather than handled.
+ *
+ * @author jbauer
+ */
+public class BulkheadHandler implements HttpHandler
+{
+	protected final HttpHandler next;
+	protected final BulkheadExecutor bulkhead;
+
+	public BulkheadHandler(final HttpHandler next, final BulkheadExecutor bulkhead)
+	{
+		this.next = next;
+		this.bulkhead = bulkhead;
+	}
+
+	@Override
+	public void handleRequest(final HttpServerExchange exchange) throws Exception
+	{
+		exchange.startBlocking();
+
+		exchange.dispatch(SameThreadExecutor.INSTANCE, () -> {
+
+			try
+			{
+				this.bulkhead.execute(() -> {
+
+					if (!AsyncResponses.failIfExpired(exchange))
+					{
+						Connectors.executeRootHandler(this.next, exchange);
+					}
+				});
+
+			} catch (RejectedExecutionException e)
+			{
+				exchange.getResponseHeaders().put(Headers.RETRY_AFTER, this.bulkhead.getRetryAfterSeconds());
+
+				AsyncResponses.fail(exchange, StatusCodes.SERVICE_UNAVAILABLE, new RejectedExecutionException("Bulkhead " + this.bulkhead.getName() + " is saturated"));
+			}
+		});
+	}
+}
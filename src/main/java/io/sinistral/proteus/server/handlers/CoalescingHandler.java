@@ -0,0 +1,264 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.handlers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.xnio.XnioExecutor;
+
+import io.sinistral.proteus.server.Deadline;
+import io.sinistral.proteus.server.cache.CapturedResponse;
+import io.undertow.server.Connectors;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.AttachmentKey;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.Methods;
+import io.undertow.util.SameThreadExecutor;
+import io.undertow.util.StatusCodes;
+
+/**
+ * Wraps the handler of a route annotated with {@link io.sinistral.proteus.annotations.Coalesce} so that identical concurrent GET requests invoke it once.
+ * <p>
+ * The first request for a key becomes the leader and is handled normally. Requests arriving while the leader is in flight are parked on their exchanges without holding a thread. When the leader's serialized response is sent through {@link CapturedResponse#send(HttpServerExchange, java.nio.ByteBuffer)}, a copy is replayed on every parked exchange. If the leader completes without a capturable response, for instance an error or a streamed body, each parked request is handled on its own.
+ * <p>
+ * A parked request waits at most the route's timeout, or until its {@link Deadline} if that comes first, and then leaves the flight and fails with a 504.
+ *
+ * @author jbauer
+ */
+public class CoalescingHandler implements HttpHandler
+{
+	protected static final AttachmentKey<Flight> FLIGHT_KEY = AttachmentKey.create(Flight.class);
+
+	protected final ConcurrentHashMap<Object, Flight> flights = new ConcurrentHashMap<>();
+
+	protected final HttpHandler next;
+	protected final long timeoutMillis;
+	protected final HttpString[] headers;
+
+	/**
+	 * @param next
+	 * @param timeoutMillis
+	 *            how long a parked request waits for the leader, 0 to wait only until its deadline
+	 * @param headers
+	 *            names of additional request headers that distinguish responses
+	 */
+	public CoalescingHandler(final HttpHandler next, final long timeoutMillis, final String... headers)
+	{
+		this.next = next;
+		this.timeoutMillis = timeoutMillis;
+		this.headers = Arrays.stream(headers).map(HttpString::new).toArray(HttpString[]::new);
+	}
+
+	@Override
+	public void handleRequest(final HttpServerExchange exchange) throws Exception
+	{
+		if (!exchange.getRequestMethod().equals(Methods.GET))
+		{
+			this.next.handleRequest(exchange);
+			return;
+		}
+
+		final Object key = this.key(exchange);
+
+		final Flight flight = new Flight(key);
+
+		final Flight inFlight = this.flights.putIfAbsent(key, flight);
+
+		if (inFlight == null)
+		{
+			exchange.putAttachment(FLIGHT_KEY, flight);
+
+			exchange.addExchangeCompleteListener((ex, nextListener) -> {
+
+				if (ex.removeAttachment(FLIGHT_KEY) != null)
+				{
+					flight.land(null);
+				}
+
+				nextListener.proceed();
+			});
+
+			this.next.handleRequest(exchange);
+		}
+		else
+		{
+			if (AsyncResponses.failIfExpired(exchange))
+			{
+				return;
+			}
+
+			final Deadline deadline = Deadline.of(exchange);
+
+			final long effectiveTimeoutMillis = deadline.isSet() ? Math.max(1, Math.min(this.timeoutMillis > 0 ? this.timeoutMillis : Long.MAX_VALUE, deadline.remaining(TimeUnit.MILLISECONDS))) : this.timeoutMillis;
+
+			exchange.dispatch(SameThreadExecutor.INSTANCE, () -> {
+
+				final Follower follower = new Follower(exchange);
+
+				if (!inFlight.join(follower))
+				{
+					Connectors.executeRootHandler(this, exchange);
+					return;
+				}
+
+				if (effectiveTimeoutMillis > 0)
+				{
+					follower.timeoutKey = exchange.getIoThread().executeAfter(() -> {
+
+						if (inFlight.leave(follower))
+						{
+							AsyncResponses.fail(exchange, StatusCodes.GATEWAY_TIME_OUT, new TimeoutException("Coalesced response was not completed within " + effectiveTimeoutMillis + "ms"));
+						}
+
+					}, effectiveTimeoutMillis, TimeUnit.MILLISECONDS);
+				}
+			});
+		}
+	}
+
+	protected Object key(final HttpServerExchange exchange)
+	{
+		final List<String> key = new ArrayList<>(this.headers.length + 3);
+
+		key.add(exchange.getRequestURI());
+		key.add(exchange.getQueryString());
+		key.add(exchange.getRequestHeaders().getFirst(Headers.ACCEPT));
+
+		for (HttpString header : this.headers)
+		{
+			key.add(exchange.getRequestHeaders().getFirst(header));
+		}
+
+		return key;
+	}
+
+	/**
+	 * @param exchange
+	 * @return true if other requests may be waiting on this exchange's response
+	 */
+	public static boolean isLeader(final HttpServerExchange exchange)
+	{
+		return exchange.getAttachment(FLIGHT_KEY) != null;
+	}
+
+	/**
+	 * Replays the response on every request waiting on this exchange
+	 *
+	 * @param exchange
+	 * @param response
+	 */
+	public static void land(final HttpServerExchange exchange, final CapturedResponse response)
+	{
+		final Flight flight = exchange.removeAttachment(FLIGHT_KEY);
+
+		if (flight != null)
+		{
+			flight.land(response);
+		}
+	}
+
+	protected class Flight
+	{
+		protected final Object key;
+
+		protected List<Follower> followers = new ArrayList<>();
+
+		protected Flight(final Object key)
+		{
+			this.key = key;
+		}
+
+		/**
+		 * @param follower
+		 * @return false if the flight has already landed
+		 */
+		protected synchronized boolean join(final Follower follower)
+		{
+			if (this.followers == null)
+			{
+				return false;
+			}
+
+			this.followers.add(follower);
+
+			return true;
+		}
+
+		/**
+		 * @param follower
+		 * @return false if the flight has already landed, in which case the response is already on its way to the follower
+		 */
+		protected synchronized boolean leave(final Follower follower)
+		{
+			return this.followers != null && this.followers.remove(follower);
+		}
+
+		protected void land(final CapturedResponse response)
+		{
+			final List<Follower> followers;
+
+			CoalescingHandler.this.flights.remove(this.key, this);
+
+			synchronized (this)
+			{
+				followers = this.followers;
+				this.followers = null;
+			}
+
+			if (followers == null)
+			{
+				return;
+			}
+
+			for (Follower follower : followers)
+			{
+				final HttpServerExchange exchange = follower.exchange;
+
+				exchange.getIoThread().execute(() -> {
+
+					follower.cancelTimeout();
+
+					if (response != null)
+					{
+						response.replay(exchange);
+					}
+					else
+					{
+						Connectors.executeRootHandler(CoalescingHandler.this.next, exchange);
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * A request parked on a flight and the timer that fails it if the leader takes too long
+	 */
+	protected static class Follower
+	{
+		protected final HttpServerExchange exchange;
+
+		protected XnioExecutor.Key timeoutKey;
+
+		protected Follower(final HttpServerExchange exchange)
+		{
+			this.exchange = exchange;
+		}
+
+		protected void cancelTimeout()
+		{
+			if (this.timeoutKey != null)
+			{
+				this.timeoutKey.remove();
+			}
+		}
+	}
+}
@@ -0,0 +1,180 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.handlers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.typesafe.config.Config;
+
+import io.sinistral.proteus.server.limits.GradientLimit;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.ExchangeCompletionListener;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.ResponseCommitListener;
+import io.undertow.util.Headers;
+import io.undertow.util.StatusCodes;
+
+/**
+ * Limits the requests in flight with a {@link GradientLimit} per route group, rejecting requests over the limit immediately with a 503 and a <code>Retry-After</code> header rather than letting them queue for a worker.
+ * <p>
+ * Groups are configured under <code>groups</code> with a path <code>prefix</code> and any limit settings that differ from the defaults. A request belongs to the group with the longest matching prefix, or to the <code>default</code> group.
+ * <p>
+ * A request holds its permit until its response starts rather than until the exchange completes, so server-sent event and other streaming responses do not occupy the limit for as long as they stay open, and the latency the limit adapts to is the time to the first byte. Only successful responses are sampled, so errors, redirects, 304s and rejections do not drag the latency down.
+ *
+ * @author jbauer
+ */
+public class ConcurrencyLimitHandler implements HttpHandler
+{
+	public static final String DEFAULT_GROUP = "default";
+
+	protected static final Map<String, GradientLimit> LIMITS = new ConcurrentSkipListMap<>();
+
+	protected final HttpHandler next;
+	protected final GradientLimit defaultLimit;
+	protected final List<Group> groups = new ArrayList<>();
+	protected final String retryAfter;
+
+	public ConcurrencyLimitHandler(final HttpHandler next, final Config config)
+	{
+		this.next = next;
+		this.defaultLimit = limit(DEFAULT_GROUP, config);
+		this.retryAfter = String.valueOf(config.getDuration("retryAfter", TimeUnit.SECONDS));
+
+		LIMITS.put(DEFAULT_GROUP, this.defaultLimit);
+
+		if (config.hasPath("groups"))
+		{
+			final Config groupsConfig = config.getConfig("groups");
+
+			for (String name : groupsConfig.root().keySet())
+			{
+				final Config groupConfig = groupsConfig.getConfig(name).withFallback(config);
+
+				final GradientLimit limit = limit(name, groupConfig);
+
+				this.groups.add(new Group(groupConfig.getString("prefix"), limit));
+
+				LIMITS.put(name, limit);
+			}
+		}
+
+		this.groups.sort(Comparator.comparingInt((Group g) -> g.prefix.length()).reversed());
+	}
+
+	protected static GradientLimit limit(final String name, final Config config)
+	{
+		return new GradientLimit(name, config.getInt("initialLimit"), config.getInt("minLimit"), config.getInt("maxLimit"), config.getDouble("smoothing"), config.getDouble("tolerance"));
+	}
+
+	/**
+	 * @return the limits of every group by name
+	 */
+	public static Map<String, GradientLimit> limits()
+	{
+		return Collections.unmodifiableMap(LIMITS);
+	}
+
+	@Override
+	public void handleRequest(final HttpServerExchange exchange) throws Exception
+	{
+		final GradientLimit limit = this.limitFor(exchange.getRequestPath());
+
+		final int inFlight = limit.tryAcquire();
+
+		if (inFlight < 0)
+		{
+			exchange.setStatusCode(StatusCodes.SERVICE_UNAVAILABLE);
+			exchange.getResponseHeaders().put(Headers.RETRY_AFTER, this.retryAfter);
+			exchange.endExchange();
+			return;
+		}
+
+		final Permit permit = new Permit(limit, inFlight);
+
+		exchange.addResponseCommitListener(permit);
+		exchange.addExchangeCompleteListener(permit);
+
+		this.next.handleRequest(exchange);
+	}
+
+	protected GradientLimit limitFor(final String path)
+	{
+		for (Group group : this.groups)
+		{
+			if (path.startsWith(group.prefix))
+			{
+				return group.limit;
+			}
+		}
+
+		return this.defaultLimit;
+	}
+
+	/**
+	 * Releases the permit of a request once, when its response starts or, if it never starts one, when the exchange completes
+	 */
+	protected static class Permit implements ResponseCommitListener, ExchangeCompletionListener
+	{
+		protected final GradientLimit limit;
+		protected final int inFlight;
+		protected final long start = System.nanoTime();
+		protected final AtomicBoolean released = new AtomicBoolean();
+
+		protected Permit(final GradientLimit limit, final int inFlight)
+		{
+			this.limit = limit;
+			this.inFlight = inFlight;
+		}
+
+		@Override
+		public void beforeCommit(final HttpServerExchange exchange)
+		{
+			this.release(exchange);
+		}
+
+		@Override
+		public void exchangeEvent(final HttpServerExchange exchange, final NextListener nextListener)
+		{
+			this.release(exchange);
+
+			nextListener.proceed();
+		}
+
+		protected void release(final HttpServerExchange exchange)
+		{
+			if (this.released.compareAndSet(false, true))
+			{
+				final int status = exchange.getStatusCode();
+
+				if (status >= 200 && status < 300)
+				{
+					this.limit.release(System.nanoTime() - this.start, this.inFlight);
+				}
+				else
+				{
+					this.limit.release();
+				}
+			}
+		}
+	}
+
+	protected static class Group
+	{
+		protected final String prefix;
+		protected final GradientLimit limit;
+
+		protected Group(final String prefix, final GradientLimit limit)
+		{
+			this.prefix = prefix;
+			this.limit = limit;
+		}
+	}
+}
@@ -3,21 +3,24 @@
  */
 package io.sinistral.proteus.server.handlers;
 
-import java.io.File;
 import java.lang.reflect.Method;
 import java.lang.reflect.Parameter;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
-import java.net.URI;
-import java.net.URL;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.regex.Matcher;
@@ -52,12 +55,30 @@ import com.squareup.javapoet.ParameterSpec;
 import com.squareup.javapoet.ParameterizedTypeName;
 import com.squareup.javapoet.TypeName;
 import com.squareup.javapoet.TypeSpec;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
 
+import io.sinistral.proteus.annotations.Batched;
 import io.sinistral.proteus.annotations.Blocking;
+import io.sinistral.proteus.annotations.Bulkhead;
+import io.sinistral.proteus.annotations.Cached;
+import io.sinistral.proteus.annotations.Coalesce;
+import io.sinistral.proteus.annotations.Compress;
+import io.sinistral.proteus.annotations.Timeout;
 import io.sinistral.proteus.server.Extractors;
+import io.sinistral.proteus.server.Deadline;
 import io.sinistral.proteus.server.ServerRequest;
 import io.sinistral.proteus.server.ServerResponse;
+import io.sinistral.proteus.server.batching.MicroBatcher;
+import io.sinistral.proteus.server.cache.CapturedResponse;
+import io.sinistral.proteus.server.cache.ResponseCache;
+import io.sinistral.proteus.server.endpoints.EndpointIndex;
 import io.sinistral.proteus.server.endpoints.EndpointInfo;
+import io.sinistral.proteus.server.executors.BulkheadExecutor;
+import io.sinistral.proteus.server.encoding.CompressionPredicate;
+import io.sinistral.proteus.server.streaming.JsonArrayStreamSender;
+import io.sinistral.proteus.server.streaming.PublisherStreamSender;
+import io.sinistral.proteus.server.streaming.ServerSentEventPublisher;
 import io.swagger.annotations.Api;
 import io.undertow.server.HandlerWrapper;
 import io.undertow.server.HttpHandler;
@@ -65,7 +86,7 @@ import io.undertow.server.HttpServerExchange;
 import io.undertow.server.RoutingHandler;
 import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
-import net.openhft.compiler.CompilerUtils;
+import io.undertow.util.Methods;
 
 /**
  * Generates code and compiles a <code>Supplier<RoutingHandler></code> class from the target class's methods that are annotated with a JAX-RS method annotation (i.e. <code>javax.ws.rs.GET</code>)
@@ -82,7 +103,7 @@ public class HandlerGenerator
 
 	public enum StatementParameterType
 	{
-		STRING, LITERAL, TYPE, RAW
+		STRING, LITERAL, TYPE, RAW, HEADER
 	}
 
 	/**
@@ -115,13 +136,13 @@ public class HandlerGenerator
 		ListValueOfType("$T<$T> $L = exchange.getQueryParameters().get($S).stream().map($T::valueOf).collect(java.util.stream.Collectors.toList())", false, java.util.List.class, StatementParameterType.RAW, StatementParameterType.LITERAL, StatementParameterType.STRING, StatementParameterType.RAW),
 		ListFromStringType("$T<$T> $L = exchange.getQueryParameters().get($S).stream().map($T::fromString).collect(java.util.stream.Collectors.toList())", false, java.util.List.class, StatementParameterType.RAW, StatementParameterType.LITERAL, StatementParameterType.STRING, StatementParameterType.RAW),
 
-		HeaderValueOfType("$T $L = $T.valueOf($T.string(exchange,$S))", false, StatementParameterType.TYPE, StatementParameterType.LITERAL, StatementParameterType.TYPE, io.sinistral.proteus.server.Extractors.Header.class, StatementParameterType.STRING),
-		HeaderFromStringType("$T $L = $T.fromString($T.string(exchange,$S))", false, StatementParameterType.TYPE, StatementParameterType.LITERAL, StatementParameterType.TYPE, io.sinistral.proteus.server.Extractors.Header.class, StatementParameterType.STRING),
-		HeaderStringType("$T $L = $T.string(exchange,$S)", false, java.lang.String.class, StatementParameterType.LITERAL, io.sinistral.proteus.server.Extractors.Header.class, StatementParameterType.STRING),
+		HeaderValueOfType("$T $L = $T.valueOf($T.string(exchange,$L))", false, StatementParameterType.TYPE, StatementParameterType.LITERAL, StatementParameterType.TYPE, io.sinistral.proteus.server.Extractors.Header.class, StatementParameterType.HEADER),
+		HeaderFromStringType("$T $L = $T.fromString($T.string(exchange,$L))", false, StatementParameterType.TYPE, StatementParameterType.LITERAL, StatementParameterType.TYPE, io.sinistral.proteus.server.Extractors.Header.class, StatementParameterType.HEADER),
+		HeaderStringType("$T $L = $T.string(exchange,$L)", false, java.lang.String.class, StatementParameterType.LITERAL, io.sinistral.proteus.server.Extractors.Header.class, StatementParameterType.HEADER),
 
-		OptionalHeaderValueOfType("$T<$T> $L = $T.string(exchange,$S).map($T::valueOf)", false, Optional.class, StatementParameterType.RAW, StatementParameterType.LITERAL, io.sinistral.proteus.server.Extractors.Header.Optional.class, StatementParameterType.STRING, StatementParameterType.RAW),
-		OptionalHeaderFromStringType("$T<$T> $L = $T.string(exchange,$S).map($T::fromString)", false, Optional.class, StatementParameterType.RAW, StatementParameterType.LITERAL, io.sinistral.proteus.server.Extractors.Header.Optional.class, StatementParameterType.STRING, StatementParameterType.RAW),
-		OptionalHeaderStringType("$T<$T> $L = $T.string(exchange,$S)", false, Optional.class, java.lang.String.class, StatementParameterType.LITERAL, io.sinistral.proteus.server.Extractors.Header.Optional.class, StatementParameterType.STRING),
+		OptionalHeaderValueOfType("$T<$T> $L = $T.string(exchange,$L).map($T::valueOf)", false, Optional.class, StatementParameterType.RAW, StatementParameterType.LITERAL, io.sinistral.proteus.server.Extractors.Header.Optional.class, StatementParameterType.HEADER, StatementParameterType.RAW),
+		OptionalHeaderFromStringType("$T<$T> $L = $T.string(exchange,$L).map($T::fromString)", false, Optional.class, StatementParameterType.RAW, StatementParameterType.LITERAL, io.sinistral.proteus.server.Extractors.Header.Optional.class, StatementParameterType.HEADER, StatementParameterType.RAW),
+		OptionalHeaderStringType("$T<$T> $L = $T.string(exchange,$L)", false, Optional.class, java.lang.String.class, StatementParameterType.LITERAL, io.sinistral.proteus.server.Extractors.Header.Optional.class, StatementParameterType.HEADER),
 
 		OptionalListValueOfType("$T $L = java.util.Optional.ofNullable(exchange.getQueryParameters().get($S)).map(java.util.Deque::stream).map( p -> p.map($T::valueOf).collect(java.util.stream.Collectors.toList()))", false, StatementParameterType.RAW, StatementParameterType.LITERAL, StatementParameterType.STRING, StatementParameterType.RAW),
 		OptionalListFromStringType("$T $L = java.util.Optional.ofNullable(exchange.getQueryParameters().get($S)).map(java.util.Deque::stream).map( p -> p.map($T::fromString).collect(java.util.stream.Collectors.toList()))", false, StatementParameterType.RAW, StatementParameterType.LITERAL, StatementParameterType.STRING, StatementParameterType.RAW),
@@ -149,6 +170,9 @@ public class HandlerGenerator
 		OptionalValueOfType("$T<$T> $L = $T.string(exchange,$S).map($T::valueOf)", false, Optional.class, StatementParameterType.RAW, StatementParameterType.LITERAL, io.sinistral.proteus.server.Extractors.Optional.class, StatementParameterType.STRING, StatementParameterType.RAW),
 		OptionalFromStringType("$T<$T> $L = $T.string(exchange,$S).map($T::fromString)", false, Optional.class, StatementParameterType.RAW, StatementParameterType.LITERAL, io.sinistral.proteus.server.Extractors.Optional.class, StatementParameterType.STRING, StatementParameterType.RAW),
 
+		NdjsonStreamType("$T $L = $T.ndjsonStream(exchange,$T.class,$L)", true, StatementParameterType.TYPE, StatementParameterType.LITERAL, io.sinistral.proteus.server.Extractors.class, StatementParameterType.RAW),
+		NdjsonIteratorType("$T $L = $T.ndjsonIterator(exchange,$T.class,$L)", true, StatementParameterType.TYPE, StatementParameterType.LITERAL, io.sinistral.proteus.server.Extractors.class, StatementParameterType.RAW),
+
 		// OptionalEnumType("$T $L = $T.enumValue(exchange,$T.class,$S)", true, StatementParameterType.TYPE, StatementParameterType.LITERAL, io.sinistral.proteus.server.Extractors.Optional.class, StatementParameterType.RAW, StatementParameterType.STRING),
 
 		;
@@ -185,49 +209,91 @@ public class HandlerGenerator
 			this.parameterTypes = types;
 		}
 
+		/**
+		 * @param parameter
+		 * @return the name in the parameter's <code>@QueryParam</code>, <code>@HeaderParam</code>, <code>@PathParam</code>, <code>@CookieParam</code> or <code>@FormParam</code>, otherwise its own name
+		 */
+		public static String parameterName(Parameter parameter)
+		{
+			String pName = parameter.getName();
+
+			if (parameter.isAnnotationPresent(QueryParam.class))
+			{
+				QueryParam qp = parameter.getAnnotation(QueryParam.class);
+				pName = qp.value();
+			}
+			else if (parameter.isAnnotationPresent(HeaderParam.class))
+			{
+				HeaderParam hp = parameter.getAnnotation(HeaderParam.class);
+				pName = hp.value();
+			}
+			else if (parameter.isAnnotationPresent(PathParam.class))
+			{
+				PathParam pp = parameter.getAnnotation(PathParam.class);
+				pName = pp.value();
+			}
+			else if (parameter.isAnnotationPresent(CookieParam.class))
+			{
+				CookieParam cp = parameter.getAnnotation(CookieParam.class);
+				pName = cp.value();
+			}
+			else if (parameter.isAnnotationPresent(FormParam.class))
+			{
+				FormParam fp = parameter.getAnnotation(FormParam.class);
+				pName = fp.value();
+			}
+
+			return pName;
+		}
+
+		/**
+		 * @param headerName
+		 * @return the name of the <code>HttpString</code> constant a generated route supplier declares for the header. Letters and digits are kept, <code>-</code> becomes <code>_</code> and any other character is escaped, so distinct header names never share a constant.
+		 */
+		public static String headerConstantName(String headerName)
+		{
+			StringBuilder sb = new StringBuilder("HEADER_");
+
+			for (char c : headerName.toCharArray())
+			{
+				if (Character.isLetterOrDigit(c) && c < 128)
+				{
+					sb.append(Character.toUpperCase(c));
+				}
+				else if (c == '-')
+				{
+					sb.append('_');
+				}
+				else
+				{
+					sb.append('$').append(Integer.toHexString(c)).append('$');
+				}
+			}
+
+			return sb.toString();
+		}
+
 		/**
 		 * Helper function to bind values to a {@link com.squareup.javapoet.MethodSpec.Builder}
 		 * 
 		 * @param builder
 		 * @param parameter
 		 * @param handler
+		 * @param trailingArgs
+		 *            arguments for the statement's placeholders after those of its parameter types
 		 * @throws Exception
 		 */
-		public static void addStatement(MethodSpec.Builder builder, Parameter parameter, TypeHandler handler) throws Exception
+		public static void addStatement(MethodSpec.Builder builder, Parameter parameter, TypeHandler handler, Object... trailingArgs) throws Exception
 		{
-			Object[] args = new Object[handler.parameterTypes.length];
+			Object[] args = new Object[handler.parameterTypes.length + trailingArgs.length];
+
+			System.arraycopy(trailingArgs, 0, args, handler.parameterTypes.length, trailingArgs.length);
 
 			for (int i = 0; i < handler.parameterTypes.length; i++)
 			{
 				if (handler.parameterTypes[i] instanceof StatementParameterType)
 				{
-					String pName = parameter.getName();
-
-					if (parameter.isAnnotationPresent(QueryParam.class))
-					{
-						QueryParam qp = parameter.getAnnotation(QueryParam.class);
-						pName = qp.value();
-					}
-					else if (parameter.isAnnotationPresent(HeaderParam.class))
-					{
-						HeaderParam hp = parameter.getAnnotation(HeaderParam.class);
-						pName = hp.value();
-					}
-					else if (parameter.isAnnotationPresent(PathParam.class))
-					{
-						PathParam pp = parameter.getAnnotation(PathParam.class);
-						pName = pp.value();
-					}
-					else if (parameter.isAnnotationPresent(CookieParam.class))
-					{
-						CookieParam cp = parameter.getAnnotation(CookieParam.class);
-						pName = cp.value();
-					}
-					else if (parameter.isAnnotationPresent(FormParam.class))
-					{
-						FormParam fp = parameter.getAnnotation(FormParam.class);
-						pName = fp.value();
-					}
+					String pName = parameterName(parameter);
 
 					StatementParameterType pType = (StatementParameterType) handler.parameterTypes[i];
 					switch (pType)
@@ -238,14 +304,28 @@ public class HandlerGenerator
 					case STRING:
 						args[i] = pName;
 						break;
+					case HEADER:
+						args[i] = headerConstantName(pName);
+						break;
 					case TYPE:
 						args[i] = parameter.getParameterizedType();
 						break;
 					case RAW:
 					{
 						Type type = parameter.getParameterizedType();
-						type = extractErasedType(type);
-						args[i] = type;
+						Type erasedType = extractErasedType(type);
+
+						if (erasedType == null && type instanceof ParameterizedType)
+						{
+							erasedType = ((ParameterizedType) type).getActualTypeArguments()[0];
+
+							if (erasedType instanceof ParameterizedType)
+							{
+								erasedType = ((ParameterizedType) erasedType).getRawType();
+							}
+						}
+
+						args[i] = erasedType;
 						break;
 					}
 					default:
@@ -279,12 +359,42 @@ public class HandlerGenerator
 
 		}
 
+		/**
+		 * Lookup the <code>TypeHandler</code> for a {@link Parameter} of a route.
+		 * <p>
+		 * A <code>Stream</code> or <code>Iterator</code> parameter is bound to the NDJSON request body only when it is not a query, path, header, form or cookie parameter and the route consumes <code>application/x-ndjson</code>.
+		 *
+		 * @param parameter
+		 * @param consumesContentType
+		 *            the comma separated content types the route consumes
+		 */
+		public static TypeHandler forParameter(Parameter parameter, String consumesContentType)
+		{
+			Type type = parameter.getParameterizedType();
+
+			boolean isBody = !parameter.isAnnotationPresent(QueryParam.class) && !parameter.isAnnotationPresent(PathParam.class) && !parameter.isAnnotationPresent(HeaderParam.class) && !parameter.isAnnotationPresent(FormParam.class) && !parameter.isAnnotationPresent(CookieParam.class);
+
+			if (isBody && consumesContentType != null && consumesContentType.contains(io.sinistral.proteus.server.MediaType.APPLICATION_X_NDJSON.toString()))
+			{
+				if (type.getTypeName().startsWith("java.util.stream.Stream<"))
+				{
+					return NdjsonStreamType;
+				}
+				else if (type.getTypeName().startsWith("java.util.Iterator<"))
+				{
+					return NdjsonIteratorType;
+				}
+			}
+
+			return forType(type);
+		}
+
 		/**
 		 * Lookup the <code>TypeHandler</code> for a {@link Type}
 		 */
 		public static TypeHandler forType(Type type)
 		{
- 
+
 			boolean hasValueOf = false;
 			boolean hasFromString = false;
 			boolean isOptional = type.getTypeName().contains("java.util.Optional");
@@ -522,6 +632,9 @@ public class HandlerGenerator
 	@Named("registeredEndpoints")
 	protected Set<EndpointInfo> registeredEndpoints;
 
+	@Inject
+	protected Config config;
+
 	protected Class<?> controllerClass;
 
 	/**
@@ -540,25 +653,59 @@ public class HandlerGenerator
 	}
 
 	/**
-	 * Compiles the generated source into a new {@link Class}
+	 * Compiles the generated source into a new {@link Class}, or loads the class precompiled by {@link RouteSupplierGenerator} or cached by {@link RouteSupplierCache} if it was compiled from the same source
 	 * 
 	 * @return a new {@code Supplier<RoutingHandler>} class
 	 */
 	public Class<? extends Supplier<RoutingHandler>> compileClass()
 	{
-		try
+		return RouteSupplierCompiler.create(this.config).compile(Collections.singletonList(this)).get(this);
+	}
+
+	/**
+	 * @return the precompiled class if there is one for the generated source, otherwise null
+	 */
+	@SuppressWarnings("unchecked")
+	protected Class<? extends Supplier<RoutingHandler>> loadPrecompiledClass()
+	{
+		if (!this.config.getBoolean("application.precompiledHandlers"))
 		{
-			this.generateRoutes();
+			return null;
+		}
 
-			log.debug("\n\nGenerated Class Source:\n\n" + this.sourceString);
+		final String name = packageName + "." + className;
 
-			return CompilerUtils.CACHED_COMPILER.loadFromJava(packageName + "." + className, this.sourceString);
+		final ClassLoader loader = this.controllerClass.getClassLoader();
 
-		} catch (Exception e)
+		final String hash = RouteSupplierGenerator.index(loader).getProperty(name);
+
+		if (hash == null)
 		{
-			log.error(e.getMessage(), e);
 			return null;
 		}
+
+		if (!hash.equals(RouteSupplierGenerator.sourceHash(this.sourceString)))
+		{
+			log.info("Precompiled " + name + " does not match the generated source, compiling it at runtime");
+			return null;
+		}
+
+		try
+		{
+			Class<?> clazz = Class.forName(name, true, loader);
+
+			if (Supplier.class.isAssignableFrom(clazz))
+			{
+				log.debug("Using precompiled " + name);
+				return (Class<? extends Supplier<RoutingHandler>>) clazz;
+			}
+
+		} catch (ClassNotFoundException | LinkageError e)
+		{
+			log.warn("Unable to load precompiled " + name + ", compiling it at runtime: " + e.getMessage());
+		}
+
+		return null;
 	}
 
 	/**
@@ -622,15 +769,19 @@ public class HandlerGenerator
 		
 		HashSet<String> handlerNameSet = new HashSet<>();
 
+		Map<String, String> headerConstants = new TreeMap<>();
+
+		final Method[] methods = declaredMethods(clazz);
+
 		MethodSpec.Builder initBuilder = MethodSpec.methodBuilder("get").addModifiers(Modifier.PUBLIC).returns(RoutingHandler.class).addStatement("final $T router = new $T()", io.undertow.server.RoutingHandler.class, io.undertow.server.RoutingHandler.class);
 
-		final Map<Type, String> parameterizedLiteralsNameMap = Arrays.stream(clazz.getDeclaredMethods()).flatMap(m -> Arrays.stream(m.getParameters()).map(Parameter::getParameterizedType).filter(t -> t.getTypeName().contains("<") && !t.getTypeName().contains("concurrent")))
+		final Map<Type, String> parameterizedLiteralsNameMap = Arrays.stream(methods).flatMap(m -> Arrays.stream(m.getParameters()).map(Parameter::getParameterizedType).filter(t -> t.getTypeName().contains("<") && !t.getTypeName().contains("concurrent") && !t.getTypeName().startsWith("java.util.stream.Stream<") && !t.getTypeName().startsWith("java.util.Iterator<")))
 				.distinct().filter(t -> {
 					TypeHandler handler = TypeHandler.forType(t);
 					return (handler.equals(TypeHandler.ModelType) || handler.equals(TypeHandler.OptionalModelType));
-				}).collect(Collectors.toMap(java.util.function.Function.identity(), HandlerGenerator::typeLiteralNameForParameterizedType));
+				}).collect(Collectors.toMap(java.util.function.Function.identity(), HandlerGenerator::typeLiteralNameForParameterizedType, (a, b) -> a, LinkedHashMap::new));
 
-		final Map<Type, String> literalsNameMap = Arrays.stream(clazz.getDeclaredMethods()).flatMap(m -> Arrays.stream(m.getParameters()).map(Parameter::getParameterizedType)).filter(t -> {
+		final Map<Type, String> literalsNameMap = Arrays.stream(methods).flatMap(m -> Arrays.stream(m.getParameters()).map(Parameter::getParameterizedType)).filter(t -> {
 
 			if (t.getTypeName().contains("java.util"))
 			{
@@ -667,7 +818,7 @@ public class HandlerGenerator
 			{
 				return false;
 			}
-			else if (t.equals(HttpServerExchange.class) || t.equals(ServerRequest.class))
+			else if (t.equals(HttpServerExchange.class) || t.equals(ServerRequest.class) || t.equals(Deadline.class))
 			{
 				return false;
 			}
@@ -688,12 +839,14 @@ public class HandlerGenerator
 
 			return true;
 
-		}).distinct().collect(Collectors.toMap(java.util.function.Function.identity(), HandlerGenerator::typeLiteralNameForType));
+		}).distinct().collect(Collectors.toMap(java.util.function.Function.identity(), HandlerGenerator::typeLiteralNameForType, (a, b) -> a, LinkedHashMap::new));
 
 		parameterizedLiteralsNameMap.forEach((t, n) -> initBuilder.addStatement("final $T<$L> $LTypeLiteral = new $T<$L>(){}", TypeLiteral.class, t, n, TypeLiteral.class, t));
 
 		literalsNameMap.forEach((t, n) -> initBuilder.addStatement("final $T<$T> $LTypeLiteral = new $T<$T>(){}", TypeLiteral.class, t, n, TypeLiteral.class, t));
 
+		final int ndjsonMaxLineLength = (int) (long) this.config.getBytes("application.ndjson.maxLineLength");
+
 		Optional<io.sinistral.proteus.annotations.Chain> typeLevelWrapAnnotation = Optional.ofNullable(clazz.getAnnotation(io.sinistral.proteus.annotations.Chain.class));
 		Map<Class<? extends HandlerWrapper>, String> typeLevelHandlerWrapperMap = new LinkedHashMap<Class<? extends HandlerWrapper>, String>();
 
@@ -748,7 +901,7 @@ public class HandlerGenerator
 			} 
 		}
 
-		for (Method m : clazz.getDeclaredMethods())
+		for (Method m : methods)
 		{
 
 			if (!Optional.ofNullable(m.getAnnotation(javax.ws.rs.Path.class)).isPresent())
@@ -852,6 +1005,64 @@ public class HandlerGenerator
 			
 			handlerNameSet.add(handlerName);
 
+			Optional<io.sinistral.proteus.annotations.Chain> wrapAnnotation = Optional.ofNullable(m.getAnnotation(io.sinistral.proteus.annotations.Chain.class));
+
+			/*
+			 * Authorization
+			 */
+			
+			List<String> securityDefinitions = new ArrayList<>();
+			
+			/*
+			 * @TODO wrap blocking in BlockingHandler
+			 */
+			
+ 			
+			if( Optional.ofNullable(m.getAnnotation(io.swagger.annotations.ApiOperation.class)).isPresent() )
+			{
+				io.swagger.annotations.ApiOperation apiOperationAnnotation = m.getAnnotation(io.swagger.annotations.ApiOperation.class);
+				
+				io.swagger.annotations.Authorization[] authorizationAnnotations = apiOperationAnnotation.authorizations();
+				if(authorizationAnnotations.length > 0)
+				{
+					for(io.swagger.annotations.Authorization authorizationAnnotation: authorizationAnnotations )
+					{
+						if(authorizationAnnotation.value().length() > 0)
+						{
+							securityDefinitions.add(authorizationAnnotation.value());
+						}
+					}
+				} 
+			}
+			
+			if(securityDefinitions.isEmpty())
+			{
+				securityDefinitions.addAll(typeLevelSecurityDefinitions);
+			}
+
+			/*
+			 * The route's chain is the controller's @Chain followed by the method's, in declaration order, an entry listed on both runs once
+			 */
+
+			List<Map.Entry<Class<? extends HandlerWrapper>, String>> chain = new ArrayList<>(typeLevelHandlerWrapperMap.entrySet());
+
+			if (wrapAnnotation.isPresent())
+			{
+				for (Class<? extends HandlerWrapper> wrapperClass : wrapAnnotation.get().value())
+				{
+					if (typeLevelHandlerWrapperMap.containsKey(wrapperClass))
+					{
+						continue;
+					}
+
+					String wrapperName = handlerName + wrapperClass.getSimpleName();
+
+					initBuilder.addStatement("final $T $L = new $T()", wrapperClass, wrapperName, wrapperClass);
+
+					chain.add(new AbstractMap.SimpleImmutableEntry<>(wrapperClass, wrapperName));
+				}
+			}
+
 			TypeSpec.Builder handlerClassBuilder = TypeSpec.anonymousClassBuilder("").addSuperinterface(httpHandlerClass);
 
 			// handlerClassBuilder.addModifiers(Modifier.PUBLIC);
@@ -859,17 +1070,31 @@ public class HandlerGenerator
 			MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder("handleRequest").addModifiers(Modifier.PUBLIC).addException(ClassName.get("java.lang", "Exception")).addAnnotation(Override.class)
 					.addParameter(ParameterSpec.builder(HttpServerExchange.class, "exchange", Modifier.FINAL).build());
 
+			Optional<Compress> compressAnnotation = Optional.ofNullable(m.getAnnotation(Compress.class));
+
+			if (!compressAnnotation.isPresent())
+			{
+				compressAnnotation = Optional.ofNullable(clazz.getAnnotation(Compress.class));
+			}
+
+			if (compressAnnotation.isPresent())
+			{
+				methodBuilder.addStatement("$L.putAttachment($T.COMPRESS_KEY, $L)", "exchange", CompressionPredicate.class, compressAnnotation.get().value());
+			}
+
+			final String routeConsumesContentType = consumesContentType;
+
 			for (Parameter p : m.getParameters())
 			{
 
-				if (p.getParameterizedType().equals(ServerRequest.class) || p.getParameterizedType().equals(HttpServerExchange.class) || p.getParameterizedType().equals(HttpHandler.class))
+				if (p.getParameterizedType().equals(ServerRequest.class) || p.getParameterizedType().equals(HttpServerExchange.class) || p.getParameterizedType().equals(HttpHandler.class) || p.getParameterizedType().equals(Deadline.class))
 				{
 					continue;
 				}
 
 				try
 				{
-					TypeHandler t = TypeHandler.forType(p.getParameterizedType());
+					TypeHandler t = TypeHandler.forParameter(p, routeConsumesContentType);
 
 					if (t.isBlocking())
 					{
@@ -906,6 +1131,10 @@ public class HandlerGenerator
 					{
 						// methodBuilder.addCode("$L", "\n");
 					}
+					else if (p.getType().equals(Deadline.class))
+					{
+						methodBuilder.addStatement("$T $L = $T.of(exchange)", Deadline.class, p.getName(), Deadline.class);
+					}
 					else if (p.getType().equals(HttpHandler.class))
 					{
 						methodBuilder.addStatement("$T $L = this", HttpHandler.class, p.getName());
@@ -915,6 +1144,9 @@ public class HandlerGenerator
 					{
 						if (p.isAnnotationPresent(HeaderParam.class))
 						{
+							String headerName = TypeHandler.parameterName(p);
+
+							headerConstants.putIfAbsent(TypeHandler.headerConstantName(headerName), headerName);
 
 							TypeHandler handler = TypeHandler.forType(type);
 
@@ -968,7 +1200,7 @@ public class HandlerGenerator
 						}
 						else
 						{
-							TypeHandler t = TypeHandler.forType(type);
+							TypeHandler t = TypeHandler.forParameter(p, routeConsumesContentType);
 
 							if (t.equals(TypeHandler.OptionalModelType) || t.equals(TypeHandler.ModelType))
 							{
@@ -979,6 +1211,10 @@ public class HandlerGenerator
 								methodBuilder.addStatement(t.statement, type, p.getName(), pType);
 
 							}
+							else if (t.equals(TypeHandler.NdjsonStreamType) || t.equals(TypeHandler.NdjsonIteratorType))
+							{
+								TypeHandler.addStatement(methodBuilder, p, t, ndjsonMaxLineLength);
+							}
 							else if (t.equals(TypeHandler.OptionalFromStringType) || t.equals(TypeHandler.OptionalValueOfType))
 							{
 
@@ -1003,7 +1239,7 @@ public class HandlerGenerator
 							}
 							else
 							{
-								TypeHandler.addStatement(methodBuilder, p);
+								TypeHandler.addStatement(methodBuilder, p, t);
 							}
 						}
 					}
@@ -1017,11 +1253,75 @@ public class HandlerGenerator
 
 			methodBuilder.addCode("$L", "\n");
 
+			Optional<Cached> cachedAnnotation = Optional.ofNullable(m.getAnnotation(Cached.class));
+
+			if (cachedAnnotation.isPresent() && !(httpMethod.equals(Methods.GET) && !m.getReturnType().toString().equals("void") && !ServerSentEventPublisher.class.isAssignableFrom(m.getReturnType())))
+			{
+				log.warn("Ignoring @Cached on " + clazz.getSimpleName() + "." + m.getName() + ", only GET routes with a response can be cached");
+
+				cachedAnnotation = Optional.empty();
+			}
+
+			final String cacheName = handlerName + "Cache";
+
+			if (cachedAnnotation.isPresent())
+			{
+				final List<String> keyParameters = cacheKeyParameters(m, cachedAnnotation.get());
+
+				methodBuilder.addStatement("final $T cacheKey = $L.key(exchange$L)", Object.class, cacheName, keyParameters.stream().map(n -> "," + n).collect(Collectors.joining()));
+
+				methodBuilder.beginControlFlow("if ($L.serve(exchange, cacheKey))", cacheName);
+				methodBuilder.addStatement("return");
+				methodBuilder.endControlFlow();
+
+				methodBuilder.addCode("$L", "\n");
+			}
+
+			/*
+			 * Interceptors at the end of the chain are called inline by the handler, unless the route is bulkheaded, dispatched or coalesced, when the whole chain must run ahead of it
+			 */
+
+			boolean isDispatched = isBlocking || m.isAnnotationPresent(Bulkhead.class) || clazz.isAnnotationPresent(Bulkhead.class) || (m.isAnnotationPresent(Coalesce.class) && httpMethod.equals(Methods.GET));
+
+			int nestedChainLength = chain.size();
+
+			while (!isDispatched && nestedChainLength > 0 && HandlerInterceptor.class.isAssignableFrom(chain.get(nestedChainLength - 1).getKey()))
+			{
+				nestedChainLength--;
+			}
+
+			List<String> interceptorNames = chain.subList(nestedChainLength, chain.size()).stream().map(Map.Entry::getValue).collect(Collectors.toList());
+
 			CodeBlock.Builder functionBlockBuilder = CodeBlock.builder();
 
 			String controllerMethodArgs = Arrays.stream(m.getParameters()).map(Parameter::getName).collect(Collectors.joining(","));
 
-			if (!m.getReturnType().toString().equals("void"))
+			Optional<Batched> batchedAnnotation = Optional.ofNullable(m.getAnnotation(Batched.class));
+
+			List<Parameter> batchParameters = Arrays.stream(m.getParameters()).filter(p -> !p.getType().equals(ServerRequest.class) && !p.getType().equals(HttpServerExchange.class) && !p.getType().equals(HttpHandler.class) && !p.getType().equals(Deadline.class)).collect(Collectors.toList());
+
+			if (batchedAnnotation.isPresent() && !(m.getParameterCount() == 1 && batchParameters.size() == 1 && batchParameters.get(0).getParameterizedType() instanceof ParameterizedType && batchParameters.get(0).getType().equals(List.class) && m.getGenericReturnType() instanceof ParameterizedType && m.getReturnType().equals(List.class)))
+			{
+				log.warn("Ignoring @Batched on " + clazz.getSimpleName() + "." + m.getName() + ", batched methods must take a single List parameter and return a List");
+
+				batchedAnnotation = Optional.empty();
+			}
+			else if (batchedAnnotation.isPresent() && !producesJson(producesContentType))
+			{
+				log.warn("Ignoring @Batched on " + clazz.getSimpleName() + "." + m.getName() + ", batched responses are JSON arrays but the route produces " + producesContentType);
+
+				batchedAnnotation = Optional.empty();
+			}
+
+			final String batcherName = handlerName + "Batcher";
+
+			if (batchedAnnotation.isPresent())
+			{
+				methodBuilder.addStatement("$L.submit(exchange,$L)", batcherName, batchParameters.get(0).getName());
+
+				handlerClassBuilder.addMethod(intercept(methodBuilder.build(), interceptorNames));
+			}
+			else if (!m.getReturnType().toString().equals("void"))
 			{
 				if (m.getReturnType().getTypeName().contains("java.util.concurrent.CompletionStage") || m.getReturnType().getTypeName().contains("java.util.concurrent.CompletableFuture"))
 				{
@@ -1044,6 +1344,10 @@ public class HandlerGenerator
 					methodBuilder.addStatement("$L.send(this,$L)", "response", "exchange");
 
 				}
+				else if (ServerSentEventPublisher.class.isAssignableFrom(m.getReturnType()))
+				{
+					methodBuilder.addStatement("$L.connect($L)", "response", "exchange");
+				}
 				else if (m.getReturnType().getTypeName().contains("java.util.concurrent.CompletionStage") || m.getReturnType().getTypeName().contains("java.util.concurrent.CompletableFuture"))
 				{
 					String postProcess = ".";
@@ -1064,10 +1368,9 @@ public class HandlerGenerator
 						}
 					}
 
-					methodBuilder.addCode("$L.thenAcceptAsync( r ->  r" + postProcess + "send(this,$L), io.undertow.util.SameThreadExecutor.INSTANCE )\n\t.exceptionally( ex -> ", "response", "exchange");
-					methodBuilder.beginControlFlow("", "");
-					methodBuilder.addCode("\t\tthrow new java.util.concurrent.CompletionException(ex);\n\t");
-					methodBuilder.endControlFlow(")", "");
+					long timeoutMillis = timeoutMillis(m, clazz, this.config);
+
+					methodBuilder.addStatement("$T.dispatch($L, $L, $LL, r -> r" + postProcess + "send(this,$L))", AsyncResponses.class, "exchange", "response", timeoutMillis, "exchange");
 				}
 				else
 				{
@@ -1078,6 +1381,35 @@ public class HandlerGenerator
 					{
 						methodBuilder.addStatement("exchange.getResponseHeaders().send($L)", "response");
 					}
+					else if (isStreamableType(m.getReturnType()))
+					{
+						methodBuilder.addStatement("$T.send(exchange,$L,null)", JsonArrayStreamSender.class, "response");
+					}
+					else if (org.reactivestreams.Publisher.class.isAssignableFrom(m.getReturnType()))
+					{
+						methodBuilder.addStatement("$T.send(exchange,$L,null)", PublisherStreamSender.class, "response");
+					}
+					else if (isFlowPublisherType(m.getReturnType()))
+					{
+						/*
+						 * Flow is not available to Java 8 sources, so the adapter is generated for the controllers that use it
+						 */
+
+						ClassName flowClass = ClassName.get("java.util.concurrent", "Flow");
+
+						TypeSpec flowSubscriber = TypeSpec.anonymousClassBuilder("").addSuperinterface(ParameterizedTypeName.get(flowClass.nestedClass("Subscriber"), TypeName.OBJECT))
+								.addMethod(MethodSpec.methodBuilder("onSubscribe").addModifiers(Modifier.PUBLIC).addAnnotation(Override.class).addParameter(flowClass.nestedClass("Subscription"), "subscription", Modifier.FINAL).addStatement("sender.onSubscribe(subscription::request, subscription::cancel)").build())
+								.addMethod(MethodSpec.methodBuilder("onNext").addModifiers(Modifier.PUBLIC).addAnnotation(Override.class).addParameter(Object.class, "element", Modifier.FINAL).addStatement("sender.onNext(element)").build())
+								.addMethod(MethodSpec.methodBuilder("onError").addModifiers(Modifier.PUBLIC).addAnnotation(Override.class).addParameter(Throwable.class, "throwable", Modifier.FINAL).addStatement("sender.onError(throwable)").build())
+								.addMethod(MethodSpec.methodBuilder("onComplete").addModifiers(Modifier.PUBLIC).addAnnotation(Override.class).addStatement("sender.onComplete()").build())
+								.build();
+
+						methodBuilder.addStatement("$T.start(exchange,null,sender -> $L.subscribe($L))", PublisherStreamSender.class, "response", flowSubscriber);
+					}
+					else if (cachedAnnotation.isPresent() || m.isAnnotationPresent(Coalesce.class))
+					{
+						methodBuilder.addStatement("$T.send(exchange,com.jsoniter.output.JsonStream.serializeToBytes($L,null))", CapturedResponse.class, "response");
+					}
 					else
 					{
 						methodBuilder.addStatement("exchange.getResponseSender().send(com.jsoniter.output.JsonStream.serialize($L))", "response");
@@ -1085,7 +1417,7 @@ public class HandlerGenerator
 
 				}
 
-				handlerClassBuilder.addMethod(methodBuilder.build());
+				handlerClassBuilder.addMethod(intercept(methodBuilder.build(), interceptorNames));
 
 			}
 			else
@@ -1097,91 +1429,125 @@ public class HandlerGenerator
 
 				methodBuilder.addCode("$L", "\n");
 
-				handlerClassBuilder.addMethod(methodBuilder.build());
+				handlerClassBuilder.addMethod(intercept(methodBuilder.build(), interceptorNames));
+
+			}
+
+			if (cachedAnnotation.isPresent())
+			{
+				Cached cached = cachedAnnotation.get();
 
+				initBuilder.addStatement("final $T $L = $T.create($S, $L, $LL, $T.$L)", ResponseCache.class, cacheName, ResponseCache.class, clazz.getSimpleName() + "." + m.getName(), cached.maxEntries(), cached.ttl(), TimeUnit.class, cached.unit().name());
 			}
 
+			if (batchedAnnotation.isPresent())
+			{
+				Batched batched = batchedAnnotation.get();
+
+				TypeName elementType = TypeName.get(((ParameterizedType) batchParameters.get(0).getParameterizedType()).getActualTypeArguments()[0]);
+				TypeName resultType = TypeName.get(((ParameterizedType) m.getGenericReturnType()).getActualTypeArguments()[0]);
+
+				initBuilder.addStatement("final $T $L = new $T<>($S, $L, $LL, $L::$L)", ParameterizedTypeName.get(ClassName.get(MicroBatcher.class), elementType, resultType), batcherName, MicroBatcher.class, clazz.getSimpleName() + "." + m.getName(), batched.maxSize(), batched.maxDelayMicros(), controllerName, m.getName());
+			}
+
+			final String routeHandlerName = handlerName;
+
 			FieldSpec handlerField = FieldSpec.builder(httpHandlerClass, handlerName, Modifier.FINAL).initializer("$L", handlerClassBuilder.build()).build();
 
 			initBuilder.addCode("$L\n", handlerField.toString());
 
-			Optional<io.sinistral.proteus.annotations.Chain> wrapAnnotation = Optional.ofNullable(m.getAnnotation(io.sinistral.proteus.annotations.Chain.class));
+			Optional<Bulkhead> bulkheadAnnotation = Optional.ofNullable(m.getAnnotation(Bulkhead.class));
 
-			/*
-			 * Authorization
-			 */
-			
-			List<String> securityDefinitions = new ArrayList<>();
-			
-			/*
-			 * @TODO wrap blocking in BlockingHandler
-			 */
-			
- 			
-			if( Optional.ofNullable(m.getAnnotation(io.swagger.annotations.ApiOperation.class)).isPresent() )
+			if (!bulkheadAnnotation.isPresent())
 			{
-				io.swagger.annotations.ApiOperation apiOperationAnnotation = m.getAnnotation(io.swagger.annotations.ApiOperation.class);
-				
-				io.swagger.annotations.Authorization[] authorizationAnnotations = apiOperationAnnotation.authorizations();
-				if(authorizationAnnotations.length > 0)
-				{
-					for(io.swagger.annotations.Authorization authorizationAnnotation: authorizationAnnotations )
-					{
-						if(authorizationAnnotation.value().length() > 0)
-						{
-							securityDefinitions.add(authorizationAnnotation.value());
-						}
-					}
-				} 
+				bulkheadAnnotation = Optional.ofNullable(clazz.getAnnotation(Bulkhead.class));
 			}
-			
-			if(securityDefinitions.isEmpty())
+
+			if (bulkheadAnnotation.isPresent())
 			{
-				securityDefinitions.addAll(typeLevelSecurityDefinitions);
+				Bulkhead bulkhead = bulkheadAnnotation.get();
+
+				String bulkheadPath = "bulkheads." + bulkhead.value();
+
+				Config bulkheadConfig = this.config.hasPath(bulkheadPath) ? this.config.getConfig(bulkheadPath) : ConfigFactory.empty();
+
+				int maxConcurrent = bulkheadConfig.hasPath("maxConcurrent") ? bulkheadConfig.getInt("maxConcurrent") : bulkhead.maxConcurrent();
+				int maxQueue = bulkheadConfig.hasPath("maxQueue") ? bulkheadConfig.getInt("maxQueue") : bulkhead.maxQueue();
+				long retryAfter = bulkheadConfig.hasPath("retryAfter") ? bulkheadConfig.getDuration("retryAfter", TimeUnit.SECONDS) : bulkhead.retryAfter();
+
+				handlerName = CodeBlock.of("new $T($L, $T.named($S, $L, $L, $LL))", BulkheadHandler.class, handlerName, BulkheadExecutor.class, bulkhead.value(), maxConcurrent, maxQueue, retryAfter).toString();
+			}
+			else if(isBlocking)
+			{
+				handlerName = CodeBlock.of("new $T($L)", BlockingDispatchHandler.class, handlerName).toString();
+			}
+			else if (this.config.getBoolean("application.blockingDetector.enabled"))
+			{
+				handlerName = CodeBlock.of("new $T($L, $S)", BlockingDetectionHandler.class, handlerName, clazz.getSimpleName() + "." + m.getName()).toString();
 			}
 
-			if(isBlocking)
+			/*
+			 * Coalescing sits outside the blocking handler so waiting requests never occupy a worker thread
+			 */
+
+			if (m.isAnnotationPresent(Coalesce.class))
 			{
-				handlerName = "new io.undertow.server.handlers.BlockingHandler(" + handlerName + ")";
+				if (httpMethod.equals(Methods.GET))
+				{
+					handlerName = CodeBlock.of("new $T($L, $LL$L)", CoalescingHandler.class, handlerName, timeoutMillis(m, clazz, this.config), Arrays.stream(m.getAnnotation(Coalesce.class).headers()).map(h -> CodeBlock.of(", $S", h).toString()).collect(Collectors.joining())).toString();
+				}
+				else
+				{
+					log.warn("Ignoring @Coalesce on " + clazz.getSimpleName() + "." + m.getName() + ", only GET routes can be coalesced");
+				}
 			}
 			
-			if (wrapAnnotation.isPresent() || typeLevelHandlerWrapperMap.size() > 0 || securityDefinitions.size() > 0)
+			if (nestedChainLength > 0 || securityDefinitions.size() > 0)
 			{
 				initBuilder.addStatement("currentHandler = $L", handlerName);
 
-				if (wrapAnnotation.isPresent())
+				/*
+				 * Nested from the innermost entry out, consecutive interceptors share one handler that calls them inline
+				 */
+
+				int entry = nestedChainLength;
+
+				while (entry > 0)
 				{
-					io.sinistral.proteus.annotations.Chain w = wrapAnnotation.get();
+					Map.Entry<Class<? extends HandlerWrapper>, String> wrapper = chain.get(--entry);
+
+					if (!HandlerInterceptor.class.isAssignableFrom(wrapper.getKey()))
+					{
+						initBuilder.addStatement("currentHandler = $L.wrap($L)", wrapper.getValue(), "currentHandler");
+						continue;
+					}
 
-					Class<? extends HandlerWrapper> wrapperClasses[] = w.value();
+					int segmentEnd = entry + 1;
 
-					for (int i = 0; i < wrapperClasses.length; i++)
+					while (entry > 0 && HandlerInterceptor.class.isAssignableFrom(chain.get(entry - 1).getKey()))
 					{
-						Class<? extends HandlerWrapper> wrapperClass = wrapperClasses[i];
+						entry--;
+					}
 
-						String wrapperName = typeLevelHandlerWrapperMap.get(wrapperClass);
+					String nextName = routeHandlerName + "Next" + entry;
 
-						if (wrapperName == null)
-						{
-							wrapperName = generateFieldName(wrapperClass.getCanonicalName());
+					MethodSpec next = MethodSpec.methodBuilder("handleRequest").addModifiers(Modifier.PUBLIC).addException(ClassName.get("java.lang", "Exception")).addAnnotation(Override.class)
+							.addParameter(ParameterSpec.builder(HttpServerExchange.class, "exchange", Modifier.FINAL).build()).addStatement("$L.handleRequest(exchange)", nextName).build();
 
-							initBuilder.addStatement("final $T $L = new $T()", wrapperClass, wrapperName, wrapperClass);
-						}
+					TypeSpec segment = TypeSpec.anonymousClassBuilder("").addSuperinterface(httpHandlerClass).addMethod(intercept(next, chain.subList(entry, segmentEnd).stream().map(Map.Entry::getValue).collect(Collectors.toList()))).build();
 
-						initBuilder.addStatement("currentHandler = $L.wrap($L)", wrapperName, "currentHandler"); 
-					}
+					initBuilder.addStatement("final $T $L = currentHandler", HttpHandler.class, nextName);
+					initBuilder.addStatement("currentHandler = $L", segment);
 				}
-				 
-				for (Class<? extends HandlerWrapper> wrapperClass : typeLevelHandlerWrapperMap.keySet())
-				{
-					String wrapperName = typeLevelHandlerWrapperMap.get(wrapperClass);
-					initBuilder.addStatement("currentHandler = $L.wrap($L)", wrapperName, "currentHandler");
-				} 
-				
+
+				/*
+				 * Security definitions are outermost, so no request is coalesced, queued or dispatched before it is authorized
+				 */
+
 				for (String securityDefinitionName : securityDefinitions)
 				{
 					initBuilder.addStatement("currentHandler = registeredHandlerWrappers.get($S).wrap($L)", securityDefinitionName, "currentHandler");
-				} 
+				}
 
 				initBuilder.addStatement("$L.add(io.undertow.util.Methods.$L,$S,$L)", "router", httpMethod, methodPath, "currentHandler");
 			}
@@ -1192,7 +1558,14 @@ public class HandlerGenerator
 
 			initBuilder.addCode("$L", "\n");
 
-			registeredEndpoints.add(endpointInfo);
+			/*
+			 * Controllers are generated in parallel
+			 */
+
+			synchronized (registeredEndpoints)
+			{
+				registeredEndpoints.add(endpointInfo);
+			}
 
 		}
 
@@ -1200,6 +1573,12 @@ public class HandlerGenerator
 
 		typeBuilder.addMethod(initBuilder.build());
 
+		/*
+		 * Header names are hashed once here rather than on every lookup
+		 */
+
+		headerConstants.forEach((constantName, headerName) -> typeBuilder.addField(FieldSpec.builder(HttpString.class, constantName, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL).initializer("$T.tryFromString($S)", HttpString.class, headerName).build()));
+
 	}
 
 	/**
@@ -1219,6 +1598,14 @@ public class HandlerGenerator
 		this.packageName = packageName;
 	}
 
+	/**
+	 * @return the controller class handlers are generated from
+	 */
+	public Class<?> getControllerClass()
+	{
+		return controllerClass;
+	}
+
 	/**
 	 * @return the className
 	 */
@@ -1236,43 +1623,89 @@ public class HandlerGenerator
 		this.className = className;
 	}
 
-	protected static ArrayList<String> getClassNamesFromPackage(String packageName) throws Exception
+	/**
+	 * The order of {@link Class#getDeclaredMethods()} is unspecified and can change between runs, so methods are sorted to generate the same source for the same controller
+	 * 
+	 * @param clazz
+	 * @return the declared methods sorted by name and signature
+	 */
+	protected static Method[] declaredMethods(Class<?> clazz)
+	{
+		return Arrays.stream(clazz.getDeclaredMethods()).sorted(Comparator.comparing(Method::getName).thenComparing(Method::toGenericString)).toArray(Method[]::new);
+	}
+
+	/**
+	 * @param producesContentType
+	 *            the route's comma separated <code>@Produces</code> types
+	 * @return true if the route may respond with JSON
+	 */
+	protected static boolean producesJson(String producesContentType)
+	{
+		return producesContentType.equals(MediaType.WILDCARD) || producesContentType.contains(MediaType.APPLICATION_JSON);
+	}
+
+	/**
+	 * @param method
+	 * @param clazz
+	 * @param config
+	 * @return the route's <code>@Timeout</code>, method level first, or <code>application.asyncTimeout</code>
+	 */
+	protected static long timeoutMillis(Method method, Class<?> clazz, Config config)
+	{
+		Timeout timeout = method.getAnnotation(Timeout.class);
+
+		if (timeout == null)
+		{
+			timeout = clazz.getAnnotation(Timeout.class);
+		}
+
+		return timeout != null ? timeout.unit().toMillis(timeout.value()) : config.getDuration("application.asyncTimeout", TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param basePath
+	 *            the package to find controllers in
+	 * @param pathPredicate
+	 *            an optional filter on the controllers' <code>@Path</code>
+	 * @return the <code>@Api</code> classes listed for the package in the {@link EndpointIndex}, or found by scanning the class path if none are
+	 * @throws Exception
+	 */
+	public static Set<Class<?>> getApiClasses(String basePath, Predicate<String> pathPredicate) throws Exception
 	{
 		ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
-		URL packageURL;
-		ArrayList<String> names = new ArrayList<>();
-
-		packageName = packageName.replace(".", "/");
-		packageURL = classLoader.getResource(packageName);
-
-		assert packageURL != null;
-		URI uri = new URI(packageURL.toString());
-		File folder = new File(uri.getPath());
-		// won't work with path which contains blank (%20)
-		// File folder = new File(packageURL.getFile());
-		File[] contenuti = folder.listFiles();
-		String entryName;
-		assert contenuti != null;
-		for (File actual : contenuti)
+
+		Set<String> indexedNames = EndpointIndex.load(classLoader).controllerNames(basePath);
+
+		if (indexedNames.isEmpty())
 		{
-			if (actual.isDirectory())
-			{
-				continue;
-			}
+			return scanApiClasses(basePath, pathPredicate);
+		}
 
-			entryName = actual.getName();
-			entryName = entryName.substring(0, entryName.lastIndexOf('.'));
-			names.add(entryName);
+		Set<Class<?>> classes = new LinkedHashSet<>();
+
+		for (String name : indexedNames)
+		{
+			classes.add(Class.forName(name, false, classLoader));
 		}
 
-		return names;
+		return filterApiClasses(classes.stream(), pathPredicate);
 	}
 
-	protected static Set<Class<?>> getApiClasses(String basePath, Predicate<String> pathPredicate) throws Exception
+	/**
+	 * @param basePath
+	 * @param pathPredicate
+	 * @return the <code>@Api</code> classes found by scanning the package
+	 * @throws Exception
+	 */
+	protected static Set<Class<?>> scanApiClasses(String basePath, Predicate<String> pathPredicate) throws Exception
 	{
-
 		Reflections ref = new Reflections(basePath);
-		Stream<Class<?>> stream = ref.getTypesAnnotatedWith(Api.class).stream();
+
+		return filterApiClasses(ref.getTypesAnnotatedWith(Api.class).stream(), pathPredicate);
+	}
+
+	protected static Set<Class<?>> filterApiClasses(Stream<Class<?>> stream, Predicate<String> pathPredicate)
+	{
 
 		if (pathPredicate != null)
 		{
@@ -1503,6 +1936,102 @@ public class HandlerGenerator
 
 	}
 
+	/**
+	 * Inlines interceptor calls around the body of a generated <code>handleRequest</code>
+	 *
+	 * @param handleRequest
+	 * @param interceptorNames
+	 *            the interceptors in the order their <code>before</code> runs
+	 * @return the method with each <code>before</code> guarding the body and each <code>after</code> in a <code>finally</code>
+	 */
+	protected static MethodSpec intercept(MethodSpec handleRequest, List<String> interceptorNames)
+	{
+		if (interceptorNames.isEmpty())
+		{
+			return handleRequest;
+		}
+
+		MethodSpec.Builder builder = MethodSpec.methodBuilder(handleRequest.name).addModifiers(handleRequest.modifiers).addAnnotations(handleRequest.annotations).addParameters(handleRequest.parameters).addExceptions(handleRequest.exceptions);
+
+		for (String interceptorName : interceptorNames)
+		{
+			builder.beginControlFlow("if (!$L.before(exchange))", interceptorName);
+			builder.addStatement("return");
+			builder.endControlFlow();
+			builder.beginControlFlow("try");
+		}
+
+		builder.addCode(handleRequest.code);
+
+		for (int i = interceptorNames.size() - 1; i >= 0; i--)
+		{
+			builder.nextControlFlow("finally");
+			builder.addStatement("$L.after(exchange)", interceptorNames.get(i));
+			builder.endControlFlow();
+		}
+
+		return builder.build();
+	}
+
+	/**
+	 * @param clazz
+	 * @return true if a raw return of this type should be streamed as a chunked JSON array
+	 */
+	protected static boolean isStreamableType(Class<?> clazz)
+	{
+		return java.util.Iterator.class.isAssignableFrom(clazz) || java.util.stream.BaseStream.class.isAssignableFrom(clazz) || (Iterable.class.isAssignableFrom(clazz) && !java.util.Collection.class.isAssignableFrom(clazz));
+	}
+
+	/**
+	 * @param clazz
+	 * @return true if the type is or implements <code>java.util.concurrent.Flow.Publisher</code>
+	 */
+	protected static boolean isFlowPublisherType(Class<?> clazz)
+	{
+		if (clazz == null)
+		{
+			return false;
+		}
+
+		if (clazz.getName().equals("java.util.concurrent.Flow$Publisher"))
+		{
+			return true;
+		}
+
+		return Arrays.stream(clazz.getInterfaces()).anyMatch(HandlerGenerator::isFlowPublisherType) || isFlowPublisherType(clazz.getSuperclass());
+	}
+
+	/**
+	 * @param method
+	 * @param cached
+	 * @return the names of the parameters the cache key is built from
+	 */
+	protected static List<String> cacheKeyParameters(Method method, Cached cached)
+	{
+		List<String> names = Arrays.stream(method.getParameters()).filter(p -> !p.getType().equals(ServerRequest.class) && !p.getType().equals(HttpServerExchange.class) && !p.getType().equals(HttpHandler.class) && !p.getType().equals(Deadline.class)).map(Parameter::getName).collect(Collectors.toList());
+
+		if (cached.key().length == 0)
+		{
+			return names;
+		}
+
+		List<String> keyNames = new ArrayList<>();
+
+		for (String name : cached.key())
+		{
+			if (names.contains(name))
+			{
+				keyNames.add(name);
+			}
+			else
+			{
+				log.error("Unknown cache key parameter " + name + " for " + method.getDeclaringClass().getSimpleName() + "." + method.getName());
+			}
+		}
+
+		return keyNames;
+	}
+
 	protected static boolean hasValueOfMethod(Class<?> clazz)
 	{
 		return Arrays.stream(clazz.getMethods()).filter(m -> m.getName().equals("valueOf")).findFirst().isPresent();
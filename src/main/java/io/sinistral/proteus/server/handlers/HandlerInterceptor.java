@@ -0,0 +1,66 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.handlers;
+
+import io.undertow.server.HandlerWrapper;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+
+/**
+ * A {@link HandlerWrapper} whose work happens before and after the route rather than around it.
+ * <p>
+ * A route's <code>@Chain</code> runs in declaration order, the controller's first, then the method's, whether its entries are interceptors or plain <code>HandlerWrapper</code>s. Generated routes call consecutive interceptors inline rather than nesting them, so each call site only ever sees one interceptor class: those at the end of the chain from the route's own <code>handleRequest</code>, the rest from a handler generated between the wrappers around them. On routes that are bulkheaded, dispatched to a worker or coalesced the whole chain runs ahead of that handling, on the IO thread, and {@link #after} runs once the request has been handed off, as it would for a wrapping handler. The method handle backend nests every interceptor through {@link #wrap(HttpHandler)}.
+ * <p>
+ * Interceptors registered as security definitions in <code>registeredHandlerWrappers</code> are always nested, outermost, through {@link #wrap(HttpHandler)}. They run before coalescing, bulkheads and blocking dispatch, so a request that is not authorized is never admitted or answered with another request's response.
+ *
+ * @author jbauer
+ */
+public interface HandlerInterceptor extends HandlerWrapper
+{
+	/**
+	 * Called before the route
+	 *
+	 * @param exchange
+	 * @return false if the interceptor has responded and the route must not run
+	 * @throws Exception
+	 */
+	default boolean before(final HttpServerExchange exchange) throws Exception
+	{
+		return true;
+	}
+
+	/**
+	 * Called once the route has returned or thrown, in reverse order, for each interceptor whose {@link #before} returned true
+	 *
+	 * @param exchange
+	 * @throws Exception
+	 */
+	default void after(final HttpServerExchange exchange) throws Exception
+	{
+	}
+
+	/**
+	 * Nests the interceptor around a handler, for code that applies it as a plain {@link HandlerWrapper}
+	 */
+	@Override
+	default HttpHandler wrap(final HttpHandler handler)
+	{
+		return exchange -> {
+
+			if (!this.before(exchange))
+			{
+				return;
+			}
+
+			try
+			{
+				handler.handleRequest(exchange);
+
+			} finally
+			{
+				this.after(exchange);
+			}
+		};
+	}
+}
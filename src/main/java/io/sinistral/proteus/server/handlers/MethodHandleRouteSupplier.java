@@ -0,0 +1,1025 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.handlers;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Parameter;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.core.MediaType;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import com.jsoniter.output.JsonStream;
+import com.jsoniter.spi.TypeLiteral;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import io.sinistral.proteus.annotations.Batched;
+import io.sinistral.proteus.annotations.Blocking;
+import io.sinistral.proteus.annotations.Bulkhead;
+import io.sinistral.proteus.annotations.Cached;
+import io.sinistral.proteus.annotations.Chain;
+import io.sinistral.proteus.annotations.Coalesce;
+import io.sinistral.proteus.annotations.Compress;
+import io.sinistral.proteus.server.Deadline;
+import io.sinistral.proteus.server.Extractors;
+import io.sinistral.proteus.server.ServerRequest;
+import io.sinistral.proteus.server.ServerResponse;
+import io.sinistral.proteus.server.batching.MicroBatcher;
+import io.sinistral.proteus.server.cache.CapturedResponse;
+import io.sinistral.proteus.server.cache.ResponseCache;
+import io.sinistral.proteus.server.encoding.CompressionPredicate;
+import io.sinistral.proteus.server.endpoints.EndpointInfo;
+import io.sinistral.proteus.server.executors.BulkheadExecutor;
+import io.sinistral.proteus.server.handlers.HandlerGenerator.TypeHandler;
+import io.sinistral.proteus.server.streaming.JsonArrayStreamSender;
+import io.sinistral.proteus.server.streaming.PublisherStreamSender;
+import io.sinistral.proteus.server.streaming.ServerSentEventPublisher;
+import io.undertow.server.HandlerWrapper;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.RoutingHandler;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.Methods;
+
+/**
+ * Builds the routes of a controller from method handles instead of generating and compiling a {@code Supplier<RoutingHandler>} class, so that an application can run on a JRE without a compiler.
+ * <p>
+ * Each parameter is extracted by a method handle over the same {@link Extractors} method the generated code calls for its {@link TypeHandler}. The extractors and the controller method are fused into a single method handle per route that the route's handler invokes exactly. The route is then wrapped the way {@link HandlerGenerator} wraps it: caching, batching, bulkheads, blocking dispatch, coalescing, <code>@Chain</code> wrappers and security definitions.
+ * <p>
+ * Selected by <code>application.handlerBackend</code>.
+ *
+ * @author jbauer
+ */
+public class MethodHandleRouteSupplier implements Supplier<RoutingHandler>
+{
+	private static Logger log = LoggerFactory.getLogger(MethodHandleRouteSupplier.class.getCanonicalName());
+
+	protected static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+	protected static final MethodType EXTRACTOR_TYPE = MethodType.methodType(Object.class, HttpServerExchange.class, HttpHandler.class);
+
+	@Inject
+	@Named("application.path")
+	protected String applicationPath;
+
+	@Inject
+	@Named("registeredEndpoints")
+	protected Set<EndpointInfo> registeredEndpoints;
+
+	@Inject
+	@Named("registeredHandlerWrappers")
+	protected Map<String, HandlerWrapper> registeredHandlerWrappers;
+
+	@Inject
+	protected Config config;
+
+	protected final Object controller;
+	protected final Class<?> controllerClass;
+
+	/**
+	 * @param controller
+	 *            the controller instance routes invoke
+	 */
+	public MethodHandleRouteSupplier(final Object controller)
+	{
+		this.controller = controller;
+		this.controllerClass = controller.getClass();
+	}
+
+	@Override
+	public RoutingHandler get()
+	{
+		final RoutingHandler router = new RoutingHandler();
+
+		final Class<?> clazz = this.controllerClass;
+
+		final List<String> typeLevelSecurityDefinitions = new ArrayList<>();
+
+		final io.swagger.annotations.Api apiAnnotation = clazz.getAnnotation(io.swagger.annotations.Api.class);
+
+		if (apiAnnotation != null)
+		{
+			Arrays.stream(apiAnnotation.authorizations()).map(io.swagger.annotations.Authorization::value).filter(v -> v.length() > 0).forEach(typeLevelSecurityDefinitions::add);
+		}
+
+		final Map<Class<? extends HandlerWrapper>, HandlerWrapper> typeLevelWrappers = new LinkedHashMap<>();
+
+		final Chain typeLevelChain = clazz.getAnnotation(Chain.class);
+
+		if (typeLevelChain != null)
+		{
+			for (Class<? extends HandlerWrapper> wrapperClass : typeLevelChain.value())
+			{
+				typeLevelWrappers.put(wrapperClass, newInstance(wrapperClass));
+			}
+		}
+
+		for (Method m : HandlerGenerator.declaredMethods(clazz))
+		{
+			if (!m.isAnnotationPresent(javax.ws.rs.Path.class))
+			{
+				continue;
+			}
+
+			try
+			{
+				this.addRoute(router, m, typeLevelWrappers, typeLevelSecurityDefinitions);
+
+			} catch (Throwable t)
+			{
+				log.error("Unable to create a handler for " + clazz.getSimpleName() + "." + m.getName() + ": " + t.getMessage(), t);
+			}
+		}
+
+		return router;
+	}
+
+	protected void addRoute(final RoutingHandler router, final Method m, final Map<Class<? extends HandlerWrapper>, HandlerWrapper> typeLevelWrappers, final List<String> typeLevelSecurityDefinitions) throws Throwable
+	{
+		final Class<?> clazz = this.controllerClass;
+
+		final String routeName = clazz.getSimpleName() + "." + m.getName();
+
+		final String producesContentType = contentTypes(Optional.ofNullable(m.getAnnotation(javax.ws.rs.Produces.class)).map(javax.ws.rs.Produces::value).orElseGet(() -> Optional.ofNullable(clazz.getAnnotation(javax.ws.rs.Produces.class)).map(javax.ws.rs.Produces::value).orElse(null)));
+		final String consumesContentType = contentTypes(Optional.ofNullable(m.getAnnotation(javax.ws.rs.Consumes.class)).map(javax.ws.rs.Consumes::value).orElseGet(() -> Optional.ofNullable(clazz.getAnnotation(javax.ws.rs.Consumes.class)).map(javax.ws.rs.Consumes::value).orElse(null)));
+
+		final String methodPath = this.applicationPath + Extractors.pathTemplateFromMethod.apply(m).replaceAll("\\/\\/", "\\/");
+
+		final HttpString httpMethod = Extractors.httpMethodFromMethod.apply(m);
+
+		final EndpointInfo endpointInfo = EndpointInfo.builder().withMethod(httpMethod).withPathTemplate(methodPath).withConsumes(consumesContentType).withProduces(producesContentType).withControllerName(clazz.getSimpleName()).withControllerMethod(m.getName()).build();
+
+		boolean isBlocking = Optional.ofNullable(m.getAnnotation(Blocking.class)).map(Blocking::value).orElse(false);
+
+		for (Parameter p : m.getParameters())
+		{
+			if (!isSpecialType(p.getType()) && TypeHandler.forParameter(p, consumesContentType).isBlocking())
+			{
+				isBlocking = true;
+				break;
+			}
+		}
+
+		final MethodHandleHandler handler = new MethodHandleHandler();
+
+		handler.route = routeName;
+
+		Compress compress = m.getAnnotation(Compress.class);
+
+		if (compress == null)
+		{
+			compress = clazz.getAnnotation(Compress.class);
+		}
+
+		handler.compress = compress != null ? compress.value() : null;
+
+		final MethodHandle[] extractors = new MethodHandle[m.getParameterCount()];
+
+		for (int i = 0; i < extractors.length; i++)
+		{
+			extractors[i] = extractor(m.getParameters()[i], consumesContentType);
+		}
+
+		final MethodHandle target = LOOKUP.unreflect(m).bindTo(this.controller);
+
+		Cached cached = m.getAnnotation(Cached.class);
+
+		if (cached != null && !(httpMethod.equals(Methods.GET) && !m.getReturnType().equals(void.class) && !ServerSentEventPublisher.class.isAssignableFrom(m.getReturnType())))
+		{
+			log.warn("Ignoring @Cached on " + routeName + ", only GET routes with a response can be cached");
+
+			cached = null;
+		}
+
+		if (cached != null)
+		{
+			final List<String> keyNames = HandlerGenerator.cacheKeyParameters(m, cached);
+
+			final List<String> parameterNames = Arrays.stream(m.getParameters()).map(Parameter::getName).collect(Collectors.toList());
+
+			handler.cache = ResponseCache.create(routeName, cached.maxEntries(), cached.ttl(), cached.unit());
+			handler.keyIndexes = keyNames.stream().mapToInt(parameterNames::indexOf).toArray();
+			handler.extractors = Arrays.stream(extractors).map(e -> e.asType(EXTRACTOR_TYPE)).toArray(MethodHandle[]::new);
+			handler.spreadInvoker = target.asType(target.type().changeReturnType(Object.class)).asSpreader(Object[].class, extractors.length).asType(MethodType.methodType(Object.class, Object[].class));
+		}
+		else
+		{
+			handler.invoker = fuse(target, extractors);
+		}
+
+		Batched batched = m.getAnnotation(Batched.class);
+
+		final List<Parameter> batchParameters = Arrays.stream(m.getParameters()).filter(p -> !isSpecialType(p.getType())).collect(Collectors.toList());
+
+		if (batched != null && !(m.getParameterCount() == 1 && batchParameters.size() == 1 && batchParameters.get(0).getParameterizedType() instanceof ParameterizedType && batchParameters.get(0).getType().equals(List.class) && m.getGenericReturnType() instanceof ParameterizedType && m.getReturnType().equals(List.class)))
+		{
+			log.warn("Ignoring @Batched on " + routeName + ", batched methods must take a single List parameter and return a List");
+
+			batched = null;
+		}
+		else if (batched != null && !HandlerGenerator.producesJson(producesContentType))
+		{
+			log.warn("Ignoring @Batched on " + routeName + ", batched responses are JSON arrays but the route produces " + producesContentType);
+
+			batched = null;
+		}
+
+		if (batched != null)
+		{
+			handler.batcher = new MicroBatcher<>(routeName, batched.maxSize(), batched.maxDelayMicros(), this.batchFunction(m));
+			handler.batchExtractor = extractors[0].asType(EXTRACTOR_TYPE);
+		}
+
+		handler.responseKind = responseKind(m, cached != null || m.isAnnotationPresent(Coalesce.class));
+		handler.producesContentType = producesContentType;
+
+		if (handler.responseKind == ResponseKind.FUTURE)
+		{
+			if (!producesContentType.contains(","))
+			{
+				if (producesContentType.contains(MediaType.APPLICATION_JSON))
+				{
+					handler.futureContentType = ServerResponse::applicationJson;
+				}
+				else if (producesContentType.contains(MediaType.APPLICATION_XML))
+				{
+					handler.futureContentType = ServerResponse::applicationXml;
+				}
+				else if (producesContentType.contains(MediaType.TEXT_HTML))
+				{
+					handler.futureContentType = ServerResponse::textHtml;
+				}
+			}
+
+			handler.timeoutMillis = HandlerGenerator.timeoutMillis(m, clazz, this.config);
+		}
+
+		HttpHandler routeHandler = handler;
+
+		Bulkhead bulkhead = m.getAnnotation(Bulkhead.class);
+
+		if (bulkhead == null)
+		{
+			bulkhead = clazz.getAnnotation(Bulkhead.class);
+		}
+
+		if (bulkhead != null)
+		{
+			final String bulkheadPath = "bulkheads." + bulkhead.value();
+
+			final Config bulkheadConfig = this.config.hasPath(bulkheadPath) ? this.config.getConfig(bulkheadPath) : ConfigFactory.empty();
+
+			final int maxConcurrent = bulkheadConfig.hasPath("maxConcurrent") ? bulkheadConfig.getInt("maxConcurrent") : bulkhead.maxConcurrent();
+			final int maxQueue = bulkheadConfig.hasPath("maxQueue") ? bulkheadConfig.getInt("maxQueue") : bulkhead.maxQueue();
+			final long retryAfter = bulkheadConfig.hasPath("retryAfter") ? bulkheadConfig.getDuration("retryAfter", TimeUnit.SECONDS) : bulkhead.retryAfter();
+
+			routeHandler = new BulkheadHandler(routeHandler, BulkheadExecutor.named(bulkhead.value(), maxConcurrent, maxQueue, retryAfter));
+		}
+		else if (isBlocking)
+		{
+			routeHandler = new BlockingDispatchHandler(routeHandler);
+		}
+		else if (this.config.getBoolean("application.blockingDetector.enabled"))
+		{
+			routeHandler = new BlockingDetectionHandler(routeHandler, routeName);
+		}
+
+		if (m.isAnnotationPresent(Coalesce.class))
+		{
+			if (httpMethod.equals(Methods.GET))
+			{
+				routeHandler = new CoalescingHandler(routeHandler, HandlerGenerator.timeoutMillis(m, clazz, this.config), m.getAnnotation(Coalesce.class).headers());
+			}
+			else
+			{
+				log.warn("Ignoring @Coalesce on " + routeName + ", only GET routes can be coalesced");
+			}
+		}
+
+		final List<String> securityDefinitions = new ArrayList<>();
+
+		final io.swagger.annotations.ApiOperation apiOperation = m.getAnnotation(io.swagger.annotations.ApiOperation.class);
+
+		if (apiOperation != null)
+		{
+			Arrays.stream(apiOperation.authorizations()).map(io.swagger.annotations.Authorization::value).filter(v -> v.length() > 0).forEach(securityDefinitions::add);
+		}
+
+		if (securityDefinitions.isEmpty())
+		{
+			securityDefinitions.addAll(typeLevelSecurityDefinitions);
+		}
+
+		/*
+		 * The controller's @Chain then the method's, in declaration order, an entry listed on both runs once. Interceptors are nested through their own wrap rather than called from a loop in the handler, which would share one call site between every interceptor class.
+		 */
+
+		final List<HandlerWrapper> chain = new ArrayList<>(typeLevelWrappers.values());
+
+		final Chain methodChain = m.getAnnotation(Chain.class);
+
+		if (methodChain != null)
+		{
+			for (Class<? extends HandlerWrapper> wrapperClass : methodChain.value())
+			{
+				if (!typeLevelWrappers.containsKey(wrapperClass))
+				{
+					chain.add(newInstance(wrapperClass));
+				}
+			}
+		}
+
+		for (int i = chain.size() - 1; i >= 0; i--)
+		{
+			routeHandler = chain.get(i).wrap(routeHandler);
+		}
+
+		/*
+		 * Security definitions are outermost, so no request is coalesced, queued or dispatched before it is authorized
+		 */
+
+		for (String securityDefinition : securityDefinitions)
+		{
+			routeHandler = this.registeredHandlerWrappers.get(securityDefinition).wrap(routeHandler);
+		}
+
+		router.add(httpMethod, methodPath, routeHandler);
+
+		synchronized (this.registeredEndpoints)
+		{
+			this.registeredEndpoints.add(endpointInfo);
+		}
+	}
+
+	/**
+	 * Binds the controller's batch method to a {@link Function} through {@link LambdaMetafactory}, falling back to invoking its method handle when the controller is not visible to this class's loader
+	 */
+	@SuppressWarnings("unchecked")
+	protected <T, R> Function<List<T>, List<R>> batchFunction(final Method m) throws Throwable
+	{
+		final MethodHandle implementation = LOOKUP.unreflect(m);
+
+		try
+		{
+			final CallSite site = LambdaMetafactory.metafactory(LOOKUP, "apply", MethodType.methodType(Function.class, this.controllerClass), MethodType.methodType(Object.class, Object.class), implementation, MethodType.methodType(List.class, List.class));
+
+			return (Function<List<T>, List<R>>) site.getTarget().invoke(this.controller);
+
+		} catch (Throwable t)
+		{
+			log.debug("Unable to spin a batch function for " + m + ", invoking its method handle instead: " + t.getMessage());
+
+			final MethodHandle bound = implementation.bindTo(this.controller);
+
+			return elements -> {
+
+				try
+				{
+					return (List<R>) bound.invoke(elements);
+
+				} catch (RuntimeException | Error e)
+				{
+					throw e;
+
+				} catch (Throwable e)
+				{
+					throw new RuntimeException(e);
+				}
+			};
+		}
+	}
+
+	/**
+	 * Fuses the parameter extractors into the controller method
+	 *
+	 * @param target
+	 *            the controller method bound to the controller
+	 * @param extractors
+	 *            a <code>(HttpServerExchange, HttpHandler)</code> extractor per parameter
+	 * @return a handle of type <code>(HttpServerExchange, HttpHandler)Object</code> that extracts every parameter and invokes the method
+	 */
+	protected static MethodHandle fuse(final MethodHandle target, final MethodHandle[] extractors)
+	{
+		MethodHandle fused = target.asType(target.type().changeReturnType(Object.class));
+
+		for (int i = extractors.length - 1; i >= 0; i--)
+		{
+			fused = MethodHandles.collectArguments(fused, i, extractors[i].asType(extractors[i].type().changeReturnType(fused.type().parameterType(i))));
+		}
+
+		/*
+		 * (exchange, handler, exchange, handler, ...) -> (exchange, handler)
+		 */
+
+		final int[] reorder = new int[extractors.length * 2];
+
+		for (int i = 0; i < reorder.length; i++)
+		{
+			reorder[i] = i % 2;
+		}
+
+		if (extractors.length == 0)
+		{
+			return MethodHandles.dropArguments(fused, 0, HttpServerExchange.class, HttpHandler.class);
+		}
+
+		return MethodHandles.permuteArguments(fused, EXTRACTOR_TYPE, reorder);
+	}
+
+	/**
+	 * @param parameter
+	 * @param consumesContentType
+	 * @return a handle of type <code>(HttpServerExchange, HttpHandler)</code> returning the argument for the parameter
+	 */
+	protected MethodHandle extractor(final Parameter parameter, final String consumesContentType) throws Exception
+	{
+		final Class<?> type = parameter.getType();
+
+		if (type.equals(HttpServerExchange.class))
+		{
+			return MethodHandles.dropArguments(MethodHandles.identity(HttpServerExchange.class), 1, HttpHandler.class);
+		}
+		else if (type.equals(HttpHandler.class))
+		{
+			return MethodHandles.dropArguments(MethodHandles.identity(HttpHandler.class), 0, HttpServerExchange.class);
+		}
+
+		final MethodHandle extractor;
+
+		if (type.equals(ServerRequest.class))
+		{
+			extractor = LOOKUP.findConstructor(ServerRequest.class, MethodType.methodType(void.class, HttpServerExchange.class));
+		}
+		else if (type.equals(Deadline.class))
+		{
+			extractor = LOOKUP.findStatic(Deadline.class, "of", MethodType.methodType(Deadline.class, HttpServerExchange.class));
+		}
+		else
+		{
+			extractor = parameterExtractor(parameter, consumesContentType);
+		}
+
+		return MethodHandles.dropArguments(extractor, 1, HttpHandler.class);
+	}
+
+	/**
+	 * @return a handle of type <code>(HttpServerExchange)</code> that extracts the parameter the way the generated statement of its {@link TypeHandler} does
+	 */
+	protected MethodHandle parameterExtractor(final Parameter parameter, final String consumesContentType) throws Exception
+	{
+		final Type type = parameter.getParameterizedType();
+		final String name = TypeHandler.parameterName(parameter);
+
+		TypeHandler handler = TypeHandler.forParameter(parameter, consumesContentType);
+
+		if (parameter.isAnnotationPresent(HeaderParam.class))
+		{
+			switch (handler)
+			{
+			case OptionalStringType:
+				return header(Extractors.Header.Optional.class, Optional.class, name);
+			case OptionalValueOfType:
+				return map(header(Extractors.Header.Optional.class, Optional.class, name), converter(elementType(type), "valueOf"));
+			case OptionalFromStringType:
+				return map(header(Extractors.Header.Optional.class, Optional.class, name), converter(elementType(type), "fromString"));
+			case ValueOfType:
+				return MethodHandles.filterReturnValue(header(Extractors.Header.class, String.class, name), converterHandle(parameter.getType(), "valueOf"));
+			case FromStringType:
+				return MethodHandles.filterReturnValue(header(Extractors.Header.class, String.class, name), converterHandle(parameter.getType(), "fromString"));
+			default:
+				return header(Extractors.Header.class, String.class, name);
+			}
+		}
+
+		switch (handler)
+		{
+		case LongType:
+			return named(Extractors.class, "longValue", Long.class, name);
+		case IntegerType:
+			return named(Extractors.class, "integerValue", Integer.class, name);
+		case StringType:
+			return named(Extractors.class, "string", String.class, name);
+		case BooleanType:
+			return named(Extractors.class, "booleanValue", Boolean.class, name);
+		case FloatType:
+			return named(Extractors.class, "floatValue", Float.class, name);
+		case DoubleType:
+			return named(Extractors.class, "doubleValue", Double.class, name);
+		case FilePathType:
+			return named(Extractors.class, "filePath", java.nio.file.Path.class, name);
+		case ByteBufferType:
+			return named(Extractors.class, "byteBuffer", java.nio.ByteBuffer.class, name);
+		case DateType:
+			return named(Extractors.class, "date", java.util.Date.class, name);
+		case ZonedDateTimeType:
+			return named(Extractors.class, "zonedDateTime", java.time.ZonedDateTime.class, name);
+		case OffsetDateTimeType:
+			return named(Extractors.class, "offsetDateTime", java.time.OffsetDateTime.class, name);
+		case AnyType:
+			return LOOKUP.findStatic(Extractors.class, "any", MethodType.methodType(com.jsoniter.any.Any.class, HttpServerExchange.class));
+		case JsonIteratorType:
+			return LOOKUP.findStatic(Extractors.class, "jsonIterator", MethodType.methodType(com.jsoniter.JsonIterator.class, HttpServerExchange.class));
+		case ModelType:
+			return model(Extractors.class, Object.class, type);
+		case ValueOfType:
+			return MethodHandles.filterReturnValue(named(Extractors.class, "string", String.class, name), converterHandle(parameter.getType(), "valueOf"));
+		case FromStringType:
+			return MethodHandles.filterReturnValue(named(Extractors.class, "string", String.class, name), converterHandle(parameter.getType(), "fromString"));
+		case ListValueOfType:
+			return MethodHandles.insertArguments(LOOKUP.findStatic(MethodHandleRouteSupplier.class, "queryList", MethodType.methodType(List.class, HttpServerExchange.class, String.class, Function.class)), 1, name, converter(elementType(type), "valueOf"));
+		case ListFromStringType:
+			return MethodHandles.insertArguments(LOOKUP.findStatic(MethodHandleRouteSupplier.class, "queryList", MethodType.methodType(List.class, HttpServerExchange.class, String.class, Function.class)), 1, name, converter(elementType(type), "fromString"));
+		case OptionalListValueOfType:
+			return MethodHandles.insertArguments(LOOKUP.findStatic(MethodHandleRouteSupplier.class, "optionalQueryList", MethodType.methodType(Optional.class, HttpServerExchange.class, String.class, Function.class)), 1, name, converter(elementType(elementType(type)), "valueOf"));
+		case OptionalListFromStringType:
+			return MethodHandles.insertArguments(LOOKUP.findStatic(MethodHandleRouteSupplier.class, "optionalQueryList", MethodType.methodType(Optional.class, HttpServerExchange.class, String.class, Function.class)), 1, name, converter(elementType(elementType(type)), "fromString"));
+		case OptionalJsonIteratorType:
+			return LOOKUP.findStatic(Extractors.Optional.class, "jsonIterator", MethodType.methodType(Optional.class, HttpServerExchange.class));
+		case OptionalAnyType:
+			return LOOKUP.findStatic(Extractors.Optional.class, "any", MethodType.methodType(Optional.class, HttpServerExchange.class));
+		case OptionalStringType:
+			return named(Extractors.Optional.class, "string", Optional.class, name);
+		case OptionalLongType:
+			return named(Extractors.Optional.class, "longValue", Optional.class, name);
+		case OptionalIntegerType:
+			return named(Extractors.Optional.class, "integerValue", Optional.class, name);
+		case OptionalBooleanType:
+			return named(Extractors.Optional.class, "booleanValue", Optional.class, name);
+		case OptionalFloatType:
+			return named(Extractors.Optional.class, "floatValue", Optional.class, name);
+		case OptionalDoubleType:
+			return named(Extractors.Optional.class, "doubleValue", Optional.class, name);
+		case OptionalFilePathType:
+			return named(Extractors.Optional.class, "filePath", Optional.class, name);
+		case OptionalByteBufferType:
+			return named(Extractors.Optional.class, "byteBuffer", Optional.class, name);
+		case OptionalDateType:
+			return named(Extractors.Optional.class, "date", Optional.class, name);
+		case OptionalZonedDateTimeType:
+			return named(Extractors.Optional.class, "zonedDateTime", Optional.class, name);
+		case OptionalOffsetDateTimeType:
+			return named(Extractors.Optional.class, "offsetDateTime", Optional.class, name);
+		case OptionalModelType:
+			return model(Extractors.Optional.class, Optional.class, elementType(type));
+		case OptionalValueOfType:
+			return map(named(Extractors.Optional.class, "string", Optional.class, name), converter(elementType(type), "valueOf"));
+		case OptionalFromStringType:
+			return map(named(Extractors.Optional.class, "string", Optional.class, name), converter(elementType(type), "fromString"));
+		case NdjsonStreamType:
+			return MethodHandles.insertArguments(LOOKUP.findStatic(Extractors.class, "ndjsonStream", MethodType.methodType(java.util.stream.Stream.class, HttpServerExchange.class, Class.class, int.class)), 1, erasure(elementType(type)), (int) (long) this.config.getBytes("application.ndjson.maxLineLength"));
+		case NdjsonIteratorType:
+			return MethodHandles.insertArguments(LOOKUP.findStatic(Extractors.class, "ndjsonIterator", MethodType.methodType(java.util.Iterator.class, HttpServerExchange.class, Class.class, int.class)), 1, erasure(elementType(type)), (int) (long) this.config.getBytes("application.ndjson.maxLineLength"));
+		default:
+			throw new IllegalArgumentException("Unsupported parameter type " + type.getTypeName() + " for " + handler);
+		}
+	}
+
+	/**
+	 * @return <code>owner.method(exchange, name)</code> as a handle of type <code>(HttpServerExchange)</code>
+	 */
+	protected static MethodHandle named(final Class<?> owner, final String method, final Class<?> returnType, final String name) throws Exception
+	{
+		return MethodHandles.insertArguments(LOOKUP.findStatic(owner, method, MethodType.methodType(returnType, HttpServerExchange.class, String.class)), 1, name);
+	}
+
+	/**
+	 * @return <code>owner.string(exchange, name)</code> with the header name converted to an <code>HttpString</code> once
+	 */
+	protected static MethodHandle header(final Class<?> owner, final Class<?> returnType, final String name) throws Exception
+	{
+		return MethodHandles.insertArguments(LOOKUP.findStatic(owner, "string", MethodType.methodType(returnType, HttpServerExchange.class, HttpString.class)), 1, HttpString.tryFromString(name));
+	}
+
+	/**
+	 * @return <code>owner.model(exchange, type)</code>, passing a {@link TypeLiteral} for generic types like the generated code does
+	 */
+	protected static MethodHandle model(final Class<?> owner, final Class<?> returnType, final Type type) throws Exception
+	{
+		if (type instanceof ParameterizedType)
+		{
+			return MethodHandles.insertArguments(LOOKUP.findStatic(owner, "model", MethodType.methodType(returnType, HttpServerExchange.class, TypeLiteral.class)), 1, TypeLiteral.create(type));
+		}
+
+		return MethodHandles.insertArguments(LOOKUP.findStatic(owner, "model", MethodType.methodType(returnType, HttpServerExchange.class, Class.class)), 1, erasure(type));
+	}
+
+	/**
+	 * @return the static <code>valueOf(String)</code> or <code>fromString(String)</code> of the type as a handle of type <code>(String)Object</code>
+	 */
+	protected static MethodHandle converterHandle(final Type type, final String method) throws Exception
+	{
+		return directConverterHandle(type, method).asType(MethodType.methodType(Object.class, String.class));
+	}
+
+	/**
+	 * @return the static <code>valueOf(String)</code> or <code>fromString(String)</code> of the type as a {@link Function} spun by {@link LambdaMetafactory}, so that list and optional elements are converted without invoking a method handle per element
+	 */
+	@SuppressWarnings("unchecked")
+	protected static Function<String, Object> converter(final Type type, final String method) throws Exception
+	{
+		final MethodHandle handle = directConverterHandle(type, method);
+
+		try
+		{
+			final CallSite site = LambdaMetafactory.metafactory(LOOKUP, "apply", MethodType.methodType(Function.class), MethodType.methodType(Object.class, Object.class), handle, handle.type());
+
+			return (Function<String, Object>) site.getTarget().invoke();
+
+		} catch (Throwable t)
+		{
+			log.debug("Unable to spin a converter for " + type.getTypeName() + "." + method + ", invoking its method handle instead: " + t.getMessage());
+
+			final MethodHandle converter = handle.asType(MethodType.methodType(Object.class, String.class));
+
+			return value -> {
+
+				try
+				{
+					return (Object) converter.invokeExact(value);
+
+				} catch (RuntimeException | Error e)
+				{
+					throw e;
+
+				} catch (Throwable e)
+				{
+					throw new IllegalArgumentException(e);
+				}
+			};
+		}
+	}
+
+	protected static MethodHandle directConverterHandle(final Type type, final String method) throws Exception
+	{
+		final Class<?> clazz = erasure(type);
+
+		for (Method candidate : clazz.getMethods())
+		{
+			if (candidate.getName().equals(method) && Modifier.isStatic(candidate.getModifiers()) && candidate.getParameterCount() == 1 && candidate.getParameterTypes()[0].equals(String.class))
+			{
+				return MethodHandles.publicLookup().unreflect(candidate);
+			}
+		}
+
+		throw new IllegalArgumentException(clazz.getName() + " has no static " + method + "(String)");
+	}
+
+	/**
+	 * @return <code>optional.map(converter)</code> applied to the result of the extractor
+	 */
+	protected static MethodHandle map(final MethodHandle extractor, final Function<String, Object> converter) throws Exception
+	{
+		final MethodHandle mapper = MethodHandles.insertArguments(LOOKUP.findStatic(MethodHandleRouteSupplier.class, "mapOptional", MethodType.methodType(Optional.class, Function.class, Optional.class)), 0, converter);
+
+		return MethodHandles.filterReturnValue(extractor, mapper);
+	}
+
+	protected static Optional<Object> mapOptional(final Function<String, Object> converter, final Optional<String> value)
+	{
+		return value.map(converter);
+	}
+
+	protected static List<Object> queryList(final HttpServerExchange exchange, final String name, final Function<String, Object> converter)
+	{
+		return exchange.getQueryParameters().get(name).stream().map(converter).collect(Collectors.toList());
+	}
+
+	protected static Optional<List<Object>> optionalQueryList(final HttpServerExchange exchange, final String name, final Function<String, Object> converter)
+	{
+		return Optional.ofNullable(exchange.getQueryParameters().get(name)).map(Deque::stream).map(p -> p.map(converter).collect(Collectors.toList()));
+	}
+
+	protected static Type elementType(final Type type)
+	{
+		if (type instanceof ParameterizedType)
+		{
+			return ((ParameterizedType) type).getActualTypeArguments()[0];
+		}
+
+		return type;
+	}
+
+	protected static Class<?> erasure(final Type type)
+	{
+		if (type instanceof Class)
+		{
+			return (Class<?>) type;
+		}
+		else if (type instanceof ParameterizedType)
+		{
+			return (Class<?>) ((ParameterizedType) type).getRawType();
+		}
+
+		return Object.class;
+	}
+
+	protected static boolean isSpecialType(final Class<?> type)
+	{
+		return type.equals(ServerRequest.class) || type.equals(HttpServerExchange.class) || type.equals(HttpHandler.class) || type.equals(Deadline.class);
+	}
+
+	protected static String contentTypes(final String[] values)
+	{
+		if (values == null)
+		{
+			return "*/*";
+		}
+
+		return Arrays.stream(values).flatMap(v -> Arrays.stream(v.split(","))).collect(Collectors.joining(","));
+	}
+
+	protected static ResponseKind responseKind(final Method m, final boolean captured)
+	{
+		final Class<?> returnType = m.getReturnType();
+
+		if (returnType.equals(void.class))
+		{
+			return ResponseKind.NONE;
+		}
+		else if (returnType.equals(ServerResponse.class))
+		{
+			return ResponseKind.SERVER_RESPONSE;
+		}
+		else if (ServerSentEventPublisher.class.isAssignableFrom(returnType))
+		{
+			return ResponseKind.SERVER_SENT_EVENTS;
+		}
+		else if (CompletionStage.class.isAssignableFrom(returnType))
+		{
+			return ResponseKind.FUTURE;
+		}
+		else if (returnType.equals(String.class))
+		{
+			return ResponseKind.STRING;
+		}
+		else if (HandlerGenerator.isStreamableType(returnType))
+		{
+			return ResponseKind.STREAM;
+		}
+		else if (org.reactivestreams.Publisher.class.isAssignableFrom(returnType))
+		{
+			return ResponseKind.PUBLISHER;
+		}
+		else if (HandlerGenerator.isFlowPublisherType(returnType))
+		{
+			return ResponseKind.FLOW_PUBLISHER;
+		}
+		else if (captured)
+		{
+			return ResponseKind.CAPTURED_JSON;
+		}
+
+		return ResponseKind.JSON;
+	}
+
+	protected static <T> T newInstance(final Class<T> clazz)
+	{
+		try
+		{
+			return clazz.getDeclaredConstructor().newInstance();
+
+		} catch (ReflectiveOperationException e)
+		{
+			throw new IllegalArgumentException("Unable to create " + clazz.getName(), e);
+		}
+	}
+
+	/**
+	 * Subscribes to a <code>java.util.concurrent.Flow.Publisher</code> through a proxy, since <code>Flow</code> is not available to Java 8 sources
+	 */
+	protected static void subscribeFlow(final Object publisher, final PublisherStreamSender sender) throws Exception
+	{
+		final ClassLoader loader = publisher.getClass().getClassLoader() != null ? publisher.getClass().getClassLoader() : ClassLoader.getSystemClassLoader();
+
+		final Class<?> publisherClass = Class.forName("java.util.concurrent.Flow$Publisher", false, loader);
+		final Class<?> subscriberClass = Class.forName("java.util.concurrent.Flow$Subscriber", false, loader);
+		final Class<?> subscriptionClass = Class.forName("java.util.concurrent.Flow$Subscription", false, loader);
+
+		final Method request = subscriptionClass.getMethod("request", long.class);
+		final Method cancel = subscriptionClass.getMethod("cancel");
+
+		final Object subscriber = Proxy.newProxyInstance(loader, new Class<?>[] { subscriberClass }, (proxy, method, args) -> {
+
+			switch (method.getName())
+			{
+			case "onSubscribe":
+			{
+				final Object subscription = args[0];
+
+				sender.onSubscribe(n -> invokeQuietly(request, subscription, n), () -> invokeQuietly(cancel, subscription));
+
+				return null;
+			}
+			case "onNext":
+				sender.onNext(args[0]);
+				return null;
+			case "onError":
+				sender.onError((Throwable) args[0]);
+				return null;
+			case "onComplete":
+				sender.onComplete();
+				return null;
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "equals":
+				return proxy == args[0];
+			default:
+				return "FlowSubscriber[" + sender + "]";
+			}
+		});
+
+		publisherClass.getMethod("subscribe", subscriberClass).invoke(publisher, subscriber);
+	}
+
+	protected static void invokeQuietly(final Method method, final Object target, final Object... args)
+	{
+		try
+		{
+			method.invoke(target, args);
+
+		} catch (Exception e)
+		{
+			log.debug("Unable to invoke " + method + ": " + e.getMessage(), e);
+		}
+	}
+
+	protected enum ResponseKind
+	{
+		NONE, SERVER_RESPONSE, SERVER_SENT_EVENTS, FUTURE, STRING, STREAM, PUBLISHER, FLOW_PUBLISHER, CAPTURED_JSON, JSON
+	}
+
+	/**
+	 * The handler of a single route, the counterpart of the anonymous handler class the source generator emits
+	 */
+	protected static class MethodHandleHandler implements HttpHandler
+	{
+		protected String route;
+		protected Boolean compress;
+
+		protected MethodHandle invoker;
+
+		protected ResponseCache cache;
+		protected int[] keyIndexes;
+		protected MethodHandle[] extractors;
+		protected MethodHandle spreadInvoker;
+
+		protected MicroBatcher<Object, Object> batcher;
+		protected MethodHandle batchExtractor;
+
+		protected ResponseKind responseKind;
+		protected String producesContentType;
+		protected Function<ServerResponse<?>, ServerResponse<?>> futureContentType = Function.identity();
+		protected long timeoutMillis;
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public void handleRequest(final HttpServerExchange exchange) throws Exception
+		{
+			try
+			{
+				if (this.compress != null)
+				{
+					exchange.putAttachment(CompressionPredicate.COMPRESS_KEY, this.compress);
+				}
+
+				if (this.batcher != null)
+				{
+					this.batcher.submit(exchange, (List<Object>) (Object) this.batchExtractor.invokeExact(exchange, (HttpHandler) this));
+					return;
+				}
+
+				final Object response;
+
+				if (this.cache != null)
+				{
+					final Object[] arguments = new Object[this.extractors.length];
+
+					for (int i = 0; i < arguments.length; i++)
+					{
+						arguments[i] = (Object) this.extractors[i].invokeExact(exchange, (HttpHandler) this);
+					}
+
+					final Object[] keyParameters = new Object[this.keyIndexes.length];
+
+					for (int i = 0; i < keyParameters.length; i++)
+					{
+						keyParameters[i] = arguments[this.keyIndexes[i]];
+					}
+
+					final Object cacheKey = this.cache.key(exchange, keyParameters);
+
+					if (this.cache.serve(exchange, cacheKey))
+					{
+						return;
+					}
+
+					response = (Object) this.spreadInvoker.invokeExact(arguments);
+				}
+				else
+				{
+					response = (Object) this.invoker.invokeExact(exchange, (HttpHandler) this);
+				}
+
+				this.send(exchange, response);
+
+			} catch (Exception | Error e)
+			{
+				throw e;
+
+			} catch (Throwable t)
+			{
+				throw new RuntimeException(t);
+			}
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		protected void send(final HttpServerExchange exchange, final Object response) throws Exception
+		{
+			switch (this.responseKind)
+			{
+			case NONE:
+				return;
+			case SERVER_RESPONSE:
+				((ServerResponse<?>) response).send(this, exchange);
+				return;
+			case SERVER_SENT_EVENTS:
+				((ServerSentEventPublisher) response).connect(exchange);
+				return;
+			case FUTURE:
+				AsyncResponses.dispatch(exchange, (CompletionStage<ServerResponse<?>>) response, this.timeoutMillis, r -> this.futureContentType.apply(r).send(this, exchange));
+				return;
+			default:
+				break;
+			}
+
+			exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, this.producesContentType);
+
+			switch (this.responseKind)
+			{
+			case STRING:
+				exchange.getResponseSender().send((String) response);
+				break;
+			case STREAM:
+				JsonArrayStreamSender.send(exchange, response, null);
+				break;
+			case PUBLISHER:
+				PublisherStreamSender.send(exchange, (org.reactivestreams.Publisher) response, null);
+				break;
+			case FLOW_PUBLISHER:
+				PublisherStreamSender.start(exchange, null, sender -> {
+
+					try
+					{
+						subscribeFlow(response, sender);
+
+					} catch (Exception e)
+					{
+						sender.onError(e);
+					}
+				});
+				break;
+			case CAPTURED_JSON:
+				CapturedResponse.send(exchange, JsonStream.serializeToBytes(response, null));
+				break;
+			default:
+				exchange.getResponseSender().send(JsonStream.serialize(response));
+				break;
+			}
+		}
+
+		@Override
+		public String toString()
+		{
+			return this.route;
+		}
+	}
+}
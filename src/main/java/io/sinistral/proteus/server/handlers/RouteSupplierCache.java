@@ -0,0 +1,454 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.handlers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the compiled classes of route suppliers on disk so that later starts with unchanged controllers load them without running javac.
+ * <p>
+ * Entries are keyed on a hash of the generated source, the bytes of the controller class, the Proteus build and the Java version, and stored as <code>&lt;directory&gt;/&lt;supplier&gt;/&lt;key&gt;/&lt;class name&gt;.class</code>. Storing a new entry for a supplier removes its older ones. Entries are written to a temporary directory and moved into place, so instances sharing a directory never load a partial entry.
+ * <p>
+ * Since the cached bytes are defined as classes, the cache is only used in a directory that is owned by the current user and not accessible to anyone else, and every entry carries an HMAC of its classes under a key kept in the directory. An entry whose classes do not match their HMAC is ignored.
+ *
+ * @author jbauer
+ */
+public class RouteSupplierCache
+{
+	private static Logger log = LoggerFactory.getLogger(RouteSupplierCache.class.getCanonicalName());
+
+	protected static final String CLASS_EXTENSION = ".class";
+
+	protected static final String KEY_FILE = ".key";
+
+	protected static final String MANIFEST_FILE = "classes.hmac";
+
+	protected static final String HMAC_ALGORITHM = "HmacSHA256";
+
+	protected static final Set<PosixFilePermission> OWNER_ONLY = EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_EXECUTE);
+
+	protected static volatile byte[] frameworkHash = null;
+
+	protected final Path directory;
+	protected final SecretKeySpec secret;
+
+	protected RouteSupplierCache(final Path directory, final byte[] secret)
+	{
+		this.directory = directory;
+		this.secret = new SecretKeySpec(secret, HMAC_ALGORITHM);
+	}
+
+	/**
+	 * Creates the directory readable only by the current user if it does not exist and reads or creates its HMAC key
+	 *
+	 * @param directory
+	 * @return the cache, or null if the directory is not owned by the current user or is accessible to others
+	 */
+	public static RouteSupplierCache open(final Path directory)
+	{
+		try
+		{
+			final boolean posix = Files.getFileStore(Files.createDirectories(directory.getParent() != null ? directory.getParent() : directory)).supportsFileAttributeView(PosixFileAttributeView.class);
+
+			if (posix)
+			{
+				try
+				{
+					Files.createDirectory(directory, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+
+				} catch (FileAlreadyExistsException e)
+				{
+					log.debug("Using existing route supplier cache " + directory);
+				}
+			}
+			else
+			{
+				Files.createDirectories(directory);
+			}
+
+			if (!isPrivate(directory, posix))
+			{
+				log.warn("Not caching route suppliers in " + directory + ", it must be a directory owned by " + System.getProperty("user.name") + " that no one else can access");
+				return null;
+			}
+
+			final Path keyFile = directory.resolve(KEY_FILE);
+
+			if (!Files.exists(keyFile, LinkOption.NOFOLLOW_LINKS))
+			{
+				final byte[] secret = new byte[32];
+
+				new SecureRandom().nextBytes(secret);
+
+				final Path temporary = posix ? Files.createTempFile(directory, KEY_FILE, ".tmp", PosixFilePermissions.asFileAttribute(EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE))) : Files.createTempFile(directory, KEY_FILE, ".tmp");
+
+				Files.write(temporary, secret);
+
+				try
+				{
+					Files.move(temporary, keyFile, StandardCopyOption.ATOMIC_MOVE);
+
+				} catch (IOException e)
+				{
+					Files.deleteIfExists(temporary);
+				}
+			}
+
+			if (!isPrivate(keyFile, posix))
+			{
+				log.warn("Not caching route suppliers in " + directory + ", its key " + keyFile + " must be owned by " + System.getProperty("user.name") + " and readable by no one else");
+				return null;
+			}
+
+			return new RouteSupplierCache(directory, Files.readAllBytes(keyFile));
+
+		} catch (IOException e)
+		{
+			log.warn("Not caching route suppliers in " + directory + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * @return true if the path is not a link, is owned by the current user and, where permissions are supported, grants nothing to group or others
+	 */
+	protected static boolean isPrivate(final Path path, final boolean posix) throws IOException
+	{
+		if (Files.isSymbolicLink(path))
+		{
+			return false;
+		}
+
+		final UserPrincipal owner = Files.getOwner(path, LinkOption.NOFOLLOW_LINKS);
+
+		final UserPrincipal user = path.getFileSystem().getUserPrincipalLookupService().lookupPrincipalByName(System.getProperty("user.name"));
+
+		if (!owner.equals(user))
+		{
+			return false;
+		}
+
+		return !posix || OWNER_ONLY.containsAll(Files.getPosixFilePermissions(path, LinkOption.NOFOLLOW_LINKS));
+	}
+
+	/**
+	 * @param generator
+	 *            a generator that has generated its source
+	 * @return the key of the classes compiled from the generated source
+	 */
+	public String key(final HandlerGenerator generator)
+	{
+		final Class<?> controllerClass = generator.controllerClass;
+
+		final byte[] controllerBytes = classBytes(controllerClass);
+
+		return RouteSupplierGenerator.hash(generator.sourceString.getBytes(StandardCharsets.UTF_8), controllerBytes, frameworkHash(), System.getProperty("java.specification.version").getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @return a hash of the Proteus jar, or of the classes generated suppliers are built on when Proteus is not loaded from a jar
+	 */
+	protected static byte[] frameworkHash()
+	{
+		if (frameworkHash == null)
+		{
+			byte[] hash = null;
+
+			try
+			{
+				final URL location = RouteSupplierCache.class.getProtectionDomain().getCodeSource().getLocation();
+
+				final Path path = Paths.get(location.toURI());
+
+				if (Files.isRegularFile(path))
+				{
+					hash = MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(path));
+				}
+
+			} catch (Exception e)
+			{
+				log.debug("Unable to hash the Proteus jar: " + e.getMessage());
+			}
+
+			if (hash == null)
+			{
+				hash = RouteSupplierGenerator.hash(classBytes(HandlerGenerator.class), classBytes(io.sinistral.proteus.server.Extractors.class), classBytes(io.sinistral.proteus.server.ServerResponse.class)).getBytes(StandardCharsets.UTF_8);
+			}
+
+			frameworkHash = hash;
+		}
+
+		return frameworkHash;
+	}
+
+	/**
+	 * @param name
+	 *            the supplier class name
+	 * @param key
+	 * @return the bytes of the supplier and its nested classes by binary name, or null if they are not cached or do not match their HMAC
+	 */
+	public Map<String, byte[]> load(final String name, final String key)
+	{
+		final Path entry = this.directory.resolve(name).resolve(key);
+
+		if (!Files.isDirectory(entry))
+		{
+			return null;
+		}
+
+		final Map<String, byte[]> classes = new TreeMap<>();
+
+		final Properties manifest = new Properties();
+
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(entry, "*" + CLASS_EXTENSION))
+		{
+			for (Path file : files)
+			{
+				final String fileName = file.getFileName().toString();
+
+				classes.put(fileName.substring(0, fileName.length() - CLASS_EXTENSION.length()), Files.readAllBytes(file));
+			}
+
+			try (InputStream in = Files.newInputStream(entry.resolve(MANIFEST_FILE)))
+			{
+				manifest.load(in);
+			}
+
+		} catch (IOException e)
+		{
+			log.warn("Unable to read cached classes of " + name + " from " + entry + ": " + e.getMessage());
+			return null;
+		}
+
+		if (!classes.containsKey(name))
+		{
+			return null;
+		}
+
+		if (manifest.size() != classes.size())
+		{
+			log.warn("Ignoring cached classes of " + name + " in " + entry + ", they do not match their manifest");
+			return null;
+		}
+
+		for (Map.Entry<String, byte[]> classEntry : classes.entrySet())
+		{
+			final String expected = manifest.getProperty(classEntry.getKey());
+
+			if (expected == null || !MessageDigest.isEqual(expected.getBytes(StandardCharsets.US_ASCII), this.hmac(classEntry.getKey(), key, classEntry.getValue()).getBytes(StandardCharsets.US_ASCII)))
+			{
+				log.warn("Ignoring cached classes of " + name + " in " + entry + ", " + classEntry.getKey() + " does not match its HMAC");
+				return null;
+			}
+		}
+
+		return classes;
+	}
+
+	/**
+	 * Stores the classes of a supplier and removes its older entries
+	 *
+	 * @param name
+	 *            the supplier class name
+	 * @param key
+	 * @param classes
+	 *            the bytes of the supplier and its nested classes by binary name
+	 */
+	public void store(final String name, final String key, final Map<String, byte[]> classes)
+	{
+		final Path supplierDirectory = this.directory.resolve(name);
+		final Path entry = supplierDirectory.resolve(key);
+
+		Path temporary = null;
+
+		try
+		{
+			Files.createDirectories(supplierDirectory);
+
+			temporary = Files.createTempDirectory(supplierDirectory, key + ".");
+
+			final Properties manifest = new Properties();
+
+			for (Map.Entry<String, byte[]> classEntry : classes.entrySet())
+			{
+				Files.write(temporary.resolve(classEntry.getKey() + CLASS_EXTENSION), classEntry.getValue());
+
+				manifest.setProperty(classEntry.getKey(), this.hmac(classEntry.getKey(), key, classEntry.getValue()));
+			}
+
+			try (OutputStream out = Files.newOutputStream(temporary.resolve(MANIFEST_FILE)))
+			{
+				manifest.store(out, null);
+			}
+
+			try
+			{
+				Files.move(temporary, entry, StandardCopyOption.ATOMIC_MOVE);
+				temporary = null;
+
+			} catch (IOException e)
+			{
+				if (!Files.isDirectory(entry))
+				{
+					throw e;
+				}
+
+				log.debug("Classes of " + name + " were already cached");
+			}
+
+			/*
+			 * Temporary directories of other instances contain a '.' and are left alone
+			 */
+
+			try (DirectoryStream<Path> entries = Files.newDirectoryStream(supplierDirectory))
+			{
+				for (Path other : entries)
+				{
+					if (!other.equals(entry) && !other.getFileName().toString().contains("."))
+					{
+						delete(other);
+					}
+				}
+			}
+
+		} catch (IOException e)
+		{
+			log.warn("Unable to cache classes of " + name + " in " + entry + ": " + e.getMessage());
+
+		} finally
+		{
+			if (temporary != null)
+			{
+				delete(temporary);
+			}
+		}
+	}
+
+	public Path getDirectory()
+	{
+		return this.directory;
+	}
+
+	/**
+	 * @return the hex encoded HMAC of a class under its name and entry key, so classes cannot be moved between entries
+	 */
+	protected String hmac(final String className, final String key, final byte[] bytes)
+	{
+		try
+		{
+			final Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+
+			mac.init(this.secret);
+
+			mac.update(className.getBytes(StandardCharsets.UTF_8));
+			mac.update((byte) 0);
+			mac.update(key.getBytes(StandardCharsets.UTF_8));
+			mac.update((byte) 0);
+
+			final byte[] digest = mac.doFinal(bytes);
+
+			final StringBuilder sb = new StringBuilder(digest.length * 2);
+
+			for (byte b : digest)
+			{
+				sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+
+			return sb.toString();
+
+		} catch (GeneralSecurityException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @param clazz
+	 * @return the bytes of the class file, or an empty array if it cannot be read
+	 */
+	public static byte[] classBytes(final Class<?> clazz)
+	{
+		final ClassLoader loader = clazz.getClassLoader() != null ? clazz.getClassLoader() : ClassLoader.getSystemClassLoader();
+
+		try (InputStream in = loader.getResourceAsStream(clazz.getName().replace('.', '/') + CLASS_EXTENSION))
+		{
+			if (in == null)
+			{
+				return new byte[0];
+			}
+
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+			final byte[] buffer = new byte[8192];
+
+			int read;
+
+			while ((read = in.read(buffer)) != -1)
+			{
+				out.write(buffer, 0, read);
+			}
+
+			return out.toByteArray();
+
+		} catch (IOException e)
+		{
+			log.debug("Unable to read the class file of " + clazz.getName() + ": " + e.getMessage());
+			return new byte[0];
+		}
+	}
+
+	protected static void delete(final Path path)
+	{
+		try (Stream<Path> paths = Files.walk(path))
+		{
+			paths.sorted(Comparator.reverseOrder()).forEach(p -> {
+
+				try
+				{
+					Files.deleteIfExists(p);
+
+				} catch (IOException e)
+				{
+					log.debug("Unable to delete " + p + ": " + e.getMessage());
+				}
+			});
+
+		} catch (IOException e)
+		{
+			log.debug("Unable to delete " + path + ": " + e.getMessage());
+		}
+	}
+}
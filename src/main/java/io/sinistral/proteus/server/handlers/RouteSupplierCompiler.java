@@ -0,0 +1,517 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.handlers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.typesafe.config.Config;
+
+import io.undertow.server.RoutingHandler;
+import net.openhft.compiler.CompilerUtils;
+
+/**
+ * Generates the route suppliers of all controllers in parallel and compiles them in a single javac invocation.
+ * <p>
+ * Compiling each supplier on its own pays for setting up javac once per controller, which dominates startup with many controllers. Suppliers precompiled by {@link RouteSupplierGenerator} or found in the {@link RouteSupplierCache} are loaded as they are and left out of the batch, and newly compiled suppliers are added to the cache. If the batch does not compile, each remaining supplier is compiled on its own so that one broken controller does not keep the others from starting.
+ * <p>
+ * The time spent generating, compiling, loading and injecting the suppliers is kept for the startup status.
+ *
+ * @author jbauer
+ */
+public class RouteSupplierCompiler
+{
+	private static Logger log = LoggerFactory.getLogger(RouteSupplierCompiler.class.getCanonicalName());
+
+	/*
+	 * A class can only be defined once per class loader, so suppliers defined earlier are reused by source hash
+	 */
+	protected static final Map<String, Class<? extends Supplier<RoutingHandler>>> DEFINED = new ConcurrentHashMap<>();
+
+	protected final RouteSupplierCache cache;
+
+	protected long generationNanos = 0;
+	protected long compilationNanos = 0;
+	protected long classLoadingNanos = 0;
+	protected long injectionNanos = 0;
+
+	protected int generatedCount = 0;
+	protected int precompiledCount = 0;
+	protected int cachedCount = 0;
+	protected int compiledCount = 0;
+
+	/*
+	 * Generation time and how the supplier was obtained, by controller
+	 */
+	protected final Map<String, Long> controllerGenerationNanos = new ConcurrentHashMap<>();
+	protected final Map<String, Long> controllerCompilationNanos = new ConcurrentHashMap<>();
+	protected final Map<String, String> controllerSources = new ConcurrentHashMap<>();
+	protected final Map<String, String> controllerFailures = new ConcurrentHashMap<>();
+
+	/**
+	 * @param cache
+	 *            the cache of compiled suppliers, or null to always compile
+	 */
+	public RouteSupplierCompiler(final RouteSupplierCache cache)
+	{
+		this.cache = cache;
+	}
+
+	/**
+	 * @param config
+	 * @return a compiler using the cache configured by <code>application.handlerCache</code>
+	 */
+	public static RouteSupplierCompiler create(final Config config)
+	{
+		final Config cacheConfig = config.getConfig("application.handlerCache");
+
+		return new RouteSupplierCompiler(cacheConfig.getBoolean("enabled") ? RouteSupplierCache.open(Paths.get(cacheConfig.getString("directory"))) : null);
+	}
+
+	/**
+	 * @param generators
+	 *            the generators of each controller, with their members injected
+	 * @return the supplier class of each generator that succeeded, in the order of the generators
+	 */
+	public Map<HandlerGenerator, Class<? extends Supplier<RoutingHandler>>> compile(final Collection<HandlerGenerator> generators)
+	{
+		final Map<HandlerGenerator, Class<? extends Supplier<RoutingHandler>>> classes = new LinkedHashMap<>();
+
+		long start = System.nanoTime();
+
+		generators.parallelStream().forEach(generator -> {
+
+			final long generationStart = System.nanoTime();
+
+			generator.generateRoutes();
+
+			this.controllerGenerationNanos.merge(generator.controllerClass.getName(), System.nanoTime() - generationStart, Long::sum);
+		});
+
+		this.generationNanos += System.nanoTime() - start;
+		this.generatedCount += generators.size();
+
+		start = System.nanoTime();
+
+		final Map<String, HandlerGenerator> pending = new LinkedHashMap<>();
+		final Map<String, String> keys = new LinkedHashMap<>();
+
+		for (HandlerGenerator generator : generators)
+		{
+			if (generator.sourceString == null)
+			{
+				log.error("Unable to generate handlers for " + generator.controllerClass.getName());
+				this.controllerFailures.put(generator.controllerClass.getName(), "no route supplier source was generated");
+				continue;
+			}
+
+			log.debug("\n\nGenerated Class Source:\n\n" + generator.sourceString);
+
+			final Class<? extends Supplier<RoutingHandler>> precompiledClass = generator.loadPrecompiledClass();
+
+			if (precompiledClass != null)
+			{
+				classes.put(generator, precompiledClass);
+				this.controllerSources.put(generator.controllerClass.getName(), "precompiled");
+				this.precompiledCount++;
+				continue;
+			}
+
+			final Class<? extends Supplier<RoutingHandler>> definedClass = DEFINED.get(RouteSupplierGenerator.sourceHash(generator.sourceString));
+
+			if (definedClass != null && definedClass.getClassLoader() == generator.controllerClass.getClassLoader())
+			{
+				classes.put(generator, definedClass);
+				this.controllerSources.put(generator.controllerClass.getName(), "defined");
+				this.cachedCount++;
+				continue;
+			}
+
+			final String name = generator.packageName + "." + generator.className;
+
+			if (this.cache != null)
+			{
+				final String key = this.cache.key(generator);
+
+				final Map<String, byte[]> cachedClasses = this.cache.load(name, key);
+
+				if (cachedClasses != null)
+				{
+					final Class<? extends Supplier<RoutingHandler>> cachedClass = this.define(name, generator, cachedClasses);
+
+					if (cachedClass != null)
+					{
+						classes.put(generator, cachedClass);
+						this.controllerSources.put(generator.controllerClass.getName(), "cached");
+						this.cachedCount++;
+						continue;
+					}
+				}
+
+				keys.put(name, key);
+			}
+
+			pending.put(name, generator);
+		}
+
+		this.classLoadingNanos += System.nanoTime() - start;
+
+		if (pending.isEmpty())
+		{
+			return classes;
+		}
+
+		if (ToolProvider.getSystemJavaCompiler() == null)
+		{
+			log.warn("No system Java compiler is available, " + pending.size() + " route suppliers were not compiled");
+			pending.values().forEach(generator -> this.controllerFailures.put(generator.controllerClass.getName(), "no system Java compiler is available"));
+			return classes;
+		}
+
+		start = System.nanoTime();
+
+		final Map<String, String> sources = new LinkedHashMap<>();
+
+		pending.forEach((name, generator) -> sources.put(name, generator.sourceString));
+
+		Map<String, byte[]> compiled = null;
+
+		try
+		{
+			compiled = compileSources(sources, new ArrayList<>());
+
+		} catch (Exception e)
+		{
+			log.warn("Unable to compile route suppliers together, compiling them one at a time: " + e.getMessage());
+		}
+
+		this.compilationNanos += System.nanoTime() - start;
+
+		if (compiled == null)
+		{
+			for (Map.Entry<String, HandlerGenerator> entry : pending.entrySet())
+			{
+				start = System.nanoTime();
+
+				final Class<? extends Supplier<RoutingHandler>> supplierClass = this.compileAlone(entry.getKey(), entry.getValue(), keys.get(entry.getKey()));
+
+				final long nanos = System.nanoTime() - start;
+
+				this.compilationNanos += nanos;
+				this.controllerCompilationNanos.put(entry.getValue().controllerClass.getName(), nanos);
+
+				if (supplierClass != null)
+				{
+					classes.put(entry.getValue(), supplierClass);
+					this.controllerSources.put(entry.getValue().controllerClass.getName(), "compiled");
+					this.compiledCount++;
+				}
+			}
+
+			return classes;
+		}
+
+		start = System.nanoTime();
+
+		for (Map.Entry<String, HandlerGenerator> entry : pending.entrySet())
+		{
+			final String name = entry.getKey();
+
+			final Map<String, byte[]> supplierClasses = compiled.entrySet().stream().filter(e -> e.getKey().equals(name) || e.getKey().startsWith(name + "$")).collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> a, TreeMap::new));
+
+			final Class<? extends Supplier<RoutingHandler>> supplierClass = this.define(name, entry.getValue(), supplierClasses);
+
+			if (supplierClass != null)
+			{
+				classes.put(entry.getValue(), supplierClass);
+				this.controllerSources.put(entry.getValue().controllerClass.getName(), "batch");
+				this.compiledCount++;
+
+				if (this.cache != null)
+				{
+					this.cache.store(name, keys.get(name), supplierClasses);
+				}
+			}
+		}
+
+		this.classLoadingNanos += System.nanoTime() - start;
+
+		return classes;
+	}
+
+	/**
+	 * Defines the supplier and its nested classes in the class loader of the controller
+	 * 
+	 * @param classes
+	 *            the bytes of the supplier and its nested classes, sorted so the supplier comes first
+	 */
+	@SuppressWarnings("unchecked")
+	protected Class<? extends Supplier<RoutingHandler>> define(final String name, final HandlerGenerator generator, final Map<String, byte[]> classes)
+	{
+		final ClassLoader loader = generator.controllerClass.getClassLoader();
+
+		try
+		{
+			Class<?> supplierClass = null;
+
+			for (Map.Entry<String, byte[]> entry : classes.entrySet())
+			{
+				final Class<?> definedClass = CompilerUtils.defineClass(loader, entry.getKey(), entry.getValue());
+
+				if (entry.getKey().equals(name))
+				{
+					supplierClass = definedClass;
+				}
+			}
+
+			if (supplierClass == null)
+			{
+				log.error("No class was compiled for " + name);
+				this.controllerFailures.put(generator.controllerClass.getName(), "no class was compiled for " + name);
+				return null;
+			}
+
+			DEFINED.put(RouteSupplierGenerator.sourceHash(generator.sourceString), (Class<? extends Supplier<RoutingHandler>>) supplierClass);
+
+			return (Class<? extends Supplier<RoutingHandler>>) supplierClass;
+
+		} catch (Exception | LinkageError e)
+		{
+			log.error("Unable to load " + name + ": " + e.getMessage(), e);
+			this.controllerFailures.put(generator.controllerClass.getName(), "unable to load " + name + ": " + e);
+			return null;
+		}
+	}
+
+	/**
+	 * Compiles and defines a supplier on its own, caching it if it compiles
+	 *
+	 * @param key
+	 *            the cache key of the supplier, or null if it is not to be cached
+	 */
+	protected Class<? extends Supplier<RoutingHandler>> compileAlone(final String name, final HandlerGenerator generator, final String key)
+	{
+		final Map<String, byte[]> supplierClasses;
+
+		try
+		{
+			supplierClasses = compileSources(Collections.singletonMap(name, generator.sourceString), new ArrayList<>());
+
+		} catch (Exception e)
+		{
+			log.error("Exception creating handlers for " + generator.controllerClass.getName() + "!!!\n" + e.getMessage(), e);
+			this.controllerFailures.put(generator.controllerClass.getName(), e.toString());
+			return null;
+		}
+
+		final Class<? extends Supplier<RoutingHandler>> supplierClass = this.define(name, generator, supplierClasses);
+
+		if (supplierClass != null && this.cache != null && key != null)
+		{
+			this.cache.store(name, key, supplierClasses);
+		}
+
+		return supplierClass;
+	}
+
+	/**
+	 * Compiles the sources in a single javac task against the class path of the application
+	 *
+	 * @param sources
+	 *            source code by class name
+	 * @param options
+	 *            additional javac options
+	 * @return the bytes of every compiled class, including nested classes, by binary name
+	 * @throws IOException
+	 * @throws IllegalStateException
+	 *             if the sources do not compile
+	 */
+	public static Map<String, byte[]> compileSources(final Map<String, String> sources, final List<String> options) throws IOException
+	{
+		final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+
+		if (compiler == null)
+		{
+			throw new IllegalStateException("No system Java compiler is available, route suppliers must be compiled with a JDK");
+		}
+
+		final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+
+		final List<JavaFileObject> units = new ArrayList<>();
+
+		sources.forEach((name, source) -> units.add(new SourceFile(name, source)));
+
+		final List<String> compilerOptions = new ArrayList<>(Arrays.asList("-classpath", System.getProperty("java.class.path"), "-nowarn"));
+
+		compilerOptions.addAll(options);
+
+		try (ClassFileManager fileManager = new ClassFileManager(compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8)))
+		{
+			if (!compiler.getTask(null, fileManager, diagnostics, compilerOptions, null, units).call())
+			{
+				throw new IllegalStateException("Unable to compile route suppliers: " + diagnostics.getDiagnostics());
+			}
+
+			return fileManager.getClasses();
+		}
+	}
+
+	/**
+	 * @param controllerClass
+	 * @return why no route supplier was compiled for the controller, or null if none failed
+	 */
+	public String getFailure(final Class<?> controllerClass)
+	{
+		return this.controllerFailures.get(controllerClass.getName());
+	}
+
+	public void recordInjection(final long nanos)
+	{
+		this.injectionNanos += nanos;
+	}
+
+	/**
+	 * @return for each controller, the milliseconds spent generating its supplier and how the supplier was obtained: <code>precompiled</code>, <code>cached</code>, <code>defined</code> earlier in this JVM, compiled in the <code>batch</code> or <code>compiled</code> alone, with the milliseconds it took
+	 */
+	public Map<String, Map<String, Object>> getControllerTimings()
+	{
+		final Map<String, Map<String, Object>> timings = new TreeMap<>();
+
+		this.controllerGenerationNanos.forEach((name, nanos) -> {
+
+			final Map<String, Object> controllerTimings = new LinkedHashMap<>();
+
+			controllerTimings.put("generationMillis", nanos / 1e6);
+			controllerTimings.put("supplier", this.controllerSources.getOrDefault(name, "failed"));
+
+			if (this.controllerCompilationNanos.containsKey(name))
+			{
+				controllerTimings.put("compilationMillis", this.controllerCompilationNanos.get(name) / 1e6);
+			}
+
+			timings.put(name, controllerTimings);
+		});
+
+		return timings;
+	}
+
+	/**
+	 * @return the number of suppliers and the milliseconds spent in each phase
+	 */
+	public Map<String, Object> getTimings()
+	{
+		final Map<String, Object> timings = new LinkedHashMap<>();
+
+		timings.put("generated", this.generatedCount);
+		timings.put("precompiled", this.precompiledCount);
+		timings.put("cached", this.cachedCount);
+		timings.put("compiled", this.compiledCount);
+		timings.put("generationMillis", TimeUnit.NANOSECONDS.toMillis(this.generationNanos));
+		timings.put("compilationMillis", TimeUnit.NANOSECONDS.toMillis(this.compilationNanos));
+		timings.put("classLoadingMillis", TimeUnit.NANOSECONDS.toMillis(this.classLoadingNanos));
+		timings.put("injectionMillis", TimeUnit.NANOSECONDS.toMillis(this.injectionNanos));
+
+		return timings;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("%d generated in %dms, %d compiled in %dms, %d precompiled, %d cached, loaded in %dms, injected in %dms", this.generatedCount, TimeUnit.NANOSECONDS.toMillis(this.generationNanos), this.compiledCount, TimeUnit.NANOSECONDS.toMillis(this.compilationNanos),
+				this.precompiledCount, this.cachedCount, TimeUnit.NANOSECONDS.toMillis(this.classLoadingNanos), TimeUnit.NANOSECONDS.toMillis(this.injectionNanos));
+	}
+
+	protected static class SourceFile extends SimpleJavaFileObject
+	{
+		protected final String source;
+
+		protected SourceFile(final String name, final String source)
+		{
+			super(URI.create("string:///" + name.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+			this.source = source;
+		}
+
+		@Override
+		public CharSequence getCharContent(final boolean ignoreEncodingErrors)
+		{
+			return this.source;
+		}
+	}
+
+	/**
+	 * Keeps compiled classes in memory instead of writing them to the output directory
+	 */
+	protected static class ClassFileManager extends ForwardingJavaFileManager<StandardJavaFileManager>
+	{
+		protected final Map<String, ByteArrayOutputStream> classes = new TreeMap<>();
+
+		protected ClassFileManager(final StandardJavaFileManager fileManager)
+		{
+			super(fileManager);
+		}
+
+		@Override
+		public JavaFileObject getJavaFileForOutput(final Location location, final String className, final Kind kind, final FileObject sibling) throws IOException
+		{
+			if (kind != Kind.CLASS)
+			{
+				return super.getJavaFileForOutput(location, className, kind, sibling);
+			}
+
+			return new SimpleJavaFileObject(URI.create("memory:///" + className.replace('.', '/') + kind.extension), kind)
+			{
+				@Override
+				public OutputStream openOutputStream()
+				{
+					final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+					synchronized (ClassFileManager.this.classes)
+					{
+						ClassFileManager.this.classes.put(className, out);
+					}
+
+					return out;
+				}
+			};
+		}
+
+		protected Map<String, byte[]> getClasses()
+		{
+			final Map<String, byte[]> bytes = new TreeMap<>();
+
+			this.classes.forEach((name, out) -> bytes.put(name, out.toByteArray()));
+
+			return bytes;
+		}
+	}
+}
@@ -0,0 +1,235 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.handlers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import io.sinistral.proteus.server.endpoints.EndpointIndex;
+import io.sinistral.proteus.server.swagger.Reader;
+import io.sinistral.proteus.server.swagger.ServerParameterExtension;
+import io.swagger.jaxrs.ext.SwaggerExtensions;
+import io.swagger.models.Swagger;
+
+/**
+ * Generates and compiles the <code>Supplier<RoutingHandler></code> classes of a set of controllers at build time, so that an application starts without running the compiler.
+ * <p>
+ * Usage: <code>RouteSupplierGenerator &lt;output directory&gt; &lt;controller class or package&gt;...</code>
+ * <p>
+ * The classes are written to the output directory along with an index at {@value #INDEX_RESOURCE} that records a hash of the source each class was compiled from, and the {@link EndpointIndex} of the controllers. At startup the source is still generated, which is cheap, and the precompiled class is only loaded if its hash matches. A class generated with a different configuration or from a changed controller is compiled at runtime as before.
+ *
+ * @author jbauer
+ */
+public class RouteSupplierGenerator
+{
+	private static Logger log = LoggerFactory.getLogger(RouteSupplierGenerator.class.getCanonicalName());
+
+	public static final String INDEX_RESOURCE = "META-INF/proteus/route-suppliers.properties";
+
+	public static final String HANDLER_PACKAGE = "io.sinistral.proteus.controllers.handlers";
+
+	protected final Config config;
+	protected final File outputDirectory;
+
+	public RouteSupplierGenerator(final Config config, final File outputDirectory)
+	{
+		this.config = config;
+		this.outputDirectory = outputDirectory;
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		if (args.length < 2)
+		{
+			System.err.println("Usage: " + RouteSupplierGenerator.class.getName() + " <output directory> <controller class or package>...");
+			System.exit(1);
+		}
+
+		final Set<Class<?>> controllers = new LinkedHashSet<>();
+
+		for (String name : Arrays.copyOfRange(args, 1, args.length))
+		{
+			controllers.addAll(resolveControllers(name));
+		}
+
+		new RouteSupplierGenerator(ConfigFactory.load(), new File(args[0])).generate(controllers);
+	}
+
+	/**
+	 * @param name
+	 *            a controller class name, or a package to scan for <code>@Api</code> classes
+	 * @return the controllers
+	 */
+	protected static Set<Class<?>> resolveControllers(final String name) throws Exception
+	{
+		final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+
+		try
+		{
+			return new LinkedHashSet<>(Arrays.asList(Class.forName(name, false, loader)));
+
+		} catch (ClassNotFoundException e)
+		{
+			return HandlerGenerator.scanApiClasses(name, null);
+		}
+	}
+
+	/**
+	 * Generates and compiles the route suppliers of the controllers into the output directory and writes the index
+	 *
+	 * @param controllers
+	 * @throws Exception
+	 *             if a supplier does not compile
+	 */
+	public void generate(final Set<Class<?>> controllers) throws Exception
+	{
+		final Map<String, String> sources = new LinkedHashMap<>();
+
+		final Properties index = new Properties();
+
+		final Map<String, ObjectNode> endpointIndex = new LinkedHashMap<>();
+
+		SwaggerExtensions.setExtensions(Collections.singletonList(new ServerParameterExtension()));
+
+		for (Class<?> controllerClass : controllers)
+		{
+			final HandlerGenerator generator = new HandlerGenerator(HANDLER_PACKAGE, controllerClass);
+
+			generator.applicationPath = this.config.getString("application.path");
+			generator.registeredEndpoints = new TreeSet<>();
+			generator.config = this.config;
+
+			generator.generateRoutes();
+
+			if (generator.sourceString == null)
+			{
+				throw new IllegalStateException("Unable to generate the route supplier of " + controllerClass.getName());
+			}
+
+			final String name = generator.packageName + "." + generator.className;
+
+			sources.put(name, generator.sourceString);
+
+			index.setProperty(name, sourceHash(generator.sourceString));
+
+			endpointIndex.put(controllerClass.getName(), EndpointIndex.entry(controllerClass, new Reader(new Swagger()).read(controllerClass)));
+		}
+
+		final Map<String, byte[]> classes = RouteSupplierCompiler.compileSources(sources, Arrays.asList("-source", "1.8", "-target", "1.8"));
+
+		for (Map.Entry<String, byte[]> entry : classes.entrySet())
+		{
+			final Path classPath = this.outputDirectory.toPath().resolve(entry.getKey().replace('.', File.separatorChar) + ".class");
+
+			Files.createDirectories(classPath.getParent());
+			Files.write(classPath, entry.getValue());
+		}
+
+		final Path indexPath = this.outputDirectory.toPath().resolve(INDEX_RESOURCE);
+
+		Files.createDirectories(indexPath.getParent());
+
+		try (OutputStream out = Files.newOutputStream(indexPath))
+		{
+			index.store(out, "Precompiled route suppliers");
+		}
+
+		EndpointIndex.write(this.outputDirectory.toPath().resolve(EndpointIndex.RESOURCE), endpointIndex);
+
+		log.info("Precompiled " + index.size() + " route suppliers into " + this.outputDirectory);
+	}
+
+	/**
+	 * @param source
+	 * @return the hex encoded SHA-256 of the source
+	 */
+	public static String sourceHash(final String source)
+	{
+		return hash(source.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @param parts
+	 * @return the hex encoded SHA-256 of the parts in order
+	 */
+	public static String hash(final byte[]... parts)
+	{
+		try
+		{
+			final MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+
+			for (byte[] part : parts)
+			{
+				messageDigest.update(part);
+			}
+
+			final byte[] digest = messageDigest.digest();
+
+			final StringBuilder sb = new StringBuilder(digest.length * 2);
+
+			for (byte b : digest)
+			{
+				sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+
+			return sb.toString();
+
+		} catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @param loader
+	 * @return the merged indexes of precompiled route suppliers visible to the class loader
+	 */
+	public static Properties index(final ClassLoader loader)
+	{
+		final Properties index = new Properties();
+
+		try
+		{
+			final Enumeration<URL> resources = loader.getResources(INDEX_RESOURCE);
+
+			while (resources.hasMoreElements())
+			{
+				try (InputStream in = resources.nextElement().openStream())
+				{
+					index.load(in);
+				}
+			}
+
+		} catch (IOException e)
+		{
+			log.warn("Unable to read " + INDEX_RESOURCE + ": " + e.getMessage());
+		}
+
+		return index;
+	}
+}
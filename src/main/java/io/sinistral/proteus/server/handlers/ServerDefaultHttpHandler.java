@@ -9,6 +9,7 @@ import java.util.stream.Collectors;
 import com.google.inject.Inject;
 import com.typesafe.config.Config;
 
+import io.sinistral.proteus.server.Deadline;
 import io.undertow.server.DefaultResponseListener;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
@@ -67,6 +68,8 @@ public class ServerDefaultHttpHandler implements HttpHandler
             fiGlobal = headers.fiNextNonEmpty(fiGlobal);
         }
         
+		Deadline.attach(exchange);
+        
 		next.handleRequest(exchange); 
 
 	}
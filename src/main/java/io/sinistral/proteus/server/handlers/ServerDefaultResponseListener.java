@@ -18,6 +18,7 @@ import com.google.inject.Singleton;
 import com.jsoniter.output.JsonStream;
 
 import io.sinistral.proteus.server.predicates.ServerPredicates;
+import io.sinistral.proteus.server.streaming.RecordTooLargeException;
 import io.undertow.server.DefaultResponseListener;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.util.Headers;
@@ -65,7 +66,11 @@ public class ServerDefaultResponseListener implements DefaultResponseListener
      			}
      		} 
         	 
-        	 if(throwable instanceof IllegalArgumentException )
+        	 if(throwable instanceof RecordTooLargeException )
+        	 {
+        		 exchange.setStatusCode(StatusCodes.REQUEST_ENTITY_TOO_LARGE);
+        	 }
+        	 else if(throwable instanceof IllegalArgumentException )
         	 {
         		 exchange.setStatusCode(StatusCodes.BAD_REQUEST);
         	 }
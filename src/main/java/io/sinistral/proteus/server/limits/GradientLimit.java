@@ -0,0 +1,148 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.limits;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An adaptive limit on in-flight requests that follows latency rather than a fixed pool size.
+ * <p>
+ * Two exponential moving averages of latency are kept: a short one that tracks current latency and a long one, over roughly {@link #LONG_WINDOW_SAMPLES} samples, that serves as the no-load baseline, as in Netflix's Gradient2. After each sample the limit is scaled by the gradient <code>tolerance * long / short</code>, capped to [0.5, 1], and grown by a queue allowance of <code>sqrt(limit)</code>. While latency stays near its baseline the limit keeps growing; once requests start queueing and latency rises the gradient falls and the limit shrinks until latency recovers. The limit is only changed by samples taken while the limit was at least half used, so an idle server does not inflate it.
+ * <p>
+ * The baseline is an average rather than the lowest recent latency, so in a group that mixes cheap and expensive routes the cheapest response does not set it and hold the gradient at its floor. When latency drops well below the baseline, e.g. after a slow dependency recovers, the baseline decays towards it rather than waiting out the long window.
+ *
+ * @author jbauer
+ */
+public class GradientLimit
+{
+	protected static final int LONG_WINDOW_SAMPLES = 600;
+
+	protected final String name;
+	protected final int minLimit;
+	protected final int maxLimit;
+	protected final double smoothing;
+	protected final double tolerance;
+	protected final double shortWindow;
+	protected final double longWindow;
+
+	protected double limit;
+	protected double shortRtt = 0;
+	protected double longRtt = 0;
+	protected int inFlight = 0;
+
+	protected final LongAdder rejected = new LongAdder();
+
+	/**
+	 * @param name
+	 * @param initialLimit
+	 * @param minLimit
+	 * @param maxLimit
+	 * @param smoothing
+	 *            weight of each new limit estimate, 0 - 1
+	 * @param tolerance
+	 *            how much the short latency may exceed the no-load latency before the limit shrinks
+	 */
+	public GradientLimit(final String name, final int initialLimit, final int minLimit, final int maxLimit, final double smoothing, final double tolerance)
+	{
+		this.name = name;
+		this.minLimit = Math.max(1, minLimit);
+		this.maxLimit = Math.max(this.minLimit, maxLimit);
+		this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+		this.smoothing = smoothing;
+		this.tolerance = tolerance;
+		this.shortWindow = 2.0 / (10 + 1);
+		this.longWindow = 2.0 / (LONG_WINDOW_SAMPLES + 1);
+	}
+
+	/**
+	 * @return the number of requests in flight before this one, or -1 if the limit has been reached
+	 */
+	public synchronized int tryAcquire()
+	{
+		if (this.inFlight >= (int) this.limit)
+		{
+			this.rejected.increment();
+			return -1;
+		}
+
+		return this.inFlight++;
+	}
+
+	/**
+	 * Releases a request without sampling its latency, e.g. one that failed or was answered without reaching the route
+	 */
+	public synchronized void release()
+	{
+		this.inFlight--;
+	}
+
+	/**
+	 * Releases a request that completed normally and records its latency
+	 *
+	 * @param rttNanos
+	 * @param inFlightAtStart
+	 *            the value returned by {@link #tryAcquire()}
+	 */
+	public synchronized void release(final long rttNanos, final int inFlightAtStart)
+	{
+		this.inFlight--;
+
+		if (rttNanos <= 0)
+		{
+			return;
+		}
+
+		this.shortRtt = this.shortRtt == 0 ? rttNanos : this.shortRtt + this.shortWindow * (rttNanos - this.shortRtt);
+		this.longRtt = this.longRtt == 0 ? rttNanos : this.longRtt + this.longWindow * (rttNanos - this.longRtt);
+
+		if (this.longRtt / this.shortRtt > 2)
+		{
+			this.longRtt *= 0.95;
+		}
+
+		if (inFlightAtStart + 1 < this.limit / 2)
+		{
+			return;
+		}
+
+		final double gradient = Math.max(0.5, Math.min(1.0, this.tolerance * this.longRtt / this.shortRtt));
+
+		final double estimate = this.limit * gradient + Math.sqrt(this.limit);
+
+		this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, this.limit * (1 - this.smoothing) + estimate * this.smoothing));
+	}
+
+	public String getName()
+	{
+		return this.name;
+	}
+
+	public synchronized int getLimit()
+	{
+		return (int) this.limit;
+	}
+
+	public synchronized int getInFlight()
+	{
+		return this.inFlight;
+	}
+
+	/**
+	 * @return current limit, in-flight count, rejections and latency averages in milliseconds
+	 */
+	public synchronized Map<String, Object> getStats()
+	{
+		final Map<String, Object> stats = new LinkedHashMap<>();
+
+		stats.put("limit", (int) this.limit);
+		stats.put("inFlight", this.inFlight);
+		stats.put("rejected", this.rejected.sum());
+		stats.put("shortRttMillis", this.shortRtt / 1e6);
+		stats.put("longRttMillis", this.longRtt / 1e6);
+
+		return stats;
+	}
+}
@@ -0,0 +1,327 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.streaming;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.stream.BaseStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xnio.ChannelListener;
+import org.xnio.IoUtils;
+import org.xnio.channels.StreamSinkChannel;
+
+import com.jsoniter.output.JsonContext;
+import com.jsoniter.output.JsonStream;
+
+import io.undertow.connector.PooledByteBuffer;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.StatusCodes;
+
+/**
+ * Writes the elements of an {@link Iterator}, {@link Iterable} or {@link java.util.stream.Stream} to the response channel as a chunked JSON array.
+ * <p>
+ * Elements are serialized into a single pooled buffer that is flushed whenever it fills. The next batch is only serialized once the channel has accepted the previous one, so memory use is bounded by the buffer size rather than the number of elements.
+ * <p>
+ * If the exchange was started on a worker thread (i.e. a <code>@Blocking</code> route), batches resumed by a write notification are handed back to the worker pool so the source is never advanced on an IO thread.
+ *
+ * @author jbauer
+ */
+public class JsonArrayStreamSender implements ChannelListener<StreamSinkChannel>
+{
+	private static Logger log = LoggerFactory.getLogger(JsonArrayStreamSender.class.getCanonicalName());
+
+	protected final HttpServerExchange exchange;
+	protected final Iterator<?> iterator;
+	protected final AutoCloseable source;
+	protected final Class<? extends JsonContext> jsonContext;
+	protected final boolean dispatchToWorker;
+
+	protected StreamSinkChannel channel;
+	protected PooledByteBuffer pooled;
+
+	/**
+	 * Serialized element that did not fit in the remaining space of the current batch, copied out of the serializer's buffer
+	 */
+	protected ByteBuffer pending;
+
+	/**
+	 * Serialized element larger than the pooled buffer, written directly after the current batch, copied out of the serializer's buffer
+	 */
+	protected ByteBuffer overflow;
+
+	protected boolean started = false;
+	protected boolean first = true;
+	protected boolean finished = false;
+
+	protected JsonArrayStreamSender(final HttpServerExchange exchange, final Iterator<?> iterator, final AutoCloseable source, final Class<? extends JsonContext> jsonContext)
+	{
+		this.exchange = exchange;
+		this.iterator = iterator;
+		this.source = source;
+		this.jsonContext = jsonContext;
+		this.dispatchToWorker = !exchange.isInIoThread();
+	}
+
+	/**
+	 * @param entity
+	 * @return true if the entity should be streamed rather than serialized in one pass
+	 */
+	public static boolean isStreamable(final Object entity)
+	{
+		return entity instanceof Iterator || entity instanceof BaseStream || (entity instanceof Iterable && !(entity instanceof Collection));
+	}
+
+	/**
+	 * Streams an {@link Iterator}, {@link Iterable} or {@link BaseStream} to the exchange as a JSON array. The exchange is ended once the closing bracket has been written.
+	 *
+	 * @param exchange
+	 * @param entity
+	 * @param jsonContext
+	 *            optional jsoniter view context, may be null
+	 */
+	public static void send(final HttpServerExchange exchange, final Object entity, final Class<? extends JsonContext> jsonContext)
+	{
+		final Iterator<?> iterator;
+		AutoCloseable source = null;
+
+		if (entity instanceof BaseStream)
+		{
+			BaseStream<?, ?> stream = (BaseStream<?, ?>) entity;
+			iterator = stream.iterator();
+			source = stream;
+		}
+		else if (entity instanceof Iterable)
+		{
+			iterator = ((Iterable<?>) entity).iterator();
+		}
+		else
+		{
+			iterator = (Iterator<?>) entity;
+		}
+
+		if (source == null && iterator instanceof AutoCloseable)
+		{
+			source = (AutoCloseable) iterator;
+		}
+
+		new JsonArrayStreamSender(exchange, iterator, source, jsonContext).start();
+	}
+
+	protected void start()
+	{
+		this.channel = exchange.getResponseChannel();
+		this.pooled = exchange.getConnection().getByteBufferPool().allocate();
+
+		ByteBuffer buffer = this.pooled.getBuffer();
+		buffer.clear();
+		buffer.flip();
+
+		this.writeBatches();
+	}
+
+	@Override
+	public void handleEvent(final StreamSinkChannel channel)
+	{
+		channel.suspendWrites();
+
+		if (this.dispatchToWorker)
+		{
+			exchange.getConnection().getWorker().execute(this::writeBatches);
+		}
+		else
+		{
+			this.writeBatches();
+		}
+	}
+
+	protected void writeBatches()
+	{
+		try
+		{
+			while (true)
+			{
+				if (!this.drain())
+				{
+					this.channel.getWriteSetter().set(this);
+					this.channel.resumeWrites();
+					return;
+				}
+
+				if (this.finished)
+				{
+					this.complete();
+					return;
+				}
+
+				this.fill();
+			}
+
+		} catch (Throwable t)
+		{
+			this.fail(t);
+		}
+	}
+
+	/**
+	 * Writes the current batch followed by any overflow element.
+	 *
+	 * @return false if the channel could not accept everything
+	 */
+	protected boolean drain() throws Exception
+	{
+		final ByteBuffer buffer = this.pooled.getBuffer();
+
+		while (buffer.hasRemaining())
+		{
+			if (this.channel.write(buffer) == 0)
+			{
+				return false;
+			}
+		}
+
+		if (this.overflow != null)
+		{
+			while (this.overflow.hasRemaining())
+			{
+				if (this.channel.write(this.overflow) == 0)
+				{
+					return false;
+				}
+			}
+
+			this.overflow = null;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Serializes elements into the pooled buffer until it is full or the source is exhausted.
+	 */
+	protected void fill() throws Exception
+	{
+		final ByteBuffer buffer = this.pooled.getBuffer();
+
+		buffer.clear();
+
+		if (!this.started)
+		{
+			buffer.put(JsonStream.ARRAY_START);
+			this.started = true;
+		}
+
+		while (this.overflow == null)
+		{
+			if (this.pending == null)
+			{
+				if (!this.iterator.hasNext())
+				{
+					if (buffer.hasRemaining())
+					{
+						buffer.put(JsonStream.ARRAY_END);
+						this.finished = true;
+					}
+
+					break;
+				}
+
+				this.pending = JsonStream.serializeToBytes(this.iterator.next(), this.jsonContext);
+			}
+
+			final int required = this.pending.remaining() + (this.first ? 0 : 1);
+
+			if (required <= buffer.remaining())
+			{
+				this.separator(buffer);
+				buffer.put(this.pending);
+				this.pending = null;
+			}
+			else if (required > buffer.capacity() - 1 && buffer.hasRemaining())
+			{
+				this.separator(buffer);
+				this.overflow = copy(this.pending);
+				this.pending = null;
+			}
+			else
+			{
+				this.pending = copy(this.pending);
+				break;
+			}
+		}
+
+		buffer.flip();
+	}
+
+	/**
+	 * {@link JsonStream#serializeToBytes(Object)} wraps the serializer's thread local array, which the next serialization on the same thread overwrites. Elements that outlive the call that serialized them, e.g. while waiting on the channel, are copied.
+	 *
+	 * @param serialized
+	 * @return a buffer with its own copy of the remaining bytes
+	 */
+	protected static ByteBuffer copy(final ByteBuffer serialized)
+	{
+		final ByteBuffer copy = ByteBuffer.allocate(serialized.remaining());
+
+		copy.put(serialized.duplicate());
+		copy.flip();
+
+		return copy;
+	}
+
+	protected void separator(final ByteBuffer buffer)
+	{
+		if (!this.first)
+		{
+			buffer.put(JsonStream.COMMA);
+		}
+
+		this.first = false;
+	}
+
+	protected void complete()
+	{
+		this.release();
+		exchange.endExchange();
+	}
+
+	protected void fail(final Throwable t)
+	{
+		log.error("Error streaming JSON array for " + exchange.getRequestPath(), t);
+
+		this.release();
+
+		if (!exchange.isResponseStarted())
+		{
+			exchange.setStatusCode(StatusCodes.INTERNAL_SERVER_ERROR);
+			exchange.endExchange();
+		}
+		else
+		{
+			IoUtils.safeClose(exchange.getConnection());
+		}
+	}
+
+	protected void release()
+	{
+		if (this.pooled != null)
+		{
+			this.pooled.close();
+			this.pooled = null;
+		}
+
+		if (this.source != null)
+		{
+			try
+			{
+				this.source.close();
+			} catch (Exception e)
+			{
+				log.warn("Unable to close stream source: " + e.getMessage());
+			}
+		}
+	}
+}
@@ -0,0 +1,242 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.streaming;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.jsoniter.JsonIterator;
+import com.jsoniter.spi.TypeLiteral;
+
+/**
+ * Lazily decodes newline-delimited JSON records from a request body as the controller consumes them.
+ * <p>
+ * Only the bytes of the current line are held in memory, the buffer grows only when a single record is longer than it and never past the maximum line length, a longer record fails with a {@link RecordTooLargeException}. Records are decoded in place with a reused {@link JsonIterator}, which reads from a heap array, so the buffer is the iterator's own rather than one of the connection's pooled, possibly direct, buffers. Blank lines are skipped and a <code>null</code> record is rejected.
+ *
+ * @author jbauer
+ */
+public class NdjsonIterator<T> implements Iterator<T>, AutoCloseable
+{
+	private static final byte NEWLINE = '\n';
+	private static final byte CARRIAGE_RETURN = '\r';
+
+	protected final InputStream inputStream;
+	protected final Class<T> type;
+	protected final TypeLiteral<T> typeLiteral;
+	protected final int maxLineLength;
+	protected final JsonIterator jsonIterator = new JsonIterator();
+
+	protected byte[] buffer;
+	protected int head = 0;
+	protected int tail = 0;
+	protected int scan = 0;
+	protected boolean eof = false;
+
+	protected int lineStart = -1;
+	protected int lineEnd = -1;
+
+	/**
+	 * @param inputStream
+	 * @param type
+	 * @param bufferSize
+	 * @param maxLineLength
+	 *            the longest record, in bytes, the stream may send
+	 */
+	public NdjsonIterator(final InputStream inputStream, final Class<T> type, final int bufferSize, final int maxLineLength)
+	{
+		this.inputStream = inputStream;
+		this.type = type;
+		this.typeLiteral = null;
+		this.maxLineLength = maxLineLength;
+		this.buffer = new byte[bufferSize];
+	}
+
+	/**
+	 * @param inputStream
+	 * @param typeLiteral
+	 * @param bufferSize
+	 * @param maxLineLength
+	 *            the longest record, in bytes, the stream may send
+	 */
+	public NdjsonIterator(final InputStream inputStream, final TypeLiteral<T> typeLiteral, final int bufferSize, final int maxLineLength)
+	{
+		this.inputStream = inputStream;
+		this.type = null;
+		this.typeLiteral = typeLiteral;
+		this.maxLineLength = maxLineLength;
+		this.buffer = new byte[bufferSize];
+	}
+
+	@Override
+	public boolean hasNext()
+	{
+		if (this.lineStart >= 0)
+		{
+			return true;
+		}
+
+		try
+		{
+			return this.nextLine();
+
+		} catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public T next()
+	{
+		if (!this.hasNext())
+		{
+			throw new NoSuchElementException();
+		}
+
+		final int start = this.lineStart;
+		final int end = this.lineEnd;
+
+		this.lineStart = -1;
+		this.lineEnd = -1;
+
+		final T record;
+
+		try
+		{
+			this.jsonIterator.reset(this.buffer, start, end);
+
+			record = this.type != null ? this.jsonIterator.read(this.type) : this.jsonIterator.read(this.typeLiteral);
+
+		} catch (Exception e)
+		{
+			throw new IllegalArgumentException("Invalid JSON record: " + new String(this.buffer, start, end - start), e);
+		}
+
+		if (record == null)
+		{
+			throw new IllegalArgumentException("Null JSON record");
+		}
+
+		return record;
+	}
+
+	/**
+	 * Advances to the next non-blank line, reading from the stream as needed.
+	 *
+	 * @return false once the stream is exhausted
+	 */
+	protected boolean nextLine() throws IOException
+	{
+		while (true)
+		{
+			for (int i = this.scan; i < this.tail; i++)
+			{
+				if (this.buffer[i] == NEWLINE)
+				{
+					final int start = this.head;
+
+					this.head = i + 1;
+					this.scan = this.head;
+
+					if (this.setLine(start, i))
+					{
+						return true;
+					}
+				}
+			}
+
+			this.scan = this.tail;
+
+			if (this.eof)
+			{
+				final int start = this.head;
+
+				this.head = this.tail;
+
+				return this.setLine(start, this.tail);
+			}
+
+			this.compact();
+
+			final int read = this.inputStream.read(this.buffer, this.tail, this.buffer.length - this.tail);
+
+			if (read == -1)
+			{
+				this.eof = true;
+			}
+			else
+			{
+				this.tail += read;
+			}
+		}
+	}
+
+	protected boolean setLine(final int start, int end)
+	{
+		if (end > start && this.buffer[end - 1] == CARRIAGE_RETURN)
+		{
+			end--;
+		}
+
+		int first = start;
+
+		while (first < end && Character.isWhitespace(this.buffer[first]))
+		{
+			first++;
+		}
+
+		if (first == end)
+		{
+			return false;
+		}
+
+		this.lineStart = first;
+		this.lineEnd = end;
+
+		return true;
+	}
+
+	/**
+	 * Moves the partial line to the start of the buffer, growing the buffer if it is entirely occupied by that line.
+	 *
+	 * @throws RecordTooLargeException
+	 *             if the partial line is already longer than the maximum line length
+	 */
+	protected void compact()
+	{
+		if (this.head > 0)
+		{
+			System.arraycopy(this.buffer, this.head, this.buffer, 0, this.tail - this.head);
+
+			this.tail -= this.head;
+			this.scan -= this.head;
+			this.head = 0;
+		}
+
+		if (this.tail == this.buffer.length)
+		{
+			final int limit = this.maxLineLength;
+
+			if (this.tail > limit)
+			{
+				throw new RecordTooLargeException(limit);
+			}
+
+			final byte[] expanded = new byte[(int) Math.min((long) this.buffer.length * 2, (long) limit + 1)];
+
+			System.arraycopy(this.buffer, 0, expanded, 0, this.tail);
+
+			this.buffer = expanded;
+		}
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		this.inputStream.close();
+	}
+}
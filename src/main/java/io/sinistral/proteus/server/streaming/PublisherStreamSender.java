@@ -0,0 +1,487 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.streaming;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xnio.ChannelListener;
+import org.xnio.IoUtils;
+import org.xnio.channels.StreamSinkChannel;
+
+import com.jsoniter.output.JsonContext;
+import com.jsoniter.output.JsonStream;
+
+import io.sinistral.proteus.server.handlers.AsyncResponses;
+import io.undertow.connector.PooledByteBuffer;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.SameThreadExecutor;
+import io.undertow.util.StatusCodes;
+
+/**
+ * Subscribes to a Reactive Streams {@link Publisher} and writes its elements to the response channel as a chunked JSON array.
+ * <p>
+ * Elements are serialized on the publisher's thread and written on the exchange's IO thread. Only {@link #PREFETCH} elements are requested up front. More are requested once earlier elements have been written to the channel, so a slow client slows the publisher down instead of filling memory. If the client disconnects or the channel fails the subscription is cancelled.
+ * <p>
+ * <code>java.util.concurrent.Flow.Publisher</code> return types are adapted by the generated handler through {@link #onSubscribe(LongConsumer, Runnable)}.
+ *
+ * @author jbauer
+ */
+public class PublisherStreamSender implements Subscriber<Object>, ChannelListener<StreamSinkChannel>
+{
+	private static Logger log = LoggerFactory.getLogger(PublisherStreamSender.class.getCanonicalName());
+
+	public static final int PREFETCH = 64;
+
+	protected final HttpServerExchange exchange;
+	protected final Class<? extends JsonContext> jsonContext;
+	protected final Queue<ByteBuffer> queue = new ConcurrentLinkedQueue<>();
+	protected final AtomicInteger wip = new AtomicInteger();
+	protected final Runnable disconnected = this::disconnected;
+
+	protected volatile LongConsumer request;
+	protected volatile Runnable cancel;
+	protected volatile boolean done = false;
+	protected volatile Throwable error;
+
+	/*
+	 * Confined to the IO thread
+	 */
+	protected StreamSinkChannel channel;
+	protected PooledByteBuffer pooled;
+	protected ByteBuffer overflow;
+	protected boolean flushing = false;
+	protected boolean first = true;
+	protected boolean closing = false;
+	protected boolean finished = false;
+	protected int written = 0;
+
+	protected PublisherStreamSender(final HttpServerExchange exchange, final Class<? extends JsonContext> jsonContext)
+	{
+		this.exchange = exchange;
+		this.jsonContext = jsonContext;
+	}
+
+	/**
+	 * Streams the publisher's elements to the exchange as a JSON array. The exchange is ended once the publisher completes.
+	 *
+	 * @param exchange
+	 * @param publisher
+	 * @param jsonContext
+	 *            optional jsoniter view context, may be null
+	 */
+	public static void send(final HttpServerExchange exchange, final Publisher<?> publisher, final Class<? extends JsonContext> jsonContext)
+	{
+		start(exchange, jsonContext, publisher::subscribe);
+	}
+
+	/**
+	 * Dispatches the exchange and hands a new sender to <code>subscribe</code> once the handler has returned
+	 *
+	 * @param exchange
+	 * @param jsonContext
+	 *            optional jsoniter view context, may be null
+	 * @param subscribe
+	 *            subscribes the sender to the source
+	 */
+	public static void start(final HttpServerExchange exchange, final Class<? extends JsonContext> jsonContext, final Consumer<PublisherStreamSender> subscribe)
+	{
+		final PublisherStreamSender sender = new PublisherStreamSender(exchange, jsonContext);
+
+		exchange.dispatch(SameThreadExecutor.INSTANCE, () -> {
+
+			AsyncResponses.cancellations(exchange.getConnection()).add(sender.disconnected);
+
+			try
+			{
+				subscribe.accept(sender);
+
+			} catch (Throwable t)
+			{
+				sender.onError(t);
+			}
+		});
+	}
+
+	@Override
+	public void onSubscribe(final Subscription subscription)
+	{
+		this.onSubscribe(subscription::request, subscription::cancel);
+	}
+
+	/**
+	 * @param request
+	 *            requests more elements from the source
+	 * @param cancel
+	 *            cancels the source
+	 */
+	public void onSubscribe(final LongConsumer request, final Runnable cancel)
+	{
+		if (this.request != null)
+		{
+			cancel.run();
+			return;
+		}
+
+		this.cancel = cancel;
+		this.request = request;
+
+		request.accept(PREFETCH);
+	}
+
+	@Override
+	public void onNext(final Object element)
+	{
+		if (this.done)
+		{
+			return;
+		}
+
+		try
+		{
+			/*
+			 * The serialized bytes alias the serializer's thread local array, so queued elements get their own copy
+			 */
+
+			this.queue.offer(JsonArrayStreamSender.copy(JsonStream.serializeToBytes(element, this.jsonContext)));
+
+		} catch (Throwable t)
+		{
+			this.error = t;
+			this.cancelUpstream();
+		}
+
+		this.schedule();
+	}
+
+	@Override
+	public void onError(final Throwable t)
+	{
+		if (this.done)
+		{
+			return;
+		}
+
+		this.error = t;
+		this.done = true;
+		this.schedule();
+	}
+
+	@Override
+	public void onComplete()
+	{
+		if (this.done)
+		{
+			return;
+		}
+
+		this.done = true;
+		this.schedule();
+	}
+
+	@Override
+	public void handleEvent(final StreamSinkChannel channel)
+	{
+		channel.suspendWrites();
+
+		this.schedule();
+	}
+
+	/**
+	 * Runs the drain loop on the IO thread, at most once at a time
+	 */
+	protected void schedule()
+	{
+		if (this.wip.getAndIncrement() != 0)
+		{
+			return;
+		}
+
+		if (Thread.currentThread() == this.exchange.getIoThread())
+		{
+			this.drain();
+		}
+		else
+		{
+			this.exchange.getIoThread().execute(this::drain);
+		}
+	}
+
+	protected void drain()
+	{
+		int missed = 1;
+
+		do
+		{
+			if (!this.finished)
+			{
+				try
+				{
+					this.writeQueued();
+
+				} catch (Throwable t)
+				{
+					this.cancelUpstream();
+					this.fail(t);
+				}
+			}
+
+			missed = this.wip.addAndGet(-missed);
+
+		} while (missed != 0);
+	}
+
+	protected void writeQueued() throws Exception
+	{
+		if (this.channel == null)
+		{
+			this.channel = this.exchange.getResponseChannel();
+			this.pooled = this.exchange.getConnection().getByteBufferPool().allocate();
+			this.pooled.getBuffer().clear();
+			this.pooled.getBuffer().put(JsonStream.ARRAY_START);
+		}
+
+		final ByteBuffer buffer = this.pooled.getBuffer();
+
+		while (true)
+		{
+			if (!this.flush())
+			{
+				this.awaitWritable();
+				return;
+			}
+
+			if (this.written >= PREFETCH / 2)
+			{
+				this.requestWritten();
+			}
+
+			if (this.closing)
+			{
+				this.complete();
+				return;
+			}
+
+			final boolean terminated = this.done;
+			final ByteBuffer next = this.queue.peek();
+
+			if (next == null)
+			{
+				if (terminated && this.error != null)
+				{
+					this.fail(this.error);
+					return;
+				}
+
+				if (terminated)
+				{
+					if (!buffer.hasRemaining())
+					{
+						this.startFlush();
+						continue;
+					}
+
+					buffer.put(JsonStream.ARRAY_END);
+					this.closing = true;
+					this.startFlush();
+					continue;
+				}
+
+				if (buffer.position() > 0)
+				{
+					this.startFlush();
+					continue;
+				}
+
+				/*
+				 * Waiting on the publisher, so push what has been written to the client rather than leaving it in the channel's buffer
+				 */
+
+				if (!this.channel.flush())
+				{
+					this.awaitWritable();
+					return;
+				}
+
+				this.requestWritten();
+				return;
+			}
+
+			if (next.remaining() + 1 <= buffer.remaining())
+			{
+				this.queue.poll();
+				this.separator(buffer);
+				buffer.put(next);
+				this.written++;
+			}
+			else if (buffer.position() > 0)
+			{
+				this.startFlush();
+			}
+			else
+			{
+				/*
+				 * Larger than the pooled buffer, written directly after its separator
+				 */
+
+				this.queue.poll();
+				this.separator(buffer);
+				this.overflow = next;
+				this.written++;
+				this.startFlush();
+			}
+		}
+	}
+
+	protected void startFlush()
+	{
+		this.pooled.getBuffer().flip();
+		this.flushing = true;
+	}
+
+	/**
+	 * Writes the pooled buffer, if it is being flushed, followed by any overflow element
+	 *
+	 * @return false if the channel could not accept everything
+	 */
+	protected boolean flush() throws Exception
+	{
+		if (this.flushing)
+		{
+			final ByteBuffer buffer = this.pooled.getBuffer();
+
+			while (buffer.hasRemaining())
+			{
+				if (this.channel.write(buffer) == 0)
+				{
+					return false;
+				}
+			}
+
+			buffer.clear();
+			this.flushing = false;
+		}
+
+		if (this.overflow != null)
+		{
+			while (this.overflow.hasRemaining())
+			{
+				if (this.channel.write(this.overflow) == 0)
+				{
+					return false;
+				}
+			}
+
+			this.overflow = null;
+		}
+
+		return true;
+	}
+
+	protected void awaitWritable()
+	{
+		this.channel.getWriteSetter().set(this);
+		this.channel.resumeWrites();
+	}
+
+	/**
+	 * Replaces the demand used by elements that have been written to the channel
+	 */
+	protected void requestWritten()
+	{
+		if (this.written > 0 && !this.done)
+		{
+			final int count = this.written;
+
+			this.written = 0;
+
+			this.request.accept(count);
+		}
+	}
+
+	protected void separator(final ByteBuffer buffer)
+	{
+		if (!this.first)
+		{
+			buffer.put(JsonStream.COMMA);
+		}
+
+		this.first = false;
+	}
+
+	protected void disconnected()
+	{
+		this.error = new ClosedChannelException();
+		this.cancelUpstream();
+		this.schedule();
+	}
+
+	protected void cancelUpstream()
+	{
+		final Runnable cancel = this.cancel;
+
+		this.done = true;
+
+		if (cancel != null)
+		{
+			cancel.run();
+		}
+	}
+
+	protected void complete()
+	{
+		this.finished = true;
+		this.release();
+		this.exchange.endExchange();
+	}
+
+	protected void fail(final Throwable t)
+	{
+		if (t instanceof IOException)
+		{
+			log.debug("Client stopped receiving publisher for " + this.exchange.getRequestPath() + ": " + t.getMessage());
+		}
+		else
+		{
+			log.error("Error streaming publisher for " + this.exchange.getRequestPath(), t);
+		}
+
+		this.finished = true;
+		this.release();
+
+		if (!this.exchange.isResponseStarted())
+		{
+			this.exchange.setStatusCode(StatusCodes.INTERNAL_SERVER_ERROR);
+			this.exchange.endExchange();
+		}
+		else
+		{
+			IoUtils.safeClose(this.exchange.getConnection());
+		}
+	}
+
+	protected void release()
+	{
+		this.queue.clear();
+
+		AsyncResponses.cancellations(this.exchange.getConnection()).remove(this.disconnected);
+
+		if (this.pooled != null)
+		{
+			this.pooled.close();
+			this.pooled = null;
+		}
+	}
+}
@@ -0,0 +1,19 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.streaming;
+
+/**
+ * Thrown when a single newline-delimited record is longer than the configured maximum, answered with a 413.
+ *
+ * @author jbauer
+ */
+public class RecordTooLargeException extends IllegalArgumentException
+{
+	private static final long serialVersionUID = 1L;
+
+	public RecordTooLargeException(final int maxLineLength)
+	{
+		super("Record exceeds the maximum line length of " + maxLineLength + " bytes");
+	}
+}
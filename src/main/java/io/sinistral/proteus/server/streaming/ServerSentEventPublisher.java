@@ -0,0 +1,242 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.streaming;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jsoniter.output.JsonStream;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.sse.ServerSentEventConnection;
+import io.undertow.server.handlers.sse.ServerSentEventConnectionCallback;
+import io.undertow.server.handlers.sse.ServerSentEventHandler;
+
+/**
+ * A controller return type that switches the exchange into <code>text/event-stream</code> mode.
+ * <p>
+ * Events may be sent from any thread, before or after the client is connected. Events sent before the connection is established are queued and flushed in order once it is. Writes are performed by Undertow's {@link ServerSentEventConnection}, which coalesces queued events into a single pooled buffer and holds no thread while the connection is idle.
+ *
+ * <pre>
+ * {@code
+ * &#64;GET
+ * &#64;Path("/events")
+ * public ServerSentEventPublisher events()
+ * {
+ * 	ServerSentEventPublisher publisher = new ServerSentEventPublisher().keepAlive(15000);
+ * 	dashboard.subscribe(publisher::sendJson);
+ * 	return publisher;
+ * }
+ * }
+ * </pre>
+ *
+ * @author jbauer
+ */
+public class ServerSentEventPublisher implements ServerSentEventConnectionCallback
+{
+	private static Logger log = LoggerFactory.getLogger(ServerSentEventPublisher.class.getCanonicalName());
+
+	protected final Deque<String[]> pending = new ArrayDeque<>();
+	protected final List<Consumer<ServerSentEventPublisher>> connectListeners = new CopyOnWriteArrayList<>();
+	protected final List<Runnable> closeListeners = new CopyOnWriteArrayList<>();
+
+	protected volatile ServerSentEventConnection connection;
+	protected volatile boolean closed = false;
+	protected String lastEventId;
+	protected long keepAliveTime = -1;
+
+	public ServerSentEventPublisher()
+	{
+
+	}
+
+	/**
+	 * Upgrades the exchange to an event stream bound to this publisher
+	 *
+	 * @param exchange
+	 * @throws Exception
+	 */
+	public void connect(final HttpServerExchange exchange) throws Exception
+	{
+		new ServerSentEventHandler(this).handleRequest(exchange);
+	}
+
+	@Override
+	public void connected(final ServerSentEventConnection connection, final String lastEventId)
+	{
+		this.lastEventId = lastEventId;
+
+		if (this.keepAliveTime > 0)
+		{
+			connection.setKeepAliveTime(this.keepAliveTime);
+		}
+
+		connection.addCloseTask(c -> {
+			this.closed = true;
+			this.closeListeners.forEach(Runnable::run);
+		});
+
+		synchronized (this)
+		{
+			String[] event;
+
+			while ((event = this.pending.poll()) != null)
+			{
+				connection.send(event[2], event[1], event[0], null);
+			}
+
+			this.connection = connection;
+		}
+
+		this.connectListeners.forEach(l -> l.accept(this));
+
+		if (this.closed)
+		{
+			connection.shutdown();
+		}
+	}
+
+	/**
+	 * Sends an unnamed event
+	 *
+	 * @param data
+	 */
+	public void send(final String data)
+	{
+		this.send(null, null, data);
+	}
+
+	public void send(final String event, final String data)
+	{
+		this.send(null, event, data);
+	}
+
+	public void send(final String id, final String event, final String data)
+	{
+		ServerSentEventConnection connection = this.connection;
+
+		if (connection == null)
+		{
+			synchronized (this)
+			{
+				if (this.connection == null)
+				{
+					this.pending.add(new String[] { id, event, data });
+					return;
+				}
+
+				connection = this.connection;
+			}
+		}
+
+		if (connection.isOpen())
+		{
+			connection.send(data, event, id, null);
+		}
+	}
+
+	/**
+	 * Serializes the entity with jsoniter and sends it as the event data
+	 *
+	 * @param entity
+	 */
+	public void sendJson(final Object entity)
+	{
+		this.send(null, null, JsonStream.serialize(entity));
+	}
+
+	public void sendJson(final String event, final Object entity)
+	{
+		this.send(null, event, JsonStream.serialize(entity));
+	}
+
+	/**
+	 * @param keepAliveTime
+	 *            interval in milliseconds at which a comment is written to keep idle connections open
+	 * @return this
+	 */
+	public ServerSentEventPublisher keepAlive(final long keepAliveTime)
+	{
+		this.keepAliveTime = keepAliveTime;
+
+		ServerSentEventConnection connection = this.connection;
+
+		if (connection != null)
+		{
+			connection.setKeepAliveTime(keepAliveTime);
+		}
+
+		return this;
+	}
+
+	public ServerSentEventPublisher onConnect(final Consumer<ServerSentEventPublisher> listener)
+	{
+		this.connectListeners.add(listener);
+		return this;
+	}
+
+	public ServerSentEventPublisher onClose(final Runnable listener)
+	{
+		this.closeListeners.add(listener);
+		return this;
+	}
+
+	/**
+	 * @return the <code>Last-Event-ID</code> sent by a reconnecting client, or null
+	 */
+	public String getLastEventId()
+	{
+		return this.lastEventId;
+	}
+
+	public boolean isOpen()
+	{
+		ServerSentEventConnection connection = this.connection;
+
+		return !this.closed && (connection == null || connection.isOpen());
+	}
+
+	/**
+	 * Flushes any queued events then closes the stream
+	 */
+	public void close()
+	{
+		this.closed = true;
+
+		ServerSentEventConnection connection = this.connection;
+
+		if (connection != null)
+		{
+			connection.shutdown();
+		}
+	}
+
+	/**
+	 * Closes the stream immediately, discarding queued events
+	 */
+	public void abort()
+	{
+		this.closed = true;
+
+		ServerSentEventConnection connection = this.connection;
+
+		if (connection != null)
+		{
+			try
+			{
+				connection.close();
+			} catch (IOException e)
+			{
+				log.debug("Error closing event stream: " + e.getMessage());
+			}
+		}
+	}
+}
@@ -40,6 +40,7 @@ import com.fasterxml.jackson.databind.introspect.AnnotatedMethod;
 import com.fasterxml.jackson.databind.introspect.AnnotatedParameter;
 import com.fasterxml.jackson.databind.type.TypeFactory;
 
+import io.sinistral.proteus.server.Deadline;
 import io.sinistral.proteus.server.ServerRequest;
 import io.sinistral.proteus.server.ServerResponse;
 import io.swagger.annotations.Api;
@@ -1043,7 +1044,7 @@ public class Reader {
       	 
        		}
                 
-                if(type.equals(ServerRequest.class) || type.equals(HttpServerExchange.class) || type.equals(HttpHandler.class) || type.getTypeName().contains("io.sinistral.proteus.server.ServerResponse"))
+                if(type.equals(ServerRequest.class) || type.equals(Deadline.class) || type.equals(HttpServerExchange.class) || type.equals(HttpHandler.class) || type.getTypeName().contains("io.sinistral.proteus.server.ServerResponse"))
                 {
                 	continue;
                 }
@@ -1059,7 +1060,7 @@ public class Reader {
             for (int i = 0; i < annotatedMethod.getParameterCount(); i++) {
                 AnnotatedParameter param = annotatedMethod.getParameter(i);
                 
-                if(param.getParameterType().equals(ServerRequest.class) || param.getParameterType().equals(HttpServerExchange.class) || param.getParameterType().equals(HttpHandler.class)|| param.getParameterType().getTypeName().contains("ServerResponse"))
+                if(param.getParameterType().equals(ServerRequest.class) || param.getParameterType().equals(Deadline.class) || param.getParameterType().equals(HttpServerExchange.class) || param.getParameterType().equals(HttpHandler.class)|| param.getParameterType().getTypeName().contains("ServerResponse"))
                 {
                 	continue;
                 }
@@ -1133,6 +1134,7 @@ public class Reader {
      //   LOGGER.debug("getParameters for {}", type);
         Set<Type> typesToSkip = new HashSet<>();
         typesToSkip.add(TypeFactory.defaultInstance().constructType(ServerRequest.class));
+        typesToSkip.add(TypeFactory.defaultInstance().constructType(Deadline.class));
         typesToSkip.add(TypeFactory.defaultInstance().constructType(HttpServerExchange.class));
         typesToSkip.add(TypeFactory.defaultInstance().constructType(ServerResponse.class));
         typesToSkip.add(TypeFactory.defaultInstance().constructType(HttpHandler.class));
@@ -48,6 +48,7 @@ public class ServerParameterExtension extends DefaultParameterExtension
 	{ 
 	 
 		if( type.getTypeName().contains("io.sinistral.proteus.server.ServerRequest") 
+				|| type.getTypeName().contains("io.sinistral.proteus.server.Deadline") 
 				|| type.getTypeName().contains("HttpServerExchange") 
 				|| type.getTypeName().contains("HttpHandler") 
 				|| type.getTypeName().contains("io.sinistral.proteus.server.ServerResponse") 
@@ -0,0 +1,201 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.tuning;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The CPU and memory actually available to the process, read from the cgroup v2 or v1 controllers when running in a container.
+ * <p>
+ * Older JVMs report the host's processors and memory from inside a container, and even container aware JVMs only round the CPU quota. Both limits are read from <code>/sys/fs/cgroup</code>, falling back to what the JVM reports when no limit is set.
+ *
+ * @author jbauer
+ */
+public class ContainerResources
+{
+	private static Logger log = LoggerFactory.getLogger(ContainerResources.class.getCanonicalName());
+
+	protected static final Path CGROUP_ROOT = Paths.get("/sys/fs/cgroup");
+
+	protected final double cpus;
+	protected final long memoryBytes;
+	protected final boolean cpuLimited;
+	protected final boolean memoryLimited;
+
+	public ContainerResources(final double cpus, final long memoryBytes, final boolean cpuLimited, final boolean memoryLimited)
+	{
+		this.cpus = cpus;
+		this.memoryBytes = memoryBytes;
+		this.cpuLimited = cpuLimited;
+		this.memoryLimited = memoryLimited;
+	}
+
+	/**
+	 * @return the resources of the current process
+	 */
+	public static ContainerResources detect()
+	{
+		return detect(CGROUP_ROOT);
+	}
+
+	protected static ContainerResources detect(final Path root)
+	{
+		final int processors = Runtime.getRuntime().availableProcessors();
+		final long maxHeap = Runtime.getRuntime().maxMemory();
+
+		double quota = cpuQuota(root);
+		long memory = memoryLimit(root);
+
+		final boolean cpuLimited = quota > 0 && quota < processors;
+		final boolean memoryLimited = memory > 0;
+
+		return new ContainerResources(cpuLimited ? quota : processors, memoryLimited ? memory : maxHeap, cpuLimited, memoryLimited);
+	}
+
+	/**
+	 * @return the CPU quota in cores, or -1 if there is none
+	 */
+	protected static double cpuQuota(final Path root)
+	{
+		/*
+		 * cgroup v2: "<quota> <period>" or "max <period>"
+		 */
+
+		final String max = read(root.resolve("cpu.max"));
+
+		if (max != null)
+		{
+			final String[] parts = max.split("\\s+");
+
+			if (parts.length == 2 && !parts[0].equals("max"))
+			{
+				return quota(parts[0], parts[1]);
+			}
+
+			return -1;
+		}
+
+		/*
+		 * cgroup v1
+		 */
+
+		for (String controller : new String[] { "cpu", "cpu,cpuacct", "cpuacct,cpu" })
+		{
+			final String quota = read(root.resolve(controller).resolve("cpu.cfs_quota_us"));
+			final String period = read(root.resolve(controller).resolve("cpu.cfs_period_us"));
+
+			if (quota != null && period != null)
+			{
+				return quota(quota, period);
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * @return the memory limit in bytes, or -1 if there is none
+	 */
+	protected static long memoryLimit(final Path root)
+	{
+		String limit = read(root.resolve("memory.max"));
+
+		if (limit == null)
+		{
+			limit = read(root.resolve("memory").resolve("memory.limit_in_bytes"));
+		}
+
+		if (limit == null || limit.equals("max"))
+		{
+			return -1;
+		}
+
+		try
+		{
+			final long bytes = Long.parseLong(limit);
+
+			/*
+			 * cgroup v1 reports an unlimited group as a page aligned Long.MAX_VALUE
+			 */
+
+			return bytes <= 0 || bytes >= Long.MAX_VALUE / 2 ? -1 : bytes;
+
+		} catch (NumberFormatException e)
+		{
+			return -1;
+		}
+	}
+
+	protected static double quota(final String quota, final String period)
+	{
+		try
+		{
+			final long q = Long.parseLong(quota);
+			final long p = Long.parseLong(period);
+
+			return q > 0 && p > 0 ? (double) q / p : -1;
+
+		} catch (NumberFormatException e)
+		{
+			return -1;
+		}
+	}
+
+	protected static String read(final Path path)
+	{
+		if (!Files.isReadable(path))
+		{
+			return null;
+		}
+
+		try
+		{
+			return new String(Files.readAllBytes(path), StandardCharsets.US_ASCII).trim();
+
+		} catch (IOException e)
+		{
+			log.debug("Unable to read " + path + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * @return the CPU cores available, fractional if limited by a quota
+	 */
+	public double getCpus()
+	{
+		return this.cpus;
+	}
+
+	/**
+	 * @return the memory limit of the container, or the maximum heap if there is no limit
+	 */
+	public long getMemoryBytes()
+	{
+		return this.memoryBytes;
+	}
+
+	public boolean isCpuLimited()
+	{
+		return this.cpuLimited;
+	}
+
+	public boolean isMemoryLimited()
+	{
+		return this.memoryLimited;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("%.2f cpus%s, %dMB memory%s", this.cpus, this.cpuLimited ? " (cgroup quota)" : "", this.memoryBytes / (1024 * 1024), this.memoryLimited ? " (cgroup limit)" : " (max heap)");
+	}
+}
@@ -0,0 +1,203 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.tuning;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xnio.XnioWorker;
+
+/**
+ * Measures how saturated the IO threads and the worker pool are by how long a probe task waits before it runs.
+ * <p>
+ * Every <code>interval</code> a probe is posted to each IO thread and to the worker pool. A busy IO thread or a worker pool with a queue delays its probe, so the delay approximates the latency that saturation adds to every request. A probe that has not run by the next interval keeps counting, so a stalled thread shows a growing delay. When the worst delay of an interval exceeds <code>warnDelay</code> a warning is logged, at most once a minute, naming the sizing setting to adjust.
+ *
+ * @author jbauer
+ */
+public class SaturationMonitor
+{
+	private static Logger log = LoggerFactory.getLogger(SaturationMonitor.class.getCanonicalName());
+
+	protected static final long WARN_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+	protected final ServerSizing sizing;
+	protected final long intervalNanos;
+	protected final long warnDelayNanos;
+	protected final Probe[] ioProbes;
+	protected final Probe workerProbe;
+
+	protected ScheduledExecutorService scheduler;
+	protected long lastWarningNanos = System.nanoTime() - WARN_INTERVAL_NANOS;
+
+	public SaturationMonitor(final XnioWorker worker, final ServerSizing sizing, final long interval, final long warnDelay, final TimeUnit unit)
+	{
+		this.sizing = sizing;
+		this.intervalNanos = unit.toNanos(interval);
+		this.warnDelayNanos = unit.toNanos(warnDelay);
+
+		this.ioProbes = new Probe[worker.getIoThreadCount()];
+
+		for (int i = 0; i < this.ioProbes.length; i++)
+		{
+			this.ioProbes[i] = new Probe(worker.getIoThread(i));
+		}
+
+		this.workerProbe = new Probe(worker);
+	}
+
+	public synchronized void start()
+	{
+		if (this.scheduler != null)
+		{
+			return;
+		}
+
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			final Thread thread = new Thread(r, "saturation-monitor");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		this.scheduler.scheduleAtFixedRate(this::probe, this.intervalNanos, this.intervalNanos, TimeUnit.NANOSECONDS);
+	}
+
+	public synchronized void stop()
+	{
+		if (this.scheduler != null)
+		{
+			this.scheduler.shutdownNow();
+			this.scheduler = null;
+		}
+	}
+
+	protected void probe()
+	{
+		long worstIo = 0;
+
+		for (Probe probe : this.ioProbes)
+		{
+			worstIo = Math.max(worstIo, probe.post());
+		}
+
+		final long worker = this.workerProbe.post();
+
+		final long now = System.nanoTime();
+
+		if (Math.max(worstIo, worker) > this.warnDelayNanos && now - this.lastWarningNanos >= WARN_INTERVAL_NANOS)
+		{
+			this.lastWarningNanos = now;
+
+			if (worstIo >= worker)
+			{
+				log.warn("IO threads are saturated, tasks waited up to " + TimeUnit.NANOSECONDS.toMillis(worstIo) + "ms to run on " + this.sizing + ". Move blocking routes off the IO threads or raise undertow.ioThreadsPerCpu or undertow.ioThreads.");
+			}
+			else
+			{
+				log.warn("Worker pool is saturated, tasks waited up to " + TimeUnit.NANOSECONDS.toMillis(worker) + "ms to run on " + this.sizing + ". Raise undertow.workerThreads or bound slow routes with @Bulkhead.");
+			}
+		}
+	}
+
+	/**
+	 * @return the last and worst probe delays in milliseconds for the IO threads and the worker pool
+	 */
+	public Map<String, Object> getStats()
+	{
+		final Map<String, Object> stats = new LinkedHashMap<>();
+
+		long ioLast = 0;
+		long ioMax = 0;
+
+		for (Probe probe : this.ioProbes)
+		{
+			ioLast = Math.max(ioLast, probe.lastDelayNanos);
+			ioMax = Math.max(ioMax, probe.maxDelayNanos);
+		}
+
+		stats.put("ioThreads", this.sizing.getIoThreads());
+		stats.put("workerThreads", this.sizing.getWorkerThreads());
+		stats.put("bufferSize", this.sizing.getBufferSize());
+		stats.put("directBuffers", this.sizing.isDirectBuffers());
+		stats.put("autoTuned", this.sizing.isAutoTuned());
+		stats.put("cpus", this.sizing.getResources().getCpus());
+		stats.put("memoryBytes", this.sizing.getResources().getMemoryBytes());
+		stats.put("ioDelayMillis", ioLast / 1e6);
+		stats.put("ioMaxDelayMillis", ioMax / 1e6);
+		stats.put("workerDelayMillis", this.workerProbe.lastDelayNanos / 1e6);
+		stats.put("workerMaxDelayMillis", this.workerProbe.maxDelayNanos / 1e6);
+
+		return stats;
+	}
+
+	protected static class Probe implements Runnable
+	{
+		protected final Executor executor;
+
+		protected volatile long postedNanos = 0;
+		protected volatile boolean pending = false;
+		protected volatile long lastDelayNanos = 0;
+		protected volatile long maxDelayNanos = 0;
+
+		protected Probe(final Executor executor)
+		{
+			this.executor = executor;
+		}
+
+		/**
+		 * Posts the probe unless the previous one is still waiting
+		 *
+		 * @return the delay of the last probe, or how long the pending probe has waited so far
+		 */
+		protected long post()
+		{
+			if (this.pending)
+			{
+				final long waited = System.nanoTime() - this.postedNanos;
+
+				this.record(waited);
+
+				return waited;
+			}
+
+			final long delay = this.lastDelayNanos;
+
+			this.pending = true;
+			this.postedNanos = System.nanoTime();
+
+			try
+			{
+				this.executor.execute(this);
+
+			} catch (RuntimeException e)
+			{
+				this.pending = false;
+			}
+
+			return delay;
+		}
+
+		@Override
+		public void run()
+		{
+			this.record(System.nanoTime() - this.postedNanos);
+			this.pending = false;
+		}
+
+		protected void record(final long delay)
+		{
+			this.lastDelayNanos = delay;
+
+			if (delay > this.maxDelayNanos)
+			{
+				this.maxDelayNanos = delay;
+			}
+		}
+	}
+}
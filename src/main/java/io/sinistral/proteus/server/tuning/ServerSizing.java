@@ -0,0 +1,126 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.tuning;
+
+import com.typesafe.config.Config;
+
+/**
+ * The IO thread, worker thread and buffer sizes the server is built with.
+ * <p>
+ * By default they come from <code>undertow.ioThreads</code>, or <code>undertow.ioThreadsPerCpu</code> times the available CPUs when no fixed number is set, <code>undertow.workerThreads</code>, <code>undertow.bufferSize</code> and <code>undertow.directBuffers</code>. With <code>undertow.autoTune.enabled</code> they are derived from the CPU and memory limits of the container instead: one IO thread per CPU, <code>workerThreadsPerCpu</code> workers per CPU capped so their stacks stay within <code>maxWorkerMemory</code> of the memory limit, and buffers sized the way Undertow sizes them for the available memory.
+ *
+ * @author jbauer
+ */
+public class ServerSizing
+{
+	protected static final long MB = 1024 * 1024;
+
+	protected final int ioThreads;
+	protected final int workerThreads;
+	protected final int bufferSize;
+	protected final boolean directBuffers;
+	protected final ContainerResources resources;
+	protected final boolean autoTuned;
+
+	public ServerSizing(final int ioThreads, final int workerThreads, final int bufferSize, final boolean directBuffers, final ContainerResources resources, final boolean autoTuned)
+	{
+		this.ioThreads = ioThreads;
+		this.workerThreads = workerThreads;
+		this.bufferSize = bufferSize;
+		this.directBuffers = directBuffers;
+		this.resources = resources;
+		this.autoTuned = autoTuned;
+	}
+
+	/**
+	 * @param config
+	 *            the <code>undertow</code> config
+	 * @return the sizes to build the server with
+	 */
+	public static ServerSizing resolve(final Config config)
+	{
+		return resolve(config, ContainerResources.detect());
+	}
+
+	protected static ServerSizing resolve(final Config config, final ContainerResources resources)
+	{
+		final int cpus = Math.max(1, (int) Math.ceil(resources.getCpus()));
+
+		if (!config.getBoolean("autoTune.enabled"))
+		{
+			final int ioThreads = config.hasPath("ioThreads") ? config.getInt("ioThreads") : (int) Math.round(config.getDouble("ioThreadsPerCpu") * cpus);
+
+			return new ServerSizing(Math.max(1, ioThreads), config.getInt("workerThreads"), (int) (long) config.getBytes("bufferSize"), config.getBoolean("directBuffers"), resources, false);
+		}
+
+		final Config autoTune = config.getConfig("autoTune");
+
+		final long memory = resources.getMemoryBytes();
+
+		final int ioThreads = Math.max(2, cpus);
+
+		final long stackBytes = autoTune.getBytes("threadStackSize");
+		final long workerMemory = (long) (memory * autoTune.getDouble("maxWorkerMemory"));
+		final int memoryBound = (int) Math.max(1, Math.min(Integer.MAX_VALUE, workerMemory / Math.max(1, stackBytes)));
+
+		final int workerThreads = Math.max(autoTune.getInt("minWorkerThreads"), Math.min(memoryBound, cpus * autoTune.getInt("workerThreadsPerCpu")));
+
+		final int bufferSize;
+		final boolean directBuffers;
+
+		if (memory < 64 * MB)
+		{
+			bufferSize = 512;
+			directBuffers = false;
+		}
+		else if (memory < 128 * MB)
+		{
+			bufferSize = 1024;
+			directBuffers = true;
+		}
+		else
+		{
+			bufferSize = 16 * 1024;
+			directBuffers = true;
+		}
+
+		return new ServerSizing(ioThreads, workerThreads, bufferSize, directBuffers, resources, true);
+	}
+
+	public int getIoThreads()
+	{
+		return this.ioThreads;
+	}
+
+	public int getWorkerThreads()
+	{
+		return this.workerThreads;
+	}
+
+	public int getBufferSize()
+	{
+		return this.bufferSize;
+	}
+
+	public boolean isDirectBuffers()
+	{
+		return this.directBuffers;
+	}
+
+	public ContainerResources getResources()
+	{
+		return this.resources;
+	}
+
+	public boolean isAutoTuned()
+	{
+		return this.autoTuned;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("%d io threads, %d worker threads, %d byte %s buffers (%s from %s)", this.ioThreads, this.workerThreads, this.bufferSize, this.directBuffers ? "direct" : "heap", this.autoTuned ? "auto-tuned" : "configured", this.resources);
+	}
+}
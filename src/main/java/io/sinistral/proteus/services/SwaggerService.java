@@ -27,6 +27,7 @@ import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -38,7 +39,11 @@ import com.google.inject.name.Named;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigObject;
 
+import io.sinistral.proteus.server.diagnostics.StartupProfile;
+import io.sinistral.proteus.server.encoding.PrecompressedResource;
+import io.sinistral.proteus.server.endpoints.EndpointIndex;
 import io.sinistral.proteus.server.endpoints.EndpointInfo;
+import io.sinistral.proteus.server.handlers.HandlerInterceptor;
 import io.sinistral.proteus.server.security.MapIdentityManager;
 import io.sinistral.proteus.server.swagger.ServerParameterExtension;
 import io.swagger.jaxrs.ext.SwaggerExtension;
@@ -47,6 +52,8 @@ import io.swagger.models.Info;
 import io.swagger.models.Swagger;
 import io.swagger.models.auth.ApiKeyAuthDefinition;
 import io.swagger.models.auth.BasicAuthDefinition;
+import io.swagger.models.properties.ObjectProperty;
+import io.swagger.models.properties.Property;
 import io.undertow.attribute.ExchangeAttribute;
 import io.undertow.attribute.ExchangeAttributes;
 import io.undertow.predicate.Predicate;
@@ -63,7 +70,6 @@ import io.undertow.server.HandlerWrapper;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.RoutingHandler;
-import io.undertow.server.handlers.PredicateHandler;
 import io.undertow.server.handlers.ResponseCodeHandler;
 import io.undertow.server.handlers.resource.FileResourceManager;
 import io.undertow.server.handlers.resource.ResourceHandler;
@@ -141,6 +147,12 @@ public class SwaggerService   extends BaseService implements Supplier<RoutingHan
 	@Inject
 	@Named("registeredHandlerWrappers")
 	protected Map<String,HandlerWrapper> registeredHandlerWrappers;
+
+	/**
+	 * Only bound in the injector the application starts its services with
+	 */
+	@Inject(optional = true)
+	protected StartupProfile startupProfile;
  
 	protected ObjectMapper mapper = new ObjectMapper();
 	
@@ -158,6 +170,15 @@ public class SwaggerService   extends BaseService implements Supplier<RoutingHan
 	
 	protected String redocHTML = null;
 
+	/**
+	 * Swagger read back from the endpoint index has empty rather than null properties on untyped objects, this keeps the spec the same as one read reflectively
+	 */
+	protected static abstract class ObjectPropertyMixIn
+	{
+		@JsonInclude(Include.NON_EMPTY)
+		public abstract Map<String, Property> getProperties();
+	}
+
 	public SwaggerService( )
 	{ 
 		mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
@@ -169,6 +190,8 @@ public class SwaggerService   extends BaseService implements Supplier<RoutingHan
 
 		mapper.registerModule(new Jdk8Module());
 
+		mapper.addMixIn(ObjectProperty.class, ObjectPropertyMixIn.class);
+
 		
 		writer = mapper.writerWithDefaultPrettyPrinter();
 		writer = writer.without(SerializationFeature.WRITE_NULL_MAP_VALUES); 
@@ -251,13 +274,20 @@ public class SwaggerService   extends BaseService implements Supplier<RoutingHan
 				{
 					log.debug("Adding apiKey handler " + name + " in " + keyLocation + " named " + key);
 					
-					final HandlerWrapper wrapper = new HandlerWrapper()
-					{ 
+					final HandlerInterceptor wrapper = new HandlerInterceptor()
+					{
 						@Override
-						public HttpHandler wrap(final HttpHandler handler)
+						public boolean before(final HttpServerExchange exchange) throws Exception
 						{
-							return new PredicateHandler( predicate, handler, ResponseCodeHandler.HANDLE_403);
-						} 
+							if (predicate.resolve(exchange))
+							{
+								return true;
+							}
+
+							ResponseCodeHandler.HANDLE_403.handleRequest(exchange);
+
+							return false;
+						}
 					};
 					
 					ApiKeyAuthDefinition keyAuthDefinition = new ApiKeyAuthDefinition(name, keyLocation);
@@ -317,8 +347,22 @@ public class SwaggerService   extends BaseService implements Supplier<RoutingHan
 
 
 		this.reader = new io.sinistral.proteus.server.swagger.Reader(swagger);
- 
-		classes.forEach( c -> this.reader.read(c));
+
+		EndpointIndex index = EndpointIndex.load(Thread.currentThread().getContextClassLoader());
+
+		for (Class<?> c : classes)
+		{
+			Swagger indexed = index.swagger(c);
+
+			if (indexed != null)
+			{
+				merge(swagger, indexed);
+			}
+			else
+			{
+				this.reader.read(c);
+			}
+		}
 		
 		this.swagger = this.reader.getSwagger();
 		
@@ -467,54 +511,20 @@ public class SwaggerService   extends BaseService implements Supplier<RoutingHan
 		
 		FileResourceManager resourceManager = new FileResourceManager(this.swaggerResourcePath.toFile(),1024);
  		
-		router.add(HttpMethod.GET, pathTemplate, new HttpHandler(){
-
-			@Override
-			public void handleRequest(HttpServerExchange exchange) throws Exception
-			{
- 
-				exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, MediaType.APPLICATION_JSON); 
-				exchange.getResponseSender().send(swaggerSpec);
-				
-			}
-			
-		});
+		router.add(HttpMethod.GET, pathTemplate, PrecompressedResource.of(this.swaggerSpec, MediaType.APPLICATION_JSON));
 		
 		this.registeredEndpoints.add(EndpointInfo.builder().withConsumes("*/*").withPathTemplate(pathTemplate).withControllerName("Swagger").withMethod(Methods.GET).withProduces(MediaType.APPLICATION_JSON).build());
 		
 		pathTemplate = this.swaggerBasePath + "/" + this.redocPath;
 				 
-		router.add(HttpMethod.GET,pathTemplate, new HttpHandler(){
-
-			@Override
-			public void handleRequest(HttpServerExchange exchange) throws Exception
-			{
- 
-				exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, MediaType.TEXT_HTML); 
-				exchange.getResponseSender().send(redocHTML);
-				
-			}
-			
-		});
+		router.add(HttpMethod.GET,pathTemplate, PrecompressedResource.of(this.redocHTML, MediaType.TEXT_HTML));
 		
    
 		this.registeredEndpoints.add(EndpointInfo.builder().withConsumes("*/*").withPathTemplate(pathTemplate).withControllerName("Swagger").withMethod(Methods.GET).withProduces(MediaType.TEXT_HTML).build());
 		 
 		pathTemplate =  this.swaggerBasePath;
 		 
-		router.add(HttpMethod.GET, pathTemplate , new HttpHandler(){
-
-			@Override
-			public void handleRequest(HttpServerExchange exchange) throws Exception
-			{
- 
- 
- 				exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, MediaType.TEXT_HTML);
- 				exchange.getResponseSender().send(swaggerIndexHTML);
-				
-			}
-			
-		});
+		router.add(HttpMethod.GET, pathTemplate , PrecompressedResource.of(this.swaggerIndexHTML, MediaType.TEXT_HTML));
  
 		this.registeredEndpoints.add(EndpointInfo.builder().withConsumes(MediaType.WILDCARD).withProduces(MediaType.TEXT_HTML).withPathTemplate(pathTemplate).withControllerName("Swagger").withMethod(Methods.GET).build());
  
@@ -593,7 +603,14 @@ public class SwaggerService   extends BaseService implements Supplier<RoutingHan
 		// TODO Auto-generated method stub
 		
 		
-		this.generateSwaggerSpec();
+		if (this.startupProfile != null)
+		{
+			this.startupProfile.time("generate Swagger spec", this::generateSwaggerSpec);
+		}
+		else
+		{
+			this.generateSwaggerSpec();
+		}
 		this.generateSwaggerHTML();
  
 		log.debug("\nSwagger Spec:\n" +  writer.writeValueAsString(this.swagger));
@@ -601,6 +618,39 @@ public class SwaggerService   extends BaseService implements Supplier<RoutingHan
 		router.addAll(this.get()); 
 	}
 
+	/**
+	 * Adds the Swagger of a controller read at build time, as {@link io.sinistral.proteus.server.swagger.Reader#read(Class)} would have
+	 */
+	protected static void merge(Swagger swagger, Swagger controllerSwagger)
+	{
+		if (controllerSwagger.getTags() != null)
+		{
+			controllerSwagger.getTags().forEach(swagger::tag);
+		}
+
+		if (controllerSwagger.getPaths() != null)
+		{
+			controllerSwagger.getPaths().forEach((pathName, controllerPath) -> {
+
+				io.swagger.models.Path path = swagger.getPath(pathName);
+
+				if (path == null)
+				{
+					swagger.path(pathName, controllerPath);
+				}
+				else
+				{
+					controllerPath.getOperationMap().forEach((method, operation) -> path.set(method.name().toLowerCase(), operation));
+				}
+			});
+		}
+
+		if (controllerSwagger.getDefinitions() != null)
+		{
+			controllerSwagger.getDefinitions().forEach(swagger::model);
+		}
+	}
+
 	/* (non-Javadoc)
 	 * @see com.google.common.util.concurrent.AbstractIdleService#shutDown()
 	 */
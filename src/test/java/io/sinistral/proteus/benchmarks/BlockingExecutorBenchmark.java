@@ -0,0 +1,215 @@
+/**
+ *
+ */
+package io.sinistral.proteus.benchmarks;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.sinistral.proteus.server.executors.BlockingExecutors;
+import io.sinistral.proteus.server.handlers.BlockingDispatchHandler;
+import io.undertow.Undertow;
+
+/**
+ * Compares the executors <code>@Blocking</code> routes can be dispatched to when every request waits on a slow backend.
+ * <p>
+ * An Undertow server routes every request through a {@link BlockingDispatchHandler} to a handler that blocks for <code>latencyMillis</code>. Each invocation sends one request on each of <code>concurrency</code> keep-alive connections and waits for all of the responses, so the score is the number of such batches per second. The <code>worker</code> strategy uses the server's worker pool, sized like the default <code>undertow.workerThreads</code>, the <code>virtual</code> strategy needs a runtime with virtual threads.
+ * <p>
+ * Run with <code>mvn test-compile</code> and <code>java -cp target/test-classes:&lt;test classpath&gt; org.openjdk.jmh.Main BlockingExecutorBenchmark</code>.
+ *
+ * @author jbauer
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BlockingExecutorBenchmark
+{
+	protected static final int WORKER_THREADS = 200;
+
+	protected static final byte[] REQUEST = "GET /backend HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+	@Param({ BlockingExecutors.WORKER, BlockingExecutors.VIRTUAL })
+	public String strategy;
+
+	@Param({ "200", "1600" })
+	public int concurrency;
+
+	@Param({ "50" })
+	public long latencyMillis;
+
+	protected Undertow server;
+
+	protected Selector selector;
+
+	protected Connection[] connections;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException
+	{
+		BlockingExecutors.configure(this.strategy);
+
+		if (BlockingExecutors.VIRTUAL.equals(this.strategy) && BlockingExecutors.executor() == null)
+		{
+			throw new IllegalStateException("Virtual threads are not available on Java " + System.getProperty("java.version"));
+		}
+
+		this.server = Undertow.builder().addHttpListener(0, "127.0.0.1").setWorkerThreads(WORKER_THREADS).setHandler(new BlockingDispatchHandler(exchange -> {
+
+			this.backend();
+
+			exchange.getResponseSender().send("ok");
+
+		})).build();
+
+		this.server.start();
+
+		final InetSocketAddress address = (InetSocketAddress) this.server.getListenerInfo().get(0).getAddress();
+
+		this.selector = Selector.open();
+		this.connections = new Connection[this.concurrency];
+
+		for (int i = 0; i < this.concurrency; i++)
+		{
+			final SocketChannel channel = SocketChannel.open(address);
+
+			channel.configureBlocking(false);
+
+			this.connections[i] = new Connection(channel);
+
+			channel.register(this.selector, SelectionKey.OP_READ, this.connections[i]);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException
+	{
+		for (Connection connection : this.connections)
+		{
+			connection.channel.close();
+		}
+
+		this.selector.close();
+		this.server.stop();
+
+		BlockingExecutors.shutdown();
+	}
+
+	@Benchmark
+	public void blockingRequests() throws IOException
+	{
+		for (Connection connection : this.connections)
+		{
+			connection.send();
+		}
+
+		int pending = this.connections.length;
+
+		while (pending > 0)
+		{
+			this.selector.select();
+
+			for (SelectionKey key : this.selector.selectedKeys())
+			{
+				if (((Connection) key.attachment()).read())
+				{
+					pending--;
+				}
+			}
+
+			this.selector.selectedKeys().clear();
+		}
+	}
+
+	protected void backend()
+	{
+		try
+		{
+			Thread.sleep(this.latencyMillis);
+
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * A keep-alive connection with at most one request in flight
+	 */
+	protected static class Connection
+	{
+		protected final SocketChannel channel;
+
+		protected final ByteBuffer buffer = ByteBuffer.allocate(1024);
+
+		protected Connection(final SocketChannel channel)
+		{
+			this.channel = channel;
+		}
+
+		protected void send() throws IOException
+		{
+			final ByteBuffer request = ByteBuffer.wrap(REQUEST);
+
+			while (request.hasRemaining())
+			{
+				this.channel.write(request);
+			}
+		}
+
+		/**
+		 * @return true once the whole response has been read
+		 */
+		protected boolean read() throws IOException
+		{
+			if (this.channel.read(this.buffer) < 0)
+			{
+				throw new IOException("Connection closed by the server");
+			}
+
+			final String response = new String(this.buffer.array(), 0, this.buffer.position(), StandardCharsets.US_ASCII);
+
+			final int headersEnd = response.indexOf("\r\n\r\n");
+
+			if (headersEnd < 0)
+			{
+				return false;
+			}
+
+			final int lengthStart = response.toLowerCase().indexOf("content-length:") + "content-length:".length();
+
+			final int length = Integer.parseInt(response.substring(lengthStart, response.indexOf("\r\n", lengthStart)).trim());
+
+			if (response.length() < headersEnd + 4 + length)
+			{
+				return false;
+			}
+
+			this.buffer.clear();
+
+			return true;
+		}
+	}
+}
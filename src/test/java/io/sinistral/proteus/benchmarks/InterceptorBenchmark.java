@@ -0,0 +1,330 @@
+/**
+ *
+ */
+package io.sinistral.proteus.benchmarks;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.TypeLiteral;
+import com.google.inject.name.Names;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import io.sinistral.proteus.annotations.Chain;
+import io.sinistral.proteus.modules.ConfigModule;
+import io.sinistral.proteus.server.handlers.HandlerGenerator;
+import io.sinistral.proteus.server.handlers.HandlerInterceptor;
+import io.sinistral.proteus.server.handlers.MethodHandleRouteSupplier;
+import io.sinistral.proteus.server.handlers.RouteSupplierCompiler;
+import io.sinistral.proteus.server.handlers.RouteSupplierGenerator;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.Authorization;
+import io.undertow.server.HandlerWrapper;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.RoutingHandler;
+import io.undertow.util.Methods;
+
+/**
+ * Compares the cost of a controller's <code>@Chain</code> when its entries are plain {@link HandlerWrapper}s nested around each route and when they are {@link HandlerInterceptor}s, which generated routes call inline and the method handle backend nests through {@link HandlerInterceptor#wrap(HttpHandler)}.
+ * <p>
+ * Both controllers have eight routes with a two entry <code>@Chain</code> and a security definition, which wraps the route either way. Each invocation routes a request to the next of the eight routes, so the chain's call sites see every route.
+ * <p>
+ * Run with <code>mvn test-compile</code> and <code>java -cp target/test-classes:&lt;test classpath&gt; org.openjdk.jmh.Main InterceptorBenchmark</code>.
+ *
+ * @author jbauer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InterceptorBenchmark
+{
+	protected static final int ROUTES = 8;
+
+	@Param({ "source", "methodHandle" })
+	public String backend;
+
+	@Param({ "wrappers", "interceptors" })
+	public String chain;
+
+	protected RoutingHandler router;
+
+	protected HttpServerExchange exchange;
+
+	protected String[] paths = new String[ROUTES];
+
+	protected int next = 0;
+
+	@Setup(Level.Trial)
+	@SuppressWarnings("unchecked")
+	public void setUp() throws Exception
+	{
+		// the test application.conf turns on the blocking detector, which measures every request and needs a connection
+		System.setProperty("application.blockingDetector.enabled", "false");
+
+		ConfigFactory.invalidateCaches();
+
+		final Injector injector = Guice.createInjector(new ConfigModule());
+
+		final Map<String, HandlerWrapper> registeredHandlerWrappers = injector.getInstance(Key.get(new TypeLiteral<Map<String, HandlerWrapper>>()
+		{
+		}, Names.named("registeredHandlerWrappers")));
+
+		registeredHandlerWrappers.put("benchmarkKey", new KeyInterceptor());
+
+		final Class<?> controllerClass = "wrappers".equals(this.chain) ? WrappedController.class : InterceptedController.class;
+
+		if ("source".equals(this.backend))
+		{
+			final HandlerGenerator generator = new HandlerGenerator(RouteSupplierGenerator.HANDLER_PACKAGE, controllerClass);
+
+			injector.injectMembers(generator);
+
+			final Class<? extends Supplier<RoutingHandler>> supplierClass = RouteSupplierCompiler.create(injector.getInstance(Config.class)).compile(Collections.singletonList(generator)).get(generator);
+
+			if (supplierClass == null)
+			{
+				throw new IllegalStateException("Unable to compile the route supplier of " + controllerClass.getName());
+			}
+
+			this.router = injector.getInstance(supplierClass).get();
+		}
+		else
+		{
+			final MethodHandleRouteSupplier supplier = new MethodHandleRouteSupplier(injector.getInstance(controllerClass));
+
+			injector.injectMembers(supplier);
+
+			this.router = supplier.get();
+		}
+
+		for (int i = 0; i < ROUTES; i++)
+		{
+			this.paths[i] = "/v1/" + this.chain + "/r" + i;
+		}
+
+		this.exchange = new HttpServerExchange(null);
+		this.exchange.setRequestMethod(Methods.GET);
+	}
+
+	@Benchmark
+	public long route() throws Exception
+	{
+		this.exchange.setRelativePath(this.paths[this.next++ & (ROUTES - 1)]);
+
+		this.router.handleRequest(this.exchange);
+
+		return Counter.count;
+	}
+
+	public static class Counter
+	{
+		public static long count;
+	}
+
+	public static class WrapperA implements HandlerWrapper
+	{
+		@Override
+		public HttpHandler wrap(final HttpHandler handler)
+		{
+			return exchange -> {
+				Counter.count++;
+				handler.handleRequest(exchange);
+			};
+		}
+	}
+
+	public static class WrapperB implements HandlerWrapper
+	{
+		@Override
+		public HttpHandler wrap(final HttpHandler handler)
+		{
+			return exchange -> {
+				Counter.count += 2;
+				handler.handleRequest(exchange);
+			};
+		}
+	}
+
+	public static class InterceptorA implements HandlerInterceptor
+	{
+		@Override
+		public boolean before(final HttpServerExchange exchange)
+		{
+			Counter.count++;
+			return true;
+		}
+	}
+
+	public static class InterceptorB implements HandlerInterceptor
+	{
+		@Override
+		public boolean before(final HttpServerExchange exchange)
+		{
+			Counter.count += 2;
+			return true;
+		}
+	}
+
+	public static class KeyInterceptor implements HandlerInterceptor
+	{
+		@Override
+		public boolean before(final HttpServerExchange exchange)
+		{
+			Counter.count += 3;
+			return true;
+		}
+	}
+
+	@Api(tags = "benchmark", authorizations = @Authorization("benchmarkKey"))
+	@Path("/wrappers")
+	@Produces("application/json")
+	@Chain({ WrapperA.class, WrapperB.class })
+	public static class WrappedController
+	{
+		@GET
+		@Path("/r0")
+		public void r0(HttpServerExchange exchange)
+		{
+			Counter.count += 0;
+		}
+
+		@GET
+		@Path("/r1")
+		public void r1(HttpServerExchange exchange)
+		{
+			Counter.count += 1;
+		}
+
+		@GET
+		@Path("/r2")
+		public void r2(HttpServerExchange exchange)
+		{
+			Counter.count += 2;
+		}
+
+		@GET
+		@Path("/r3")
+		public void r3(HttpServerExchange exchange)
+		{
+			Counter.count += 3;
+		}
+
+		@GET
+		@Path("/r4")
+		public void r4(HttpServerExchange exchange)
+		{
+			Counter.count += 4;
+		}
+
+		@GET
+		@Path("/r5")
+		public void r5(HttpServerExchange exchange)
+		{
+			Counter.count += 5;
+		}
+
+		@GET
+		@Path("/r6")
+		public void r6(HttpServerExchange exchange)
+		{
+			Counter.count += 6;
+		}
+
+		@GET
+		@Path("/r7")
+		public void r7(HttpServerExchange exchange)
+		{
+			Counter.count += 7;
+		}
+	}
+
+	@Api(tags = "benchmark", authorizations = @Authorization("benchmarkKey"))
+	@Path("/interceptors")
+	@Produces("application/json")
+	@Chain({ InterceptorA.class, InterceptorB.class })
+	public static class InterceptedController
+	{
+		@GET
+		@Path("/r0")
+		public void r0(HttpServerExchange exchange)
+		{
+			Counter.count += 0;
+		}
+
+		@GET
+		@Path("/r1")
+		public void r1(HttpServerExchange exchange)
+		{
+			Counter.count += 1;
+		}
+
+		@GET
+		@Path("/r2")
+		public void r2(HttpServerExchange exchange)
+		{
+			Counter.count += 2;
+		}
+
+		@GET
+		@Path("/r3")
+		public void r3(HttpServerExchange exchange)
+		{
+			Counter.count += 3;
+		}
+
+		@GET
+		@Path("/r4")
+		public void r4(HttpServerExchange exchange)
+		{
+			Counter.count += 4;
+		}
+
+		@GET
+		@Path("/r5")
+		public void r5(HttpServerExchange exchange)
+		{
+			Counter.count += 5;
+		}
+
+		@GET
+		@Path("/r6")
+		public void r6(HttpServerExchange exchange)
+		{
+			Counter.count += 6;
+		}
+
+		@GET
+		@Path("/r7")
+		public void r7(HttpServerExchange exchange)
+		{
+			Counter.count += 7;
+		}
+	}
+}
@@ -0,0 +1,153 @@
+/**
+ *
+ */
+package io.sinistral.proteus.benchmarks;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import io.sinistral.proteus.modules.ConfigModule;
+import io.sinistral.proteus.server.ServerRequest;
+import io.sinistral.proteus.server.handlers.HandlerGenerator;
+import io.sinistral.proteus.server.handlers.MethodHandleRouteSupplier;
+import io.sinistral.proteus.server.handlers.RouteSupplierCompiler;
+import io.sinistral.proteus.server.handlers.RouteSupplierGenerator;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.RoutingHandler;
+import io.undertow.util.HttpString;
+import io.undertow.util.Methods;
+
+/**
+ * Compares the cost of dispatching a request through the routes of each <code>application.handlerBackend</code>.
+ * <p>
+ * The <code>source</code> backend calls the controller from a generated and compiled route supplier, the <code>methodHandle</code> backend through the method handle {@link MethodHandleRouteSupplier} binds. Each invocation routes one request, through the same {@link RoutingHandler} lookup, to either a route that extracts seven parameters or one that only takes the exchange. The exchange has no connection, so the routes return nothing.
+ * <p>
+ * Run with <code>mvn test-compile</code> and <code>java -cp target/test-classes:&lt;test classpath&gt; org.openjdk.jmh.Main RouteBackendBenchmark</code>.
+ *
+ * @author jbauer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RouteBackendBenchmark
+{
+	@Param({ "source", "methodHandle" })
+	public String backend;
+
+	@Param({ "/v1/benchmark/params/42", "/v1/benchmark/exchange" })
+	public String path;
+
+	protected RoutingHandler router;
+
+	protected HttpServerExchange exchange;
+
+	@Setup(Level.Trial)
+	@SuppressWarnings("unchecked")
+	public void setUp() throws Exception
+	{
+		// the test application.conf turns on the blocking detector, which measures every request and needs a connection
+		System.setProperty("application.blockingDetector.enabled", "false");
+
+		ConfigFactory.invalidateCaches();
+
+		final Injector injector = Guice.createInjector(new ConfigModule());
+
+		if ("source".equals(this.backend))
+		{
+			final HandlerGenerator generator = new HandlerGenerator(RouteSupplierGenerator.HANDLER_PACKAGE, BenchmarkController.class);
+
+			injector.injectMembers(generator);
+
+			final Class<? extends Supplier<RoutingHandler>> supplierClass = RouteSupplierCompiler.create(injector.getInstance(Config.class)).compile(Collections.singletonList(generator)).get(generator);
+
+			if (supplierClass == null)
+			{
+				throw new IllegalStateException("Unable to compile the route supplier of " + BenchmarkController.class.getName());
+			}
+
+			this.router = injector.getInstance(supplierClass).get();
+		}
+		else
+		{
+			final MethodHandleRouteSupplier supplier = new MethodHandleRouteSupplier(injector.getInstance(BenchmarkController.class));
+
+			injector.injectMembers(supplier);
+
+			this.router = supplier.get();
+		}
+
+		this.exchange = new HttpServerExchange(null);
+		this.exchange.setRequestMethod(Methods.GET);
+		this.exchange.setRelativePath(this.path);
+		this.exchange.addQueryParam("name", "proteus");
+		this.exchange.addQueryParam("count", "7");
+		this.exchange.addQueryParam("uuid", UUID.randomUUID().toString());
+		this.exchange.addQueryParam("ids", "1");
+		this.exchange.addQueryParam("ids", "2");
+		this.exchange.getRequestHeaders().put(new HttpString("h"), "v");
+	}
+
+	@Benchmark
+	public Object route() throws Exception
+	{
+		this.router.handleRequest(this.exchange);
+
+		// the router adds the path parameter to the query parameters on every request
+		this.exchange.getQueryParameters().remove("id");
+
+		return BenchmarkController.sink;
+	}
+
+	@Path("/benchmark")
+	@Produces("application/json")
+	public static class BenchmarkController
+	{
+		public static volatile Object sink;
+
+		@GET
+		@Path("/params/{id}")
+		public void params(HttpServerExchange exchange, ServerRequest request, @PathParam("id") Long id, @QueryParam("name") String name, @QueryParam("count") Optional<Integer> count, @QueryParam("uuid") UUID uuid, @HeaderParam("h") Optional<String> h, @QueryParam("ids") List<Long> ids)
+		{
+			sink = ids;
+		}
+
+		@GET
+		@Path("/exchange")
+		public void exchange(HttpServerExchange exchange)
+		{
+			sink = exchange;
+		}
+	}
+}
@@ -13,6 +13,13 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.FormParam;
@@ -25,18 +32,31 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscription;
+
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.Files;
 import com.google.inject.Singleton;
 import com.jsoniter.output.JsonStream;
 
+import io.sinistral.proteus.annotations.Batched;
+import io.sinistral.proteus.annotations.Bulkhead;
+import io.sinistral.proteus.annotations.Cached;
+import io.sinistral.proteus.annotations.Coalesce;
+import io.sinistral.proteus.annotations.Compress;
+import io.sinistral.proteus.annotations.Timeout;
 import io.sinistral.proteus.models.User;
+import io.sinistral.proteus.server.Deadline;
 import io.sinistral.proteus.server.ServerRequest;
 import io.sinistral.proteus.server.ServerResponse;
+import io.sinistral.proteus.server.streaming.ServerSentEventPublisher;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
+import io.swagger.annotations.Authorization;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.util.HttpString;
 
 /**
  * @author jbauer
@@ -194,6 +214,232 @@ public class Tests
 		return CompletableFuture.completedFuture(response( new User(123L) ).applicationJson() );
 	}
 	
+	@GET
+	@Path("/response/future/timeout")
+	@Timeout(100)
+	@ApiOperation(value = "Future that never completes",   httpMethod = "GET" )
+	public CompletableFuture<ServerResponse<User>> responseFutureTimeout()
+	{ 
+		return new CompletableFuture<>();
+	}
+	
+	@GET
+	@Path("/response/future/delayed/user")
+	@ApiOperation(value = "Future user completed on another thread",   httpMethod = "GET" )
+	public CompletableFuture<ServerResponse<User>> responseFutureDelayedUser()
+	{ 
+		return CompletableFuture.supplyAsync(() -> {
+			
+			try
+			{
+				Thread.sleep(50);
+			} catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			
+			return response( new User(123L) ).applicationJson();
+		});
+	}
+	
+	@GET
+	@Path("/response/future/deadline/user")
+	@ApiOperation(value = "Future user bounded by the request deadline",   httpMethod = "GET" )
+	public CompletableFuture<ServerResponse<User>> responseFutureDeadlineUser(Deadline deadline)
+	{ 
+		return CompletableFuture.supplyAsync(() -> {
+			
+			try
+			{
+				Thread.sleep(Math.min(500, deadline.remaining(TimeUnit.MILLISECONDS) + 200));
+			} catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			
+			return response( new User(123L) ).applicationJson();
+		});
+	}
+	
+	@GET
+	@Path("/response/sleepy/user")
+	@ApiOperation(value = "User endpoint that blocks its IO thread",   httpMethod = "GET" )
+	public ServerResponse<User> responseSleepyUser() throws InterruptedException
+	{ 
+		Thread.sleep(20);
+		
+		return response( new User(123L) ).applicationJson();
+	}
+	
+	@GET
+	@Path("/response/etag/user")
+	@ApiOperation(value = "Conditional user endpoint",   httpMethod = "GET" )
+	public ServerResponse<User> responseETagUser(@QueryParam("version") Optional<String> version)
+	{ 
+		ServerResponse<User> response = response( new User(123L) ).applicationJson();
+		
+		return version.map(response::etag).orElseGet(response::etag);
+	}
+	
+	@GET
+	@Path("/response/cached/user")
+	@Cached(ttl = 30, key = "id")
+	@ApiOperation(value = "Cached user endpoint",   httpMethod = "GET" )
+	public ServerResponse<User> responseCachedUser(@QueryParam("id") Long id, @QueryParam("trace") Optional<String> trace)
+	{ 
+		return response( new User(id) ).applicationJson().header(HttpString.tryFromString("X-Generated"), String.valueOf(System.nanoTime()));
+	}
+	
+	@GET
+	@Path("/response/coalesced/user")
+	@Coalesce
+	@ApiOperation(value = "Coalesced user endpoint",   httpMethod = "GET" )
+	public CompletableFuture<ServerResponse<User>> responseCoalescedUser(@QueryParam("id") Long id)
+	{ 
+		return CompletableFuture.completedFuture(response( new User(id) ).applicationJson());
+	}
+	
+	@GET
+	@Path("/response/coalesced/secured/user")
+	@Coalesce
+	@ApiOperation(value = "Coalesced user endpoint behind an api key",   httpMethod = "GET", authorizations = @Authorization("defaultApiKey") )
+	public CompletableFuture<ServerResponse<User>> responseCoalescedSecuredUser(@QueryParam("id") Long id)
+	{ 
+		return CompletableFuture.supplyAsync(() -> {
+			
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(500));
+			
+			return response( new User(id) ).applicationJson();
+		});
+	}
+	
+	@GET
+	@Path("/response/batched/users")
+	@Batched(maxSize = 32, maxDelayMicros = 2000)
+	@ApiOperation(value = "Batched users endpoint",   httpMethod = "GET" )
+	public List<User> responseBatchedUsers(@QueryParam("ids") List<Long> ids)
+	{ 
+		return ids.stream().map(User::new).collect(Collectors.toList());
+	}
+	
+	@GET
+	@Path("/response/bulkhead/user")
+	@Bulkhead(value = "tests", maxConcurrent = 1, maxQueue = 0, retryAfter = 2)
+	@ApiOperation(value = "Slow user endpoint isolated in a bulkhead",   httpMethod = "GET" )
+	public ServerResponse<User> responseBulkheadUser() throws InterruptedException
+	{ 
+		Thread.sleep(250);
+		
+		return response( new User(123L) ).applicationJson();
+	}
+	
+	@GET
+	@Path("/response/stream/users")
+	@ApiOperation(value = "Streamed users endpoint",   httpMethod = "GET" )
+	public ServerResponse<Stream<User>> responseStreamUsers(@QueryParam("count") Integer count)
+	{ 
+		return response( LongStream.range(0, count).mapToObj(User::new) ).applicationJson();
+	}
+	
+	@GET
+	@Path("/response/publisher/users")
+	@ApiOperation(value = "Published users endpoint",   httpMethod = "GET" )
+	public Publisher<User> responsePublisherUsers(@QueryParam("count") Integer count)
+	{ 
+		return subscriber -> subscriber.onSubscribe(new Subscription()
+		{
+			final AtomicLong requested = new AtomicLong();
+			long next = 0;
+			volatile boolean cancelled = false;
+			
+			@Override
+			public void request(long n)
+			{
+				if (requested.getAndAdd(n) == 0)
+				{
+					ForkJoinPool.commonPool().execute(this::emit);
+				}
+			}
+			
+			@Override
+			public void cancel()
+			{
+				cancelled = true;
+			}
+			
+			protected void emit()
+			{
+				long demand = requested.get();
+				
+				while (!cancelled)
+				{
+					long emitted = 0;
+					
+					while (emitted < demand && next < count && !cancelled)
+					{
+						subscriber.onNext(new User(next++));
+						emitted++;
+					}
+					
+					if (next >= count)
+					{
+						subscriber.onComplete();
+						return;
+					}
+					
+					demand = requested.addAndGet(-emitted);
+					
+					if (demand == 0)
+					{
+						return;
+					}
+				}
+			}
+		});
+	}
+	
+	@GET
+	@Path("/response/uncompressed/users")
+	@Compress(false)
+	@ApiOperation(value = "Uncompressed users endpoint",   httpMethod = "GET" )
+	public ServerResponse<Stream<User>> responseUncompressedUsers(@QueryParam("count") Integer count)
+	{ 
+		return response( LongStream.range(0, count).mapToObj(User::new) ).applicationJson();
+	}
+	
+	@POST
+	@Path("/response/ndjson/users")
+ 	@Consumes("application/x-ndjson")
+	@ApiOperation(value = "NDJSON ingest endpoint",   httpMethod = "POST" )
+	public ServerResponse<ImmutableMap<String,Long>> responseNdjsonUsers(ServerRequest request, Stream<User> users )
+	{ 
+		try(Stream<User> records = users)
+		{
+			return response( ImmutableMap.of("count", records.count()) ).applicationJson();
+		}
+	}
+	
+	@GET
+	@Path("/response/events")
+	@Produces("text/event-stream")
+	@ApiOperation(value = "Server-sent events endpoint",   httpMethod = "GET" )
+	public ServerSentEventPublisher responseEvents(@QueryParam("count") Integer count)
+	{ 
+		ServerSentEventPublisher publisher = new ServerSentEventPublisher();
+		
+		publisher.onConnect( p -> CompletableFuture.runAsync( () -> {
+			
+			for(long i = 0; i < count; i++)
+			{
+				p.sendJson("user", new User(i));
+			}
+			
+			p.close();
+		}));
+		
+		return publisher;
+	}
+	
 	@GET
 	@Path("/response/parameters/complex/{pathLong}")
 	@ApiOperation(value = "Complex parameters", httpMethod = "GET")
@@ -6,7 +6,10 @@ package io.sinistral.proteus.server;
 import static io.restassured.RestAssured.given;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasItems;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
 import static org.junit.Assert.assertThat;
 
 import java.io.ByteArrayOutputStream;
@@ -16,6 +19,10 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 
 import org.apache.commons.io.IOUtils;
 import org.hamcrest.CoreMatchers;
@@ -61,6 +68,22 @@ public class TestControllerEndpoints
 		given().accept(ContentType.JSON).log().uri().when().get("swagger.json").then().statusCode(200).and().body("basePath", is("/v1"));
 	}
 
+	@Test
+	public void testSwaggerDocsPrecompressed()
+	{
+		String etag = given().accept(ContentType.JSON).header("Accept-Encoding", "gzip").log().uri().when().get("swagger.json").then().statusCode(200).header("Content-Encoding", "gzip").and().body("basePath", is("/v1")).extract().header("ETag");
+		
+		given().accept(ContentType.JSON).header("Accept-Encoding", "gzip").header("If-None-Match", etag).when().get("swagger.json").then().statusCode(304);
+	}
+
+	@Test
+	public void startupProfile()
+	{
+		String startupUri = RestAssured.baseURI.replaceFirst("/v1$", "") + "/internal/startup";
+
+		given().accept(ContentType.JSON).log().uri().when().get(startupUri).then().statusCode(200).and().body("readyMillis", notNullValue()).and().body("phases.name", hasItems("create injector", "inject route suppliers", "build method handle routes", "generate Swagger spec")).and().body("services.SwaggerService", notNullValue());
+	}
+
 	@Test
 	public void exchangeUserJson()
 	{
@@ -129,6 +152,197 @@ public class TestControllerEndpoints
 		given().accept(ContentType.JSON).log().uri().when().get("tests/response/future/map").then().statusCode(200).and().body("message", is("success"));
 	}
 
+	@Test
+	public void responseFutureTimeout()
+	{
+		given().accept(ContentType.JSON).log().uri().when().get("tests/response/future/timeout").then().statusCode(504);
+	}
+
+	@Test
+	public void responseFutureDelayedUser()
+	{
+		given().accept(ContentType.JSON).log().uri().when().get("tests/response/future/delayed/user").then().statusCode(200).and().body(containsString("123"));
+	}
+
+	@Test
+	public void responseFutureDeadlineUser()
+	{
+		given().accept(ContentType.JSON).header("X-Request-Timeout", "100").when().get("tests/response/future/deadline/user").then().statusCode(504);
+		
+		given().accept(ContentType.JSON).header("grpc-timeout", "1S").when().get("tests/response/future/deadline/user").then().statusCode(200).and().body(containsString("123"));
+	}
+
+	@Test
+	public void responseSleepyUser()
+	{
+		given().accept(ContentType.JSON).when().get("tests/response/sleepy/user").then().statusCode(200);
+		
+		given().accept(ContentType.JSON).when().get("internal/blocking").then().statusCode(200).body("'Tests.responseSleepyUser'.flagged", equalTo(true)).body("'Tests.responseSleepyUser'.lastBlockingCall", equalTo("java.lang.Thread.sleep"));
+	}
+
+	@Test
+	public void responseETagUser()
+	{
+		String etag = given().accept(ContentType.JSON).log().uri().when().get("tests/response/etag/user").then().statusCode(200).extract().header("ETag");
+		
+		given().accept(ContentType.JSON).header("If-None-Match", etag).when().get("tests/response/etag/user").then().statusCode(304);
+		
+		given().accept(ContentType.JSON).header("If-None-Match", "W/\"1\"").queryParam("version", "1").when().get("tests/response/etag/user").then().statusCode(304);
+		
+		given().accept(ContentType.JSON).header("If-None-Match", "W/\"1\"").queryParam("version", "2").when().get("tests/response/etag/user").then().statusCode(200).header("ETag", "W/\"2\"");
+	}
+
+	@Test
+	public void responseCachedUser()
+	{
+		String generated = given().accept(ContentType.JSON).queryParam("id", 7).queryParam("trace", "a").log().uri().when().get("tests/response/cached/user").then().statusCode(200).body("id", equalTo(7)).extract().header("X-Generated");
+		
+		given().accept(ContentType.JSON).queryParam("id", 7).queryParam("trace", "b").when().get("tests/response/cached/user").then().statusCode(200).body("id", equalTo(7)).header("X-Generated", generated);
+		
+		given().accept(ContentType.JSON).queryParam("id", 8).when().get("tests/response/cached/user").then().statusCode(200).body("id", equalTo(8)).header("X-Generated", CoreMatchers.not(generated));
+		
+		given().accept(ContentType.JSON).when().get("internal/caches").then().statusCode(200).body("'Tests.responseCachedUser'.hits", equalTo(1));
+	}
+
+	@Test
+	public void responseCoalescedUser() throws Exception
+	{
+		List<CompletableFuture<Integer>> futures = IntStream.range(0, 16).mapToObj(i -> CompletableFuture.supplyAsync(() -> given().accept(ContentType.JSON).queryParam("id", 9).when().get("tests/response/coalesced/user").then().statusCode(200).extract().jsonPath().getInt("id"))).collect(Collectors.toList());
+		
+		for (CompletableFuture<Integer> future : futures)
+		{
+			assertThat(future.get(), equalTo(9));
+		}
+	}
+
+	@Test
+	public void responseCoalescedSecuredUser() throws Exception
+	{
+		CompletableFuture<Integer> authorized = CompletableFuture.supplyAsync(() -> given().accept(ContentType.JSON).header("default-api-key", "123456789").queryParam("id", 11).when().get("tests/response/coalesced/secured/user").then().statusCode(200).extract().jsonPath().getInt("id"));
+		
+		Thread.sleep(100L);
+		
+		given().accept(ContentType.JSON).queryParam("id", 11).when().get("tests/response/coalesced/secured/user").then().statusCode(403);
+		
+		assertThat(authorized.get(), equalTo(11));
+	}
+
+	@Test
+	public void responseCoalescedUserPastDeadline() throws Exception
+	{
+		CompletableFuture<Integer> leader = CompletableFuture.supplyAsync(() -> given().accept(ContentType.JSON).header("default-api-key", "123456789").queryParam("id", 12).when().get("tests/response/coalesced/secured/user").then().statusCode(200).extract().jsonPath().getInt("id"));
+
+		Thread.sleep(100L);
+
+		given().accept(ContentType.JSON).header("default-api-key", "123456789").header("X-Request-Timeout", "100").queryParam("id", 12).when().get("tests/response/coalesced/secured/user").then().statusCode(504);
+
+		assertThat(leader.get(), equalTo(12));
+	}
+
+	@Test
+	public void responseBatchedUsers() throws Exception
+	{
+		List<CompletableFuture<List<Map<String, Object>>>> futures = IntStream.range(0, 16).mapToObj(i -> CompletableFuture.supplyAsync(() -> given().accept(ContentType.JSON).queryParam("ids", i).queryParam("ids", i + 100).when().get("tests/response/batched/users").then().statusCode(200).extract().jsonPath().<Map<String, Object>>getList("$"))).collect(Collectors.toList());
+		
+		for (int i = 0; i < futures.size(); i++)
+		{
+			List<Map<String, Object>> users = futures.get(i).get();
+			
+			assertThat(users.size(), equalTo(2));
+			assertThat(users.get(0).get("id").toString(), is(String.valueOf(i)));
+			assertThat(users.get(1).get("id").toString(), is(String.valueOf(i + 100)));
+		}
+	}
+
+	@Test
+	public void responseBulkheadUser() throws Exception
+	{
+		List<CompletableFuture<Integer>> futures = IntStream.range(0, 4).mapToObj(i -> CompletableFuture.supplyAsync(() -> given().accept(ContentType.JSON).when().get("tests/response/bulkhead/user").then().extract().statusCode())).collect(Collectors.toList());
+		
+		List<Integer> statuses = futures.stream().map(CompletableFuture::join).collect(Collectors.toList());
+		
+		assertThat(statuses.contains(200), is(true));
+		assertThat(statuses.contains(503), is(true));
+		
+		given().accept(ContentType.JSON).when().get("internal/bulkheads").then().statusCode(200).body("tests.maxConcurrent", equalTo(1));
+	}
+
+	@Test
+	public void concurrencyLimits()
+	{
+		given().accept(ContentType.JSON).when().get("tests/response/user/json").then().statusCode(200);
+		
+		given().accept(ContentType.JSON).when().get("internal/limits").then().statusCode(200).body("tests.limit", greaterThan(0)).body("default.rejected", equalTo(0));
+	}
+
+	@Test
+	public void responsePublisherUsers()
+	{
+		List<Map<String, Object>> users = given().accept(ContentType.JSON).queryParam("count", 5000).log().uri().when().get("tests/response/publisher/users").then().statusCode(200).extract().jsonPath().getList("$");
+		
+		assertThat(users.size(), equalTo(5000));
+
+		for (int i = 0; i < users.size(); i++)
+		{
+			assertThat(users.get(i).get("id").toString(), CoreMatchers.is(String.valueOf(i)));
+		}
+	}
+
+	@Test
+	public void serverSaturation()
+	{
+		given().accept(ContentType.JSON).when().get("internal/saturation").then().statusCode(200).body("ioThreads", greaterThan(0)).body("workerThreads", equalTo(200));
+	}
+
+	@Test
+	public void responseStreamUsers()
+	{
+		List<Map<String, Object>> users = given().accept(ContentType.JSON).queryParam("count", 5000).log().uri().when().get("tests/response/stream/users").then().statusCode(200).extract().jsonPath().getList("$");
+		
+		assertThat(users.size(), equalTo(5000));
+
+		for (int i = 0; i < users.size(); i++)
+		{
+			assertThat(users.get(i).get("id").toString(), CoreMatchers.is(String.valueOf(i)));
+		}
+	}
+
+	@Test
+	public void responseCompressedUsers()
+	{
+		List<Map<String, Object>> users = given().accept(ContentType.JSON).header("Accept-Encoding", "gzip").queryParam("count", 5000).log().uri().when().get("tests/response/stream/users").then().statusCode(200).header("Content-Encoding", "gzip").extract().jsonPath().getList("$");
+		
+		assertThat(users.size(), equalTo(5000));
+		assertThat(users.get(4999).get("id").toString(), CoreMatchers.is("4999"));
+		
+		given().accept(ContentType.JSON).header("Accept-Encoding", "gzip").queryParam("count", 5000).when().get("tests/response/uncompressed/users").then().statusCode(200).header("Content-Encoding", CoreMatchers.nullValue());
+	}
+
+	@Test
+	public void responseNdjsonUsers()
+	{
+		String body = LongStream.range(0, 1000).mapToObj(id -> "{\"id\":" + id + ",\"type\":\"GUEST\"}").collect(Collectors.joining("\n"));
+		
+		given().contentType("application/x-ndjson").accept(ContentType.JSON).body(body).log().uri().when().post("tests/response/ndjson/users").then().statusCode(200).and().body("count", is(1000));
+	}
+
+	@Test
+	public void responseNdjsonRecordTooLarge()
+	{
+		String body = "{\"id\":1,\"type\":\"GUEST\",\"padding\":\"" + String.join("", java.util.Collections.nCopies(2 * 1024 * 1024, "x")) + "\"}";
+
+		given().contentType("application/x-ndjson").accept(ContentType.JSON).body(body).log().uri().when().post("tests/response/ndjson/users").then().statusCode(413);
+	}
+
+	@Test
+	public void responseEvents()
+	{
+		String body = given().accept("text/event-stream").queryParam("count", 10).log().uri().when().get("tests/response/events").then().statusCode(200).extract().asString();
+		
+		assertThat(body.split("event:user").length - 1, equalTo(10));
+		assertThat(body, containsString("data:{\"id\":9"));
+	}
+
 	@SuppressWarnings("resource")
 	@Test
 	public void responseUploadFilePathParameter()
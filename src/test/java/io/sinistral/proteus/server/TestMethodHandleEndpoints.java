@@ -0,0 +1,33 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import io.restassured.RestAssured;
+import io.restassured.http.ContentType;
+
+/**
+ * Runs the route tests against routes bound by {@link io.sinistral.proteus.server.handlers.MethodHandleRouteSupplier}.
+ * <p>
+ * Surefire runs this class in its own JVM with <code>-Dapplication.handlerBackend=methodHandle</code>, since {@link DefaultServer} starts a single application per JVM.
+ *
+ * @author jbauer
+ */
+@RunWith(DefaultServer.class)
+public class TestMethodHandleEndpoints extends TestControllerEndpoints
+{
+	@Test
+	public void routesAreBoundWithMethodHandles()
+	{
+		final String startupUri = RestAssured.baseURI.replaceFirst("/v1$", "") + "/internal/startup";
+
+		given().accept(ContentType.JSON).log().uri().when().get(startupUri).then().statusCode(200).and().body("routeSuppliers.generated", is(0)).and().body("phases.name", hasItem("build method handle routes"));
+	}
+}
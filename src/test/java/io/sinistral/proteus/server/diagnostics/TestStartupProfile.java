@@ -0,0 +1,110 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.diagnostics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import io.sinistral.proteus.server.handlers.RouteSupplierCompiler;
+
+/**
+ * @author jbauer
+ */
+public class TestStartupProfile
+{
+	@Test
+	public void listsPhasesInTheOrderTheyStarted()
+	{
+		StartupProfile profile = new StartupProfile();
+
+		long start = System.nanoTime();
+
+		profile.record("build method handle routes", start + 3_000_000, start + 4_000_000);
+		profile.record("inject route suppliers", start + 1_000_000, start + 3_000_000);
+
+		List<Map<String, Object>> phases = phases(profile);
+
+		assertEquals("inject route suppliers", phases.get(0).get("name"));
+		assertEquals(2.0, (Double) phases.get(0).get("durationMillis"), 0.001);
+		assertEquals("build method handle routes", phases.get(1).get("name"));
+		assertEquals(1.0, (Double) phases.get(1).get("durationMillis"), 0.001);
+		assertTrue((Double) phases.get(1).get("startMillis") > (Double) phases.get(0).get("startMillis"));
+	}
+
+	@Test
+	public void recordsPhaseThatThrows()
+	{
+		StartupProfile profile = new StartupProfile();
+
+		assertEquals("spec", profile.time("generate Swagger spec", () -> "spec"));
+
+		try
+		{
+			profile.time("start services", () -> {
+				throw new IllegalStateException("failed");
+			});
+
+			fail("The phase's exception must be rethrown");
+
+		} catch (IllegalStateException e)
+		{
+			assertEquals("failed", e.getMessage());
+		}
+
+		assertEquals(Arrays.asList("generate Swagger spec", "start services"), phases(profile).stream().map(p -> p.get("name")).collect(Collectors.toList()));
+	}
+
+	@Test
+	public void reportsReadinessServicesAndRouteSuppliers()
+	{
+		StartupProfile profile = new StartupProfile();
+
+		RouteSupplierCompiler compiler = new RouteSupplierCompiler(null);
+
+		compiler.recordInjection(5_000_000);
+
+		profile.setRouteSupplierCompiler(compiler);
+		profile.setServiceMillis(Collections.singletonMap("SwaggerService", 12L));
+
+		assertNull(profile.getTimings().get("readyMillis"));
+
+		profile.time("create injector", () -> {
+		});
+
+		profile.ready();
+
+		Map<String, Object> timings = profile.getTimings();
+
+		assertNotNull(timings.get("readyMillis"));
+		assertEquals(Collections.singletonMap("SwaggerService", 12L), timings.get("services"));
+
+		@SuppressWarnings("unchecked")
+		Map<String, Object> routeSuppliers = (Map<String, Object>) timings.get("routeSuppliers");
+
+		assertEquals(5L, routeSuppliers.get("injectionMillis"));
+
+		String status = profile.toString();
+
+		assertTrue(status.startsWith("ready in "));
+		assertTrue(status.contains("\tcreate injector"));
+		assertTrue(status.contains("\tservice SwaggerService"));
+	}
+
+	@SuppressWarnings("unchecked")
+	protected static List<Map<String, Object>> phases(StartupProfile profile)
+	{
+		return (List<Map<String, Object>>) profile.getTimings().get("phases");
+	}
+}
@@ -0,0 +1,35 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.encoding;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author jbauer
+ */
+public class TestPrecompressedResource
+{
+	@Test
+	public void acceptsListedEncoding()
+	{
+		assertTrue(PrecompressedResource.accepts("gzip, deflate", "gzip"));
+		assertTrue(PrecompressedResource.accepts("deflate;q=0.5, GZIP;q=0.8", "gzip"));
+		assertFalse(PrecompressedResource.accepts("deflate", "gzip"));
+		assertFalse(PrecompressedResource.accepts("gzip;q=0", "gzip"));
+		assertFalse(PrecompressedResource.accepts("gzip;q=x", "gzip"));
+	}
+
+	@Test
+	public void wildcardAppliesOnlyToUnlistedEncodings()
+	{
+		assertTrue(PrecompressedResource.accepts("*", "gzip"));
+		assertTrue(PrecompressedResource.accepts("*;q=0, gzip", "gzip"));
+		assertTrue(PrecompressedResource.accepts("gzip;q=0.1, *;q=0", "gzip"));
+		assertFalse(PrecompressedResource.accepts("*, gzip;q=0", "gzip"));
+		assertFalse(PrecompressedResource.accepts("*;q=0, deflate", "gzip"));
+	}
+}
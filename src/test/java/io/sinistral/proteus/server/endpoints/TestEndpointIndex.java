@@ -0,0 +1,124 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.endpoints;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Produces;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.typesafe.config.ConfigFactory;
+
+import io.sinistral.proteus.controllers.Tests;
+import io.sinistral.proteus.models.User;
+import io.sinistral.proteus.server.ServerResponse;
+import io.sinistral.proteus.server.handlers.RouteSupplierGenerator;
+import io.sinistral.proteus.server.swagger.Reader;
+import io.swagger.models.Swagger;
+import io.undertow.server.HttpServerExchange;
+
+/**
+ * @author jbauer
+ */
+public class TestEndpointIndex
+{
+	protected Path directory;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		this.directory = Files.createTempDirectory("endpoint-index");
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		try (Stream<Path> paths = Files.walk(this.directory))
+		{
+			paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+		}
+	}
+
+	@Test
+	public void loadsControllersAndSwaggerFromIndex() throws Exception
+	{
+		new RouteSupplierGenerator(ConfigFactory.load(), this.directory.toFile()).generate(Collections.singleton(Tests.class));
+
+		EndpointIndex index;
+
+		try (URLClassLoader loader = new URLClassLoader(new URL[] { this.directory.toUri().toURL() }, null))
+		{
+			index = EndpointIndex.load(loader);
+		}
+
+		assertFalse(index.isEmpty());
+		assertEquals(Collections.singleton(Tests.class.getName()), index.controllerNames("io.sinistral.proteus.controllers"));
+		assertTrue(index.controllerNames("io.sinistral.proteus.services").isEmpty());
+
+		Swagger swagger = index.swagger(Tests.class);
+
+		assertNotNull(swagger);
+		assertEquals(new Reader(new Swagger()).read(Tests.class).getPaths().keySet(), swagger.getPaths().keySet());
+		assertTrue(swagger.getDefinitions().containsKey("User"));
+	}
+
+	@Test
+	public void ignoresEntryOfChangedController() throws Exception
+	{
+		ObjectNode entry = EndpointIndex.entry(Tests.class, new Reader(new Swagger()).read(Tests.class));
+
+		assertNotNull(new EndpointIndex(Collections.singletonMap(Tests.class.getName(), entry)).swagger(Tests.class));
+
+		entry.put("hash", "0");
+
+		assertNull(new EndpointIndex(Collections.singletonMap(Tests.class.getName(), entry)).swagger(Tests.class));
+	}
+
+	@Test
+	public void hashesNestedModels()
+	{
+		Set<Class<?>> classes = EndpointIndex.reachableClasses(NestedController.class);
+
+		assertTrue(classes.contains(NestedController.class));
+		assertTrue(classes.contains(User.class));
+		assertTrue(classes.contains(User.UserType.class));
+
+		assertFalse(classes.contains(ServerResponse.class));
+		assertFalse(classes.contains(HttpServerExchange.class));
+		assertFalse(classes.contains(List.class));
+	}
+
+	/**
+	 * Reaches {@link User.UserType} only through a field of {@link User}
+	 */
+	@Produces("application/json")
+	public static class NestedController
+	{
+		@GET
+		public ServerResponse<List<User>> users(HttpServerExchange exchange)
+		{
+			return null;
+		}
+	}
+}
@@ -0,0 +1,74 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.handlers;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+
+/**
+ * Loads the test controllers and their route suppliers on its own, so each test defines suppliers into a fresh class loader.
+ * <p>
+ * Classes in {@value #PACKAGE} are looked up in the given locations first, everything else is delegated to the parent.
+ *
+ * @author jbauer
+ */
+public class ControllerClassLoader extends URLClassLoader
+{
+	public static final String PACKAGE = "io.sinistral.proteus.controllers.";
+
+	public ControllerClassLoader(final URL... urls)
+	{
+		super(urls, ControllerClassLoader.class.getClassLoader());
+	}
+
+	/**
+	 * @param controllerClass
+	 * @param urls
+	 *            further locations, such as a directory of precompiled suppliers
+	 * @return the controller loaded by a new loader from the location it was loaded from and the further locations
+	 */
+	public static Class<?> isolate(final Class<?> controllerClass, final URL... urls) throws ClassNotFoundException
+	{
+		final URL[] locations = new URL[urls.length + 1];
+
+		System.arraycopy(urls, 0, locations, 0, urls.length);
+
+		locations[urls.length] = controllerClass.getProtectionDomain().getCodeSource().getLocation();
+
+		return Class.forName(controllerClass.getName(), false, new ControllerClassLoader(locations));
+	}
+
+	@Override
+	protected Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException
+	{
+		if (!name.startsWith(PACKAGE))
+		{
+			return super.loadClass(name, resolve);
+		}
+
+		synchronized (this.getClassLoadingLock(name))
+		{
+			Class<?> clazz = this.findLoadedClass(name);
+
+			if (clazz == null)
+			{
+				try
+				{
+					clazz = this.findClass(name);
+
+				} catch (ClassNotFoundException e)
+				{
+					return super.loadClass(name, resolve);
+				}
+			}
+
+			if (resolve)
+			{
+				this.resolveClass(clazz);
+			}
+
+			return clazz;
+		}
+	}
+}
@@ -0,0 +1,131 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.handlers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import io.sinistral.proteus.annotations.Batched;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.RoutingHandler;
+import io.undertow.util.Methods;
+
+/**
+ * @author jbauer
+ */
+public class TestBatchedRoutes
+{
+	protected static final List<String> calls = new ArrayList<>();
+
+	protected Config config = ConfigFactory.parseString("application.blockingDetector.enabled = false").withFallback(ConfigFactory.load());
+
+	@Before
+	public void setUp()
+	{
+		calls.clear();
+	}
+
+	@Test
+	public void generatedSupplierBatchesOnlyJsonRoutes() throws Exception
+	{
+		HandlerGenerator generator = TestRouteSupplierCompiler.generator(BatchedController.class, this.config);
+
+		generator.generateRoutes();
+
+		assertTrue(generator.sourceString.contains("batchedControllerJsonHandlerBatcher.submit(exchange,ids)"));
+		assertTrue(generator.sourceString.contains("batchedControllerAnyHandlerBatcher.submit(exchange,ids)"));
+		assertFalse(generator.sourceString.contains("batchedControllerXmlHandlerBatcher"));
+	}
+
+	@Test
+	public void methodHandleRoutesBatchOnlyJsonRoutes() throws Exception
+	{
+		MethodHandleRouteSupplier supplier = new MethodHandleRouteSupplier(new BatchedController());
+
+		supplier.applicationPath = "/v1";
+		supplier.registeredEndpoints = new TreeSet<>();
+		supplier.registeredHandlerWrappers = new HashMap<>();
+		supplier.config = this.config;
+
+		RoutingHandler router = supplier.get();
+
+		handle(router, "/v1/batched/xml");
+
+		assertEquals("an unbatched route invokes the controller while handling the request", 1, calls.size());
+
+		handle(router, "/v1/batched/json");
+
+		assertEquals("a batched route parks the request until its batch is flushed", 1, calls.size());
+	}
+
+	protected static void handle(RoutingHandler router, String path) throws Exception
+	{
+		HttpServerExchange exchange = new HttpServerExchange(null);
+
+		exchange.setRequestMethod(Methods.GET);
+		exchange.setRelativePath(path);
+		exchange.addQueryParam("ids", "1");
+
+		try
+		{
+			router.handleRequest(exchange);
+
+		} catch (NullPointerException e)
+		{
+			/*
+			 * Sending the response or parking the request needs a connection, which these exchanges do not have
+			 */
+		}
+	}
+
+	@Path("/batched")
+	public static class BatchedController
+	{
+		@GET
+		@Path("/json")
+		@Produces("application/json")
+		@Batched
+		public List<Long> json(@QueryParam("ids") List<Long> ids)
+		{
+			calls.add("json");
+			return ids;
+		}
+
+		@GET
+		@Path("/any")
+		@Batched
+		public List<Long> any(@QueryParam("ids") List<Long> ids)
+		{
+			calls.add("any");
+			return ids;
+		}
+
+		@GET
+		@Path("/xml")
+		@Produces("application/xml")
+		@Batched
+		public List<Long> xml(@QueryParam("ids") List<Long> ids)
+		{
+			calls.add("xml");
+			return ids;
+		}
+	}
+}
@@ -0,0 +1,73 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.handlers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import io.sinistral.proteus.server.limits.GradientLimit;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.StatusCodes;
+
+/**
+ * @author jbauer
+ */
+public class TestConcurrencyLimitHandler
+{
+	@Test
+	public void releasesPermitWhenResponseStarts()
+	{
+		GradientLimit limit = new GradientLimit("test", 10, 1, 100, 0.2, 1.5);
+
+		ConcurrencyLimitHandler.Permit permit = new ConcurrencyLimitHandler.Permit(limit, limit.tryAcquire());
+
+		assertEquals(1, limit.getInFlight());
+
+		permit.beforeCommit(new HttpServerExchange(null));
+
+		assertEquals(0, limit.getInFlight());
+
+		permit.exchangeEvent(new HttpServerExchange(null), () -> {
+		});
+
+		assertEquals(0, limit.getInFlight());
+	}
+
+	@Test
+	public void releasesPermitWhenExchangeCompletesWithoutResponse()
+	{
+		GradientLimit limit = new GradientLimit("test", 10, 1, 100, 0.2, 1.5);
+
+		ConcurrencyLimitHandler.Permit permit = new ConcurrencyLimitHandler.Permit(limit, limit.tryAcquire());
+
+		limit.tryAcquire();
+
+		permit.exchangeEvent(new HttpServerExchange(null), () -> {
+		});
+
+		assertEquals(1, limit.getInFlight());
+	}
+
+	@Test
+	public void samplesOnlySuccessfulResponses()
+	{
+		GradientLimit limit = new GradientLimit("test", 10, 1, 100, 0.2, 1.5);
+
+		HttpServerExchange exchange = new HttpServerExchange(null);
+
+		exchange.setStatusCode(StatusCodes.NOT_FOUND);
+
+		new ConcurrencyLimitHandler.Permit(limit, limit.tryAcquire()).beforeCommit(exchange);
+
+		assertEquals(0, limit.getInFlight());
+		assertEquals(0.0, (Double) limit.getStats().get("shortRttMillis"), 0.0);
+
+		new ConcurrencyLimitHandler.Permit(limit, limit.tryAcquire()).beforeCommit(new HttpServerExchange(null));
+
+		assertEquals(0, limit.getInFlight());
+		assertTrue((Double) limit.getStats().get("shortRttMillis") > 0);
+	}
+}
@@ -0,0 +1,236 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.handlers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import io.sinistral.proteus.annotations.Blocking;
+import io.sinistral.proteus.annotations.Bulkhead;
+import io.sinistral.proteus.annotations.Chain;
+import io.sinistral.proteus.annotations.Coalesce;
+import io.undertow.server.HandlerWrapper;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.RoutingHandler;
+import io.undertow.util.HttpString;
+import io.undertow.util.Methods;
+import io.undertow.util.StatusCodes;
+
+/**
+ * @author jbauer
+ */
+public class TestHandlerInterceptors
+{
+	protected static final HttpString REJECT = new HttpString("X-Reject");
+
+	protected static final List<String> calls = new ArrayList<>();
+
+	protected Config config = ConfigFactory.parseString("application.blockingDetector.enabled = false").withFallback(ConfigFactory.load());
+
+	@Before
+	public void setUp()
+	{
+		calls.clear();
+	}
+
+	@Test
+	public void generatedChainRunsInDeclarationOrder() throws Exception
+	{
+		handle(generatedRouter(), "/v1/chain/plain", false);
+
+		assertEquals(Arrays.asList("first.before", "wrapper", "second.before", "plain", "second.after", "first.after"), calls);
+	}
+
+	@Test
+	public void methodHandleChainRunsInDeclarationOrder() throws Exception
+	{
+		handle(methodHandleRouter(), "/v1/chain/plain", false);
+
+		assertEquals(Arrays.asList("first.before", "wrapper", "second.before", "plain", "second.after", "first.after"), calls);
+	}
+
+	@Test
+	public void generatedChainRunsAheadOfDispatch() throws Exception
+	{
+		RoutingHandler router = generatedRouter();
+
+		for (String path : Arrays.asList("/v1/chain/blocking", "/v1/chain/bulkhead", "/v1/chain/coalesced"))
+		{
+			calls.clear();
+
+			assertEquals(StatusCodes.FORBIDDEN, handle(router, path, true).getStatusCode());
+			assertEquals(path, Arrays.asList("first.before", "wrapper", "second.before", "first.after"), calls);
+		}
+	}
+
+	@Test
+	public void methodHandleChainRunsAheadOfDispatch() throws Exception
+	{
+		RoutingHandler router = methodHandleRouter();
+
+		for (String path : Arrays.asList("/v1/chain/blocking", "/v1/chain/bulkhead", "/v1/chain/coalesced"))
+		{
+			calls.clear();
+
+			assertEquals(StatusCodes.FORBIDDEN, handle(router, path, true).getStatusCode());
+			assertEquals(path, Arrays.asList("first.before", "wrapper", "second.before", "first.after"), calls);
+		}
+	}
+
+	protected RoutingHandler generatedRouter() throws Exception
+	{
+		HandlerGenerator generator = TestRouteSupplierCompiler.generator(ChainController.class, this.config);
+
+		Class<? extends Supplier<RoutingHandler>> supplierClass = new RouteSupplierCompiler(null).compile(Collections.singletonList(generator)).get(generator);
+
+		assertNotNull(supplierClass);
+
+		return supplierClass.getConstructor(ChainController.class, Map.class).newInstance(new ChainController(), new HashMap<String, HandlerWrapper>()).get();
+	}
+
+	protected RoutingHandler methodHandleRouter()
+	{
+		MethodHandleRouteSupplier supplier = new MethodHandleRouteSupplier(new ChainController());
+
+		supplier.applicationPath = "/v1";
+		supplier.registeredEndpoints = new TreeSet<>();
+		supplier.registeredHandlerWrappers = new HashMap<>();
+		supplier.config = this.config;
+
+		return supplier.get();
+	}
+
+	protected static HttpServerExchange handle(RoutingHandler router, String path, boolean reject) throws Exception
+	{
+		HttpServerExchange exchange = new HttpServerExchange(null);
+
+		exchange.setRequestMethod(Methods.GET);
+		exchange.setRelativePath(path);
+
+		if (reject)
+		{
+			exchange.getRequestHeaders().put(REJECT, "true");
+		}
+
+		router.handleRequest(exchange);
+
+		return exchange;
+	}
+
+	public static class First implements HandlerInterceptor
+	{
+		@Override
+		public boolean before(HttpServerExchange exchange)
+		{
+			calls.add("first.before");
+			return true;
+		}
+
+		@Override
+		public void after(HttpServerExchange exchange)
+		{
+			calls.add("first.after");
+		}
+	}
+
+	public static class Second implements HandlerInterceptor
+	{
+		@Override
+		public boolean before(HttpServerExchange exchange)
+		{
+			calls.add("second.before");
+
+			if (exchange.getRequestHeaders().contains(REJECT))
+			{
+				exchange.setStatusCode(StatusCodes.FORBIDDEN);
+				return false;
+			}
+
+			return true;
+		}
+
+		@Override
+		public void after(HttpServerExchange exchange)
+		{
+			calls.add("second.after");
+		}
+	}
+
+	public static class Wrapper implements HandlerWrapper
+	{
+		@Override
+		public HttpHandler wrap(HttpHandler handler)
+		{
+			return exchange -> {
+				calls.add("wrapper");
+				handler.handleRequest(exchange);
+			};
+		}
+	}
+
+	/**
+	 * The chain is an interceptor, a wrapper and then the method's interceptor, so each route has an interceptor on either side of the wrapper
+	 */
+	@Path("/chain")
+	@Produces("application/json")
+	@Chain({ First.class, Wrapper.class })
+	public static class ChainController
+	{
+		@GET
+		@Path("/plain")
+		@Chain(Second.class)
+		public void plain(HttpServerExchange exchange)
+		{
+			calls.add("plain");
+		}
+
+		@GET
+		@Path("/blocking")
+		@Blocking
+		@Chain(Second.class)
+		public void blocking(HttpServerExchange exchange)
+		{
+			calls.add("blocking");
+		}
+
+		@GET
+		@Path("/bulkhead")
+		@Bulkhead("chain")
+		@Chain(Second.class)
+		public void bulkhead(HttpServerExchange exchange)
+		{
+			calls.add("bulkhead");
+		}
+
+		@GET
+		@Path("/coalesced")
+		@Coalesce
+		@Chain(Second.class)
+		public Map<String, String> coalesced(HttpServerExchange exchange)
+		{
+			calls.add("coalesced");
+			return Collections.singletonMap("route", "coalesced");
+		}
+	}
+}
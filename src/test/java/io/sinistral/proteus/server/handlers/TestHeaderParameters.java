@@ -0,0 +1,148 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.handlers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.UUID;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+
+import org.junit.Test;
+
+import com.typesafe.config.ConfigFactory;
+
+import io.sinistral.proteus.controllers.Tests;
+import io.sinistral.proteus.server.Extractors;
+import io.sinistral.proteus.server.handlers.HandlerGenerator.TypeHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.RoutingHandler;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.Methods;
+
+/**
+ * @author jbauer
+ */
+public class TestHeaderParameters
+{
+	@Test
+	public void headerConstantNamesAreDistinct()
+	{
+		assertEquals("HEADER_CONTENT_TYPE", TypeHandler.headerConstantName("Content-Type"));
+		assertEquals("HEADER_X_REQUEST_ID", TypeHandler.headerConstantName("x-request-id"));
+
+		assertNotEquals(TypeHandler.headerConstantName("x-a"), TypeHandler.headerConstantName("x_a"));
+		assertNotEquals(TypeHandler.headerConstantName("x_a"), TypeHandler.headerConstantName("x.a"));
+		assertNotEquals(TypeHandler.headerConstantName("x-a"), TypeHandler.headerConstantName("x$2d$a"));
+	}
+
+	@Test
+	public void wellKnownHeadersResolveToTheirConstants()
+	{
+		assertSame(Headers.CONTENT_TYPE, HttpString.tryFromString("Content-Type"));
+		assertSame(Headers.AUTHORIZATION, HttpString.tryFromString("Authorization"));
+	}
+
+	@Test
+	public void extractsHeaderIgnoringCase() throws Exception
+	{
+		HttpServerExchange exchange = new HttpServerExchange(null);
+
+		exchange.getRequestHeaders().add(new HttpString("X-Request-Id"), "first");
+		exchange.getRequestHeaders().add(new HttpString("X-Request-Id"), "second");
+
+		assertEquals("first", Extractors.Header.string(exchange, HttpString.tryFromString("x-request-id")));
+		assertEquals(Optional.of("first"), Extractors.Header.Optional.string(exchange, HttpString.tryFromString("X-REQUEST-ID")));
+	}
+
+	@Test
+	public void missingHeader() throws Exception
+	{
+		HttpServerExchange exchange = new HttpServerExchange(null);
+
+		assertFalse(Extractors.Header.Optional.string(exchange, HttpString.tryFromString("X-Request-Id")).isPresent());
+
+		try
+		{
+			Extractors.Header.string(exchange, HttpString.tryFromString("X-Request-Id"));
+
+			fail("A missing header must be rejected");
+
+		} catch (IllegalArgumentException e)
+		{
+			assertTrue(e.getMessage().contains("X-Request-Id"));
+		}
+	}
+
+	@Test
+	public void generatedSupplierDeclaresHeaderConstants() throws Exception
+	{
+		HandlerGenerator generator = TestRouteSupplierCompiler.generator(Tests.class, ConfigFactory.load());
+
+		generator.generateRoutes();
+
+		assertTrue(generator.sourceString.contains("private static final HttpString HEADER_HEADERSTRING = HttpString.tryFromString(\"headerString\");"));
+		assertTrue(generator.sourceString.contains("io.sinistral.proteus.server.Extractors.Header.string(exchange,HEADER_HEADERSTRING)"));
+		assertTrue(generator.sourceString.contains("io.sinistral.proteus.server.Extractors.Header.Optional.string(exchange,HEADER_OPTIONALHEADERUUID)"));
+		assertFalse(generator.sourceString.contains("Header.string(exchange,\""));
+	}
+
+	@Test
+	public void methodHandleRoutesExtractHeaders() throws Exception
+	{
+		MethodHandleRouteSupplier supplier = new MethodHandleRouteSupplier(new HeaderController());
+
+		supplier.applicationPath = "/v1";
+		supplier.registeredEndpoints = new TreeSet<>();
+		supplier.registeredHandlerWrappers = new HashMap<>();
+		supplier.config = ConfigFactory.parseString("application.blockingDetector.enabled = false").withFallback(ConfigFactory.load());
+
+		RoutingHandler router = supplier.get();
+
+		UUID requestId = UUID.randomUUID();
+
+		HttpServerExchange exchange = new HttpServerExchange(null);
+
+		exchange.setRequestMethod(Methods.GET);
+		exchange.setRelativePath("/v1/headers/request");
+		exchange.getRequestHeaders().put(Headers.CONTENT_TYPE, "application/json");
+		exchange.getRequestHeaders().put(new HttpString("x-request-id"), requestId.toString());
+
+		router.handleRequest(exchange);
+
+		assertEquals("application/json", HeaderController.contentType);
+		assertEquals(requestId, HeaderController.requestId);
+		assertEquals(Optional.empty(), HeaderController.trace);
+	}
+
+	@Path("/headers")
+	@Produces("application/json")
+	public static class HeaderController
+	{
+		protected static String contentType;
+		protected static UUID requestId;
+		protected static Optional<String> trace;
+
+		@GET
+		@Path("/request")
+		public void request(HttpServerExchange exchange, @HeaderParam("Content-Type") String contentType, @HeaderParam("X-Request-Id") UUID requestId, @HeaderParam("X-Trace") Optional<String> trace)
+		{
+			HeaderController.contentType = contentType;
+			HeaderController.requestId = requestId;
+			HeaderController.trace = trace;
+		}
+	}
+}
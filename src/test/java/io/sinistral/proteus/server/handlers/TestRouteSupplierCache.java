@@ -0,0 +1,181 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.handlers;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assume.assumeTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigValueFactory;
+
+import io.sinistral.proteus.controllers.Tests;
+
+/**
+ * @author jbauer
+ */
+public class TestRouteSupplierCache
+{
+	protected static final String NAME = "io.sinistral.proteus.controllers.handlers.TestsRouteSupplier";
+
+	protected Path root;
+	protected Path directory;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		this.root = Files.createTempDirectory("route-supplier-cache");
+		this.directory = this.root.resolve("handlers");
+	}
+
+	@After
+	public void tearDown()
+	{
+		RouteSupplierCache.delete(this.root);
+	}
+
+	@Test
+	public void loadsStoredEntry()
+	{
+		RouteSupplierCache cache = RouteSupplierCache.open(this.directory);
+
+		cache.store(NAME, "first", classes("first"));
+
+		Map<String, byte[]> classes = cache.load(NAME, "first");
+
+		assertNotNull(classes);
+		assertArrayEquals("first".getBytes(StandardCharsets.UTF_8), classes.get(NAME));
+		assertArrayEquals("first".getBytes(StandardCharsets.UTF_8), RouteSupplierCache.open(this.directory).load(NAME, "first").get(NAME));
+	}
+
+	@Test
+	public void missesUnknownKey()
+	{
+		RouteSupplierCache cache = RouteSupplierCache.open(this.directory);
+
+		assertNull(cache.load(NAME, "first"));
+
+		cache.store(NAME, "first", classes("first"));
+
+		assertNull(cache.load(NAME, "second"));
+	}
+
+	@Test
+	public void replacesStaleEntry()
+	{
+		RouteSupplierCache cache = RouteSupplierCache.open(this.directory);
+
+		cache.store(NAME, "first", classes("first"));
+		cache.store(NAME, "second", classes("second"));
+
+		assertNull(cache.load(NAME, "first"));
+		assertFalse(Files.exists(this.directory.resolve(NAME).resolve("first")));
+		assertArrayEquals("second".getBytes(StandardCharsets.UTF_8), cache.load(NAME, "second").get(NAME));
+	}
+
+	@Test
+	public void ignoresTamperedEntry() throws Exception
+	{
+		RouteSupplierCache cache = RouteSupplierCache.open(this.directory);
+
+		cache.store(NAME, "first", classes("first"));
+
+		Files.write(this.directory.resolve(NAME).resolve("first").resolve(NAME + ".class"), "tampered".getBytes(StandardCharsets.UTF_8));
+
+		assertNull(cache.load(NAME, "first"));
+	}
+
+	@Test
+	public void ignoresEntryOfAnotherKey() throws Exception
+	{
+		RouteSupplierCache cache = RouteSupplierCache.open(this.directory);
+
+		cache.store(NAME, "first", classes("first"));
+
+		Files.move(this.directory.resolve(NAME).resolve("first"), this.directory.resolve(NAME).resolve("second"));
+
+		assertNull(cache.load(NAME, "second"));
+	}
+
+	@Test
+	public void keyChangesWithGeneratedSource() throws Exception
+	{
+		RouteSupplierCache cache = RouteSupplierCache.open(this.directory);
+
+		HandlerGenerator generator = TestRouteSupplierCompiler.generator(Tests.class, ConfigFactory.load());
+		HandlerGenerator changed = TestRouteSupplierCompiler.generator(Tests.class, ConfigFactory.load().withValue("application.path", ConfigValueFactory.fromAnyRef("/v2")));
+
+		generator.generateRoutes();
+		changed.generateRoutes();
+
+		assertEquals(cache.key(generator), cache.key(generator));
+		assertNotEquals(cache.key(generator), cache.key(changed));
+	}
+
+	@Test
+	public void createsPrivateDirectory() throws Exception
+	{
+		assumeTrue(Files.getFileStore(this.root).supportsFileAttributeView(PosixFileAttributeView.class));
+
+		assertNotNull(RouteSupplierCache.open(this.directory));
+		assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(this.directory)));
+	}
+
+	@Test
+	public void refusesSharedDirectory() throws Exception
+	{
+		assumeTrue(Files.getFileStore(this.root).supportsFileAttributeView(PosixFileAttributeView.class));
+
+		Files.createDirectory(this.directory);
+		Files.setPosixFilePermissions(this.directory, PosixFilePermissions.fromString("rwxrwxrwx"));
+
+		assertNull(RouteSupplierCache.open(this.directory));
+	}
+
+	@Test
+	public void compilerLoadsCachedSupplier() throws Exception
+	{
+		HandlerGenerator first = TestRouteSupplierCompiler.generator(ControllerClassLoader.isolate(Tests.class), ConfigFactory.load());
+
+		RouteSupplierCompiler compiler = new RouteSupplierCompiler(RouteSupplierCache.open(this.directory));
+
+		assertNotNull(compiler.compile(Collections.singletonList(first)).get(first));
+		assertEquals(1, compiler.getTimings().get("compiled"));
+
+		HandlerGenerator second = TestRouteSupplierCompiler.generator(ControllerClassLoader.isolate(Tests.class), ConfigFactory.load());
+
+		compiler = new RouteSupplierCompiler(RouteSupplierCache.open(this.directory));
+
+		assertNotNull(compiler.compile(Collections.singletonList(second)).get(second));
+		assertEquals(1, compiler.getTimings().get("cached"));
+		assertEquals("cached", compiler.getControllerTimings().get(Tests.class.getName()).get("supplier"));
+	}
+
+	protected static Map<String, byte[]> classes(String content)
+	{
+		Map<String, byte[]> classes = new TreeMap<>();
+
+		classes.put(NAME, content.getBytes(StandardCharsets.UTF_8));
+		classes.put(NAME + "$1", (content + "$1").getBytes(StandardCharsets.UTF_8));
+
+		return classes;
+	}
+}
@@ -0,0 +1,172 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.handlers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigValueFactory;
+
+import io.sinistral.proteus.controllers.Tests;
+import io.undertow.server.RoutingHandler;
+
+/**
+ * @author jbauer
+ */
+public class TestRouteSupplierCompiler
+{
+	protected Path directory;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		this.directory = Files.createTempDirectory("route-suppliers");
+	}
+
+	@After
+	public void tearDown()
+	{
+		RouteSupplierCache.delete(this.directory);
+	}
+
+	@Test
+	public void loadsPrecompiledSupplier() throws Exception
+	{
+		new RouteSupplierGenerator(ConfigFactory.load(), this.directory.toFile()).generate(Collections.singleton(ControllerClassLoader.isolate(Tests.class)));
+
+		Class<?> controllerClass = ControllerClassLoader.isolate(Tests.class, this.directory.toUri().toURL());
+
+		HandlerGenerator generator = generator(controllerClass, ConfigFactory.load());
+
+		RouteSupplierCompiler compiler = new RouteSupplierCompiler(null);
+
+		Class<? extends Supplier<RoutingHandler>> supplierClass = compiler.compile(Collections.singletonList(generator)).get(generator);
+
+		assertNotNull(supplierClass);
+		assertSame(controllerClass.getClassLoader(), supplierClass.getClassLoader());
+		assertEquals(1, compiler.getTimings().get("precompiled"));
+		assertEquals("precompiled", compiler.getControllerTimings().get(Tests.class.getName()).get("supplier"));
+	}
+
+	@Test
+	public void ignoresPrecompiledSupplierOfDifferentSource() throws Exception
+	{
+		new RouteSupplierGenerator(ConfigFactory.load(), this.directory.toFile()).generate(Collections.singleton(ControllerClassLoader.isolate(Tests.class)));
+
+		Class<?> controllerClass = ControllerClassLoader.isolate(Tests.class, this.directory.toUri().toURL());
+
+		HandlerGenerator generator = generator(controllerClass, ConfigFactory.load().withValue("application.path", ConfigValueFactory.fromAnyRef("/v2")));
+
+		generator.generateRoutes();
+
+		assertNull(generator.loadPrecompiledClass());
+	}
+
+	@Test
+	public void ignoresPrecompiledSupplierWhenDisabled() throws Exception
+	{
+		new RouteSupplierGenerator(ConfigFactory.load(), this.directory.toFile()).generate(Collections.singleton(ControllerClassLoader.isolate(Tests.class)));
+
+		Class<?> controllerClass = ControllerClassLoader.isolate(Tests.class, this.directory.toUri().toURL());
+
+		HandlerGenerator generator = generator(controllerClass, ConfigFactory.load().withValue("application.precompiledHandlers", ConfigValueFactory.fromAnyRef(false)));
+
+		generator.generateRoutes();
+
+		assertNull(generator.loadPrecompiledClass());
+	}
+
+	@Test
+	public void compilesSuppliersInOneBatch() throws Exception
+	{
+		Class<?> controllerClass = ControllerClassLoader.isolate(Tests.class);
+
+		HandlerGenerator first = generator("first", controllerClass, ConfigFactory.load());
+		HandlerGenerator second = generator("second", controllerClass, ConfigFactory.load());
+
+		RouteSupplierCompiler compiler = new RouteSupplierCompiler(null);
+
+		Map<HandlerGenerator, Class<? extends Supplier<RoutingHandler>>> classes = compiler.compile(Arrays.asList(first, second));
+
+		assertEquals(2, classes.size());
+		assertEquals(first.packageName + "." + first.className, classes.get(first).getName());
+		assertEquals(second.packageName + "." + second.className, classes.get(second).getName());
+		assertSame(controllerClass.getClassLoader(), classes.get(first).getClassLoader());
+		assertEquals(2, compiler.getTimings().get("compiled"));
+		assertEquals("batch", compiler.getControllerTimings().get(Tests.class.getName()).get("supplier"));
+	}
+
+	@Test
+	public void compilesEachSupplierAloneWhenBatchFails() throws Exception
+	{
+		Class<?> controllerClass = ControllerClassLoader.isolate(Tests.class);
+
+		HandlerGenerator valid = generator("valid", controllerClass, ConfigFactory.load());
+
+		HandlerGenerator broken = new HandlerGenerator(RouteSupplierGenerator.HANDLER_PACKAGE + ".broken", controllerClass)
+		{
+			@Override
+			protected void generateRoutes()
+			{
+				super.generateRoutes();
+
+				this.sourceString = this.sourceString + "\nbroken";
+			}
+		};
+
+		broken.applicationPath = valid.applicationPath;
+		broken.registeredEndpoints = new TreeSet<>();
+		broken.config = valid.config;
+
+		RouteSupplierCompiler compiler = new RouteSupplierCompiler(null);
+
+		Map<HandlerGenerator, Class<? extends Supplier<RoutingHandler>>> classes = compiler.compile(Arrays.asList(valid, broken));
+
+		assertEquals(1, classes.size());
+		assertNotNull(classes.get(valid));
+		assertSame(controllerClass.getClassLoader(), classes.get(valid).getClassLoader());
+		assertEquals(1, compiler.getTimings().get("compiled"));
+	}
+
+	protected static HandlerGenerator generator(String subpackage, Class<?> controllerClass, Config config)
+	{
+		HandlerGenerator generator = new HandlerGenerator(RouteSupplierGenerator.HANDLER_PACKAGE + "." + subpackage, controllerClass);
+
+		generator.applicationPath = config.getString("application.path");
+		generator.registeredEndpoints = new TreeSet<>();
+		generator.config = config;
+
+		return generator;
+	}
+
+	/**
+	 * @return a generator set up the way the application injects it
+	 */
+	protected static HandlerGenerator generator(Class<?> controllerClass, Config config)
+	{
+		HandlerGenerator generator = new HandlerGenerator(RouteSupplierGenerator.HANDLER_PACKAGE, controllerClass);
+
+		generator.applicationPath = config.getString("application.path");
+		generator.registeredEndpoints = new TreeSet<>();
+		generator.config = config;
+
+		return generator;
+	}
+}
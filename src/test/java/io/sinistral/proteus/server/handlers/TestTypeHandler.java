@@ -0,0 +1,64 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.handlers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.lang.reflect.Parameter;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.QueryParam;
+
+import org.junit.Test;
+
+import io.sinistral.proteus.models.User;
+import io.sinistral.proteus.server.handlers.HandlerGenerator.TypeHandler;
+
+/**
+ * @author jbauer
+ */
+public class TestTypeHandler
+{
+	private static final String NDJSON = "application/x-ndjson";
+
+	@Test
+	public void bindsUnannotatedStreamOnNdjsonRoute() throws Exception
+	{
+		assertEquals(TypeHandler.NdjsonStreamType, TypeHandler.forParameter(parameter("body", 0), NDJSON));
+		assertEquals(TypeHandler.NdjsonIteratorType, TypeHandler.forParameter(parameter("body", 1), "application/json," + NDJSON));
+	}
+
+	@Test
+	public void ignoresStreamOnOtherRoutes() throws Exception
+	{
+		assertNotEquals(TypeHandler.NdjsonStreamType, TypeHandler.forParameter(parameter("body", 0), "application/json"));
+		assertNotEquals(TypeHandler.NdjsonIteratorType, TypeHandler.forParameter(parameter("body", 1), "*/*"));
+	}
+
+	@Test
+	public void ignoresAnnotatedStream() throws Exception
+	{
+		assertNotEquals(TypeHandler.NdjsonStreamType, TypeHandler.forParameter(parameter("annotated", 0), NDJSON));
+		assertNotEquals(TypeHandler.NdjsonIteratorType, TypeHandler.forParameter(parameter("annotated", 1), NDJSON));
+	}
+
+	protected static Parameter parameter(String method, int index) throws Exception
+	{
+		return Parameters.class.getDeclaredMethod(method, Stream.class, Iterator.class).getParameters()[index];
+	}
+
+	protected static class Parameters
+	{
+		public void body(Stream<User> users, Iterator<User> iterator)
+		{
+		}
+
+		public void annotated(@QueryParam("users") Stream<User> users, @HeaderParam("users") Iterator<User> iterator)
+		{
+		}
+	}
+}
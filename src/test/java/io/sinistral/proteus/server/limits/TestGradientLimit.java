@@ -0,0 +1,96 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.limits;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author jbauer
+ */
+public class TestGradientLimit
+{
+	@Test
+	public void growsWhileLatencyIsSteady()
+	{
+		GradientLimit limit = new GradientLimit("test", 100, 10, 1000, 0.2, 1.5);
+
+		sample(limit, 200, 10);
+
+		assertTrue(limit.getLimit() > 100);
+	}
+
+	@Test
+	public void shrinksWhenLatencyRises()
+	{
+		GradientLimit limit = new GradientLimit("test", 100, 10, 1000, 0.2, 1.5);
+
+		sample(limit, 2000, 10);
+
+		int steady = limit.getLimit();
+
+		sample(limit, 50, 40);
+
+		assertTrue(limit.getLimit() < steady / 2);
+	}
+
+	@Test
+	public void cheapResponsesDoNotSetTheBaseline()
+	{
+		GradientLimit limit = new GradientLimit("test", 100, 10, 1000, 0.2, 1.5);
+
+		for (int i = 0; i < 1500; i++)
+		{
+			sample(limit, 1, 1);
+			sample(limit, 1, 20);
+		}
+
+		assertTrue(limit.getLimit() > 100);
+	}
+
+	@Test
+	public void idleSamplesDoNotChangeTheLimit()
+	{
+		GradientLimit limit = new GradientLimit("test", 100, 10, 1000, 0.2, 1.5);
+
+		for (int i = 0; i < 200; i++)
+		{
+			limit.release(TimeUnit.MILLISECONDS.toNanos(10), limit.tryAcquire());
+		}
+
+		assertEquals(100, limit.getLimit());
+		assertEquals(0, limit.getInFlight());
+	}
+
+	@Test
+	public void rejectsOverTheLimit()
+	{
+		GradientLimit limit = new GradientLimit("test", 2, 1, 10, 0.2, 1.5);
+
+		assertEquals(0, limit.tryAcquire());
+		assertEquals(1, limit.tryAcquire());
+		assertEquals(-1, limit.tryAcquire());
+		assertEquals(1L, limit.getStats().get("rejected"));
+
+		limit.release();
+
+		assertEquals(1, limit.tryAcquire());
+	}
+
+	/**
+	 * Releases requests as though they were sent while the limit was fully used
+	 */
+	protected static void sample(GradientLimit limit, int samples, long rttMillis)
+	{
+		for (int i = 0; i < samples; i++)
+		{
+			limit.tryAcquire();
+			limit.release(TimeUnit.MILLISECONDS.toNanos(rttMillis), limit.getLimit() - 1);
+		}
+	}
+}
@@ -0,0 +1,92 @@
+/**
+ *
+ */
+package io.sinistral.proteus.server.streaming;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import io.sinistral.proteus.models.User;
+
+/**
+ * @author jbauer
+ */
+public class TestNdjsonIterator
+{
+	private static final int MAX_LINE_LENGTH = 1024 * 1024;
+
+	@Test
+	public void readsRecordsAcrossBufferBoundaries() throws Exception
+	{
+		String body = "{\"id\":1,\"type\":\"GUEST\"}\r\n\n  \n{\"id\":22,\"type\":\"ADMIN\"}\n{\"id\":333,\"type\":\"GUEST\"}";
+
+		List<Long> ids = new ArrayList<>();
+
+		try (NdjsonIterator<User> iterator = new NdjsonIterator<>(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), User.class, 4, MAX_LINE_LENGTH))
+		{
+			iterator.forEachRemaining(user -> ids.add(user.getId()));
+
+			assertFalse(iterator.hasNext());
+		}
+
+		assertEquals(3, ids.size());
+		assertEquals(333L, ids.get(2).longValue());
+	}
+
+	@Test
+	public void acceptsRecordAtMaxLineLength() throws Exception
+	{
+		String record = "{\"id\":1,\"type\":\"GUEST\"}";
+
+		try (NdjsonIterator<User> iterator = new NdjsonIterator<>(new ByteArrayInputStream((record + "\n" + record).getBytes(StandardCharsets.UTF_8)), User.class, 4, record.length()))
+		{
+			assertEquals(1L, iterator.next().getId().longValue());
+			assertEquals(1L, iterator.next().getId().longValue());
+			assertFalse(iterator.hasNext());
+		}
+	}
+
+	@Test(expected = RecordTooLargeException.class)
+	public void rejectsRecordLongerThanMaxLineLength() throws Exception
+	{
+		StringBuilder record = new StringBuilder("{\"id\":1,\"type\":\"GUEST\",\"padding\":\"");
+
+		for (int i = 0; i < 1024; i++)
+		{
+			record.append('x');
+		}
+
+		record.append("\"}");
+
+		try (NdjsonIterator<User> iterator = new NdjsonIterator<>(new ByteArrayInputStream(record.toString().getBytes(StandardCharsets.UTF_8)), User.class, 4, 64))
+		{
+			iterator.hasNext();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsInvalidRecord() throws Exception
+	{
+		try (NdjsonIterator<User> iterator = new NdjsonIterator<>(new ByteArrayInputStream("{\"id\":".getBytes(StandardCharsets.UTF_8)), User.class, 16, MAX_LINE_LENGTH))
+		{
+			iterator.next();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsNullRecord() throws Exception
+	{
+		try (NdjsonIterator<User> iterator = new NdjsonIterator<>(new ByteArrayInputStream("{\"id\":1,\"type\":\"GUEST\"}\nnull\n".getBytes(StandardCharsets.UTF_8)), User.class, 16, MAX_LINE_LENGTH))
+		{
+			iterator.next();
+			iterator.next();
+		}
+	}
+}